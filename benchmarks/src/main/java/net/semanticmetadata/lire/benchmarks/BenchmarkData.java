@@ -0,0 +1,123 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ * Updated: 18.10.26 16:35
+ */
+
+package net.semanticmetadata.lire.benchmarks;
+
+import net.semanticmetadata.lire.impl.GenericDocumentBuilder;
+import net.semanticmetadata.lire.utils.ImageUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Loads the images the benchmarks work on from the test data of the LIRE repository, so the benchmarks run
+ * offline and always on the same data. The directory is taken from the system property lire.testdata and
+ * defaults to ../testdata, i.e. the benchmarks are expected to run in the benchmarks directory.
+ */
+public class BenchmarkData {
+    public static final String TESTDATA_PROPERTY = "lire.testdata";
+
+    /**
+     * @return the ferrari image directory of the test data.
+     */
+    public static File getImageDirectory() {
+        File dir = new File(System.getProperty(TESTDATA_PROPERTY, "../testdata"), "ferrari");
+        if (!dir.isDirectory())
+            throw new IllegalStateException("Test data not found in " + dir.getAbsolutePath() + ", please set -D" + TESTDATA_PROPERTY + "=<path to testdata>");
+        return dir;
+    }
+
+    /**
+     * Reads the first images of the test data in alphabetical order and scales them like the document builders do.
+     *
+     * @param maxImages the maximum number of images to read.
+     * @return the images.
+     * @throws IOException in case an image cannot be read.
+     */
+    public static List<BufferedImage> loadImages(int maxImages) throws IOException {
+        List<File> files = new ArrayList<File>();
+        collectImages(getImageDirectory(), files);
+        Collections.sort(files);
+        List<BufferedImage> images = new ArrayList<BufferedImage>(Math.min(maxImages, files.size()));
+        for (File file : files) {
+            if (images.size() >= maxImages) break;
+            BufferedImage image = ImageIO.read(file);
+            if (image == null) continue;
+            if (Math.max(image.getWidth(), image.getHeight()) > GenericDocumentBuilder.MAX_IMAGE_DIMENSION)
+                image = ImageUtils.scaleImage(image, GenericDocumentBuilder.MAX_IMAGE_DIMENSION);
+            images.add(image);
+        }
+        if (images.isEmpty()) throw new IllegalStateException("No images found in " + getImageDirectory().getAbsolutePath());
+        return images;
+    }
+
+    private static void collectImages(File dir, List<File> files) {
+        File[] children = dir.listFiles();
+        if (children == null) return;
+        for (File child : children) {
+            if (child.isDirectory()) collectImages(child, files);
+            else if (child.getName().toLowerCase().endsWith(".jpg")) files.add(child);
+        }
+    }
+
+    /**
+     * Resolves the simple name of a global feature, e.g. CEDD or JointHistogram.
+     *
+     * @param name the simple class name.
+     * @return the feature class.
+     */
+    public static Class<?> featureClass(String name) {
+        String[] packages = new String[]{"net.semanticmetadata.lire.imageanalysis.", "net.semanticmetadata.lire.imageanalysis.joint."};
+        for (String p : packages) {
+            try {
+                return Class.forName(p + name);
+            } catch (ClassNotFoundException e) {
+                // try the next package ...
+            }
+        }
+        throw new IllegalArgumentException("Unknown feature " + name);
+    }
+}
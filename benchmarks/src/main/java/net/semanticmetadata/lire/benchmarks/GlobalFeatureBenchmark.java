@@ -0,0 +1,156 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ * Updated: 18.10.26 16:35
+ */
+
+package net.semanticmetadata.lire.benchmarks;
+
+import net.semanticmetadata.lire.imageanalysis.LireFeature;
+import net.semanticmetadata.lire.imageanalysis.distance.DistanceKernel;
+import net.semanticmetadata.lire.imageanalysis.distance.DistanceKernels;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Extraction, serialization and distance computation of the global features. Each invocation works on the next
+ * image or feature of a fixed set, so the numbers are an average over the test data.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class GlobalFeatureBenchmark {
+    @Param({"CEDD", "FCTH", "JCD", "AutoColorCorrelogram", "BinaryPatternsPyramid", "ColorLayout", "EdgeHistogram",
+            "Gabor", "JointHistogram", "LocalBinaryPatterns", "LuminanceLayout", "OpponentHistogram", "PHOG",
+            "RotationInvariantLocalBinaryPatterns", "ScalableColor", "SimpleColorHistogram", "Tamura"})
+    public String feature;
+
+    @Param({"16"})
+    public int numImages;
+
+    private List<BufferedImage> images;
+    private byte[][] serialized;
+    private LireFeature[] features;
+    private LireFeature instance;
+    private DistanceKernel kernel;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Class<?> featureClass = BenchmarkData.featureClass(feature);
+        images = BenchmarkData.loadImages(numImages);
+        features = new LireFeature[images.size()];
+        serialized = new byte[images.size()][];
+        for (int i = 0; i < features.length; i++) {
+            features[i] = (LireFeature) featureClass.newInstance();
+            features[i].extract(images.get(i));
+            serialized[i] = features[i].getByteArrayRepresentation();
+        }
+        instance = (LireFeature) featureClass.newInstance();
+        kernel = DistanceKernels.forFeature(featureClass);
+    }
+
+    private int next() {
+        next = (next + 1) % features.length;
+        return next;
+    }
+
+    @Benchmark
+    public LireFeature extract() {
+        instance.extract(images.get(next()));
+        return instance;
+    }
+
+    @Benchmark
+    public byte[] getByteArrayRepresentation() {
+        return features[next()].getByteArrayRepresentation();
+    }
+
+    @Benchmark
+    public LireFeature setByteArrayRepresentation() {
+        byte[] bytes = serialized[next()];
+        instance.setByteArrayRepresentation(bytes, 0, bytes.length);
+        return instance;
+    }
+
+    /**
+     * Serialization round trip as done when indexing and reading back a feature.
+     */
+    @Benchmark
+    public LireFeature roundTrip() {
+        byte[] bytes = features[next()].getByteArrayRepresentation();
+        instance.setByteArrayRepresentation(bytes, 0, bytes.length);
+        return instance;
+    }
+
+    @Benchmark
+    public void getDistance(Blackhole blackhole) {
+        LireFeature query = features[next()];
+        for (LireFeature candidate : features) {
+            blackhole.consume(query.getDistance(candidate));
+        }
+    }
+
+    /**
+     * Distance as computed in linear search: the candidate is read from its byte[] representation first, with a
+     * {@link DistanceKernel} if there is one for the feature.
+     */
+    @Benchmark
+    public void getDistanceFromBytes(Blackhole blackhole) {
+        int q = next();
+        if (kernel != null) {
+            kernel.setQuery(serialized[q], 0, serialized[q].length);
+            for (byte[] candidate : serialized) {
+                blackhole.consume(kernel.getDistance(candidate, 0, candidate.length));
+            }
+        } else {
+            LireFeature query = features[q];
+            for (byte[] candidate : serialized) {
+                instance.setByteArrayRepresentation(candidate, 0, candidate.length);
+                blackhole.consume(query.getDistance(instance));
+            }
+        }
+    }
+}
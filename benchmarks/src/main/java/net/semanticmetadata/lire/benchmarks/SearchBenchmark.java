@@ -0,0 +1,240 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ * Updated: 18.10.26 16:35
+ */
+
+package net.semanticmetadata.lire.benchmarks;
+
+import net.semanticmetadata.lire.DocumentBuilder;
+import net.semanticmetadata.lire.ImageSearchHits;
+import net.semanticmetadata.lire.ImageSearcher;
+import net.semanticmetadata.lire.imageanalysis.CEDD;
+import net.semanticmetadata.lire.impl.BitSamplingImageSearcher;
+import net.semanticmetadata.lire.impl.GenericDocumentBuilder;
+import net.semanticmetadata.lire.impl.GenericFastImageSearcher;
+import net.semanticmetadata.lire.indexing.hashing.BitSampling;
+import net.semanticmetadata.lire.utils.LuceneUtils;
+import net.semanticmetadata.lire.utils.SerializationUtils;
+import org.apache.lucene.document.*;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end CEDD queries over a synthetic in-memory index. The index is made of the features of the test data
+ * and random variations of them, created with a fixed seed, so every run searches the same index. The linear
+ * searches are run on an index with the features in stored fields ({@link StoredIndex}) and on one with the
+ * features in binary doc values ({@link DocValuesIndex}).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class SearchBenchmark {
+    private static final String HASH_FIELD = DocumentBuilder.FIELD_NAME_CEDD + GenericDocumentBuilder.HASH_FIELD_SUFFIX;
+
+    /**
+     * The index and the searchers, the subclasses decide how the features are indexed.
+     */
+    public abstract static class Index {
+        @Param({"10000", "100000"})
+        public int numDocs;
+
+        @Param({"16"})
+        public int numQueries;
+
+        RAMDirectory directory;
+        IndexReader reader;
+        CEDD[] queries;
+        Document[] queryDocuments;
+        GenericFastImageSearcher linearSearcher, cachedSearcher, columnSearcher;
+        private int next = 0;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            BitSampling.readHashFunctions();
+            List<BufferedImage> images = BenchmarkData.loadImages(numQueries);
+            byte[][] base = new byte[images.size()][];
+            queries = new CEDD[images.size()];
+            queryDocuments = new Document[images.size()];
+            for (int i = 0; i < base.length; i++) {
+                queries[i] = new CEDD();
+                queries[i].extract(images.get(i));
+                base[i] = queries[i].getByteArrayRepresentation();
+                queryDocuments[i] = createDocument("query-" + i, base[i], queries[i]);
+            }
+
+            directory = new RAMDirectory();
+            IndexWriter iw = LuceneUtils.createIndexWriter(directory, true, LuceneUtils.AnalyzerType.WhitespaceAnalyzer);
+            Random random = new Random(42);
+            CEDD cedd = new CEDD();
+            for (int i = 0; i < numDocs; i++) {
+                byte[] feature = base[i % base.length].clone();
+                if (i >= base.length) {
+                    // change a few bins, CEDD bins take values from 0 to 7, two of them per byte.
+                    for (int j = 0; j < 8; j++) {
+                        feature[random.nextInt(feature.length)] = (byte) (((random.nextInt(8) << 4) | random.nextInt(8)) - 128);
+                    }
+                }
+                cedd.setByteArrayRepresentation(feature);
+                iw.addDocument(createDocument(Integer.toString(i), feature, cedd));
+            }
+            iw.close();
+            reader = DirectoryReader.open(directory);
+
+            linearSearcher = new GenericFastImageSearcher(50, CEDD.class, DocumentBuilder.FIELD_NAME_CEDD);
+            cachedSearcher = new GenericFastImageSearcher(50, CEDD.class, DocumentBuilder.FIELD_NAME_CEDD, true, reader);
+            columnSearcher = new GenericFastImageSearcher(50, CEDD.class, DocumentBuilder.FIELD_NAME_CEDD, true, reader, true);
+        }
+
+        private Document createDocument(String id, byte[] feature, CEDD cedd) {
+            Document d = new Document();
+            d.add(new StringField(DocumentBuilder.FIELD_NAME_IDENTIFIER, id, Field.Store.YES));
+            addFeature(d, new BytesRef(feature));
+            d.add(new TextField(HASH_FIELD, SerializationUtils.arrayToString(BitSampling.generateHashes(cedd.getDoubleHistogram())), Field.Store.YES));
+            return d;
+        }
+
+        /**
+         * Adds the feature to the document, the query documents are created the same way.
+         */
+        protected abstract void addFeature(Document d, BytesRef feature);
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            reader.close();
+            directory.close();
+        }
+
+        Document nextQuery() {
+            next = (next + 1) % queryDocuments.length;
+            return queryDocuments[next];
+        }
+    }
+
+    /**
+     * Features in stored fields, i.e. GenericDocumentBuilder.Mode.Fast.
+     */
+    @State(Scope.Benchmark)
+    public static class StoredIndex extends Index {
+        final ImageSearcher bitSamplingSearcher = new BitSamplingImageSearcher(50, DocumentBuilder.FIELD_NAME_CEDD, HASH_FIELD, new CEDD(), 1000);
+
+        @Override
+        protected void addFeature(Document d, BytesRef feature) {
+            d.add(new StoredField(DocumentBuilder.FIELD_NAME_CEDD, feature));
+        }
+    }
+
+    /**
+     * Features in binary doc values with a stored copy for the query documents, i.e.
+     * GenericDocumentBuilder.Mode.DocValues.
+     */
+    @State(Scope.Benchmark)
+    public static class DocValuesIndex extends Index {
+        @Override
+        protected void addFeature(Document d, BytesRef feature) {
+            d.add(new BinaryDocValuesField(DocumentBuilder.FIELD_NAME_CEDD, feature));
+            d.add(new StoredField(DocumentBuilder.FIELD_NAME_CEDD, feature));
+        }
+    }
+
+    /**
+     * Reads all features from the index for each query.
+     */
+    @Benchmark
+    public ImageSearchHits linearStored(StoredIndex index) throws IOException {
+        return index.linearSearcher.search(index.nextQuery(), index.reader);
+    }
+
+    @Benchmark
+    public ImageSearchHits linearDocValues(DocValuesIndex index) throws IOException {
+        return index.linearSearcher.search(index.nextQuery(), index.reader);
+    }
+
+    @Benchmark
+    public ImageSearchHits cachedStored(StoredIndex index) throws IOException {
+        return index.cachedSearcher.search(index.nextQuery(), index.reader);
+    }
+
+    @Benchmark
+    public ImageSearchHits cachedDocValues(DocValuesIndex index) throws IOException {
+        return index.cachedSearcher.search(index.nextQuery(), index.reader);
+    }
+
+    @Benchmark
+    public ImageSearchHits columnStored(StoredIndex index) throws IOException {
+        return index.columnSearcher.search(index.nextQuery(), index.reader);
+    }
+
+    @Benchmark
+    public ImageSearchHits columnDocValues(DocValuesIndex index) throws IOException {
+        return index.columnSearcher.search(index.nextQuery(), index.reader);
+    }
+
+    /**
+     * All queries in a single pass over the feature column.
+     */
+    @Benchmark
+    public ImageSearchHits[] columnBatchStored(StoredIndex index) throws IOException {
+        return index.columnSearcher.search(index.queries, index.reader);
+    }
+
+    @Benchmark
+    public ImageSearchHits[] columnBatchDocValues(DocValuesIndex index) throws IOException {
+        return index.columnSearcher.search(index.queries, index.reader);
+    }
+
+    /**
+     * Hash based candidate retrieval with re-ranking, re-ranking reads the stored features.
+     */
+    @Benchmark
+    public ImageSearchHits bitSampling(StoredIndex index) throws IOException {
+        return index.bitSamplingSearcher.search(index.nextQuery(), index.reader);
+    }
+}
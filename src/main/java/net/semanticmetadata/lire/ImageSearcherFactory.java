@@ -45,6 +45,8 @@ import net.semanticmetadata.lire.imageanalysis.*;
 import net.semanticmetadata.lire.imageanalysis.joint.JointHistogram;
 import net.semanticmetadata.lire.impl.BitSamplingImageSearcher;
 import net.semanticmetadata.lire.impl.GenericFastImageSearcher;
+import net.semanticmetadata.lire.impl.HnswImageSearcher;
+import net.semanticmetadata.lire.indexing.hnsw.HnswIndex;
 
 /**
  * <h2>Searching in an Index</h2>
@@ -305,6 +307,20 @@ public class ImageSearcherFactory {
         return new GenericFastImageSearcher(maximumHits, PHOG.class, DocumentBuilder.FIELD_NAME_PHOG);
     }
 
+    /**
+     * Creates a new ImageSearcher searching the proximity graph of a feature, see {@link HnswIndex}. The graph has to
+     * be created from the index searched, e.g. with {@link HnswIndex#create(org.apache.lucene.index.IndexReader, String, LireFeature, int, int)}.
+     *
+     * @param maximumHits how many hits the searcher shall return.
+     * @param feature     an instance of the feature the graph has been created for.
+     * @param index       the graph.
+     * @return a new searcher instance
+     * @see HnswImageSearcher
+     */
+    public static ImageSearcher createHnswImageSearcher(int maximumHits, LireFeature feature, HnswIndex index) {
+        return new HnswImageSearcher(maximumHits, feature, index);
+    }
+
     /**
      * Checks if the weight is in [0,1]
      *
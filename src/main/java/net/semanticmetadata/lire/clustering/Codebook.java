@@ -0,0 +1,287 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ * Updated: 18.10.26 16:51
+ */
+
+package net.semanticmetadata.lire.clustering;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A codebook (visual vocabulary) stored in a compact binary file, which is memory mapped when opened, so loading
+ * it does not need any parsing. The file format, all numbers little endian:
+ * <pre>
+ * offset  type     content
+ *  0      byte[4]  magic "LCBK"
+ *  4      int32    format version, currently 1
+ *  8      int32    number of clusters
+ * 12      int32    number of dimensions
+ * 16      int64    CRC32 of the data
+ * 24      int32    header length, the offset of the data
+ * 28      int32    reserved, 0
+ * 32      float32  cluster means, row major, cluster by cluster
+ * </pre>
+ * Files written with {@link Cluster#writeClusters(Cluster[], String)} can still be opened, they are read into
+ * memory then. Use {@link CodebookRegistry} to share one codebook between builders and searchers.
+ */
+public class Codebook {
+    public static final int VERSION = 1;
+    private static final byte[] MAGIC = {'L', 'C', 'B', 'K'};
+    private static final int HEADER_LENGTH = 32;
+
+    private final int size, dimensions;
+    private final long checksum;
+    private final FloatBuffer data;
+    private final Map<Quantizer.Type, Quantizer> quantizers = new EnumMap<Quantizer.Type, Quantizer>(Quantizer.Type.class);
+
+    private Codebook(int size, int dimensions, long checksum, FloatBuffer data) {
+        this.size = size;
+        this.dimensions = dimensions;
+        this.checksum = checksum;
+        this.data = data;
+    }
+
+    /**
+     * Creates a codebook in memory from the given cluster means, which are stored as floats.
+     *
+     * @param clusters the clusters, all of the same dimension.
+     * @return the new codebook.
+     */
+    public static Codebook fromClusters(Cluster[] clusters) {
+        ByteBuffer buffer = toBuffer(clusters);
+        return new Codebook(clusters.length, clusters[0].getMean().length, checksum(buffer), buffer.asFloatBuffer());
+    }
+
+    /**
+     * Writes the clusters to a binary codebook file.
+     *
+     * @param clusters the clusters, all of the same dimension.
+     * @param file     the file to write to, it is overwritten if it exists.
+     * @throws IOException in case the file cannot be written.
+     */
+    public static void write(Cluster[] clusters, String file) throws IOException {
+        ByteBuffer buffer = toBuffer(clusters);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(MAGIC).putInt(VERSION).putInt(clusters.length).putInt(clusters[0].getMean().length);
+        header.putLong(checksum(buffer)).putInt(HEADER_LENGTH).putInt(0);
+        header.flip();
+        // write to a temporary file first, so codebooks mapped from the old file are not changed.
+        File tmp = new File(file + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            FileChannel channel = out.getChannel();
+            while (header.hasRemaining()) channel.write(header);
+            while (buffer.hasRemaining()) channel.write(buffer);
+        } finally {
+            out.close();
+        }
+        Files.move(tmp.toPath(), new File(file).toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Opens a codebook file. Binary codebook files are memory mapped, files in the old format of
+     * {@link Cluster#writeClusters(Cluster[], String)} are read and converted.
+     *
+     * @param file the file to open.
+     * @return the codebook.
+     * @throws IOException in case the file cannot be read or is corrupt.
+     */
+    public static Codebook open(String file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            if (!isBinary(raf)) return fromClusters(Cluster.readClusters(file));
+            MappedByteBuffer mapped = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            mapped.position(MAGIC.length);
+            int version = mapped.getInt();
+            if (version > VERSION)
+                throw new IOException("Unsupported codebook version " + version + " in " + file);
+            int size = mapped.getInt();
+            int dimensions = mapped.getInt();
+            long checksum = mapped.getLong();
+            int headerLength = mapped.getInt();
+            if (size < 1 || dimensions < 1 || headerLength < HEADER_LENGTH
+                    || raf.length() != headerLength + 4L * size * dimensions)
+                throw new IOException("Corrupt codebook file " + file);
+            mapped.position(headerLength);
+            ByteBuffer content = mapped.slice().order(ByteOrder.LITTLE_ENDIAN);
+            if (checksum(content) != checksum)
+                throw new IOException("Checksum mismatch in codebook file " + file);
+            return new Codebook(size, dimensions, checksum, content.asFloatBuffer());
+        } finally {
+            raf.close(); // the mapping stays valid.
+        }
+    }
+
+    /**
+     * Gets the checksum of a codebook file without opening it. For binary files it is read from the header, for
+     * files in the old format it is computed from the whole file.
+     *
+     * @param file the file.
+     * @return the checksum, which is the same as {@link #getChecksum()} for binary files.
+     * @throws IOException in case the file cannot be read.
+     */
+    public static long readChecksum(String file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            if (isBinary(raf)) {
+                byte[] tmp = new byte[8];
+                raf.seek(16);
+                raf.readFully(tmp);
+                return ByteBuffer.wrap(tmp).order(ByteOrder.LITTLE_ENDIAN).getLong();
+            }
+            CRC32 crc = new CRC32();
+            byte[] tmp = new byte[8192];
+            raf.seek(0);
+            int read;
+            while ((read = raf.read(tmp)) > 0) crc.update(tmp, 0, read);
+            return crc.getValue();
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static boolean isBinary(RandomAccessFile raf) throws IOException {
+        if (raf.length() < HEADER_LENGTH) return false;
+        byte[] magic = new byte[MAGIC.length];
+        raf.seek(0);
+        raf.readFully(magic);
+        for (int i = 0; i < magic.length; i++) {
+            if (magic[i] != MAGIC[i]) return false;
+        }
+        return true;
+    }
+
+    private static ByteBuffer toBuffer(Cluster[] clusters) {
+        int dimensions = clusters[0].getMean().length;
+        ByteBuffer buffer = ByteBuffer.allocate(4 * clusters.length * dimensions).order(ByteOrder.LITTLE_ENDIAN);
+        for (Cluster cluster : clusters) {
+            double[] mean = cluster.getMean();
+            if (mean.length != dimensions)
+                throw new IllegalArgumentException("All clusters need the same number of dimensions.");
+            for (double value : mean) buffer.putFloat((float) value);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static long checksum(ByteBuffer buffer) {
+        CRC32 crc = new CRC32();
+        byte[] tmp = new byte[8192];
+        ByteBuffer b = buffer.duplicate();
+        while (b.hasRemaining()) {
+            int length = Math.min(tmp.length, b.remaining());
+            b.get(tmp, 0, length);
+            crc.update(tmp, 0, length);
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * @return the number of clusters.
+     */
+    public int size() {
+        return size;
+    }
+
+    public int getDimensions() {
+        return dimensions;
+    }
+
+    /**
+     * @return the CRC32 of the cluster means.
+     */
+    public long getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * Copies the mean of one cluster to the given array.
+     *
+     * @param cluster the index of the cluster.
+     * @param mean    the array to copy to, at least of length {@link #getDimensions()}.
+     */
+    public void getMean(int cluster, double[] mean) {
+        int offset = cluster * dimensions;
+        for (int i = 0; i < dimensions; i++) {
+            mean[i] = data.get(offset + i);
+        }
+    }
+
+    /**
+     * @return a copy of the codebook as clusters, one per visual word.
+     */
+    public Cluster[] toClusters() {
+        Cluster[] result = new Cluster[size];
+        for (int i = 0; i < size; i++) {
+            double[] mean = new double[dimensions];
+            getMean(i, mean);
+            result[i] = new Cluster(mean);
+        }
+        return result;
+    }
+
+    /**
+     * Gets a quantizer for this codebook, which is built on first use and then shared.
+     *
+     * @param type the type of quantizer.
+     * @return the quantizer.
+     */
+    public synchronized Quantizer getQuantizer(Quantizer.Type type) {
+        Quantizer quantizer = quantizers.get(type);
+        if (quantizer == null) {
+            quantizer = Quantizer.create(type, this);
+            quantizers.put(type, quantizer);
+        }
+        return quantizer;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ */
+
+package net.semanticmetadata.lire.clustering;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Holds the codebook of a cluster file and its quantizer for a builder, which checks before each image whether the
+ * file has changed. The codebook is taken from the {@link CodebookRegistry}, a new one is only acquired if the
+ * checksum of the file is different. As reading the checksum is expensive for large files, it is only read again
+ * if the modification time, the length or the file key (the inode on most systems) have changed. The file key
+ * changes on every {@link Codebook#write(Cluster[], String)}, as the file is replaced, so a rewrite of the same
+ * size within the resolution of the modification time is still noticed.
+ */
+public class CodebookLoader {
+    private Quantizer.Type quantizerType = Quantizer.Type.Linear;
+    private Codebook codebook = null;
+    private Quantizer quantizer = null;
+    // the file the codebook has been loaded from, its checksum and the attributes it had then.
+    private String file = null;
+    private long checksum = 0, modified = 0, length = 0;
+    private Object fileKey = null;
+
+    /**
+     * Sets the type of the quantizer returned by {@link #getQuantizer()}.
+     *
+     * @param quantizerType the type of quantizer, the default is {@link Quantizer.Type#Linear}.
+     */
+    public synchronized void setQuantizerType(Quantizer.Type quantizerType) {
+        this.quantizerType = quantizerType;
+        if (codebook != null) quantizer = codebook.getQuantizer(quantizerType);
+    }
+
+    /**
+     * Makes sure the codebook of the given file is loaded, which is only done if it has not been loaded before or
+     * the file has changed.
+     *
+     * @param file the cluster file.
+     * @return true if a different codebook than before is used now.
+     * @throws IOException in case the file cannot be read.
+     */
+    public synchronized boolean load(String file) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(Paths.get(file), BasicFileAttributes.class);
+        boolean sameFile = codebook != null && file.equals(this.file);
+        if (sameFile && isUnchanged(attributes)) return false;
+        long checksum = Codebook.readChecksum(file);
+        if (sameFile && checksum == this.checksum) {
+            setAttributes(attributes);
+            return false;
+        }
+        use(file, CodebookRegistry.acquire(file), checksum, attributes);
+        return true;
+    }
+
+    /**
+     * Writes the clusters to the file and uses them as codebook right away, without reading the file again.
+     *
+     * @param clusters the clusters, all of the same dimension.
+     * @param file     the file to write to, it is overwritten if it exists.
+     * @throws IOException in case the file cannot be written.
+     * @see Codebook#write(Cluster[], String)
+     */
+    public synchronized void write(Cluster[] clusters, String file) throws IOException {
+        Codebook.write(clusters, file);
+        Codebook written = CodebookRegistry.register(file, Codebook.fromClusters(clusters));
+        use(file, written, written.getChecksum(), Files.readAttributes(Paths.get(file), BasicFileAttributes.class));
+    }
+
+    /**
+     * @return the current codebook, null if none has been loaded.
+     */
+    public synchronized Codebook getCodebook() {
+        return codebook;
+    }
+
+    /**
+     * @return the quantizer of the current codebook, null if none has been loaded.
+     */
+    public synchronized Quantizer getQuantizer() {
+        return quantizer;
+    }
+
+    /**
+     * Releases the codebook obtained from the {@link CodebookRegistry}, so it can be removed from the cache once no
+     * one else uses it. It is loaded again on the next call of {@link #load(String)}.
+     */
+    public synchronized void release() {
+        CodebookRegistry.release(codebook);
+        codebook = null;
+        quantizer = null;
+        file = null;
+    }
+
+    private void use(String file, Codebook loaded, long checksum, BasicFileAttributes attributes) {
+        CodebookRegistry.release(codebook);
+        codebook = loaded;
+        quantizer = codebook.getQuantizer(quantizerType);
+        this.file = file;
+        this.checksum = checksum;
+        setAttributes(attributes);
+    }
+
+    private boolean isUnchanged(BasicFileAttributes attributes) {
+        Object key = attributes.fileKey();
+        return attributes.lastModifiedTime().toMillis() == modified && attributes.size() == length
+                && (key == null ? fileKey == null : key.equals(fileKey));
+    }
+
+    private void setAttributes(BasicFileAttributes attributes) {
+        modified = attributes.lastModifiedTime().toMillis();
+        length = attributes.size();
+        fileKey = attributes.fileKey();
+    }
+}
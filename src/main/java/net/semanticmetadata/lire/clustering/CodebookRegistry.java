@@ -0,0 +1,148 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ * Updated: 18.10.26 16:51
+ */
+
+package net.semanticmetadata.lire.clustering;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Process wide cache of opened codebooks, so builders and searchers using the same codebook file share one copy,
+ * including its quantizers. Entries are keyed by the canonical path and the checksum of the file, so a file that
+ * has been re-written with a new vocabulary is opened again. Each {@link #acquire(String)} has to be matched by a
+ * {@link #release(Codebook)}, the codebook is dropped from the cache when it is not referenced anymore.
+ */
+public class CodebookRegistry {
+    private static final Map<String, Entry> entries = new HashMap<String, Entry>();
+    private static final Map<Codebook, Entry> byCodebook = new IdentityHashMap<Codebook, Entry>();
+
+    private static class Entry {
+        final String key;
+        final Codebook codebook;
+        int references = 0;
+
+        Entry(String key, Codebook codebook) {
+            this.key = key;
+            this.codebook = codebook;
+        }
+    }
+
+    private CodebookRegistry() {
+    }
+
+    /**
+     * Gets the codebook stored in the given file, opens it if it is not in the cache yet.
+     *
+     * @param file the codebook file, either in the binary format of {@link Codebook} or written by
+     *             {@link Cluster#writeClusters(Cluster[], String)}
+     * @return the shared codebook.
+     * @throws IOException in case the file cannot be read.
+     */
+    public static synchronized Codebook acquire(String file) throws IOException {
+        String key = key(file, Codebook.readChecksum(file));
+        Entry entry = entries.get(key);
+        if (entry == null) entry = add(key, Codebook.open(file));
+        entry.references++;
+        return entry.codebook;
+    }
+
+    /**
+     * Puts a codebook which has just been written to the given file into the cache, so it does not need to be
+     * opened again. If the cache already has a codebook with the same checksum for the file, that one is used.
+     * Has to be matched by a {@link #release(Codebook)} like {@link #acquire(String)}.
+     *
+     * @param file     the file the codebook has been written to.
+     * @param codebook the codebook, see {@link Codebook#fromClusters(Cluster[])}.
+     * @return the shared codebook.
+     * @throws IOException in case the path of the file cannot be resolved.
+     */
+    static synchronized Codebook register(String file, Codebook codebook) throws IOException {
+        String key = key(file, codebook.getChecksum());
+        Entry entry = entries.get(key);
+        if (entry == null) entry = add(key, codebook);
+        entry.references++;
+        return entry.codebook;
+    }
+
+    private static String key(String file, long checksum) throws IOException {
+        return new File(file).getCanonicalPath() + '#' + Long.toHexString(checksum);
+    }
+
+    private static Entry add(String key, Codebook codebook) {
+        Entry entry = new Entry(key, codebook);
+        entries.put(key, entry);
+        byCodebook.put(codebook, entry);
+        return entry;
+    }
+
+    /**
+     * Releases a codebook obtained from {@link #acquire(String)}.
+     *
+     * @param codebook the codebook, null is ignored.
+     */
+    public static synchronized void release(Codebook codebook) {
+        Entry entry = byCodebook.get(codebook);
+        if (entry == null) return;
+        if (--entry.references <= 0) {
+            entries.remove(entry.key);
+            byCodebook.remove(codebook);
+        }
+    }
+
+    /**
+     * @param codebook the codebook.
+     * @return the number of references to the codebook, 0 if it is not in the cache.
+     */
+    public static synchronized int getReferences(Codebook codebook) {
+        Entry entry = byCodebook.get(codebook);
+        return entry == null ? 0 : entry.references;
+    }
+
+    /**
+     * @return the number of codebooks in the cache.
+     */
+    public static synchronized int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,618 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ * Updated: 18.10.26 16:45
+ */
+
+package net.semanticmetadata.lire.clustering;
+
+import net.semanticmetadata.lire.imageanalysis.Histogram;
+import net.semanticmetadata.lire.imageanalysis.distance.DistanceKernels;
+import net.semanticmetadata.lire.utils.StatsUtils;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A k-means implementation for large numbers of features, e.g. millions of SIFT or SURF descriptors for a
+ * vocabulary of thousands of visual words. It is a drop-in replacement for {@link KMeans} and
+ * {@link ParallelKMeans}, but
+ * <ul>
+ * <li>keeps all features in a single float[] and the assignments in an int[] instead of objects per feature,</li>
+ * <li>skips most of the distance computations with the triangle inequality: for each feature an upper bound of the
+ * distance to its cluster and a lower bound of the distance to any other cluster are maintained (Hamerly's
+ * algorithm). The result is the same as with plain k-means,</li>
+ * <li>optionally uses mini-batches (Sculley's web-scale k-means), where each step only looks at random samples of
+ * the features,</li>
+ * <li>runs on a configurable thread pool.</li>
+ * </ul>
+ * Note that {@link Cluster#getMembers()} is not filled for the clusters returned, use {@link #getAssignments()}
+ * instead.
+ */
+public class FastKMeans extends KMeans {
+    private static final int CHUNK_SIZE = 1 << 20;
+
+    private ExecutorService pool;
+    private int numThreads;
+
+    // features are collected in chunks and copied into a single array on init().
+    private LinkedList<float[]> chunks = new LinkedList<float[]>();
+    private int chunkFill = CHUNK_SIZE;
+
+    protected int dimensions = -1;
+    protected int numFeatures = 0;
+    protected float[] data;
+    protected float[] centers;
+    protected int[] assignments;
+
+    // bounds of Hamerly's algorithm: distance to the assigned center and to the second closest one.
+    private float[] upper, lower;
+    private float[] halfMinDistance;
+    private boolean firstStep = true;
+    private boolean assignmentsValid = false;
+    private int reassigned = 0;
+
+    // mini-batch mode
+    private int miniBatchSize = 0;
+    private int batchesPerStep = 10;
+    private int[] centerCounts;
+
+    private boolean kMeansPlusPlus = false;
+    private Random random = new Random();
+
+    /**
+     * Creates a new instance using as many threads as there are processors. The threads of the pool are daemon
+     * threads and are never shut down, use {@link #FastKMeans(int, java.util.concurrent.ExecutorService, int)} to
+     * control the lifecycle of the pool.
+     *
+     * @param numClusters the number of clusters to find.
+     */
+    public FastKMeans(int numClusters) {
+        this(numClusters, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a new instance with its own pool of daemon threads, which is never shut down.
+     *
+     * @param numClusters the number of clusters to find.
+     * @param numThreads  the number of threads to use.
+     */
+    public FastKMeans(int numClusters, int numThreads) {
+        super(numClusters);
+        this.numThreads = Math.max(1, numThreads);
+        this.pool = Executors.newFixedThreadPool(this.numThreads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "FastKMeans");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * @param numClusters the number of clusters to find.
+     * @param pool        the pool to run the computations in.
+     * @param numThreads  the number of tasks the work is split into, typically the number of threads of the pool.
+     */
+    public FastKMeans(int numClusters, ExecutorService pool, int numThreads) {
+        super(numClusters);
+        this.pool = pool;
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    /**
+     * Switches to mini-batch k-means. Each {@link #clusteringStep()} then draws batchesPerStep random batches of
+     * features and moves the nearest centers towards them. Call before {@link #init()}.
+     *
+     * @param miniBatchSize  the number of features per batch, 0 to use all features in each step (the default).
+     * @param batchesPerStep the number of batches per step.
+     */
+    public void setMiniBatch(int miniBatchSize, int batchesPerStep) {
+        this.miniBatchSize = miniBatchSize;
+        this.batchesPerStep = Math.max(1, batchesPerStep);
+    }
+
+    /**
+     * @param kMeansPlusPlus true to select the initial centers with k-means++ instead of randomly. Call before
+     *                       {@link #init()}.
+     */
+    public void setKMeansPlusPlus(boolean kMeansPlusPlus) {
+        this.kMeansPlusPlus = kMeansPlusPlus;
+    }
+
+    /**
+     * @param seed seed of the random numbers for k-means++ and mini-batches.
+     */
+    public void setSeed(long seed) {
+        random = new Random(seed);
+    }
+
+    @Override
+    public void addImage(String identifier, List<double[]> features) {
+        images.add(new Image(identifier, Collections.<double[]>emptyList()));
+        countAllFeatures += features.size();
+        for (double[] feature : features) {
+            if (dimensions < 0) dimensions = feature.length;
+            if (feature.length != dimensions) {
+                System.err.println("Skipping feature of " + identifier + " with " + feature.length + " instead of " + dimensions + " dimensions.");
+                continue;
+            }
+            if (hasNaNs(feature)) continue;
+            if (chunkFill + dimensions > CHUNK_SIZE) {
+                chunks.add(new float[Math.max(CHUNK_SIZE, dimensions)]);
+                chunkFill = 0;
+            }
+            float[] chunk = chunks.getLast();
+            for (int i = 0; i < dimensions; i++) {
+                chunk[chunkFill++] = (float) feature[i];
+            }
+            numFeatures++;
+        }
+    }
+
+    /**
+     * Returns the length of a float array holding count vectors, which has to fit into one Java array.
+     */
+    private static int arraySize(int count, int dimensions, String what) {
+        long size = (long) count * dimensions;
+        // some VMs cannot allocate arrays of exactly Integer.MAX_VALUE elements.
+        if (size > Integer.MAX_VALUE - 8)
+            throw new IllegalArgumentException(count + " " + what + " with " + dimensions + " dimensions need " + size
+                    + " floats, more than fit into one array. Use a smaller sample.");
+        return (int) size;
+    }
+
+    @Override
+    public void init() {
+        // copy the features into one array:
+        data = new float[arraySize(numFeatures, Math.max(dimensions, 0), "features")];
+        int offset = 0;
+        while (!chunks.isEmpty()) {
+            float[] chunk = chunks.removeFirst();
+            int length = Math.min(chunk.length - chunk.length % dimensions, data.length - offset);
+            System.arraycopy(chunk, 0, data, offset, length);
+            offset += length;
+        }
+        chunkFill = CHUNK_SIZE;
+        if (images.size() < 500) {
+            System.err.println("WARNING: Please note that this approach has been implemented for big data and *a lot of images*. " +
+                    "You might not get appropriate results with a small number of images employed for constructing the visual vocabulary.");
+        }
+        if (numFeatures < numClusters + 1) {
+            throw new UnsupportedOperationException("Only " + numFeatures + " features found to cluster in " + numClusters + ". Try to use less clusters or more images.");
+        }
+        // find first clusters:
+        centers = new float[arraySize(numClusters, dimensions, "clusters")];
+        if (kMeansPlusPlus) {
+            selectInitialCentersPlusPlus();
+        } else {
+            Set<Integer> medians = StatsUtils.drawSample(numClusters, numFeatures);
+            int j = 0;
+            for (Integer median : medians) {
+                System.arraycopy(data, median * dimensions, centers, j++ * dimensions, dimensions);
+            }
+        }
+        assignments = new int[numFeatures];
+        if (miniBatchSize > 0) {
+            centerCounts = new int[numClusters];
+        } else {
+            upper = new float[numFeatures];
+            lower = new float[numFeatures];
+            halfMinDistance = new float[numClusters];
+        }
+        clusters = new Cluster[numClusters];
+        for (int i = 0; i < clusters.length; i++) {
+            clusters[i] = new Cluster(new double[dimensions]);
+        }
+        firstStep = true;
+    }
+
+    /**
+     * k-means++: each center is drawn with a probability proportional to the squared distance to the closest
+     * center selected before.
+     */
+    private void selectInitialCentersPlusPlus() {
+        final float[] minDistance = new float[numFeatures];
+        Arrays.fill(minDistance, Float.MAX_VALUE);
+        final double[] partialSums = new double[numThreads];
+        int next = random.nextInt(numFeatures);
+        for (int c = 0; c < numClusters; c++) {
+            final int center = c;
+            System.arraycopy(data, next * dimensions, centers, c * dimensions, dimensions);
+            parallel(numFeatures, numThreads, new Range() {
+                void run(int from, int to, int part) {
+                    double sum = 0;
+                    for (int i = from; i < to; i++) {
+                        float d = DistanceKernels.squaredL2(data, i * dimensions, centers, center * dimensions, dimensions);
+                        if (d < minDistance[i]) minDistance[i] = d;
+                        sum += minDistance[i];
+                    }
+                    partialSums[part] = sum;
+                }
+            });
+            double sum = 0;
+            for (int p = 0; p < numThreads; p++) sum += partialSums[p];
+            // draw the next center:
+            double r = random.nextDouble() * sum;
+            next = numFeatures - 1;
+            for (int i = 0; i < numFeatures; i++) {
+                r -= minDistance[i];
+                if (r <= 0) {
+                    next = i;
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Does one step and returns the overall stress (sum of the L1 distances of the features to their cluster
+     * means), just like {@link KMeans#clusteringStep()}. In mini-batch mode the stress is estimated from the
+     * batches.
+     *
+     * @return the overall stress.
+     */
+    @Override
+    public double clusteringStep() {
+        if (miniBatchSize > 0) return miniBatchStep();
+        if (firstStep) {
+            assignAll();
+            firstStep = false;
+        } else {
+            assignWithBounds();
+        }
+        assignmentsValid = true;
+        float[] drift = recomputeCenters();
+        updateBounds(drift);
+        return stress();
+    }
+
+    /**
+     * Assigns all features to the closest center and initializes the bounds.
+     */
+    private void assignAll() {
+        parallel(numFeatures, numThreads * 4, new Range() {
+            void run(int from, int to, int part) {
+                for (int i = from; i < to; i++) {
+                    assignExhaustive(i);
+                }
+            }
+        });
+        reassigned = numFeatures;
+    }
+
+    private boolean assignExhaustive(int i) {
+        int offset = i * dimensions;
+        float best = Float.MAX_VALUE, second = Float.MAX_VALUE;
+        int bestCenter = 0;
+        for (int j = 0; j < numClusters; j++) {
+            float d = DistanceKernels.squaredL2(data, offset, centers, j * dimensions, dimensions);
+            if (d < best) {
+                second = best;
+                best = d;
+                bestCenter = j;
+            } else if (d < second) {
+                second = d;
+            }
+        }
+        boolean changed = assignments[i] != bestCenter;
+        assignments[i] = bestCenter;
+        upper[i] = (float) Math.sqrt(best);
+        lower[i] = (float) Math.sqrt(second);
+        return changed;
+    }
+
+    /**
+     * Re-assigns the features, but only looks at all centers if the bounds do not guarantee that the assigned center
+     * is still the closest one.
+     */
+    private void assignWithBounds() {
+        // half the distance to the closest other center, a feature closer than that to its center stays there.
+        parallel(numClusters, numThreads * 4, new Range() {
+            void run(int from, int to, int part) {
+                for (int j = from; j < to; j++) {
+                    float min = Float.MAX_VALUE;
+                    for (int o = 0; o < numClusters; o++) {
+                        if (o == j) continue;
+                        float d = DistanceKernels.squaredL2(centers, j * dimensions, centers, o * dimensions, dimensions);
+                        if (d < min) min = d;
+                    }
+                    halfMinDistance[j] = (float) (Math.sqrt(min) / 2);
+                }
+            }
+        });
+        final AtomicInteger changed = new AtomicInteger(0);
+        parallel(numFeatures, numThreads * 4, new Range() {
+            void run(int from, int to, int part) {
+                int count = 0;
+                for (int i = from; i < to; i++) {
+                    int a = assignments[i];
+                    float bound = Math.max(halfMinDistance[a], lower[i]);
+                    if (upper[i] <= bound) continue;
+                    // tighten the upper bound and check again:
+                    upper[i] = DistanceKernels.distL2(data, i * dimensions, centers, a * dimensions, dimensions);
+                    if (upper[i] <= bound) continue;
+                    if (assignExhaustive(i)) count++;
+                }
+                changed.addAndGet(count);
+            }
+        });
+        reassigned = changed.get();
+    }
+
+    /**
+     * Computes the means of the clusters, empty clusters get a random feature as center.
+     *
+     * @return the distance each center has moved.
+     */
+    private float[] recomputeCenters() {
+        final double[][] sums = new double[numThreads][];
+        final int[][] counts = new int[numThreads][];
+        parallel(numFeatures, numThreads, new Range() {
+            void run(int from, int to, int part) {
+                double[] sum = new double[numClusters * dimensions];
+                int[] count = new int[numClusters];
+                for (int i = from; i < to; i++) {
+                    int a = assignments[i];
+                    count[a]++;
+                    int offset = i * dimensions, centerOffset = a * dimensions;
+                    for (int d = 0; d < dimensions; d++) {
+                        sum[centerOffset + d] += data[offset + d];
+                    }
+                }
+                sums[part] = sum;
+                counts[part] = count;
+            }
+        });
+        float[] drift = new float[numClusters];
+        float[] mean = new float[dimensions];
+        for (int j = 0; j < numClusters; j++) {
+            int count = 0;
+            for (int p = 0; p < numThreads; p++) {
+                if (counts[p] != null) count += counts[p][j];
+            }
+            if (count < 1) {
+                System.err.println("** There is NO member in cluster " + j);
+                System.arraycopy(data, random.nextInt(numFeatures) * dimensions, mean, 0, dimensions);
+            } else {
+                for (int d = 0; d < dimensions; d++) {
+                    double sum = 0;
+                    for (int p = 0; p < numThreads; p++) {
+                        if (sums[p] != null) sum += sums[p][j * dimensions + d];
+                    }
+                    mean[d] = (float) (sum / count);
+                }
+            }
+            drift[j] = DistanceKernels.distL2(mean, 0, centers, j * dimensions, dimensions);
+            System.arraycopy(mean, 0, centers, j * dimensions, dimensions);
+        }
+        return drift;
+    }
+
+    /**
+     * Moves the bounds by the distance the centers have moved, so they stay valid for the new centers.
+     */
+    private void updateBounds(final float[] drift) {
+        int farthest = 0;
+        for (int j = 1; j < numClusters; j++) {
+            if (drift[j] > drift[farthest]) farthest = j;
+        }
+        float secondMax = 0;
+        for (int j = 0; j < numClusters; j++) {
+            if (j != farthest && drift[j] > secondMax) secondMax = drift[j];
+        }
+        final int r = farthest;
+        final float max = drift[farthest], second = secondMax;
+        parallel(numFeatures, numThreads * 4, new Range() {
+            void run(int from, int to, int part) {
+                for (int i = from; i < to; i++) {
+                    int a = assignments[i];
+                    upper[i] += drift[a];
+                    lower[i] -= (a == r) ? second : max;
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the sum of the L1 distances of all features to the centers they are assigned to.
+     */
+    private double stress() {
+        final double[] partial = new double[numThreads];
+        parallel(numFeatures, numThreads, new Range() {
+            void run(int from, int to, int part) {
+                double v = 0;
+                for (int i = from; i < to; i++) {
+                    v += DistanceKernels.distL1(data, i * dimensions, centers, assignments[i] * dimensions, dimensions);
+                }
+                partial[part] = v;
+            }
+        });
+        double v = 0;
+        for (double p : partial) v += p;
+        return v;
+    }
+
+    /**
+     * One step of mini-batch k-means. The features of a batch are assigned in parallel, the centers are moved
+     * towards their features with a learning rate of one over the number of features seen so far.
+     */
+    private double miniBatchStep() {
+        final int[] batch = new int[Math.min(miniBatchSize, numFeatures)];
+        final int[] batchAssignments = new int[batch.length];
+        final double[] partial = new double[numThreads];
+        double stress = 0;
+        for (int b = 0; b < batchesPerStep; b++) {
+            for (int i = 0; i < batch.length; i++) {
+                batch[i] = random.nextInt(numFeatures);
+            }
+            parallel(batch.length, numThreads, new Range() {
+                void run(int from, int to, int part) {
+                    double v = 0;
+                    for (int i = from; i < to; i++) {
+                        int offset = batch[i] * dimensions;
+                        int best = nearestCenter(data, offset);
+                        batchAssignments[i] = best;
+                        v += DistanceKernels.distL1(data, offset, centers, best * dimensions, dimensions);
+                    }
+                    partial[part] = v;
+                }
+            });
+            for (int p = 0; p < numThreads; p++) {
+                stress += partial[p];
+                partial[p] = 0;
+            }
+            for (int i = 0; i < batch.length; i++) {
+                int j = batchAssignments[i];
+                float eta = 1f / ++centerCounts[j];
+                int offset = batch[i] * dimensions, centerOffset = j * dimensions;
+                for (int d = 0; d < dimensions; d++) {
+                    centers[centerOffset + d] += eta * (data[offset + d] - centers[centerOffset + d]);
+                }
+            }
+        }
+        assignmentsValid = false;
+        reassigned = batch.length * batchesPerStep;
+        // scale to the whole data set to be comparable with full steps.
+        return stress * numFeatures / ((double) batch.length * batchesPerStep);
+    }
+
+    private int nearestCenter(float[] vector, int offset) {
+        float best = Float.MAX_VALUE;
+        int bestCenter = 0;
+        for (int j = 0; j < numClusters; j++) {
+            float d = DistanceKernels.squaredL2(vector, offset, centers, j * dimensions, dimensions);
+            if (d < best) {
+                best = d;
+                bestCenter = j;
+            }
+        }
+        return bestCenter;
+    }
+
+    /**
+     * @return the number of features which changed their cluster in the last step. In mini-batch mode it is the
+     * number of features looked at.
+     */
+    public int getReassignedCount() {
+        return reassigned;
+    }
+
+    /**
+     * @return the cluster index of each feature in the order they have been added, without features with NaNs.
+     */
+    public int[] getAssignments() {
+        if (!assignmentsValid) {
+            parallel(numFeatures, numThreads * 4, new Range() {
+                void run(int from, int to, int part) {
+                    for (int i = from; i < to; i++) {
+                        assignments[i] = nearestCenter(data, i * dimensions);
+                    }
+                }
+            });
+            assignmentsValid = true;
+        }
+        return assignments;
+    }
+
+    /**
+     * @return the centers, numClusters times dimensions values.
+     */
+    public float[] getCenters() {
+        return centers;
+    }
+
+    public int getDimensions() {
+        return dimensions;
+    }
+
+    @Override
+    public int getFeatureCount() {
+        return countAllFeatures;
+    }
+
+    @Override
+    public Cluster[] getClusters() {
+        if (clusters == null) return null;
+        for (int j = 0; j < clusters.length; j++) {
+            double[] mean = clusters[j].mean;
+            for (int d = 0; d < dimensions; d++) {
+                mean[d] = centers[j * dimensions + d];
+            }
+        }
+        return clusters;
+    }
+
+    @Override
+    public int getClusterOfFeature(Histogram f) {
+        double[] histogram = f.getDoubleHistogram();
+        float[] vector = new float[histogram.length];
+        for (int i = 0; i < vector.length; i++) vector[i] = (float) histogram[i];
+        return nearestCenter(vector, 0);
+    }
+
+    private abstract class Range {
+        abstract void run(int from, int to, int part);
+    }
+
+    /**
+     * Splits [0, size) into parts and runs them in the pool, waits for all of them to finish.
+     */
+    private void parallel(int size, int parts, final Range range) {
+        parts = Math.max(1, Math.min(parts, size));
+        ArrayList<Future<?>> futures = new ArrayList<Future<?>>(parts);
+        for (int p = 0; p < parts; p++) {
+            final int from = (int) ((long) size * p / parts), to = (int) ((long) size * (p + 1) / parts), part = p;
+            futures.add(pool.submit(new Runnable() {
+                public void run() {
+                    range.run(from, to, part);
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+    }
+}
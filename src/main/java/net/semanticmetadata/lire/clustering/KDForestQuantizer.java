@@ -0,0 +1,320 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ * Updated: 18.10.26 16:49
+ */
+
+package net.semanticmetadata.lire.clustering;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Approximate quantizer based on a forest of randomized k-d trees over the cluster means, as in FLANN. Each tree
+ * splits at the mean of a dimension chosen randomly among the ones with the highest variance. A search descends
+ * all trees, then continues with the closest unexplored branches of all trees until a maximum number of cluster
+ * means have been checked, so the cost per feature depends on the number of checks, not on the size of the
+ * codebook.
+ * <br/>
+ * If the number of checks is at least the number of clusters the result is the same as with the
+ * {@link LinearQuantizer}. Trees are built with a fixed seed, so the same codebook gives the same visual words at
+ * indexing and at search time.
+ */
+public class KDForestQuantizer extends Quantizer {
+    /**
+     * Number of dimensions with the highest variance to choose the split dimension from.
+     */
+    private static final int RANDOM_DIMENSIONS = 5;
+    private static final int LEAF_SIZE = 4;
+
+    private final int maxChecks;
+    private final Tree[] trees;
+
+    private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch(size);
+        }
+    };
+
+    /**
+     * Creates a forest of 4 trees checking at most 64 cluster means per feature.
+     *
+     * @param clusters the codebook.
+     */
+    public KDForestQuantizer(Cluster[] clusters) {
+        this(clusters, 4, 64, 42);
+    }
+
+    /**
+     * @param clusters  the codebook.
+     * @param numTrees  the number of randomized trees, more trees give better results for the same number of checks.
+     * @param maxChecks the maximum number of cluster means compared to each feature.
+     * @param seed      seed for randomizing the trees.
+     */
+    public KDForestQuantizer(Cluster[] clusters, int numTrees, int maxChecks, long seed) {
+        super(clusters);
+        this.maxChecks = maxChecks;
+        trees = buildTrees(numTrees, maxChecks, seed);
+    }
+
+    /**
+     * Creates a forest of 4 trees checking at most 64 cluster means per feature.
+     *
+     * @param codebook the codebook.
+     */
+    public KDForestQuantizer(Codebook codebook) {
+        this(codebook, 4, 64, 42);
+    }
+
+    /**
+     * @param codebook  the codebook.
+     * @param numTrees  the number of randomized trees, more trees give better results for the same number of checks.
+     * @param maxChecks the maximum number of cluster means compared to each feature.
+     * @param seed      seed for randomizing the trees.
+     */
+    public KDForestQuantizer(Codebook codebook, int numTrees, int maxChecks, long seed) {
+        super(codebook);
+        this.maxChecks = maxChecks;
+        trees = buildTrees(numTrees, maxChecks, seed);
+    }
+
+    private Tree[] buildTrees(int numTrees, int maxChecks, long seed) {
+        if (numTrees < 1 || maxChecks < 1)
+            throw new IllegalArgumentException("Number of trees and checks have to be positive.");
+        Random random = new Random(seed);
+        Tree[] result = new Tree[numTrees];
+        for (int i = 0; i < numTrees; i++) {
+            result[i] = new Tree(random);
+        }
+        return result;
+    }
+
+    @Override
+    public int quantize(double[] feature) {
+        Scratch s = scratch.get();
+        s.next();
+        for (int t = 0; t < trees.length; t++) {
+            descend(s, feature, t, 0, 0);
+        }
+        while (s.heapSize > 0 && s.checks < maxChecks) {
+            // the key is a lower bound of the distance of all clusters in the branch.
+            if (s.heapKey[0] > s.best) break;
+            int tree = s.heapTree[0], node = s.heapNode[0];
+            double key = s.heapKey[0];
+            s.pop();
+            descend(s, feature, tree, node, key);
+        }
+        return s.result;
+    }
+
+    /**
+     * Follows the closer child down to a leaf, remembers the other ones and checks all clusters in the leaf.
+     */
+    private void descend(Scratch s, double[] feature, int t, int node, double bound) {
+        Tree tree = trees[t];
+        while (tree.splitDimension[node] >= 0) {
+            double diff = feature[tree.splitDimension[node]] - tree.splitValue[node];
+            int near = diff < 0 ? tree.left[node] : tree.right[node];
+            int far = diff < 0 ? tree.right[node] : tree.left[node];
+            s.push(t, far, Math.max(bound, diff * diff));
+            node = near;
+        }
+        int[] order = tree.order;
+        for (int i = tree.start[node]; i < tree.end[node]; i++) {
+            int cluster = order[i];
+            if (s.visited[cluster] == s.stamp) continue;
+            s.visited[cluster] = s.stamp;
+            s.checks++;
+            double d = distance(feature, cluster, s.best);
+            // prefer the lower index on ties, like the linear search.
+            if (d < s.best || (d == s.best && cluster < s.result)) {
+                s.best = d;
+                s.result = cluster;
+            }
+        }
+    }
+
+    /**
+     * One randomized k-d tree, stored in arrays. Inner nodes have a split dimension, leaves have -1 and point to
+     * a range of the cluster order.
+     */
+    private class Tree {
+        int[] order = new int[size];
+        int[] splitDimension, left, right, start, end;
+        double[] splitValue;
+        int numNodes = 0;
+
+        Tree(Random random) {
+            int maxNodes = 2 * size;
+            splitDimension = new int[maxNodes];
+            left = new int[maxNodes];
+            right = new int[maxNodes];
+            start = new int[maxNodes];
+            end = new int[maxNodes];
+            splitValue = new double[maxNodes];
+            for (int i = 0; i < size; i++) order[i] = i;
+            build(0, size, random);
+        }
+
+        private int build(int from, int to, Random random) {
+            int node = numNodes++;
+            splitDimension[node] = -1;
+            start[node] = from;
+            end[node] = to;
+            if (to - from <= LEAF_SIZE) return node;
+            // mean and variance of each dimension:
+            double[] mean = new double[dimensions];
+            double[] variance = new double[dimensions];
+            for (int i = from; i < to; i++) {
+                int offset = order[i] * dimensions;
+                for (int d = 0; d < dimensions; d++) mean[d] += means[offset + d];
+            }
+            for (int d = 0; d < dimensions; d++) mean[d] /= (to - from);
+            for (int i = from; i < to; i++) {
+                int offset = order[i] * dimensions;
+                for (int d = 0; d < dimensions; d++) {
+                    double diff = means[offset + d] - mean[d];
+                    variance[d] += diff * diff;
+                }
+            }
+            // pick one of the dimensions with the highest variance:
+            int[] top = new int[Math.min(RANDOM_DIMENSIONS, dimensions)];
+            int numTop = 0;
+            for (int d = 0; d < dimensions; d++) {
+                int pos = numTop < top.length ? numTop++ : top.length;
+                while (pos > 0 && variance[top[pos - 1]] < variance[d]) {
+                    if (pos < top.length) top[pos] = top[pos - 1];
+                    pos--;
+                }
+                if (pos < top.length) top[pos] = d;
+            }
+            int dimension = top[random.nextInt(numTop)];
+            if (variance[dimension] == 0) dimension = top[0];
+            if (variance[dimension] == 0) return node; // all means are the same.
+            double split = mean[dimension];
+            // partition the range, smaller values to the left:
+            int lo = from, hi = to - 1;
+            while (lo <= hi) {
+                if (means[order[lo] * dimensions + dimension] < split) lo++;
+                else {
+                    int tmp = order[lo];
+                    order[lo] = order[hi];
+                    order[hi--] = tmp;
+                }
+            }
+            if (lo == from || lo == to) return node;
+            splitDimension[node] = dimension;
+            splitValue[node] = split;
+            left[node] = build(from, lo, random);
+            right[node] = build(lo, to, random);
+            return node;
+        }
+    }
+
+    /**
+     * Per thread search state: the best cluster so far, the clusters already checked and a heap of branches still
+     * to explore.
+     */
+    private static class Scratch {
+        int[] visited;
+        int stamp = 0, checks, result;
+        double best;
+        int heapSize = 0;
+        int[] heapTree = new int[64], heapNode = new int[64];
+        double[] heapKey = new double[64];
+
+        Scratch(int size) {
+            visited = new int[size];
+        }
+
+        void next() {
+            if (++stamp == Integer.MAX_VALUE) {
+                Arrays.fill(visited, 0);
+                stamp = 1;
+            }
+            checks = 0;
+            result = -1;
+            best = Double.MAX_VALUE;
+            heapSize = 0;
+        }
+
+        void push(int tree, int node, double key) {
+            if (heapSize == heapKey.length) {
+                heapTree = Arrays.copyOf(heapTree, heapSize * 2);
+                heapNode = Arrays.copyOf(heapNode, heapSize * 2);
+                heapKey = Arrays.copyOf(heapKey, heapSize * 2);
+            }
+            int pos = heapSize++;
+            while (pos > 0) {
+                int parent = (pos - 1) >>> 1;
+                if (heapKey[parent] <= key) break;
+                set(pos, parent);
+                pos = parent;
+            }
+            heapTree[pos] = tree;
+            heapNode[pos] = node;
+            heapKey[pos] = key;
+        }
+
+        void pop() {
+            heapSize--;
+            if (heapSize == 0) return;
+            int tree = heapTree[heapSize], node = heapNode[heapSize];
+            double key = heapKey[heapSize];
+            int pos = 0;
+            while (true) {
+                int child = 2 * pos + 1;
+                if (child >= heapSize) break;
+                if (child + 1 < heapSize && heapKey[child + 1] < heapKey[child]) child++;
+                if (heapKey[child] >= key) break;
+                set(pos, child);
+                pos = child;
+            }
+            heapTree[pos] = tree;
+            heapNode[pos] = node;
+            heapKey[pos] = key;
+        }
+
+        private void set(int to, int from) {
+            heapTree[to] = heapTree[from];
+            heapNode[to] = heapNode[from];
+            heapKey[to] = heapKey[from];
+        }
+    }
+}
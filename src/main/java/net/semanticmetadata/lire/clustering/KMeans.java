@@ -268,49 +268,3 @@ public class KMeans {
         return featureIndex.get(f);
     }
 }
-
-class Image {
-    public List<double[]> features;
-    public String identifier;
-    public float[] localFeatureHistogram = null;
-    private final int QUANT_MAX_HISTOGRAM = 256;
-
-    Image(String identifier, List<double[]> features) {
-        this.features = new LinkedList<double[]>();
-        this.features.addAll(features);
-        this.identifier = identifier;
-    }
-
-    public float[] getLocalFeatureHistogram() {
-        return localFeatureHistogram;
-    }
-
-    public void setLocalFeatureHistogram(float[] localFeatureHistogram) {
-        this.localFeatureHistogram = localFeatureHistogram;
-    }
-
-    public void initHistogram(int bins) {
-        localFeatureHistogram = new float[bins];
-        for (int i = 0; i < localFeatureHistogram.length; i++) {
-            localFeatureHistogram[i] = 0;
-        }
-    }
-
-    public void normalizeFeatureHistogram() {
-        float max = 0;
-        for (int i = 0; i < localFeatureHistogram.length; i++) {
-            max = Math.max(localFeatureHistogram[i], max);
-        }
-        for (int i = 0; i < localFeatureHistogram.length; i++) {
-            localFeatureHistogram[i] = (localFeatureHistogram[i] * QUANT_MAX_HISTOGRAM) / max;
-        }
-    }
-
-    public void printHistogram() {
-        for (int i = 0; i < localFeatureHistogram.length; i++) {
-            System.out.print(localFeatureHistogram[i] + " ");
-
-        }
-        System.out.println("");
-    }
-}
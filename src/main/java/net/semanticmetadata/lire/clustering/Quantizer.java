@@ -0,0 +1,158 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ * Updated: 18.10.26 16:49
+ */
+
+package net.semanticmetadata.lire.clustering;
+
+/**
+ * Assigns local features to the nearest cluster of a codebook (visual vocabulary), based on the L2 distance
+ * like {@link Cluster#getDistance(double[])}. Implementations are immutable after construction and can be used
+ * by multiple threads at once.
+ */
+public abstract class Quantizer {
+    /**
+     * The available quantizers, see {@link #create(Type, Cluster[])}.
+     */
+    public enum Type {
+        /**
+         * Exact, compares each feature to all clusters, see {@link LinearQuantizer}.
+         */
+        Linear,
+        /**
+         * Approximate, searches a forest of randomized k-d trees, see {@link KDForestQuantizer}.
+         */
+        KDForest
+    }
+
+    protected final int size, dimensions;
+    /**
+     * All cluster means in one array, cluster i starts at i * dimensions.
+     */
+    protected final double[] means;
+
+    protected Quantizer(Cluster[] clusters) {
+        if (clusters == null || clusters.length == 0)
+            throw new IllegalArgumentException("The codebook has to contain at least one cluster.");
+        size = clusters.length;
+        dimensions = clusters[0].getMean().length;
+        means = new double[size * dimensions];
+        for (int i = 0; i < size; i++) {
+            System.arraycopy(clusters[i].getMean(), 0, means, i * dimensions, dimensions);
+        }
+    }
+
+    protected Quantizer(Codebook codebook) {
+        size = codebook.size();
+        dimensions = codebook.getDimensions();
+        means = new double[size * dimensions];
+        double[] mean = new double[dimensions];
+        for (int i = 0; i < size; i++) {
+            codebook.getMean(i, mean);
+            System.arraycopy(mean, 0, means, i * dimensions, dimensions);
+        }
+    }
+
+    /**
+     * Creates a quantizer of the given type with default parameters.
+     *
+     * @param type     the type of quantizer.
+     * @param clusters the codebook.
+     * @return the new quantizer.
+     */
+    public static Quantizer create(Type type, Cluster[] clusters) {
+        if (type == Type.KDForest) return new KDForestQuantizer(clusters);
+        return new LinearQuantizer(clusters);
+    }
+
+    /**
+     * Creates a quantizer of the given type with default parameters. Use {@link Codebook#getQuantizer(Type)} to
+     * share it with others using the same codebook.
+     *
+     * @param type     the type of quantizer.
+     * @param codebook the codebook.
+     * @return the new quantizer.
+     */
+    public static Quantizer create(Type type, Codebook codebook) {
+        if (type == Type.KDForest) return new KDForestQuantizer(codebook);
+        return new LinearQuantizer(codebook);
+    }
+
+    /**
+     * Finds the cluster for the given feature.
+     *
+     * @param feature the local feature, with the same number of dimensions as the cluster means.
+     * @return the index of the cluster.
+     */
+    public abstract int quantize(double[] feature);
+
+    /**
+     * @return the number of clusters in the codebook.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of dimensions of the cluster means.
+     */
+    public int getDimensions() {
+        return dimensions;
+    }
+
+    /**
+     * Squared L2 distance between the feature and one cluster mean. Stops as soon as the sum exceeds the given
+     * limit, as the cluster cannot be the nearest one then.
+     *
+     * @param feature the feature.
+     * @param cluster the index of the cluster.
+     * @param limit   the distance of the best cluster so far.
+     * @return the squared distance, or a value larger than limit.
+     */
+    protected final double distance(double[] feature, int cluster, double limit) {
+        int offset = cluster * dimensions;
+        double sum = 0, d;
+        for (int i = 0; i < dimensions; i++) {
+            d = feature[i] - means[offset + i];
+            sum += d * d;
+            if (sum > limit) return sum;
+        }
+        return sum;
+    }
+}
@@ -44,7 +44,7 @@ import net.semanticmetadata.lire.ImageSearchHits;
 import net.semanticmetadata.lire.SearchHitsFilter;
 import net.semanticmetadata.lire.imageanalysis.LireFeature;
 import net.semanticmetadata.lire.impl.SimpleImageSearchHits;
-import net.semanticmetadata.lire.impl.SimpleResult;
+import net.semanticmetadata.lire.impl.TopKCollector;
 import net.semanticmetadata.lire.utils.MetricsUtils;
 import org.apache.commons.math3.linear.Array2DRowRealMatrix;
 import org.apache.commons.math3.linear.RealMatrix;
@@ -57,7 +57,6 @@ import org.apache.lucene.search.TopDocs;
 import java.io.IOException;
 import java.util.Iterator;
 import java.util.LinkedList;
-import java.util.TreeSet;
 import java.util.logging.Logger;
 
 /**
@@ -139,30 +138,27 @@ public class LsaFilter implements SearchHitsFilter {
         double[][] data = mNew.getData();
 
         // create the new result set
-        TreeSet<SimpleResult> result = new TreeSet<SimpleResult>();
+        TopKCollector result = new TopKCollector(data.length - 1);
         double maxDistance = 0;
         double[] queryData = data[0];
         for (int i = 1; i < data.length; i++) {
             double[] doubles = data[i];
             double distance = MetricsUtils.distL1(doubles, queryData);
-            result.add(new SimpleResult((float) distance, results.doc(i - 1), i-1));
+            result.collect(i - 1, (float) distance);
             maxDistance = Math.max(maxDistance, distance);
         }
         ImageSearchHits hits;
-        hits = new SimpleImageSearchHits(result, (float) maxDistance);
+        hits = new SimpleImageSearchHits(result, results, (float) maxDistance, false);
         return hits;
     }
 
     public ImageSearchHits filter(TopDocs results, IndexReader reader, Document query) throws IOException {
-        LinkedList<SimpleResult> tmp = new LinkedList<SimpleResult>();
-        double max = 0;
+        TopKCollector tmp = new TopKCollector(results.scoreDocs.length);
         for (int i = 0; i < results.scoreDocs.length; i++) {
             ScoreDoc scoreDoc = results.scoreDocs[i];
-            SimpleResult s = new SimpleResult(1/scoreDoc.score, reader.document(scoreDoc.doc), scoreDoc.doc);
-            max = Math.max(max, 1/scoreDoc.score);
-            tmp.add(s);
+            tmp.collect(scoreDoc.doc, 1 / scoreDoc.score);
         }
 
-        return filter(new SimpleImageSearchHits(tmp, (float) max), query);
+        return filter(new SimpleImageSearchHits(tmp, reader), query);
     }
 }
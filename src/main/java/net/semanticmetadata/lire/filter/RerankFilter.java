@@ -43,14 +43,15 @@ import net.semanticmetadata.lire.ImageSearchHits;
 import net.semanticmetadata.lire.SearchHitsFilter;
 import net.semanticmetadata.lire.imageanalysis.LireFeature;
 import net.semanticmetadata.lire.impl.SimpleImageSearchHits;
-import net.semanticmetadata.lire.impl.SimpleResult;
+import net.semanticmetadata.lire.impl.TopKCollector;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.TopDocs;
 
 import java.io.IOException;
-import java.util.TreeSet;
+import java.util.Collections;
+import java.util.Set;
 import java.util.logging.Logger;
 
 /**
@@ -74,7 +75,6 @@ public class RerankFilter implements SearchHitsFilter {
         LireFeature queryFeature = null;
         LireFeature tempFeature = null;
         float distance = 0, maxDistance = 0;
-        TreeSet<SimpleResult> resultSet = new TreeSet<SimpleResult>();
 
         // create our feature classes
         try {
@@ -95,6 +95,8 @@ public class RerankFilter implements SearchHitsFilter {
             return null;
         }
 
+        // the positions in the given results are collected, so their documents can be re-used.
+        TopKCollector resultSet = new TopKCollector(results.length());
         for (int x = 0; x < results.length(); x++) {
             if (results.doc(x).getField(fieldName) != null) {
                 tempFeature.setByteArrayRepresentation(results.doc(x).getField(fieldName).binaryValue().bytes,
@@ -102,12 +104,12 @@ public class RerankFilter implements SearchHitsFilter {
                         results.doc(x).getField(fieldName).binaryValue().length);
                 distance = queryFeature.getDistance(tempFeature);
                 maxDistance = Math.max(maxDistance, distance);
-                resultSet.add(new SimpleResult(distance, results.doc(x), x));
+                resultSet.collect(x, distance);
             } else {
                 logger.info("Could not instantiate class " + featureClass.getName() + " from the given result set.");
             }
         }
-        return new SimpleImageSearchHits(resultSet, maxDistance);
+        return new SimpleImageSearchHits(resultSet, results, maxDistance, false);
     }
 
     @Override
@@ -115,7 +117,6 @@ public class RerankFilter implements SearchHitsFilter {
         LireFeature queryFeature = null;
         LireFeature tempFeature = null;
         float distance = 0, maxDistance = 0;
-        TreeSet<SimpleResult> resultSet = new TreeSet<SimpleResult>();
 
         // create our feature classes
         try {
@@ -136,20 +137,23 @@ public class RerankFilter implements SearchHitsFilter {
             return null;
         }
         ScoreDoc[] scoreDocs = results.scoreDocs;
+        TopKCollector resultSet = new TopKCollector(scoreDocs.length);
+        // only the feature is read here, the documents are loaded for the results actually used.
+        Set<String> fieldsToLoad = Collections.singleton(fieldName);
         Document tmp = null;
         for (int x = 0; x < scoreDocs.length; x++) {
-            tmp =reader.document(scoreDocs[x].doc);
+            tmp = reader.document(scoreDocs[x].doc, fieldsToLoad);
             if (tmp.getField(fieldName) != null) {
                 tempFeature.setByteArrayRepresentation(tmp.getField(fieldName).binaryValue().bytes,
                         tmp.getField(fieldName).binaryValue().offset,
                         tmp.getField(fieldName).binaryValue().length);
                 distance = queryFeature.getDistance(tempFeature);
                 maxDistance = Math.max(maxDistance, distance);
-                resultSet.add(new SimpleResult(distance, tmp, scoreDocs[x].doc));
+                resultSet.collect(scoreDocs[x].doc, distance);
             } else {
                 logger.info("Could not instantiate class " + featureClass.getName() + " from the given result set.");
             }
         }
-        return new SimpleImageSearchHits(resultSet, maxDistance);
+        return new SimpleImageSearchHits(resultSet, reader, maxDistance, false);
     }
 }
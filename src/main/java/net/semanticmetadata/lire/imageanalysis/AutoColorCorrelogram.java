@@ -45,6 +45,7 @@ import net.semanticmetadata.lire.imageanalysis.correlogram.DynamicProgrammingAut
 import net.semanticmetadata.lire.imageanalysis.correlogram.IAutoCorrelogramFeatureExtractor;
 import net.semanticmetadata.lire.imageanalysis.correlogram.MLuxAutoCorrelogramExtraction;
 import net.semanticmetadata.lire.imageanalysis.correlogram.NaiveAutoCorrelogramExtraction;
+import net.semanticmetadata.lire.imageanalysis.utils.ImageContext;
 import net.semanticmetadata.lire.utils.ConversionUtils;
 
 import java.awt.image.BufferedImage;
@@ -59,7 +60,7 @@ import java.util.StringTokenizer;
  * <p/>
  * Todo: Change the 2-dim array to a one dim array, as this is much faster in Java.
  */
-public class AutoColorCorrelogram implements LireFeature {
+public class AutoColorCorrelogram implements ImageContextFeature {
     private static final int DEFAULT_NUMBER_COLORS = 256;
 
     private float quantH;
@@ -241,6 +242,30 @@ public class AutoColorCorrelogram implements LireFeature {
         extract(hsvImage);
     }
 
+    /**
+     * Uses the HSV planes of the context for 8 bit RGB images, where they are the same as the ones computed from
+     * the raster. Other images are handled by {@link #extract(java.awt.image.BufferedImage)}.
+     *
+     * @param context the context of the image.
+     */
+    public void extract(ImageContext context) {
+        BufferedImage bi = context.getImage();
+        if (bi.getType() != BufferedImage.TYPE_INT_RGB && bi.getType() != BufferedImage.TYPE_3BYTE_BGR) {
+            extract(bi);
+            return;
+        }
+        int[][] hsv = context.getHSV();
+        int width = context.getWidth(), height = context.getHeight();
+        int[][][] hsvImage = new int[width][height][];
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                int i = y * width + x;
+                hsvImage[x][y] = new int[]{hsv[0][i], hsv[1][i], hsv[2][i]};
+            }
+        }
+        extract(hsvImage);
+    }
+
     public byte[] getByteArrayRepresentation() {
         byte[] result = new byte[correlogram.length * correlogram[0].length / 2];
         int position = 0;
@@ -42,14 +42,12 @@
 package net.semanticmetadata.lire.imageanalysis;
 
 import net.semanticmetadata.lire.DocumentBuilder;
+import net.semanticmetadata.lire.imageanalysis.filters.EdgeFilters;
 import net.semanticmetadata.lire.utils.MetricsUtils;
 
-import javax.imageio.ImageIO;
 import java.awt.color.ColorSpace;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorConvertOp;
-import java.io.File;
-import java.io.IOException;
 import java.util.Arrays;
 
 /**
@@ -61,17 +59,39 @@ import java.util.Arrays;
 
 public class BinaryPatternsPyramid implements LireFeature {
     static ColorConvertOp grayscale = new ColorConvertOp(ColorSpace.getInstance(ColorSpace.CS_GRAY), null);
-    int[] tmp255 = {255};
-    int[] tmp128 = {128};
-    int[] tmp000 = {0};
-    int[] tmpPixel = {0};
     // double thresholds for Canny edge detector
     double thresholdLow = 80, thresholdHigh = 100;
     static int[] binTranslate = new int[256];
+    static int[] patternBins = new int[256];
 
     int bins = 36;
     double[] histogram = new double[bins + 4 * bins + 4 * 4 * bins];
-
+    // see BinaryPatternsPyramid(boolean)
+    private boolean bothNeighbours = false;
+
+    // buffers for the edge detection, kept per thread and reused for images of the same size or smaller.
+    private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
+    private static class Scratch {
+        short[] gx = new short[0], gy = new short[0];
+        int[] magnitude = new int[0], stack = new int[0];
+        byte[] edges = new byte[0];
+
+        void ensureCapacity(int pixels) {
+            if (edges.length < pixels) {
+                gx = new short[pixels];
+                gy = new short[pixels];
+                magnitude = new int[pixels];
+                stack = new int[pixels];
+                edges = new byte[pixels];
+            }
+        }
+    }
 
     static {
         Arrays.fill(binTranslate, 0);
@@ -111,94 +131,47 @@ public class BinaryPatternsPyramid implements LireFeature {
         binTranslate[119] = 33;
         binTranslate[127] = 34;
         binTranslate[255] = 35;
+        // the bin of each pattern is the one of its smallest rotation.
+        for (int pattern = 0; pattern < 256; pattern++) {
+            int min = pattern;
+            for (int i = 1; i < 8; i++) {
+                min = Math.min(((pattern << i) | (pattern >>> (8 - i))) & 0xff, min);
+            }
+            patternBins[pattern] = binTranslate[min];
+        }
     }
 
-    public void extract(BufferedImage bimg) {
-        // All for Canny Edge ...
-        BufferedImage imgEdges, imgGray;
-        double[][] gx = null, gy = null;
-        double[][] gd, gm;
+    public BinaryPatternsPyramid() {
+    }
 
+    /**
+     * The non-maximum suppression of the edge detection compares a pixel with one neighbour only in vertical and in
+     * one diagonal direction. With bothNeighbours == true it compares with both neighbours in all directions, like
+     * {@link PHOG}, which gives thinner edges. Features extracted with different settings cannot be compared, so
+     * use the same setting for indexing and search.
+     *
+     * @param bothNeighbours true to compare with both neighbours, false for the features of the default constructor.
+     */
+    public BinaryPatternsPyramid(boolean bothNeighbours) {
+        this.bothNeighbours = bothNeighbours;
+    }
+
+    public void extract(BufferedImage bimg) {
         // doing canny edge detection first:
-        // filter images:
-        imgEdges = grayscale.filter(bimg, new BufferedImage(bimg.getWidth(), bimg.getHeight(), BufferedImage.TYPE_BYTE_GRAY));
-        imgGray = grayscale.filter(bimg, new BufferedImage(bimg.getWidth(), bimg.getHeight(), BufferedImage.TYPE_BYTE_GRAY));
-//        gray = gaussian.filter(gray, null);
-        // TODO: Combine the next few steps to just iterate through the pixels once!
-        gx = new double[imgEdges.getWidth()][imgEdges.getHeight()];
-        gy = new double[imgEdges.getWidth()][imgEdges.getHeight()];
-        sobelFilter(imgEdges, gx, gy);
-//        gx = sobelFilterX(gray);
-//        gy = sobelFilterY(gray);
-        int width = imgEdges.getWidth();
-        int height = imgEdges.getHeight();
-        gd = new double[width][height];
-        gm = new double[width][height];
-        for (int x = 0; x < width; x++) {
-            for (int y = 0; y < height; y++) {
-                // setting gradient magnitude and gradient direction
-                if (gx[x][y] != 0) {
-                    gd[x][y] = Math.atan(gy[x][y] / gx[x][y]);
-                } else {
-                    gd[x][y] = Math.PI / 2d;
-                }
-                gm[x][y] = Math.hypot(gy[x][y], gx[x][y]);
-            }
-        }
-        // Non-maximum suppression
-        for (int x = 0; x < width; x++) {
-            imgEdges.getRaster().setPixel(x, 0, new int[]{255});
-            imgEdges.getRaster().setPixel(x, height - 1, new int[]{255});
-        }
-        for (int y = 0; y < height; y++) {
-            imgEdges.getRaster().setPixel(0, y, new int[]{255});
-            imgEdges.getRaster().setPixel(width - 1, y, new int[]{255});
-        }
-        for (int x = 1; x < width - 1; x++) {
-            for (int y = 1; y < height - 1; y++) {
-                if (gd[x][y] < (Math.PI / 8d) && gd[x][y] >= (-Math.PI / 8d)) {
-                    if (gm[x][y] > gm[x + 1][y] && gm[x][y] > gm[x - 1][y])
-                        setPixel(x, y, imgEdges, gm[x][y]);
-                    else
-                        imgEdges.getRaster().setPixel(x, y, tmp255);
-                } else if (gd[x][y] < (3d * Math.PI / 8d) && gd[x][y] >= (Math.PI / 8d)) {
-                    if (gm[x][y] > gm[x - 1][y - 1] && gm[x][y] > gm[x - 1][y - 1])
-                        setPixel(x, y, imgEdges, gm[x][y]);
-                    else
-                        imgEdges.getRaster().setPixel(x, y, tmp255);
-                } else if (gd[x][y] < (-3d * Math.PI / 8d) || gd[x][y] >= (3d * Math.PI / 8d)) {
-                    if (gm[x][y] > gm[x][y + 1] && gm[x][y] > gm[x][y + 1])
-                        setPixel(x, y, imgEdges, gm[x][y]);
-                    else
-                        imgEdges.getRaster().setPixel(x, y, tmp255);
-                } else if (gd[x][y] < (-Math.PI / 8d) && gd[x][y] >= (-3d * Math.PI / 8d)) {
-                    if (gm[x][y] > gm[x + 1][y - 1] && gm[x][y] > gm[x - 1][y + 1])
-                        setPixel(x, y, imgEdges, gm[x][y]);
-                    else
-                        imgEdges.getRaster().setPixel(x, y, tmp255);
-                } else {
-                    imgEdges.getRaster().setPixel(x, y, tmp255);
-                }
-            }
-        }
-        // hysteresis ... walk along lines of strong pixels and make the weak ones strong.
-        int[] tmp = {0};
-        for (int x = 1; x < width - 1; x++) {
-            for (int y = 1; y < height - 1; y++) {
-                if (imgEdges.getRaster().getPixel(x, y, tmp)[0] < 50) {
-                    // It's a strong pixel, lets find the neighbouring weak ones.
-                    trackWeakOnes(x, y, imgEdges);
-                }
-            }
-        }
-        // removing the single weak pixels.
-        for (int x = 2; x < width - 2; x++) {
-            for (int y = 2; y < height - 2; y++) {
-                if (imgEdges.getRaster().getPixel(x, y, tmp)[0] > 50) {
-                    imgEdges.getRaster().setPixel(x, y, tmp255);
-                }
-            }
-        }
+        BufferedImage imgGray = grayscale.filter(bimg, new BufferedImage(bimg.getWidth(), bimg.getHeight(), BufferedImage.TYPE_BYTE_GRAY));
+        byte[] gray = EdgeFilters.getGrayPixels(imgGray);
+        int width = imgGray.getWidth();
+        int height = imgGray.getHeight();
+        Scratch scratch = SCRATCH.get();
+        scratch.ensureCapacity(width * height);
+        EdgeFilters.sobel(gray, width, height, scratch.gx, scratch.gy, scratch.magnitude);
+        // Note that pixels above thresholdLow are the strong edges, the ones above thresholdHigh the weak ones.
+        // by default only one neighbour is compared in vertical and one diagonal direction, the features have
+        // always been extracted like that.
+        EdgeFilters.nonMaxSuppression(scratch.gx, scratch.gy, scratch.magnitude, width, height,
+                thresholdHigh, thresholdLow, bothNeighbours, scratch.edges);
+        EdgeFilters.hysteresis(scratch.edges, width, height, scratch.stack);
+        byte[] edges = scratch.edges;
 
         // Canny Edge Detection over ... lets go for the PHOG ...
 
@@ -206,15 +179,15 @@ public class BinaryPatternsPyramid implements LireFeature {
         // for level 3:
 //        histogram = new double[5 * bins + 4*4*bins + 4*4*4*bins];
         //level0
-        System.arraycopy(getHistogram(0, 0, width, height, imgEdges, imgGray, gd), 0, histogram, 0, bins);
+        System.arraycopy(getHistogram(0, 0, width, height, width, edges, gray), 0, histogram, 0, bins);
         //level1
-        System.arraycopy(getHistogram(0, 0, width / 2, height / 2, imgEdges, imgGray, gd),
+        System.arraycopy(getHistogram(0, 0, width / 2, height / 2, width, edges, gray),
                 0, histogram, bins, bins);
-        System.arraycopy(getHistogram(width / 2, 0, width / 2, height / 2, imgEdges, imgGray, gd),
+        System.arraycopy(getHistogram(width / 2, 0, width / 2, height / 2, width, edges, gray),
                 0, histogram, 2 * bins, bins);
-        System.arraycopy(getHistogram(0, height / 2, width / 2, height / 2, imgEdges, imgGray, gd),
+        System.arraycopy(getHistogram(0, height / 2, width / 2, height / 2, width, edges, gray),
                 0, histogram, 3 * bins, bins);
-        System.arraycopy(getHistogram(width / 2, height / 2, width / 2, height / 2, imgEdges, imgGray, gd),
+        System.arraycopy(getHistogram(width / 2, height / 2, width / 2, height / 2, width, edges, gray),
                 0, histogram, 4 * bins, bins);
         // level 2
         int wstep = width / 4;
@@ -222,7 +195,7 @@ public class BinaryPatternsPyramid implements LireFeature {
         int binPos = 5; // the next free section in the histogram
         for (int i = 0; i < 4; i++) {
             for (int j = 0; j < 4; j++) {
-                System.arraycopy(getHistogram(i * wstep, j * hstep, wstep, hstep, imgEdges, imgGray, gd),
+                System.arraycopy(getHistogram(i * wstep, j * hstep, wstep, hstep, width, edges, gray),
                         0, histogram, binPos * bins, bins);
                 binPos++;
             }
@@ -233,7 +206,7 @@ public class BinaryPatternsPyramid implements LireFeature {
 //        hstep = height / 8;
 //        for (int i = 0; i < 8; i++) {
 //            for (int j = 0; j < 8; j++) {
-//                System.arraycopy(getHistogram(i * wstep, j * hstep, wstep, hstep, imgEdges, imgGray, gd),
+//                System.arraycopy(getHistogram(i * wstep, j * hstep, wstep, hstep, width, edges, gray),
 //                        0, histogram, binPos * bins, bins);
 //                binPos++;
 //            }
@@ -293,56 +266,24 @@ public class BinaryPatternsPyramid implements LireFeature {
 
     }
 
-    private int getBin(int[] pattern) {
-        int min = Integer.MAX_VALUE;
-        for (int i = 0; i < 8; i++) {
-            min = Math.min(getNumber(pattern), min);
-            // rotate:
-            int tmp = pattern[7];
-            for (int j = pattern.length - 1; j > 0; j--) {
-                pattern[j] = pattern[j - 1];
-            }
-            pattern[0] = tmp;
-        }
-        return binTranslate[min];
-    }
-
-    private int getNumber(int[] pattern) {
-        int result = 0;
-        int current = 1;
-        for (int i = 0; i < pattern.length; i++) {
-            if (pattern[i] > 0) result += current;
-            current *= 2;
-        }
-        return result;
-    }
-
-    private double[] getHistogram(int startX, int startY, int width, int height, BufferedImage edges, BufferedImage original, double gd[][]) {
-        int[] tmp = {0};
+    private double[] getHistogram(int startX, int startY, int width, int height, int imageWidth, byte[] edges, byte[] gray) {
         double[] result = new double[36];
-        double actual = 0;
-        int bin;
-        int[] pixel = new int[9];
-        int[] pattern = new int[8];
-
-        // set initial histogram to 0
-        Arrays.fill(result, 0d);
         // find and increment the right bin/s
-        for (int x = startX; x < startX + width - 2; x++) {
-            for (int y = startY; y < startY + height - 2; y++) {
-                if (edges.getRaster().getPixel(x, y, tmp)[0] < 50) {
-                    // And now for the binary patterns ...
-                    Arrays.fill(pattern, 0);
-                    original.getRaster().getPixels(x, y, 3, 3, pixel);
-                    if (pixel[0] >= pixel[4]) pattern[0] = 1;
-                    if (pixel[1] >= pixel[4]) pattern[1] = 1;
-                    if (pixel[2] >= pixel[4]) pattern[2] = 1;
-                    if (pixel[5] >= pixel[4]) pattern[3] = 1;
-                    if (pixel[8] >= pixel[4]) pattern[4] = 1;
-                    if (pixel[7] >= pixel[4]) pattern[5] = 1;
-                    if (pixel[6] >= pixel[4]) pattern[6] = 1;
-                    if (pixel[3] >= pixel[4]) pattern[7] = 1;
-                    result[getBin(pattern)]++;
+        for (int y = startY; y < startY + height - 2; y++) {
+            for (int x = startX, i = y * imageWidth + x; x < startX + width - 2; x++, i++) {
+                if (edges[i] == EdgeFilters.EDGE) {
+                    // And now for the binary patterns of the 3x3 block starting at the edge pixel ...
+                    int center = gray[i + imageWidth + 1] & 0xff;
+                    int pattern = 0;
+                    if ((gray[i] & 0xff) >= center) pattern |= 1;
+                    if ((gray[i + 1] & 0xff) >= center) pattern |= 2;
+                    if ((gray[i + 2] & 0xff) >= center) pattern |= 4;
+                    if ((gray[i + imageWidth + 2] & 0xff) >= center) pattern |= 8;
+                    if ((gray[i + 2 * imageWidth + 2] & 0xff) >= center) pattern |= 16;
+                    if ((gray[i + 2 * imageWidth + 1] & 0xff) >= center) pattern |= 32;
+                    if ((gray[i + 2 * imageWidth] & 0xff) >= center) pattern |= 64;
+                    if ((gray[i + imageWidth] & 0xff) >= center) pattern |= 128;
+                    result[patternBins[pattern]]++;
                 }
             }
         }
@@ -364,79 +305,6 @@ public class BinaryPatternsPyramid implements LireFeature {
         return result;
     }
 
-    /**
-     * Recursive tracking of weak points.
-     *
-     * @param x
-     * @param y
-     * @param gray
-     */
-    private void trackWeakOnes(int x, int y, BufferedImage gray) {
-        for (int xx = x - 1; xx <= x + 1; xx++)
-            for (int yy = y - 1; yy <= y + 1; yy++) {
-                if (isWeak(xx, yy, gray)) {
-                    gray.getRaster().setPixel(xx, yy, tmp000);
-                    trackWeakOnes(xx, yy, gray);
-                }
-            }
-    }
-
-    private boolean isWeak(int x, int y, BufferedImage gray) {
-        return (gray.getRaster().getPixel(x, y, tmpPixel)[0] > 0 && gray.getRaster().getPixel(x, y, tmpPixel)[0] < 255);
-    }
-
-    private void setPixel(int x, int y, BufferedImage gray, double v) {
-        if (v > thresholdLow) gray.getRaster().setPixel(x, y, tmp000);
-        else if (v > thresholdHigh) gray.getRaster().setPixel(x, y, tmp128);
-        else gray.getRaster().setPixel(x, y, tmp255);
-    }
-
-    private void sobelFilter(BufferedImage gray, double[][] gx, double[][] gy) {
-        int[] tmp = new int[4];
-        int tmpSumX = 0, tmpSumY = 0, pix;
-        for (int x = 1; x < gray.getWidth() - 1; x++) {
-            for (int y = 1; y < gray.getHeight() - 1; y++) {
-                tmpSumX = 0;
-                tmpSumY = 0;
-                pix = gray.getRaster().getPixel(x - 1, y - 1, tmp)[0];
-                tmpSumX += pix;
-                tmpSumY += pix;
-                pix = gray.getRaster().getPixel(x - 1, y, tmp)[0];
-                tmpSumX += 2 * pix;
-                pix = gray.getRaster().getPixel(x - 1, y + 1, tmp)[0];
-                tmpSumX += pix;
-                tmpSumY -= pix;
-
-                pix = gray.getRaster().getPixel(x + 1, y - 1, tmp)[0];
-                tmpSumX -= pix;
-                tmpSumY += pix;
-                pix = gray.getRaster().getPixel(x + 1, y, tmp)[0];
-                tmpSumX -= 2 * pix;
-                pix = gray.getRaster().getPixel(x + 1, y + 1, tmp)[0];
-                tmpSumX -= pix;
-                tmpSumY -= pix;
-                gx[x][y] = tmpSumX;
-
-                tmpSumY += 2 * gray.getRaster().getPixel(x, y - 1, tmp)[0];
-                tmpSumY -= 2 * gray.getRaster().getPixel(x, y + 1, tmp)[0];
-                gy[x][y] = tmpSumY;
-
-            }
-        }
-        for (int x = 0; x < gray.getWidth(); x++) {
-            gx[x][0] = 0;
-            gx[x][gray.getHeight() - 1] = 0;
-            gy[x][0] = 0;
-            gy[x][gray.getHeight() - 1] = 0;
-        }
-        for (int y = 0; y < gray.getHeight(); y++) {
-            gx[0][y] = 0;
-            gx[gray.getWidth() - 1][y] = 0;
-            gy[0][y] = 0;
-            gy[gray.getWidth() - 1][y] = 0;
-        }
-    }
-
     @Override
     public String getFeatureName() {
         return "Spatial Pyramid of Local Binary Patterns";
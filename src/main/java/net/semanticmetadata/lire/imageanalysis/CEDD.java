@@ -43,7 +43,8 @@ package net.semanticmetadata.lire.imageanalysis;
 
 import net.semanticmetadata.lire.DocumentBuilder;
 import net.semanticmetadata.lire.imageanalysis.cedd.*;
-import net.semanticmetadata.lire.utils.ImageUtils;
+import net.semanticmetadata.lire.imageanalysis.distance.DistanceKernels;
+import net.semanticmetadata.lire.imageanalysis.utils.ImageContext;
 import net.semanticmetadata.lire.utils.MetricsUtils;
 import net.semanticmetadata.lire.utils.SerializationUtils;
 
@@ -60,7 +61,7 @@ import java.util.StringTokenizer;
  *
  * @author: Savvas A. Chatzichristofis, savvash@gmail.com
  */
-public class CEDD implements LireFeature {
+public class CEDD implements ImageContextFeature {
     private double T0;
     private double T1;
     private double T2;
@@ -70,10 +71,25 @@ public class CEDD implements LireFeature {
     protected byte[] histogram = new byte[144];
 
     int tmp;
-    // for tanimoto:
-    private double Result, Temp1, Temp2, TempCount1, TempCount2, TempCount3;
-    private CEDD tmpFeature;
-    private double iTmp1, iTmp2;
+
+    /**
+     * Buffers reused by all extractions of a thread.
+     */
+    private static class Scratch {
+        final int[] hsv = new int[3];
+        final int[] edges = new int[6];
+        final double[] fuzzy10 = new double[10];
+        final double[] fuzzy24 = new double[24];
+        final MaskResults maskValues = new MaskResults();
+        final Neighborhood neighborhood = new Neighborhood();
+    }
+
+    private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
 
 
     public CEDD(double Th0, double Th1, double Th2, double Th3, boolean CompactDescriptor) {
@@ -94,25 +110,20 @@ public class CEDD implements LireFeature {
     // Apply filter
     // signature changed by mlux
     public void extract(BufferedImage image) {
-        image= ImageUtils.get8BitRGBImage(image);
-        Fuzzy10Bin Fuzzy10 = new Fuzzy10Bin(false);
-        Fuzzy24Bin Fuzzy24 = new Fuzzy24Bin(false);
-        RGB2HSV HSVConverter = new RGB2HSV();
-        int[] HSV = new int[3];
-
-        double[] Fuzzy10BinResultTable = new double[10];
-        double[] Fuzzy24BinResultTable = new double[24];
-        double[] CEDD = new double[144];
+        extract(new ImageContext(image));
+    }
 
-        int width = image.getWidth();
-        int height = image.getHeight();
+    public void extract(ImageContext context) {
+        int[] rgb = context.getRGB();
+        Scratch scratch = SCRATCH.get();
+        int[] HSV = scratch.hsv;
 
+        double[] Fuzzy10BinResultTable = scratch.fuzzy10;
+        double[] Fuzzy24BinResultTable = scratch.fuzzy24;
+        double[] CEDD = new double[144];
 
-        double[][] ImageGrid = new double[width][height];
-        double[][] PixelCount = new double[2][2];
-        int[][] ImageGridRed = new int[width][height];
-        int[][] ImageGridGreen = new int[width][height];
-        int[][] ImageGridBlue = new int[width][height];
+        int width = context.getWidth();
+        int height = context.getHeight();
 
 
 
@@ -149,46 +160,19 @@ public class CEDD implements LireFeature {
 // to here
 
 
-        int[] Edges = new int[6];
+        int[] Edges = scratch.edges;
 
-        MaskResults MaskValues = new MaskResults();
-        Neighborhood PixelsNeighborhood = new Neighborhood();
-
-        for (int i = 0; i < 144; i++) {
-            CEDD[i] = 0;
-        }
-        int pixel;
-        for (int x = 0; x < width; x++) {
-            for (int y = 0; y < height; y++) {
-                pixel = image.getRGB(x, y);
-                ImageGridRed[x][y] = (pixel >> 16) & 0xff;
-                ImageGridGreen[x][y] = (pixel >> 8) & 0xff;
-                ImageGridBlue[x][y] = (pixel) & 0xff;
-                //int mean = (int) (0.114 * ImageGridBlue[x][y] + 0.587 * ImageGridGreen[x][y] + 0.299 * ImageGridRed[x][y]);
-//                ImageGrid[x][y] = (0.114f * ImageGridBlue[x][y] + 0.587f * ImageGridGreen[x][y] + 0.299f * ImageGridRed[x][y]);
-                ImageGrid[x][y] = (0.299f * ((pixel >> 16) & 0xff) +  0.587f * ((pixel >> 8) & 0xff) + 0.114f * ((pixel) & 0xff)  );
-
-            }
-        }
-
-
-        int[] CororRed = new int[Step_Y * Step_X];
-        int[] CororGreen = new int[Step_Y * Step_X];
-        int[] CororBlue = new int[Step_Y * Step_X];
-
-        int[] CororRedTemp = new int[Step_Y * Step_X];
-        int[] CororGreenTemp = new int[Step_Y * Step_X];
-        int[] CororBlueTemp = new int[Step_Y * Step_X];
+        MaskResults MaskValues = scratch.maskValues;
+        Neighborhood PixelsNeighborhood = scratch.neighborhood;
 
         int MeanRed, MeanGreen, MeanBlue;
 
 //plase double check from here
 
-        int TempSum = 0;
         double Max = 0;
 
-        int TemoMAX_X = Step_X * (int)Math.floor(image.getWidth() >> 1);
-        int TemoMAX_Y = Step_Y * (int)Math.floor(image.getHeight() >> 1);
+        int TemoMAX_X = Step_X * (int)Math.floor(width >> 1);
+        int TemoMAX_Y = Step_Y * (int)Math.floor(height >> 1);
 
         if (NumberOfBlocks > 0)
         {
@@ -218,35 +202,27 @@ public class CEDD implements LireFeature {
                 Edges[4] = -1;
                 Edges[5] = -1;
 
-                for (int i = 0; i < 2; i++) {
-                    for (int j = 0; j < 2; j++) {
-                        PixelCount[i][j] = 0;
-                    }
-                }
-
-                TempSum = 0;
-
+                // the pixels of the block are read row by row from the flat array, the sums of the four areas are
+                // computed in the same order as before, so the descriptor does not change.
                 for (int i = y; i < y + Step_Y; i++) {
-                    for (int j = x; j < x + Step_X; j++) {
-
-                        CororRed[TempSum] = ImageGridRed[j][i];
-                        CororGreen[TempSum] = ImageGridGreen[j][i];
-                        CororBlue[TempSum] = ImageGridBlue[j][i];
-
-                        CororRedTemp[TempSum] = ImageGridRed[j][i];
-                        CororGreenTemp[TempSum] = ImageGridGreen[j][i];
-                        CororBlueTemp[TempSum] = ImageGridBlue[j][i];
-
-                        TempSum++;
-
-                        if (j < (x + Step_X / 2) && i < (y + Step_Y / 2)) PixelsNeighborhood.Area1 += (ImageGrid[j][i]);
-                        if (j >= (x + Step_X / 2) && i < (y + Step_Y / 2)) PixelsNeighborhood.Area2 += (ImageGrid[j][i]);
-                        if (j < (x + Step_X / 2) && i >= (y + Step_Y / 2)) PixelsNeighborhood.Area3 += (ImageGrid[j][i]);
-                        if (j >= (x + Step_X / 2) && i >= (y + Step_Y / 2)) PixelsNeighborhood.Area4 += (ImageGrid[j][i]);
-
+                    boolean upper = i < (y + Step_Y / 2);
+                    for (int j = x, k = i * width + x; j < x + Step_X; j++, k++) {
+                        int pixel = rgb[k];
+                        int red = (pixel >> 16) & 0xff, green = (pixel >> 8) & 0xff, blue = pixel & 0xff;
+                        MeanRed += red;
+                        MeanGreen += green;
+                        MeanBlue += blue;
+
+                        double gray = (0.299f * red + 0.587f * green + 0.114f * blue);
+                        if (j < (x + Step_X / 2)) {
+                            if (upper) PixelsNeighborhood.Area1 += gray;
+                            else PixelsNeighborhood.Area3 += gray;
+                        } else {
+                            if (upper) PixelsNeighborhood.Area2 += gray;
+                            else PixelsNeighborhood.Area4 += gray;
+                        }
                     }
                 }
-
                 PixelsNeighborhood.Area1 = (int)(PixelsNeighborhood.Area1 * (4.0 / (Step_X * Step_Y)));
 
                 PixelsNeighborhood.Area2 = (int)(PixelsNeighborhood.Area2 * (4.0 / (Step_X * Step_Y)));
@@ -303,21 +279,15 @@ public class CEDD implements LireFeature {
 
                 }
 
-                for (int i = 0; i < (Step_Y * Step_X); i++) {
-                    MeanRed += CororRed[i];
-                    MeanGreen += CororGreen[i];
-                    MeanBlue += CororBlue[i];
-                }
-
                 MeanRed = (int) (MeanRed / (Step_Y * Step_X));
                 MeanGreen = (int) (MeanGreen / (Step_Y * Step_X));
                 MeanBlue = (int) (MeanBlue / (Step_Y * Step_X));
 
-                HSV = HSVConverter.ApplyFilter(MeanRed, MeanGreen, MeanBlue);
+                RGB2HSV.convert(MeanRed, MeanGreen, MeanBlue, HSV);
 
                 if (this.Compact == false) {
-                    Fuzzy10BinResultTable = Fuzzy10.ApplyFilter(HSV[0], HSV[1], HSV[2], 2);
-                    Fuzzy24BinResultTable = Fuzzy24.ApplyFilter(HSV[0], HSV[1], HSV[2], Fuzzy10BinResultTable, 2);
+                    FuzzyColorTables.fuzzy10(HSV[0], HSV[1], HSV[2], Fuzzy10BinResultTable);
+                    FuzzyColorTables.fuzzy24(HSV[1], HSV[2], Fuzzy10BinResultTable, Fuzzy24BinResultTable);
 
                     for (int i = 0; i <= T; i++) {
                         for (int j = 0; j < 24; j++) {
@@ -325,7 +295,7 @@ public class CEDD implements LireFeature {
                         }
                     }
                 } else {
-                    Fuzzy10BinResultTable = Fuzzy10.ApplyFilter(HSV[0], HSV[1], HSV[2], 2);
+                    FuzzyColorTables.fuzzy10(HSV[0], HSV[1], HSV[2], Fuzzy10BinResultTable);
                     for (int i = 0; i <= T; i++) {
                         for (int j = 0; j < 10; j++) {
                             if (Fuzzy10BinResultTable[j] > 0) CEDD[10 * Edges[i] + j] += Fuzzy10BinResultTable[j];
@@ -372,40 +342,14 @@ public class CEDD implements LireFeature {
             throw new UnsupportedOperationException("Wrong descriptor.");
 
         // casting ...
-        tmpFeature = (CEDD) vd;
+        CEDD tmpFeature = (CEDD) vd;
 
         // check if parameters are fitting ...
         if ((tmpFeature.histogram.length != histogram.length))
             throw new UnsupportedOperationException("Histogram lengths or color spaces do not match");
 
-        // Init Tanimoto coefficient
-        Result = 0;
-        Temp1 = 0;
-        Temp2 = 0;
-        TempCount1 = 0;
-        TempCount2 = 0;
-        TempCount3 = 0;
-
-        for (int i = 0; i < tmpFeature.histogram.length; i++) {
-            Temp1 += tmpFeature.histogram[i];
-            Temp2 += histogram[i];
-        }
-
-        if (Temp1 == 0 && Temp2 == 0) return 0f;
-        if (Temp1 == 0 || Temp2 == 0) return 100f;
-
-        for (int i = 0; i < tmpFeature.histogram.length; i++) {
-            iTmp1 = tmpFeature.histogram[i] / Temp1;
-            iTmp2 = histogram[i] / Temp2;
-            TempCount1 += iTmp1 * iTmp2;
-            TempCount2 += iTmp2 * iTmp2;
-            TempCount3 += iTmp1 * iTmp1;
-
-        }
-
-        Result = (100 - 100 * (TempCount1 / (TempCount2 + TempCount3 - TempCount1)));
-        return (float) Result;
-
+        // Tanimoto coefficient, computed with integer sums and without instance fields, so it is thread safe.
+        return DistanceKernels.tanimoto(tmpFeature.histogram, histogram);
     }
 
     @SuppressWarnings("unused")
@@ -42,6 +42,7 @@ package net.semanticmetadata.lire.imageanalysis;
 
 import net.semanticmetadata.lire.DocumentBuilder;
 import net.semanticmetadata.lire.imageanalysis.mpeg7.ColorLayoutImpl;
+import net.semanticmetadata.lire.imageanalysis.utils.ImageContext;
 
 /**
  * Just a wrapper for the use of LireFeature.
@@ -50,7 +51,11 @@ import net.semanticmetadata.lire.imageanalysis.mpeg7.ColorLayoutImpl;
  *
  * @author Mathias Lux, mathias@juggle.at
  */
-public class ColorLayout extends ColorLayoutImpl implements LireFeature {
+public class ColorLayout extends ColorLayoutImpl implements ImageContextFeature {
+    public void extract(ImageContext context) {
+        extract(context.getYCbCr(), context.getWidth(), context.getHeight());
+    }
+
     /**
      * Provides a much faster way of serialization.
      *
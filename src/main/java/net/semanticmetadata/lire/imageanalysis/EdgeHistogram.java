@@ -43,6 +43,7 @@ package net.semanticmetadata.lire.imageanalysis;
 
 import net.semanticmetadata.lire.DocumentBuilder;
 import net.semanticmetadata.lire.imageanalysis.mpeg7.EdgeHistogramImplementation;
+import net.semanticmetadata.lire.imageanalysis.utils.ImageContext;
 import net.semanticmetadata.lire.utils.ConversionUtils;
 
 /**
@@ -52,9 +53,13 @@ import net.semanticmetadata.lire.utils.ConversionUtils;
  *
  * @author Mathias Lux, mathias@juggle.at
  */
-public class EdgeHistogram extends EdgeHistogramImplementation implements LireFeature {
+public class EdgeHistogram extends EdgeHistogramImplementation implements ImageContextFeature {
     private int tmp;
 
+    public void extract(ImageContext context) {
+        extract(context.getYCbCr()[0], context.getWidth(), context.getHeight());
+    }
+
 
     /**
      * Creates a 40 byte array from an edge histogram descriptor.
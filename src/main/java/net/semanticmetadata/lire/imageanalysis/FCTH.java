@@ -41,8 +41,10 @@
 package net.semanticmetadata.lire.imageanalysis;
 
 import net.semanticmetadata.lire.DocumentBuilder;
+import net.semanticmetadata.lire.imageanalysis.cedd.FuzzyColorTables;
+import net.semanticmetadata.lire.imageanalysis.cedd.RGB2HSV;
 import net.semanticmetadata.lire.imageanalysis.fcth.*;
-import net.semanticmetadata.lire.utils.ImageUtils;
+import net.semanticmetadata.lire.imageanalysis.utils.ImageContext;
 
 import java.awt.image.BufferedImage;
 import java.util.Arrays;
@@ -58,7 +60,7 @@ import java.util.StringTokenizer;
  * @author: Savvas A. Chatzichristofis, savvash@gmail.com
  */
 
-public class FCTH implements LireFeature {
+public class FCTH implements ImageContextFeature {
     public boolean Compact = false;
     protected double[] histogram = new double[192];
     int tmp;
@@ -69,6 +71,42 @@ public class FCTH implements LireFeature {
     double distTmpCnt2 = 0;
     double distTmpCnt3 = 0;
 
+    /**
+     * Buffers reused by all extractions of a thread.
+     */
+    private static class Scratch {
+        final int[] hsv = new int[3];
+        final double[] fuzzy10 = new double[10];
+        final double[] fuzzy24 = new double[24];
+        final double[][] block = new double[4][4];
+        final int[][] blockSum = new int[4][4];
+        final int[][] blockCount = new int[4][4];
+        final int[][] quarters = new int[2][];
+
+        /**
+         * @return the quarter of a block of the given size each offset in the block belongs to.
+         */
+        int[] quarters(int axis, int step) {
+            if (quarters[axis] == null || quarters[axis].length != step) {
+                int[] q = new int[step];
+                for (int i = 0; i < step; i++) {
+                    if (i >= (step / 4)) q[i] = 1;
+                    if (i >= (step / 2)) q[i] = 2;
+                    if (i >= (3 * step / 4)) q[i] = 3;
+                }
+                quarters[axis] = q;
+            }
+            return quarters[axis];
+        }
+    }
+
+    private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
 
     // Constructor
     public FCTH() {
@@ -78,50 +116,37 @@ public class FCTH implements LireFeature {
 
     // Apply filter
     public double[] Apply(BufferedImage image) {
-        Fuzzy10Bin Fuzzy10 = new Fuzzy10Bin(false);
-        Fuzzy24Bin Fuzzy24 = new Fuzzy24Bin(false);
+        int width = image.getWidth();
+        int height = image.getHeight();
+        return Apply(image.getRGB(0, 0, width, height, null, 0, width), width, height);
+    }
+
+    /**
+     * Computes the histogram from packed RGB pixels, stored row by row like in {@link ImageContext#getRGB()}.
+     *
+     * @param rgb    the pixels.
+     * @param width  the width of the image.
+     * @param height the height of the image.
+     * @return the histogram.
+     */
+    public double[] Apply(int[] rgb, int width, int height) {
+        Scratch scratch = SCRATCH.get();
         FuzzyFCTHpart FuccyFCTH = new FuzzyFCTHpart();
 
 
-        double[] Fuzzy10BinResultTable = new double[10];
-        double[] Fuzzy24BinResultTable = new double[24];
+        double[] Fuzzy10BinResultTable = scratch.fuzzy10;
+        double[] Fuzzy24BinResultTable = scratch.fuzzy24;
         double[] FuzzyHistogram192 = new double[192];
 
 
         int Method = 2;
-        int width = image.getWidth();
-        int height = image.getHeight();
-
 
-        for (int R = 0; R < 192; R++) {
-            FuzzyHistogram192[R] = 0;
-        }
 
-
-        RGB2HSV HSVConverter = new RGB2HSV();
-        int[] HSV = new int[3];
+        int[] HSV = scratch.hsv;
 
         WaveletMatrixPlus Matrix = new WaveletMatrixPlus();
 
 
-        double[][] ImageGrid = new double[width][height];
-        int[][] ImageGridRed = new int[width][height];
-        int[][] ImageGridGreen = new int[width][height];
-        int[][] ImageGridBlue = new int[width][height];
-
-        for (int x = 0; x < width; x++) {
-            for (int y = 0; y < height; y++) {
-                int pixel = image.getRGB(x, y);
-                ImageGridRed[x][y] = (pixel >> 16) & 0xff;
-                ImageGridGreen[x][y] = (pixel >> 8) & 0xff;
-                ImageGridBlue[x][y] = (pixel) & 0xff;
-
-                int mean = (int) (0.114 * ImageGridBlue[x][y] + 0.587 * ImageGridGreen[x][y] + 0.299 * ImageGridRed[x][y]);
-                ImageGrid[x][y] = mean;
-            }
-        }
-
-
         int NumberOfBlocks = 1600;
         int Step_X = (int) Math.floor(width / Math.sqrt(NumberOfBlocks));
         int Step_Y = (int) Math.floor(height / Math.sqrt(NumberOfBlocks));
@@ -136,104 +161,67 @@ public class FCTH implements LireFeature {
 
         if (Step_Y < 4) Step_Y = 4;
         if (Step_X < 4) Step_X = 4;
+
+        // the quarter of the block each column and row of a block belongs to.
+        int[] QuarterX = scratch.quarters(0, Step_X);
+        int[] QuarterY = scratch.quarters(1, Step_Y);
+        double[][] Block = scratch.block;
+        int[][] BlockSum = scratch.blockSum;
+        int[][] BlockCount = scratch.blockCount;
         ///
         // Filter
 
         for (int y = 0; y < height - Step_Y; y += Step_Y) {
             for (int x = 0; x < width - Step_X; x += Step_X) {
-                //int[][] BinaryBlock = new int[4][4];
-                double[][] Block = new double[4][4];
-                int[][] BlockR = new int[4][4];
-                int[][] BlockG = new int[4][4];
-                int[][] BlockB = new int[4][4];
-                int[][] BlockCount = new int[4][4];
-
-                int[] CororRed = new int[Step_Y * Step_X];
-                int[] CororGreen = new int[Step_Y * Step_X];
-                int[] CororBlue = new int[Step_Y * Step_X];
-
-                int[] CororRedTemp = new int[Step_Y * Step_X];
-                int[] CororGreenTemp = new int[Step_Y * Step_X];
-                int[] CororBlueTemp = new int[Step_Y * Step_X];
-
                 int MeanRed = 0;
                 int MeanGreen = 0;
                 int MeanBlue = 0;
-                int CurrentPixelX = 0;
-                int CurrentPixelY = 0;
                 for (int i = 0; i < 4; i++) {
-
                     for (int j = 0; j < 4; j++) {
-                        Block[i][j] = 0;
+                        BlockSum[i][j] = 0;
                         BlockCount[i][j] = 0;
                     }
                 }
-                //#endregion
-
-                int TempSum = 0;
-                for (int i = 0; i < Step_X; i++) {
-                    for (int j = 0; j < Step_Y; j++) {
-                        CurrentPixelX = 0;
-                        CurrentPixelY = 0;
 
-                        if (i >= (Step_X / 4)) CurrentPixelX = 1;
-                        if (i >= (Step_X / 2)) CurrentPixelX = 2;
-                        if (i >= (3 * Step_X / 4)) CurrentPixelX = 3;
-
-                        if (j >= (Step_Y / 4)) CurrentPixelY = 1;
-                        if (j >= (Step_Y / 2)) CurrentPixelY = 2;
-                        if (j >= (3 * Step_Y / 4)) CurrentPixelY = 3;
-
-                        Block[CurrentPixelX][CurrentPixelY] += ImageGrid[x + i][y + j];
-                        BlockCount[CurrentPixelX][CurrentPixelY]++;
-
-                        BlockR[CurrentPixelX][CurrentPixelY] = ImageGridRed[x + i][y + j];
-                        BlockG[CurrentPixelX][CurrentPixelY] = ImageGridGreen[x + i][y + j];
-                        BlockB[CurrentPixelX][CurrentPixelY] = ImageGridBlue[x + i][y + j];
-
-                        CororRed[TempSum] = BlockR[CurrentPixelX][CurrentPixelY];
-                        CororGreen[TempSum] = BlockG[CurrentPixelX][CurrentPixelY];
-                        CororBlue[TempSum] = BlockB[CurrentPixelX][CurrentPixelY];
-
-                        CororRedTemp[TempSum] = BlockR[CurrentPixelX][CurrentPixelY];
-                        CororGreenTemp[TempSum] = BlockG[CurrentPixelX][CurrentPixelY];
-                        CororBlueTemp[TempSum] = BlockB[CurrentPixelX][CurrentPixelY];
-
-
-                        TempSum++;
+                // the gray values are integers, so their sums are exact and the pixels can be read row by row.
+                for (int j = 0; j < Step_Y; j++) {
+                    for (int i = 0, k = (y + j) * width + x; i < Step_X; i++, k++) {
+                        int pixel = rgb[k];
+                        int red = (pixel >> 16) & 0xff, green = (pixel >> 8) & 0xff, blue = pixel & 0xff;
+                        MeanRed += red;
+                        MeanGreen += green;
+                        MeanBlue += blue;
+
+                        int CurrentPixelX = QuarterX[i];
+                        BlockSum[CurrentPixelX][QuarterY[j]] += (int) (0.114 * blue + 0.587 * green + 0.299 * red);
+                        BlockCount[CurrentPixelX][QuarterY[j]]++;
                     }
                 }
 
 
                 for (int i = 0; i < 4; i++) {
                     for (int j = 0; j < 4; j++) {
-                        Block[i][j] = Block[i][j] / BlockCount[i][j];
+                        Block[i][j] = (double) BlockSum[i][j] / BlockCount[i][j];
                     }
                 }
 
                 Matrix = singlePassThreshold(Block, 1);
 
 
-                for (int i = 0; i < (Step_Y * Step_X); i++) {
-                    MeanRed += CororRed[i];
-                    MeanGreen += CororGreen[i];
-                    MeanBlue += CororBlue[i];
-                }
-
                 MeanRed = (int) (MeanRed / (Step_Y * Step_X));
                 MeanGreen = (int) (MeanGreen / (Step_Y * Step_X));
                 MeanBlue = (int) (MeanBlue / (Step_Y * Step_X));
 
 
-                HSV = HSVConverter.ApplyFilter(MeanRed, MeanGreen, MeanBlue);
+                RGB2HSV.convert(MeanRed, MeanGreen, MeanBlue, HSV);
 
                 if (Compact == false) {
-                    Fuzzy10BinResultTable = Fuzzy10.ApplyFilter(HSV[0], HSV[1], HSV[2], Method);
-                    Fuzzy24BinResultTable = Fuzzy24.ApplyFilter(HSV[0], HSV[1], HSV[2], Fuzzy10BinResultTable, Method);
+                    FuzzyColorTables.fuzzy10(HSV[0], HSV[1], HSV[2], Fuzzy10BinResultTable);
+                    FuzzyColorTables.fuzzy24(HSV[1], HSV[2], Fuzzy10BinResultTable, Fuzzy24BinResultTable);
                     FuzzyHistogram192 = FuccyFCTH.ApplyFilter(Matrix.F3, Matrix.F2, Matrix.F1, Fuzzy24BinResultTable, Method, 24);
 
                 } else {
-                    Fuzzy10BinResultTable = Fuzzy10.ApplyFilter(HSV[0], HSV[1], HSV[2], Method);
+                    FuzzyColorTables.fuzzy10(HSV[0], HSV[1], HSV[2], Fuzzy10BinResultTable);
                     FuzzyHistogram192 = FuccyFCTH.ApplyFilter(Matrix.F3, Matrix.F2, Matrix.F1, Fuzzy10BinResultTable, Method, 10);
 
                 }
@@ -357,8 +345,11 @@ public class FCTH implements LireFeature {
     }
 
     public void extract(BufferedImage bimg) {
-        bimg = ImageUtils.get8BitRGBImage(bimg);
-        histogram = Apply(bimg);
+        extract(new ImageContext(bimg));
+    }
+
+    public void extract(ImageContext context) {
+        histogram = Apply(context.getRGB(), context.getWidth(), context.getHeight());
     }
 
     /**
@@ -41,6 +41,7 @@
 package net.semanticmetadata.lire.imageanalysis;
 
 import net.semanticmetadata.lire.DocumentBuilder;
+import net.semanticmetadata.lire.imageanalysis.utils.ImageContext;
 
 import java.awt.image.BufferedImage;
 import java.util.Arrays;
@@ -50,7 +51,7 @@ import java.util.Arrays;
  *
  * @author: Savvas A. Chatzichristofis, savvash@gmail.com
  */
-public class JCD implements LireFeature {
+public class JCD implements ImageContextFeature {
     protected double[] data = new double[168];
     int tmp;
     double result = 0;
@@ -103,10 +104,14 @@ public class JCD implements LireFeature {
 //    }
 
     public void extract(BufferedImage bimg) {
+        extract(new ImageContext(bimg));
+    }
+
+    public void extract(ImageContext context) {
         CEDD c = new CEDD();
-        c.extract(bimg);
+        c.extract(context);
         FCTH f = new FCTH();
-        f.extract(bimg);
+        f.extract(context);
         init(c, f);
     }
 /*
@@ -42,6 +42,7 @@
 package net.semanticmetadata.lire.imageanalysis;
 
 import net.semanticmetadata.lire.DocumentBuilder;
+import net.semanticmetadata.lire.imageanalysis.utils.ImageContext;
 import net.semanticmetadata.lire.utils.ImageUtils;
 import net.semanticmetadata.lire.utils.MetricsUtils;
 
@@ -54,24 +55,28 @@ import java.util.Arrays;
  * @author Mathias Lux, mathias@juggle.at
  * Time: 21.06.13 13:51
  */
-public class LocalBinaryPatterns implements LireFeature {
+public class LocalBinaryPatterns implements ImageContextFeature {
     double[] histogram = new double[256];
 
     public void extract(BufferedImage image) {
+        extract(new ImageContext(image));
+    }
+
+    public void extract(ImageContext context) {
         Arrays.fill(histogram, 0d);
-        extractRadiusWithOne(image);
+        extractRadiusWithOne(context.getGray(), context.getWidth(), context.getHeight());
     }
 
-    private void extractRadiusWithOne(BufferedImage image) {
-        // first convert to intensity only.
-        WritableRaster raster = ImageUtils.getGrayscaleImage(image).getRaster();
+    private void extractRadiusWithOne(byte[] gray, int width, int height) {
         // cached pixel array
         int[] pixel = new int[9];
         int bin = 0;
         // now fill histogram according to LBP definition.
-        for (int x = 0; x < raster.getWidth() - 2; x++) {
-            for (int y = 0; y < raster.getHeight() - 2; y++) {
-                raster.getPixels(x, y, 3, 3, pixel);
+        for (int x = 0; x < width - 2; x++) {
+            for (int y = 0; y < height - 2; y++) {
+                for (int i = 0; i < 9; i++) {
+                    pixel[i] = gray[(y + i / 3) * width + x + i % 3] & 0xff;
+                }
                 if (pixel[0] >= pixel[4]) bin += 1;
                 if (pixel[1] >= pixel[4]) bin += 2;
                 if (pixel[2] >= pixel[4]) bin += 4;
@@ -42,6 +42,7 @@
 package net.semanticmetadata.lire.imageanalysis;
 
 import net.semanticmetadata.lire.DocumentBuilder;
+import net.semanticmetadata.lire.imageanalysis.filters.EdgeFilters;
 import net.semanticmetadata.lire.utils.MetricsUtils;
 import net.semanticmetadata.lire.utils.SerializationUtils;
 
@@ -57,10 +58,6 @@ import java.awt.image.ColorConvertOp;
  */
 public class PHOG implements LireFeature {
     static ColorConvertOp grayscale = new ColorConvertOp(ColorSpace.getInstance(ColorSpace.CS_GRAY), null);
-    int[] tmp255 = {255};
-    int[] tmp128 = {128};
-    int[] tmp000 = {0};
-    int[] tmpPixel = {0};
     int tmp;
     // double thresholds for Canny edge detector
     double thresholdLow = 60, thresholdHigh = 100;
@@ -74,108 +71,58 @@ public class PHOG implements LireFeature {
     // Note that a quantization factor of 127d has better precision, but is not supported by the current serialization method.
     private double quantizationFactor = 15d;
 
+    // buffers for the edge detection, kept per thread and reused for images of the same size or smaller.
+    private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
 
-    public void extract(BufferedImage bimg) {
-        // All for Canny Edge ...
-        BufferedImage gray;
-        double[][] gx = null, gy = null;
-        double[][] gd, gm;
+    private static class Scratch {
+        short[] gx = new short[0], gy = new short[0];
+        int[] magnitude = new int[0], stack = new int[0];
+        byte[] edges = new byte[0];
 
-        // doing canny edge detection first:
-        // filter images:
-        gray = grayscale.filter(bimg, new BufferedImage(bimg.getWidth(), bimg.getHeight(), BufferedImage.TYPE_BYTE_GRAY));
-//        gray = gaussian.filter(gray, null);
-        // TODO: Combine the next few steps to just iterate through the pixels once!
-        gx = new double[gray.getWidth()][gray.getHeight()];
-        gy = new double[gray.getWidth()][gray.getHeight()];
-        sobelFilter(gray, gx, gy);
-//        gx = sobelFilterX(gray);
-//        gy = sobelFilterY(gray);
-        int width = gray.getWidth();
-        int height = gray.getHeight();
-        gd = new double[width][height];
-        gm = new double[width][height];
-        for (int x = 0; x < width; x++) {
-            for (int y = 0; y < height; y++) {
-                // setting gradient magnitude and gradient direction
-                if (gx[x][y] != 0) {
-                    gd[x][y] = Math.atan(gy[x][y] / gx[x][y]);
-                } else {
-                    gd[x][y] = Math.PI / 2d;
-                }
-                gm[x][y] = Math.sqrt(gy[x][y]*gy[x][y] + gx[x][y]*gx[x][y]);
-//                gm[x][y] = Math.hypot(gy[x][y], gx[x][y]);
-            }
-        }
-        // Non-maximum suppression
-        for (int x = 0; x < width; x++) {
-            gray.getRaster().setPixel(x, 0, new int[]{255});
-            gray.getRaster().setPixel(x, height - 1, new int[]{255});
-        }
-        for (int y = 0; y < height; y++) {
-            gray.getRaster().setPixel(0, y, new int[]{255});
-            gray.getRaster().setPixel(width - 1, y, new int[]{255});
-        }
-        for (int x = 1; x < width - 1; x++) {
-            for (int y = 1; y < height - 1; y++) {
-                if (gd[x][y] < (Math.PI / 8d) && gd[x][y] >= (-Math.PI / 8d)) {
-                    if (gm[x][y] > gm[x + 1][y] && gm[x][y] > gm[x - 1][y])
-                        setPixel(x, y, gray, gm[x][y]);
-                    else
-                        gray.getRaster().setPixel(x, y, tmp255);
-                } else if (gd[x][y] < (3d * Math.PI / 8d) && gd[x][y] >= (Math.PI / 8d)) {
-                    if (gm[x][y] > gm[x - 1][y - 1] && gm[x][y] > gm[x + 1][y + 1])
-                        setPixel(x, y, gray, gm[x][y]);
-                    else
-                        gray.getRaster().setPixel(x, y, tmp255);
-                } else if (gd[x][y] < (-3d * Math.PI / 8d) || gd[x][y] >= (3d * Math.PI / 8d)) {
-                    if (gm[x][y] > gm[x][y + 1] && gm[x][y] > gm[x][y - 1])
-                        setPixel(x, y, gray, gm[x][y]);
-                    else
-                        gray.getRaster().setPixel(x, y, tmp255);
-                } else if (gd[x][y] < (-Math.PI / 8d) && gd[x][y] >= (-3d * Math.PI / 8d)) {
-                    if (gm[x][y] > gm[x + 1][y - 1] && gm[x][y] > gm[x - 1][y + 1])
-                        setPixel(x, y, gray, gm[x][y]);
-                    else
-                        gray.getRaster().setPixel(x, y, tmp255);
-                } else {
-                    gray.getRaster().setPixel(x, y, tmp255);
-                }
-            }
-        }
-        // hysteresis ... walk along lines of strong pixels and make the weak ones strong.
-        int[] tmp = {0};
-        for (int x = 1; x < width - 1; x++) {
-            for (int y = 1; y < height - 1; y++) {
-                if (gray.getRaster().getPixel(x, y, tmp)[0] < 50) {
-                    // It's a strong pixel, lets find the neighbouring weak ones.
-                    trackWeakOnes(x, y, gray);
-                }
-            }
-        }
-        // removing the single weak pixels.
-        for (int x = 2; x < width - 2; x++) {
-            for (int y = 2; y < height - 2; y++) {
-                if (gray.getRaster().getPixel(x, y, tmp)[0] > 50) {
-                    gray.getRaster().setPixel(x, y, tmp255);
-                }
+        void ensureCapacity(int pixels) {
+            if (edges.length < pixels) {
+                gx = new short[pixels];
+                gy = new short[pixels];
+                magnitude = new int[pixels];
+                stack = new int[pixels];
+                edges = new byte[pixels];
             }
         }
+    }
+
+    public void extract(BufferedImage bimg) {
+        // doing canny edge detection first:
+        BufferedImage grayImage = grayscale.filter(bimg, new BufferedImage(bimg.getWidth(), bimg.getHeight(), BufferedImage.TYPE_BYTE_GRAY));
+        byte[] gray = EdgeFilters.getGrayPixels(grayImage);
+        int width = grayImage.getWidth();
+        int height = grayImage.getHeight();
+        Scratch scratch = SCRATCH.get();
+        scratch.ensureCapacity(width * height);
+        EdgeFilters.sobel(gray, width, height, scratch.gx, scratch.gy, scratch.magnitude);
+        // Note that pixels above thresholdLow are the strong edges, the ones above thresholdHigh the weak ones.
+        EdgeFilters.nonMaxSuppression(scratch.gx, scratch.gy, scratch.magnitude, width, height,
+                thresholdHigh, thresholdLow, scratch.edges);
+        EdgeFilters.hysteresis(scratch.edges, width, height, scratch.stack);
 
         // Canny Edge Detection over ... lets go for the PHOG ...
         tmpHistogram = new double[bins + 4*bins + 4*4*bins];
         // for level 3:
 //        histogram = new double[5 * bins + 4*4*bins + 4*4*4*bins];
         //level0
-        System.arraycopy(getHistogram(0, 0, width, height, gray, gd), 0, tmpHistogram, 0, bins);
+        System.arraycopy(getHistogram(0, 0, width, height, width, scratch), 0, tmpHistogram, 0, bins);
         //level1
-        System.arraycopy(getHistogram(0, 0, width / 2, height / 2, gray, gd),
+        System.arraycopy(getHistogram(0, 0, width / 2, height / 2, width, scratch),
                 0, tmpHistogram, bins, bins);
-        System.arraycopy(getHistogram(width / 2, 0, width / 2, height / 2, gray, gd),
+        System.arraycopy(getHistogram(width / 2, 0, width / 2, height / 2, width, scratch),
                 0, tmpHistogram, 2 * bins, bins);
-        System.arraycopy(getHistogram(0, height / 2, width / 2, height / 2, gray, gd),
+        System.arraycopy(getHistogram(0, height / 2, width / 2, height / 2, width, scratch),
                 0, tmpHistogram, 3 * bins, bins);
-        System.arraycopy(getHistogram(width / 2, height / 2, width / 2, height / 2, gray, gd),
+        System.arraycopy(getHistogram(width / 2, height / 2, width / 2, height / 2, width, scratch),
                 0, tmpHistogram, 4 * bins, bins);
         // level 2
         int wstep = width / 4;
@@ -183,7 +130,7 @@ public class PHOG implements LireFeature {
         int binPos = 5; // the next free section in the histogram
         for (int i = 0; i< 4; i++) {
             for (int j=0; j<4; j++) {
-                System.arraycopy(getHistogram(i*wstep, j*hstep, wstep, hstep, gray, gd),
+                System.arraycopy(getHistogram(i*wstep, j*hstep, wstep, hstep, width, scratch),
                         0, tmpHistogram, binPos*bins, bins);
                 binPos++;
             }
@@ -197,7 +144,7 @@ public class PHOG implements LireFeature {
 //        hstep = height / 8;
 //        for (int i = 0; i< 8; i++) {
 //            for (int j=0; j<8; j++) {
-//                System.arraycopy(getHistogram(i*wstep, j*hstep, wstep, hstep, gray, gd),
+//                System.arraycopy(getHistogram(i*wstep, j*hstep, wstep, hstep, width, scratch),
 //                        0, histogram, binPos*bins, bins);
 //                binPos++;
 //            }
@@ -211,23 +158,24 @@ public class PHOG implements LireFeature {
      * @param startY
      * @param width
      * @param height
-     * @param gray
-     * @param gd
+     * @param imageWidth the width of the whole image.
+     * @param scratch    the edge map and the gradients.
      * @return
      */
-    private double[] getHistogram(int startX, int startY, int width, int height, BufferedImage gray, double gd[][]) {
-        int[] tmp = {0};
+    private double[] getHistogram(int startX, int startY, int width, int height, int imageWidth, Scratch scratch) {
+        byte[] edges = scratch.edges;
+        short[] gx = scratch.gx, gy = scratch.gy;
         double[] result = new double[bins];
-        double actual = 0;
+        double actual = 0, gd;
         int bin;
-        // set initial histogram to 0
-        for (int i = 0; i < result.length; i++) result[i] = 0;
-        // find and increment the right bin/s
+        // find and increment the right bin/s. Note that the fractions are summed up column by column, another order
+        // would change the rounding.
         for (int x = startX; x < startX + width; x++) {
-            for (int y = startY; y < startY + height; y++) {
-                if (gray.getRaster().getPixel(x, y, tmp)[0] < 50) {
+            for (int y = startY, i = startY * imageWidth + x; y < startY + height; y++, i += imageWidth) {
+                if (edges[i] == EdgeFilters.EDGE) {
                     // it's an edge pixel, so it counts in.
-                    actual = (gd[x][y] / Math.PI + 0.5) * (bins);
+                    gd = gx[i] != 0 ? Math.atan((double) gy[i] / (double) gx[i]) : Math.PI / 2d;
+                    actual = (gd / Math.PI + 0.5) * (bins);
                     if (actual == Math.floor(actual)) {  // if it's a discrete thing ...
                         bin = ((int) Math.floor(actual));
                         if (bin == bins) bin = 0;
@@ -258,79 +206,6 @@ public class PHOG implements LireFeature {
         return result;
     }
 
-    /**
-     * Recursive tracking of weak points.
-     *
-     * @param x
-     * @param y
-     * @param gray
-     */
-    private void trackWeakOnes(int x, int y, BufferedImage gray) {
-        for (int xx = x - 1; xx <= x + 1; xx++)
-            for (int yy = y - 1; yy <= y + 1; yy++) {
-                if (isWeak(xx, yy, gray)) {
-                    gray.getRaster().setPixel(xx, yy, tmp000);
-                    trackWeakOnes(xx, yy, gray);
-                }
-            }
-    }
-
-    private boolean isWeak(int x, int y, BufferedImage gray) {
-        return (gray.getRaster().getPixel(x, y, tmpPixel)[0] > 0 && gray.getRaster().getPixel(x, y, tmpPixel)[0] < 255);
-    }
-
-    private void setPixel(int x, int y, BufferedImage gray, double v) {
-        if (v > thresholdLow) gray.getRaster().setPixel(x, y, tmp000);
-        else if (v > thresholdHigh) gray.getRaster().setPixel(x, y, tmp128);
-        else gray.getRaster().setPixel(x, y, tmp255);
-    }
-
-    private static void sobelFilter(BufferedImage gray, double[][] gx, double[][] gy) {
-        int[] tmp = new int[4];
-        int tmpSumX = 0, tmpSumY =0, pix;
-        for (int x = 1; x < gray.getWidth() - 1; x++) {
-            for (int y = 1; y < gray.getHeight() - 1; y++) {
-                tmpSumX = 0;
-                tmpSumY = 0;
-                pix = gray.getRaster().getPixel(x - 1, y - 1, tmp)[0];
-                tmpSumX += pix;
-                tmpSumY += pix;
-                pix = gray.getRaster().getPixel(x - 1, y, tmp)[0];
-                tmpSumX += 2 * pix;
-                pix = gray.getRaster().getPixel(x - 1, y + 1, tmp)[0];
-                tmpSumX += pix;
-                tmpSumY -= pix;
-
-                pix = gray.getRaster().getPixel(x + 1, y - 1, tmp)[0];
-                tmpSumX -= pix;
-                tmpSumY += pix;
-                pix = gray.getRaster().getPixel(x + 1, y, tmp)[0];
-                tmpSumX -= 2 * pix;
-                pix = gray.getRaster().getPixel(x + 1, y + 1, tmp)[0];
-                tmpSumX -= pix;
-                tmpSumY -= pix;
-                gx[x][y] = tmpSumX;
-
-                tmpSumY += 2 * gray.getRaster().getPixel(x    , y - 1, tmp)[0];
-                tmpSumY -= 2 * gray.getRaster().getPixel(x    , y + 1, tmp)[0];
-                gy[x][y] = tmpSumY;
-
-            }
-        }
-        for (int x = 0; x < gray.getWidth(); x++) {
-            gx[x][0] = 0;
-            gx[x][gray.getHeight() - 1] = 0;
-            gy[x][0] = 0;
-            gy[x][gray.getHeight() - 1] = 0;
-        }
-        for (int y = 0; y < gray.getHeight(); y++) {
-            gx[0][y] = 0;
-            gx[gray.getWidth() - 1][y] = 0;
-            gy[0][y] = 0;
-            gy[gray.getWidth() - 1][y] = 0;
-        }
-    }
-
     public byte[] getByteArrayRepresentation() {
         byte[] result = new byte[histogram.length / 2];
         for (int i = 0; i < result.length; i++) {
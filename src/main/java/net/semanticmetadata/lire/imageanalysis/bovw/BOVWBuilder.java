@@ -42,17 +42,24 @@ package net.semanticmetadata.lire.imageanalysis.bovw;
 
 import net.semanticmetadata.lire.DocumentBuilder;
 import net.semanticmetadata.lire.clustering.Cluster;
+import net.semanticmetadata.lire.clustering.CodebookLoader;
+import net.semanticmetadata.lire.clustering.CodebookRegistry;
+import net.semanticmetadata.lire.clustering.FastKMeans;
 import net.semanticmetadata.lire.clustering.KMeans;
-import net.semanticmetadata.lire.clustering.ParallelKMeans;
+import net.semanticmetadata.lire.clustering.Quantizer;
 import net.semanticmetadata.lire.imageanalysis.Histogram;
 import net.semanticmetadata.lire.imageanalysis.LireFeature;
+import net.semanticmetadata.lire.indexing.LireCustomCodec;
 import net.semanticmetadata.lire.utils.LuceneUtils;
 import net.semanticmetadata.lire.utils.SerializationUtils;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
 import org.apache.lucene.index.*;
+import org.apache.lucene.store.Directory;
 import org.apache.lucene.util.Bits;
 
 import javax.swing.*;
@@ -63,6 +70,8 @@ import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * General class creating bag of visual words vocabularies parallel based on k-means. Works with SIFT, SURF and MSER.
@@ -88,6 +97,12 @@ public class BOVWBuilder {
 
     public static boolean DELETE_LOCAL_FEATURES = true;
     private boolean useParallelClustering = true;
+    private int miniBatchSize = 0;
+    private int numThreads = Runtime.getRuntime().availableProcessors();
+    private boolean forceMerge = true;
+    // number of documents read and quantized in one task.
+    private static final int CHUNK_SIZE = 256;
+    private final CodebookLoader codebook = new CodebookLoader();
 
     /**
      *
@@ -189,117 +204,16 @@ public class BOVWBuilder {
      */
     public void index() throws IOException {
         init();
-        df.setMaximumFractionDigits(3);
-        // find the documents for building the vocabulary:
-        HashSet<Integer> docIDs = selectVocabularyDocs();
-        KMeans k;
-        if (useParallelClustering) k = new ParallelKMeans(numClusters);
-        else k = new KMeans(numClusters);
-        // fill the KMeans object:
-        LinkedList<double[]> features = new LinkedList<double[]>();
-        // Needed for check whether the document is deleted.
-        Bits liveDocs = MultiFields.getLiveDocs(reader);
-        for (Iterator<Integer> iterator = docIDs.iterator(); iterator.hasNext(); ) {
-            int nextDoc = iterator.next();
-            if (reader.hasDeletions() && !liveDocs.get(nextDoc)) continue; // if it is deleted, just ignore it.
-            Document d = reader.document(nextDoc);
-            features.clear();
-            IndexableField[] fields = d.getFields(localFeatureFieldName);
-            String file = d.getValues(DocumentBuilder.FIELD_NAME_IDENTIFIER)[0];
-            for (int j = 0; j < fields.length; j++) {
-                LireFeature f = getFeatureInstance();
-                f.setByteArrayRepresentation(fields[j].binaryValue().bytes, fields[j].binaryValue().offset, fields[j].binaryValue().length);
-                // copy the data over to new array ...
-                double[] feat = new double[f.getDoubleHistogram().length];
-                System.arraycopy(f.getDoubleHistogram(), 0, feat, 0, feat.length);
-                features.add(f.getDoubleHistogram());
-            }
-            k.addImage(file, features);
-        }
-        if (pm != null) { // set to 5 of 100 before clustering starts.
-            pm.setProgress(5);
-            pm.setNote("Starting clustering");
-        }
-        if (k.getFeatureCount() < numClusters) {
-            // this cannot work. You need more data points than clusters.
-            throw new UnsupportedOperationException("Only " + features.size() + " features found to cluster in " + numClusters + ". Try to use less clusters or more images.");
-        }
-        // do the clustering:
-        System.out.println("Number of local features: " + df.format(k.getFeatureCount()));
-        System.out.println("Starting clustering ...");
-        k.init();
-        System.out.println("Step.");
-        double time = System.currentTimeMillis();
-        double laststress = k.clusteringStep();
-
-        if (pm != null) { // set to 8 of 100 after first step.
-            pm.setProgress(8);
-            pm.setNote("Step 1 finished");
-        }
-
-        System.out.println(getDuration(time) + " -> Next step.");
-        time = System.currentTimeMillis();
-        double newStress = k.clusteringStep();
-
-        if (pm != null) { // set to 11 of 100 after second step.
-            pm.setProgress(11);
-            pm.setNote("Step 2 finished");
-        }
-
-        // critical part: Give the difference in between steps as a constraint for accuracy vs. runtime trade off.
-        double threshold = Math.max(20d, (double) k.getFeatureCount() / 1000d);
-        System.out.println("Threshold = " + df.format(threshold));
-        int cstep = 3;
-        while (Math.abs(newStress - laststress) > threshold && cstep < 12) {
-            System.out.println(getDuration(time) + " -> Next step. Stress difference ~ |" + (int) newStress + " - " + (int) laststress + "| = " + df.format(Math.abs(newStress - laststress)));
-            time = System.currentTimeMillis();
-            laststress = newStress;
-            newStress = k.clusteringStep();
-            if (pm != null) { // set to XX of 100 after second step.
-                pm.setProgress(cstep * 3 + 5);
-                pm.setNote("Step " + cstep + " finished");
-            }
-            cstep++;
-        }
-        // Serializing clusters to a file on the disk ...
-        clusters = k.getClusters();
-//        for (int i = 0; i < clusters.length; i++) {
-//            Cluster cluster = clusters[i];
-//            System.out.print(cluster.getMembers().size() + ", ");
-//        }
-//        System.out.println();
-        Cluster.writeClusters(clusters, clusterFile);
+        buildVocabulary();
         //  create & store histograms:
         System.out.println("Creating histograms ...");
-        time = System.currentTimeMillis();
-//        int[] tmpHist = new int[numClusters];
+        double time = System.currentTimeMillis();
         IndexWriter iw = LuceneUtils.createIndexWriter(((DirectoryReader) reader).directory(), true, LuceneUtils.AnalyzerType.WhitespaceAnalyzer, 256d);
         if (pm != null) { // set to 50 of 100 after clustering.
             pm.setProgress(50);
             pm.setNote("Clustering finished");
         }
-        // parallelized indexing
-        LinkedList<Thread> threads = new LinkedList<Thread>();
-        int numThreads = 8;
-        // careful: copy reader to RAM for faster access when reading ...
-//        reader = IndexReader.open(new RAMDirectory(reader.directory()), true);
-        int step = reader.maxDoc() / numThreads;
-        for (int part = 0; part < numThreads; part++) {
-            Indexer indexer = null;
-            if (part < numThreads - 1) indexer = new Indexer(part * step, (part + 1) * step, iw, null);
-            else indexer = new Indexer(part * step, reader.maxDoc(), iw, pm);
-            Thread t = new Thread(indexer);
-            threads.add(t);
-            t.start();
-        }
-        for (Iterator<Thread> iterator = threads.iterator(); iterator.hasNext(); ) {
-            Thread next = iterator.next();
-            try {
-                next.join();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-        }
+        createHistograms(iw, false);
         if (pm != null) { // set to 50 of 100 after clustering.
             pm.setProgress(95);
             pm.setNote("Indexing finished, optimizing index now.");
@@ -308,7 +222,7 @@ public class BOVWBuilder {
         System.out.println(getDuration(time));
         iw.commit();
         // this one does the "old" commit(), it removes the deleted SURF features.
-        iw.forceMerge(1);
+        if (forceMerge) iw.forceMerge(1);
         iw.close();
         if (pm != null) { // set to 50 of 100 after clustering.
             pm.setProgress(100);
@@ -318,11 +232,188 @@ public class BOVWBuilder {
         System.out.println("Finished.");
     }
 
+    /**
+     * Like {@link #index()}, but instead of re-writing all documents of the index, the visual words and histograms
+     * are written to a separate index with one document per docID of the reader, including empty documents for
+     * deleted ones. The local features are not touched. As the docIDs are the same in both indexes, they can be
+     * searched together with a {@link ParallelAtomicReader}:
+     * <pre>
+     * new ParallelAtomicReader(SlowCompositeReaderWrapper.wrap(reader),
+     *         SlowCompositeReaderWrapper.wrap(DirectoryReader.open(visualWordsIndex)));
+     * </pre>
+     * This only holds as long as the main index is not changed, so re-run it after documents have been added or
+     * the index has been merged.
+     *
+     * @param visualWordsIndex the directory of the index for the visual words, it is overwritten.
+     * @throws IOException
+     */
+    public void index(Directory visualWordsIndex) throws IOException {
+        init();
+        buildVocabulary();
+        System.out.println("Creating histograms ...");
+        double time = System.currentTimeMillis();
+        IndexWriterConfig config = new IndexWriterConfig(LuceneUtils.LUCENE_VERSION, new WhitespaceAnalyzer());
+        config.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+        config.setRAMBufferSizeMB(256d);
+        // merges have to keep the order of the documents, so the docIDs match the ones of the reader.
+        config.setMergePolicy(new LogByteSizeMergePolicy());
+        config.setCodec(new LireCustomCodec());
+        IndexWriter iw = new IndexWriter(visualWordsIndex, config);
+        if (pm != null) {
+            pm.setProgress(50);
+            pm.setNote("Clustering finished");
+        }
+        createHistograms(iw, true);
+        System.out.println(getDuration(time));
+        iw.forceMerge(1);
+        iw.close();
+        if (pm != null) {
+            pm.setProgress(100);
+            pm.setNote("Indexing finished");
+            pm.close();
+        }
+        System.out.println("Finished.");
+    }
+
+    /**
+     * Creates the histograms for all documents of the reader. Each segment is split into chunks of documents, which
+     * are read and quantized in parallel. At most two chunks per thread are in work at a time, so memory use does
+     * not depend on the size of the index.
+     *
+     * @param iw        the writer for the results.
+     * @param sideIndex true to add one document with the visual words per docID of the reader, in order, false to
+     *                  update the original documents.
+     */
+    private void createHistograms(IndexWriter iw, boolean sideIndex) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+        LinkedList<Future<Document[]>> pending = new LinkedList<Future<Document[]>>();
+        AtomicInteger done = new AtomicInteger(0);
+        try {
+            for (AtomicReaderContext leaf : reader.leaves()) {
+                int maxDoc = leaf.reader().maxDoc();
+                for (int start = 0; start < maxDoc; start += CHUNK_SIZE) {
+                    pending.add(pool.submit(new HistogramTask(leaf.reader(), start, Math.min(start + CHUNK_SIZE, maxDoc), iw, sideIndex, done)));
+                    if (pending.size() >= 2 * numThreads) writeChunk(pending.removeFirst(), iw);
+                }
+            }
+            while (!pending.isEmpty()) writeChunk(pending.removeFirst(), iw);
+        } finally {
+            for (Future<Document[]> future : pending) future.cancel(true);
+            pool.shutdown();
+        }
+    }
+
+    private void writeChunk(Future<Document[]> chunk, IndexWriter iw) throws IOException {
+        Document[] docs;
+        try {
+            docs = chunk.get();
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+        if (docs != null) iw.addDocuments(Arrays.asList(docs));
+    }
+
+    /**
+     * Selects random documents, clusters their local features and writes the clusters to the cluster file.
+     */
+    private void buildVocabulary() throws IOException {
+        df.setMaximumFractionDigits(3);
+        // find the documents for building the vocabulary:
+        HashSet<Integer> docIDs = selectVocabularyDocs();
+        // the pool is only needed for the parallel clustering, it is shut down once the vocabulary is done.
+        ExecutorService pool = useParallelClustering ? Executors.newFixedThreadPool(numThreads) : null;
+        try {
+            KMeans k;
+            if (useParallelClustering) {
+                FastKMeans fastKMeans = new FastKMeans(numClusters, pool, numThreads);
+                if (miniBatchSize > 0) fastKMeans.setMiniBatch(miniBatchSize, 10);
+                k = fastKMeans;
+            } else k = new KMeans(numClusters);
+            // fill the KMeans object:
+            LinkedList<double[]> features = new LinkedList<double[]>();
+            // Needed for check whether the document is deleted.
+            Bits liveDocs = MultiFields.getLiveDocs(reader);
+            for (Iterator<Integer> iterator = docIDs.iterator(); iterator.hasNext(); ) {
+                int nextDoc = iterator.next();
+                if (reader.hasDeletions() && !liveDocs.get(nextDoc)) continue; // if it is deleted, just ignore it.
+                Document d = reader.document(nextDoc);
+                features.clear();
+                IndexableField[] fields = d.getFields(localFeatureFieldName);
+                String file = d.getValues(DocumentBuilder.FIELD_NAME_IDENTIFIER)[0];
+                for (int j = 0; j < fields.length; j++) {
+                    LireFeature f = getFeatureInstance();
+                    f.setByteArrayRepresentation(fields[j].binaryValue().bytes, fields[j].binaryValue().offset, fields[j].binaryValue().length);
+                    // copy the data over to new array ...
+                    double[] feat = new double[f.getDoubleHistogram().length];
+                    System.arraycopy(f.getDoubleHistogram(), 0, feat, 0, feat.length);
+                    features.add(f.getDoubleHistogram());
+                }
+                k.addImage(file, features);
+            }
+            if (pm != null) { // set to 5 of 100 before clustering starts.
+                pm.setProgress(5);
+                pm.setNote("Starting clustering");
+            }
+            if (k.getFeatureCount() < numClusters) {
+                // this cannot work. You need more data points than clusters.
+                throw new UnsupportedOperationException("Only " + features.size() + " features found to cluster in " + numClusters + ". Try to use less clusters or more images.");
+            }
+            // do the clustering:
+            System.out.println("Number of local features: " + df.format(k.getFeatureCount()));
+            System.out.println("Starting clustering ...");
+            k.init();
+            System.out.println("Step.");
+            double time = System.currentTimeMillis();
+            double laststress = k.clusteringStep();
+
+            if (pm != null) { // set to 8 of 100 after first step.
+                pm.setProgress(8);
+                pm.setNote("Step 1 finished");
+            }
+
+            System.out.println(getDuration(time) + " -> Next step.");
+            time = System.currentTimeMillis();
+            double newStress = k.clusteringStep();
+
+            if (pm != null) { // set to 11 of 100 after second step.
+                pm.setProgress(11);
+                pm.setNote("Step 2 finished");
+            }
+
+            // critical part: Give the difference in between steps as a constraint for accuracy vs. runtime trade off.
+            double threshold = Math.max(20d, (double) k.getFeatureCount() / 1000d);
+            System.out.println("Threshold = " + df.format(threshold));
+            int cstep = 3;
+            while (Math.abs(newStress - laststress) > threshold && cstep < 12) {
+                System.out.println(getDuration(time) + " -> Next step. Stress difference ~ |" + (int) newStress + " - " + (int) laststress + "| = " + df.format(Math.abs(newStress - laststress)));
+                time = System.currentTimeMillis();
+                laststress = newStress;
+                newStress = k.clusteringStep();
+                if (pm != null) { // set to XX of 100 after second step.
+                    pm.setProgress(cstep * 3 + 5);
+                    pm.setNote("Step " + cstep + " finished");
+                }
+                cstep++;
+            }
+            // Serializing clusters to a file on the disk ...
+            clusters = k.getClusters();
+//        for (int i = 0; i < clusters.length; i++) {
+//            Cluster cluster = clusters[i];
+//            System.out.print(cluster.getMembers().size() + ", ");
+//        }
+//        System.out.println();
+            codebook.write(clusters, clusterFile);
+        } finally {
+            if (pool != null) pool.shutdown();
+        }
+    }
 
     public void indexMissing() throws IOException {
         init();
         // Reading clusters from disk:
-        clusters = Cluster.readClusters(clusterFile);
+        loadCodebook();
         //  create & store histograms:
         System.out.println("Creating histograms ...");
         LireFeature f = getFeatureInstance();
@@ -362,7 +453,7 @@ public class BOVWBuilder {
      */
     public Document getVisualWords(Document d) throws IOException {
         init(); // bug report by Haihui Cai
-        clusters = Cluster.readClusters(clusterFile);
+        loadCodebook();
         LireFeature f = getFeatureInstance();
         createVisualWords(d, f);
 
@@ -383,21 +474,12 @@ public class BOVWBuilder {
     /**
      * Find the appropriate cluster for a given feature.
      *
+     * @param quantizer the quantizer of the codebook.
      * @param f
      * @return the index of the cluster.
      */
-    private int clusterForFeature(Histogram f) {
-        double distance = clusters[0].getDistance(f);
-        double tmp;
-        int result = 0;
-        for (int i = 1; i < clusters.length; i++) {
-            tmp = clusters[i].getDistance(f);
-            if (tmp < distance) {
-                distance = tmp;
-                result = i;
-            }
-        }
-        return result;
+    private int clusterForFeature(Quantizer quantizer, Histogram f) {
+        return quantizer.quantize(f.getDoubleHistogram());
     }
 
     private String arrayToVisualWordString(double[] hist) {
@@ -474,42 +556,69 @@ public class BOVWBuilder {
         return result;
     }
 
-    private class Indexer implements Runnable {
-        int start, end;
-        IndexWriter iw;
-        ProgressMonitor pm = null;
-
-        private Indexer(int start, int end, IndexWriter iw, ProgressMonitor pm) {
+    /**
+     * Reads the local features of a range of documents of one segment and creates their visual words. Either
+     * updates the documents directly or returns one document with the visual words per docID.
+     */
+    private class HistogramTask implements Callable<Document[]> {
+        private final AtomicReader reader;
+        private final int start, end;
+        private final IndexWriter iw;
+        private final boolean sideIndex;
+        private final AtomicInteger done;
+
+        private HistogramTask(AtomicReader reader, int start, int end, IndexWriter iw, boolean sideIndex, AtomicInteger done) {
+            this.reader = reader;
             this.start = start;
             this.end = end;
             this.iw = iw;
-            this.pm = pm;
+            this.sideIndex = sideIndex;
+            this.done = done;
         }
 
-        public void run() {
+        public Document[] call() throws IOException {
             LireFeature f = getFeatureInstance();
+            Bits liveDocs = reader.getLiveDocs();
+            Document[] result = sideIndex ? new Document[end - start] : null;
+            HashSet<String> fieldsToLoad = new HashSet<String>(2);
+            fieldsToLoad.add(DocumentBuilder.FIELD_NAME_IDENTIFIER);
+            fieldsToLoad.add(localFeatureFieldName);
             for (int i = start; i < end; i++) {
-                try {
+                if (liveDocs != null && !liveDocs.get(i)) {
+                    if (sideIndex) result[i - start] = new Document();
+                    continue;
+                }
+                if (sideIndex) {
+                    // only the local features are needed, the visual words go to a new document.
+                    Document d = reader.document(i, fieldsToLoad);
+                    Document words = new Document();
+                    String identifier = d.get(DocumentBuilder.FIELD_NAME_IDENTIFIER);
+                    if (identifier != null)
+                        words.add(new StringField(DocumentBuilder.FIELD_NAME_IDENTIFIER, identifier, Field.Store.YES));
+                    for (IndexableField field : d.getFields(localFeatureFieldName)) words.add(field);
+                    createVisualWords(words, f);
+                    words.removeFields(localFeatureFieldName);
+                    result[i - start] = words;
+                } else {
                     Document d = reader.document(i);
                     createVisualWords(d, f);
                     iw.updateDocument(new Term(DocumentBuilder.FIELD_NAME_IDENTIFIER, d.getValues(DocumentBuilder.FIELD_NAME_IDENTIFIER)[0]), d);
-                    if (pm != null) {
-                        double len = (double) (end - start);
-                        double percent = (double) (i - start) / len * 45d + 50;
-                        pm.setProgress((int) percent);
-                        pm.setNote("Creating visual words, ~" + (int) percent + "% finished");
-                    }
-//                    }
-                } catch (IOException e) {
-                    e.printStackTrace();
+                }
+                int count = done.incrementAndGet();
+                if (pm != null && count % 100 == 0) {
+                    double percent = (double) count / (double) BOVWBuilder.this.reader.maxDoc() * 45d + 50;
+                    pm.setProgress((int) percent);
+                    pm.setNote("Creating visual words, ~" + (int) percent + "% finished");
                 }
             }
+            return result;
         }
     }
 
     private void createVisualWords(Document d, LireFeature f)
     {
-        double[] tmpHist = new double[numClusters];
+        Quantizer quantizer = codebook.getQuantizer();
+        double[] tmpHist = new double[quantizer.size()];
         Arrays.fill(tmpHist, 0d);
         IndexableField[] fields = d.getFields(localFeatureFieldName);
         // remove the fields if they are already there ...
@@ -519,7 +628,7 @@ public class BOVWBuilder {
         // find the appropriate cluster for each feature:
         for (int j = 0; j < fields.length; j++) {
             f.setByteArrayRepresentation(fields[j].binaryValue().bytes, fields[j].binaryValue().offset, fields[j].binaryValue().length);
-            tmpHist[clusterForFeature((Histogram) f)]++;
+            tmpHist[clusterForFeature(quantizer, (Histogram) f)]++;
         }
         //quantize(tmpHist);
         d.add(new TextField(visualWordsFieldName, arrayToVisualWordString(tmpHist), Field.Store.YES));
@@ -562,4 +671,56 @@ public class BOVWBuilder {
     public void setUseParallelClustering(boolean useParallelClustering) {
         this.useParallelClustering = useParallelClustering;
     }
+
+    /**
+     * Use mini-batch k-means for building the vocabulary, which is a lot faster for millions of features, but only
+     * approximates the clusters. Only applies to parallel clustering.
+     *
+     * @param miniBatchSize the number of features per batch, 0 to use all features in each step (the default).
+     */
+    public void setMiniBatchSize(int miniBatchSize) {
+        this.miniBatchSize = miniBatchSize;
+    }
+
+    /**
+     * Sets the quantizer used to find the visual word for each local feature. {@link Quantizer.Type#Linear} is
+     * exact, {@link Quantizer.Type#KDForest} is a lot faster for large vocabularies, but approximate.
+     *
+     * @param quantizerType the type of quantizer, the default is {@link Quantizer.Type#Linear}.
+     */
+    public void setQuantizerType(Quantizer.Type quantizerType) {
+        codebook.setQuantizerType(quantizerType);
+    }
+
+    private void loadCodebook() throws IOException {
+        codebook.load(clusterFile);
+    }
+
+    /**
+     * Releases the codebook this builder got from the {@link CodebookRegistry}, so it can be removed from the cache
+     * once no one else uses it. Call it when the builder is not needed anymore, the builder loads the codebook
+     * again if it is used afterwards.
+     */
+    public void releaseCodebook() {
+        codebook.release();
+    }
+
+    /**
+     * Sets the number of threads used for creating the histograms.
+     *
+     * @param numThreads the number of threads, the default is the number of available processors.
+     */
+    public void setNumThreads(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    /**
+     * Indicates whether the index is merged to one segment after the documents have been updated by
+     * {@link #index()}, which removes the old versions of the documents.
+     *
+     * @param forceMerge true to merge, the default.
+     */
+    public void setForceMerge(boolean forceMerge) {
+        this.forceMerge = forceMerge;
+    }
 }
@@ -41,14 +41,13 @@
 package net.semanticmetadata.lire.imageanalysis.bovw;
 
 import net.semanticmetadata.lire.DocumentBuilder;
+import net.semanticmetadata.lire.clustering.Cluster;
+import net.semanticmetadata.lire.clustering.FastKMeans;
 import net.semanticmetadata.lire.imageanalysis.Histogram;
 import net.semanticmetadata.lire.imageanalysis.LireFeature;
 import net.semanticmetadata.lire.utils.LuceneUtils;
 import net.semanticmetadata.lire.utils.MetricsUtils;
 import net.semanticmetadata.lire.utils.SerializationUtils;
-import org.apache.commons.math3.ml.clustering.CentroidCluster;
-import org.apache.commons.math3.ml.clustering.DoublePoint;
-import org.apache.commons.math3.ml.clustering.KMeansPlusPlusClusterer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.StoredField;
@@ -64,6 +63,8 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * General class creating bag of visual words vocabularies parallel based on k-means. Works with SIFT, SURF and MSER.
@@ -136,41 +137,55 @@ public abstract class LocalFeatureHistogramBuilderKmeansPlusPlus {
         // find the documents for building the vocabulary:
         HashSet<Integer> docIDs = selectVocabularyDocs();
         System.out.println("Using " + docIDs.size() + " documents to build the vocabulary.");
-        KMeansPlusPlusClusterer kpp = new KMeansPlusPlusClusterer(numClusters, 15);
-        // fill the KMeans object:
-        LinkedList<DoublePoint> features = new LinkedList<DoublePoint>();
         // Needed for check whether the document is deleted.
         Bits liveDocs = MultiFields.getLiveDocs(reader);
-        for (Iterator<Integer> iterator = docIDs.iterator(); iterator.hasNext(); ) {
-            int nextDoc = iterator.next();
-            if (reader.hasDeletions() && !liveDocs.get(nextDoc)) continue; // if it is deleted, just ignore it.
-            Document d = reader.document(nextDoc);
-//            features.clear();
-            IndexableField[] fields = d.getFields(localFeatureFieldName);
-            String file = d.getValues(DocumentBuilder.FIELD_NAME_IDENTIFIER)[0];
-            for (int j = 0; j < fields.length; j++) {
-                LireFeature f = getFeatureInstance();
-                f.setByteArrayRepresentation(fields[j].binaryValue().bytes, fields[j].binaryValue().offset, fields[j].binaryValue().length);
-                // copy the data over to new array ...
-                double[] feat = new double[f.getDoubleHistogram().length];
-                System.arraycopy(f.getDoubleHistogram(), 0, feat, 0, feat.length);
-                features.add(new DoublePoint(f.getDoubleHistogram()));
+        int numThreads = Runtime.getRuntime().availableProcessors();
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+        Cluster[] clusterList;
+        try {
+            FastKMeans kpp = new FastKMeans(numClusters, pool, numThreads);
+            kpp.setKMeansPlusPlus(true);
+            // fill the KMeans object:
+            LinkedList<double[]> features = new LinkedList<double[]>();
+            for (Iterator<Integer> iterator = docIDs.iterator(); iterator.hasNext(); ) {
+                int nextDoc = iterator.next();
+                if (reader.hasDeletions() && !liveDocs.get(nextDoc)) continue; // if it is deleted, just ignore it.
+                Document d = reader.document(nextDoc);
+                features.clear();
+                IndexableField[] fields = d.getFields(localFeatureFieldName);
+                String file = d.getValues(DocumentBuilder.FIELD_NAME_IDENTIFIER)[0];
+                for (int j = 0; j < fields.length; j++) {
+                    LireFeature f = getFeatureInstance();
+                    f.setByteArrayRepresentation(fields[j].binaryValue().bytes, fields[j].binaryValue().offset, fields[j].binaryValue().length);
+                    // copy the data over to new array ...
+                    double[] feat = new double[f.getDoubleHistogram().length];
+                    System.arraycopy(f.getDoubleHistogram(), 0, feat, 0, feat.length);
+                    features.add(feat);
+                }
+                kpp.addImage(file, features);
             }
+            if (kpp.getFeatureCount() < numClusters) {
+                // this cannot work. You need more data points than clusters.
+                throw new UnsupportedOperationException("Only " + kpp.getFeatureCount() + " features found to cluster in " + numClusters + ". Try to use less clusters or more images.");
+            }
+            // do the clustering:
+            System.out.println("Number of local features: " + df.format(kpp.getFeatureCount()));
+            System.out.println("Starting clustering ...");
+            kpp.init();
+            // at most 15 iterations, stop if nothing changes anymore.
+            for (int i = 0; i < 15; i++) {
+                kpp.clusteringStep();
+                if (kpp.getReassignedCount() == 0) break;
+            }
+            // TODO: Serializing clusters to a file on the disk ...
+            clusterList = kpp.getClusters();
+        } finally {
+            pool.shutdown();
         }
-        if (features.size() < numClusters) {
-            // this cannot work. You need more data points than clusters.
-            throw new UnsupportedOperationException("Only " + features.size() + " features found to cluster in " + numClusters + ". Try to use less clusters or more images.");
-        }
-        // do the clustering:
-        System.out.println("Number of local features: " + df.format(features.size()));
-        System.out.println("Starting clustering ...");
-        List<CentroidCluster<DoublePoint>> clusterList = kpp.cluster(features);
-        // TODO: Serializing clusters to a file on the disk ...
-        System.out.println("Clustering finished, " + clusterList.size() + " clusters found");
+        System.out.println("Clustering finished, " + clusterList.length + " clusters found");
         clusters = new LinkedList<double[]>();
-        for (Iterator<CentroidCluster<DoublePoint>> iterator = clusterList.iterator(); iterator.hasNext(); ) {
-            CentroidCluster<DoublePoint> centroidCluster = iterator.next();
-            clusters.add(centroidCluster.getCenter().getPoint());
+        for (Cluster cluster : clusterList) {
+            clusters.add(cluster.getMean().clone());
         }
         System.out.println("Creating histograms ...");
         int[] tmpHist = new int[numClusters];
@@ -42,8 +42,11 @@ package net.semanticmetadata.lire.imageanalysis.bovw;
 
 import net.semanticmetadata.lire.DocumentBuilder;
 import net.semanticmetadata.lire.clustering.Cluster;
+import net.semanticmetadata.lire.clustering.CodebookLoader;
+import net.semanticmetadata.lire.clustering.CodebookRegistry;
+import net.semanticmetadata.lire.clustering.FastKMeans;
 import net.semanticmetadata.lire.clustering.KMeans;
-import net.semanticmetadata.lire.clustering.ParallelKMeans;
+import net.semanticmetadata.lire.clustering.Quantizer;
 import net.semanticmetadata.lire.imageanalysis.*;
 import net.semanticmetadata.lire.imageanalysis.opencvfeatures.CvSiftFeature;
 import net.semanticmetadata.lire.imageanalysis.sift.Feature;
@@ -64,6 +67,8 @@ import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * General class creating bag of visual words vocabularies parallel based on k-means. Works with SIFT, SURF and MSER.
@@ -87,6 +92,8 @@ public class VLADBuilder {
     private Cluster[] clusters = null;
     private ProgressMonitor pm = null;
     private boolean useParallelClustering = true;
+    private int miniBatchSize = 0;
+    private final CodebookLoader codebook = new CodebookLoader();
 
 
     /**
@@ -198,84 +205,95 @@ public class VLADBuilder {
         df.setMaximumFractionDigits(3);
         // find the documents for building the vocabulary:
         HashSet<Integer> docIDs = selectVocabularyDocs();
-        KMeans k;
-        if (useParallelClustering) k = new ParallelKMeans(numClusters);
-        else k = new KMeans(numClusters);
-        // fill the KMeans object:
-        LinkedList<double[]> features = new LinkedList<double[]>();
-        // Needed for check whether the document is deleted.
-        Bits liveDocs = MultiFields.getLiveDocs(reader);
-        for (Iterator<Integer> iterator = docIDs.iterator(); iterator.hasNext(); ) {
-            int nextDoc = iterator.next();
-            if (reader.hasDeletions() && !liveDocs.get(nextDoc)) continue; // if it is deleted, just ignore it.
-            Document d = reader.document(nextDoc);
-            features.clear();
-            IndexableField[] fields = d.getFields(localFeatureFieldName);
-            String file = d.getValues(DocumentBuilder.FIELD_NAME_IDENTIFIER)[0];
-            for (int j = 0; j < fields.length; j++) {
-                LireFeature f = getFeatureInstance();
-                f.setByteArrayRepresentation(fields[j].binaryValue().bytes, fields[j].binaryValue().offset, fields[j].binaryValue().length);
-                features.add(((Histogram) f).getDoubleHistogram());
+        int numClusteringThreads = Runtime.getRuntime().availableProcessors();
+        // the pool is only needed for the parallel clustering, it is shut down once the clusters are there.
+        ExecutorService pool = useParallelClustering ? Executors.newFixedThreadPool(numClusteringThreads) : null;
+        try {
+            KMeans k;
+            if (useParallelClustering) {
+                FastKMeans fastKMeans = new FastKMeans(numClusters, pool, numClusteringThreads);
+                if (miniBatchSize > 0) fastKMeans.setMiniBatch(miniBatchSize, 10);
+                k = fastKMeans;
+            } else k = new KMeans(numClusters);
+            // fill the KMeans object:
+            LinkedList<double[]> features = new LinkedList<double[]>();
+            // Needed for check whether the document is deleted.
+            Bits liveDocs = MultiFields.getLiveDocs(reader);
+            for (Iterator<Integer> iterator = docIDs.iterator(); iterator.hasNext(); ) {
+                int nextDoc = iterator.next();
+                if (reader.hasDeletions() && !liveDocs.get(nextDoc)) continue; // if it is deleted, just ignore it.
+                Document d = reader.document(nextDoc);
+                features.clear();
+                IndexableField[] fields = d.getFields(localFeatureFieldName);
+                String file = d.getValues(DocumentBuilder.FIELD_NAME_IDENTIFIER)[0];
+                for (int j = 0; j < fields.length; j++) {
+                    LireFeature f = getFeatureInstance();
+                    f.setByteArrayRepresentation(fields[j].binaryValue().bytes, fields[j].binaryValue().offset, fields[j].binaryValue().length);
+                    features.add(((Histogram) f).getDoubleHistogram());
+                }
+                k.addImage(file, features);
+            }
+            if (pm != null) { // set to 5 of 100 before clustering starts.
+                pm.setProgress(5);
+                pm.setNote("Starting clustering");
+            }
+            if (k.getFeatureCount() < numClusters) {
+                // this cannot work. You need more data points than clusters.
+                throw new UnsupportedOperationException("Only " + features.size() + " features found to cluster in " + numClusters + ". Try to use less clusters or more images.");
+            }
+            // do the clustering:
+            System.out.println("k.getFeatureCount() = " + k.getFeatureCount());
+            System.out.println("Starting clustering ...");
+            k.init();
+            System.out.println("Step.");
+            double time = System.currentTimeMillis();
+            double laststress = k.clusteringStep();
+
+            if (pm != null) { // set to 8 of 100 after first step.
+                pm.setProgress(8);
+                pm.setNote("Step 1 finished");
             }
-            k.addImage(file, features);
-        }
-        if (pm != null) { // set to 5 of 100 before clustering starts.
-            pm.setProgress(5);
-            pm.setNote("Starting clustering");
-        }
-        if (k.getFeatureCount() < numClusters) {
-            // this cannot work. You need more data points than clusters.
-            throw new UnsupportedOperationException("Only " + features.size() + " features found to cluster in " + numClusters + ". Try to use less clusters or more images.");
-        }
-        // do the clustering:
-        System.out.println("k.getFeatureCount() = " + k.getFeatureCount());
-        System.out.println("Starting clustering ...");
-        k.init();
-        System.out.println("Step.");
-        double time = System.currentTimeMillis();
-        double laststress = k.clusteringStep();
-
-        if (pm != null) { // set to 8 of 100 after first step.
-            pm.setProgress(8);
-            pm.setNote("Step 1 finished");
-        }
 
-        System.out.println(getDuration(time) + " -> Next step.");
-        time = System.currentTimeMillis();
-        double newStress = k.clusteringStep();
+            System.out.println(getDuration(time) + " -> Next step.");
+            time = System.currentTimeMillis();
+            double newStress = k.clusteringStep();
 
-        if (pm != null) { // set to 11 of 100 after second step.
-            pm.setProgress(11);
-            pm.setNote("Step 2 finished");
-        }
+            if (pm != null) { // set to 11 of 100 after second step.
+                pm.setProgress(11);
+                pm.setNote("Step 2 finished");
+            }
 
-        // critical part: Give the difference in between steps as a constraint for accuracy vs. runtime trade off.
-        double threshold = Math.max(20d, (double) k.getFeatureCount() / 1000d);
-        System.out.println("Threshold = " + threshold);
-        int cstep = 3;
-        // maximum of 14 steps.
-        while (Math.abs(newStress - laststress) > threshold && cstep < 12) {
-            System.out.println(getDuration(time) + " -> Next step. Stress difference ~ |" + (int) newStress + " - " + (int) laststress + "| = " + df.format(Math.abs(newStress - laststress)));
-            time = System.currentTimeMillis();
-            laststress = newStress;
-            newStress = k.clusteringStep();
-            if (pm != null) { // set to XX of 100 after second step.
-                pm.setProgress(cstep * 3 + 5);
-                pm.setNote("Step " + cstep + " finished");
+            // critical part: Give the difference in between steps as a constraint for accuracy vs. runtime trade off.
+            double threshold = Math.max(20d, (double) k.getFeatureCount() / 1000d);
+            System.out.println("Threshold = " + threshold);
+            int cstep = 3;
+            // maximum of 14 steps.
+            while (Math.abs(newStress - laststress) > threshold && cstep < 12) {
+                System.out.println(getDuration(time) + " -> Next step. Stress difference ~ |" + (int) newStress + " - " + (int) laststress + "| = " + df.format(Math.abs(newStress - laststress)));
+                time = System.currentTimeMillis();
+                laststress = newStress;
+                newStress = k.clusteringStep();
+                if (pm != null) { // set to XX of 100 after second step.
+                    pm.setProgress(cstep * 3 + 5);
+                    pm.setNote("Step " + cstep + " finished");
+                }
+                cstep++;
             }
-            cstep++;
+            // Serializing clusters to a file on the disk ...
+            clusters = k.getClusters();
+        } finally {
+            if (pool != null) pool.shutdown();
         }
-        // Serializing clusters to a file on the disk ...
-        clusters = k.getClusters();
 //        for (int i = 0; i < clusters.length; i++) {
 //            Cluster cluster = clusters[i];
 //            System.out.print(cluster.getMembers().size() + ", ");
 //        }
 //        System.out.println();
-        Cluster.writeClusters(clusters, clusterFile);
+        codebook.write(clusters, clusterFile);
+        clusters = codebook.getCodebook().toClusters();
         //  create & store histograms:
         System.out.println("Creating histograms ...");
-        time = System.currentTimeMillis();
+        double time = System.currentTimeMillis();
 //        int[] tmpHist = new int[numClusters];
         IndexWriter iw = LuceneUtils.createIndexWriter(((DirectoryReader) reader).directory(), true, LuceneUtils.AnalyzerType.WhitespaceAnalyzer, 256d);
         if (pm != null) { // set to 50 of 100 after clustering.
@@ -330,7 +348,7 @@ public class VLADBuilder {
     public void indexMissing() throws IOException {
         init();
         // Reading clusters from disk:
-        clusters = Cluster.readClusters(clusterFile);
+        loadCodebook();
         //  create & store histograms:
         System.out.println("Creating histograms ...");
         LireFeature f = getFeatureInstance();
@@ -359,7 +377,7 @@ public class VLADBuilder {
      */
     public Document getVisualWords(Document d) throws IOException {  // TODO: Adapt to VLAD!
         init();
-        clusters = Cluster.readClusters(clusterFile);
+        loadCodebook();
         LireFeature f = getFeatureInstance();
         createVisualWords(d, f);
 
@@ -393,21 +411,12 @@ public class VLADBuilder {
     /**
      * Find the appropriate cluster for a given feature.
      *
+     * @param quantizer the quantizer of the codebook.
      * @param f
      * @return the index of the cluster.
      */
-    private int clusterForFeature(Histogram f) {
-        double distance = clusters[0].getDistance(f);
-        double tmp;
-        int result = 0;
-        for (int i = 1; i < clusters.length; i++) {
-            tmp = clusters[i].getDistance(f);
-            if (tmp < distance) {
-                distance = tmp;
-                result = i;
-            }
-        }
-        return result;
+    private int clusterForFeature(Quantizer quantizer, Histogram f) {
+        return quantizer.quantize(f.getDoubleHistogram());
     }
 
     private String arrayToVisualWordString(int[] hist) {
@@ -534,6 +543,7 @@ public class VLADBuilder {
 
     private void createVisualWords(Document d, LireFeature f)
     {
+        Quantizer quantizer = codebook.getQuantizer();
         IndexableField[] fields = d.getFields(localFeatureFieldName);
         // remove the fields if they are already there ...
         d.removeField(vladFieldName);
@@ -545,7 +555,7 @@ public class VLADBuilder {
         // VLAD - Vector of Locally Aggregated Descriptors
         for (int j = 0; j < fields.length; j++) {
             f.setByteArrayRepresentation(fields[j].binaryValue().bytes, fields[j].binaryValue().offset, fields[j].binaryValue().length);
-            clusterIndex = clusterForFeature((Histogram) f);
+            clusterIndex = clusterForFeature(quantizer, (Histogram) f);
 //            System.out.println("clusterIndex = " + clusterIndex);
             mean = clusters[clusterIndex].getMean();
             for (int k = 0; k < f.getDoubleHistogram().length; k++) {
@@ -568,4 +578,37 @@ public class VLADBuilder {
         // for debugging ..
 //        System.out.println(d.getValues(DocumentBuilder.FIELD_NAME_IDENTIFIER)[0] + " " + Arrays.toString(vlad));
     }
+
+    /**
+     * Use mini-batch k-means for building the vocabulary, which is a lot faster for millions of features, but only
+     * approximates the clusters. Only applies to parallel clustering.
+     *
+     * @param miniBatchSize the number of features per batch, 0 to use all features in each step (the default).
+     */
+    public void setMiniBatchSize(int miniBatchSize) {
+        this.miniBatchSize = miniBatchSize;
+    }
+
+    /**
+     * Sets the quantizer used to find the visual word for each local feature. {@link Quantizer.Type#Linear} is
+     * exact, {@link Quantizer.Type#KDForest} is a lot faster for large vocabularies, but approximate.
+     *
+     * @param quantizerType the type of quantizer, the default is {@link Quantizer.Type#Linear}.
+     */
+    public void setQuantizerType(Quantizer.Type quantizerType) {
+        codebook.setQuantizerType(quantizerType);
+    }
+
+    private synchronized void loadCodebook() throws IOException {
+        if (codebook.load(clusterFile)) clusters = codebook.getCodebook().toClusters();
+    }
+
+    /**
+     * Releases the codebook this builder got from the {@link CodebookRegistry}, so it can be removed from the cache
+     * once no one else uses it. Call it when the builder is not needed anymore, the builder loads the codebook
+     * again if it is used afterwards.
+     */
+    public void releaseCodebook() {
+        codebook.release();
+    }
 }
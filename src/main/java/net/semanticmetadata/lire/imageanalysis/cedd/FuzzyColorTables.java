@@ -0,0 +1,142 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ * Updated: 18.10.26 17:18
+ */
+
+package net.semanticmetadata.lire.imageanalysis.cedd;
+
+import java.util.Arrays;
+
+/**
+ * The fuzzy linking of {@link Fuzzy10Bin} and {@link Fuzzy24Bin} with the multi participate defuzzificator (method 2)
+ * as used by CEDD and FCTH. The membership values only depend on the integer hue, saturation and value given by
+ * {@link RGB2HSV}, so they are computed once for all of them and looked up instead of being evaluated per block. The
+ * rules are applied in the same order as in the original classes, so the results are exactly the same.
+ * <br/>
+ * All methods are static and write to arrays given by the caller, so they can be used by several threads.
+ */
+public class FuzzyColorTables {
+    private static final int HUES = 361, LEVELS = 256;
+
+    private static final int[][] rules10 = new Fuzzy10Bin(false).Fuzzy10BinRulesDefinition;
+    // membership values, the one of set s for input v is at [v * number of sets + s]
+    private static final double[] hue10, saturation10, value10, saturation24, value24;
+
+    static {
+        Fuzzy10Bin fuzzy10 = new Fuzzy10Bin(false);
+        Fuzzy24Bin fuzzy24 = new Fuzzy24Bin(false);
+        hue10 = createTable(fuzzy10.HueMembershipValues, HUES);
+        saturation10 = createTable(fuzzy10.SaturationMembershipValues, LEVELS);
+        value10 = createTable(fuzzy10.ValueMembershipValues, LEVELS);
+        saturation24 = createTable(fuzzy24.SaturationMembershipValues, LEVELS);
+        value24 = createTable(fuzzy24.ValueMembershipValues, LEVELS);
+    }
+
+    private static double[] createTable(double[] triangles, int inputs) {
+        int sets = triangles.length / 4;
+        double[] table = new double[inputs * sets];
+        for (int v = 0; v < inputs; v++) {
+            double input = v;
+            for (int i = 0; i < sets; i++) {
+                // same as FindMembershipValueForTriangles of Fuzzy10Bin and Fuzzy24Bin.
+                int t = i * 4;
+                double membership = 0;
+                if (input >= triangles[t + 1] && input <= triangles[t + 2]) membership = 1;
+                if (input >= triangles[t] && input < triangles[t + 1])
+                    membership = (input - triangles[t]) / (triangles[t + 1] - triangles[t]);
+                if (input > triangles[t + 2] && input <= triangles[t + 3])
+                    membership = (input - triangles[t + 2]) / (triangles[t + 2] - triangles[t + 3]) + 1;
+                table[v * sets + i] = membership;
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Same as {@link Fuzzy10Bin#ApplyFilter(double, double, double, int)} with method 2 and without keeping the
+     * previous values.
+     *
+     * @param hue        the hue in [0, 360].
+     * @param saturation the saturation in [0, 255].
+     * @param value      the value in [0, 255].
+     * @param result     the array the 10 bins are written to.
+     */
+    public static void fuzzy10(int hue, int saturation, int value, double[] result) {
+        Arrays.fill(result, 0, 10, 0d);
+        int h = hue * 8, s = saturation * 2, v = value * 3;
+        for (int[] rule : rules10) {
+            double a = hue10[h + rule[0]], b = saturation10[s + rule[1]], c = value10[v + rule[2]];
+            if (a > 0 && b > 0 && c > 0) result[rule[3]] += Math.min(a, Math.min(b, c));
+        }
+    }
+
+    /**
+     * Same as {@link Fuzzy24Bin#ApplyFilter(double, double, double, double[], int)} with method 2 and without
+     * keeping the previous values.
+     *
+     * @param saturation the saturation in [0, 255].
+     * @param value      the value in [0, 255].
+     * @param fuzzy10    the 10 bins of {@link #fuzzy10(int, int, int, double[])}.
+     * @param result     the array the 24 bins are written to.
+     */
+    public static void fuzzy24(int saturation, int value, double[] fuzzy10, double[] result) {
+        double r0 = 0, r1 = 0, r2 = 0;
+        double temp = 0;
+        for (int i = 3; i < 10; i++) {
+            temp += fuzzy10[i];
+        }
+        if (temp > 0) {
+            double s0 = saturation24[saturation * 2], s1 = saturation24[saturation * 2 + 1];
+            double v0 = value24[value * 2], v1 = value24[value * 2 + 1];
+            // the rules of Fuzzy24Bin in their original order.
+            if (s1 > 0 && v1 > 0) r1 += Math.min(s1, v1);
+            if (s0 > 0 && v0 > 0) r2 += Math.min(s0, v0);
+            if (s0 > 0 && v1 > 0) r0 += Math.min(s0, v1);
+            if (s1 > 0 && v0 > 0) r2 += Math.min(s1, v0);
+        }
+        for (int i = 0; i < 3; i++) {
+            result[i] = fuzzy10[i];
+        }
+        for (int i = 3; i < 10; i++) {
+            result[(i - 2) * 3] = fuzzy10[i] * r0;
+            result[(i - 2) * 3 + 1] = fuzzy10[i] * r1;
+            result[(i - 2) * 3 + 2] = fuzzy10[i] * r2;
+        }
+    }
+}
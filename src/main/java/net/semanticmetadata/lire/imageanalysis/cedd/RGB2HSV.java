@@ -43,6 +43,14 @@ public class RGB2HSV {
 
     public int[] ApplyFilter(int red, int green, int blue) {
         int[] Results = new int[3];
+        convert(red, green, blue, Results);
+        return (Results);
+    }
+
+    /**
+     * Same as {@link #ApplyFilter(int, int, int)}, but writes hue, saturation and value to the given array.
+     */
+    public static void convert(int red, int green, int blue, int[] Results) {
         int HSV_H = 0;
         int HSV_S = 0;
         int HSV_V = 0;
@@ -75,7 +83,5 @@ public class RGB2HSV {
         Results[0] = HSV_H;
         Results[1] = HSV_S;
         Results[2] = HSV_V;
-
-        return (Results);
     }
 }
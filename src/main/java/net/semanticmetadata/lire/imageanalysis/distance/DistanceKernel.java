@@ -0,0 +1,73 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ * Updated: 18.10.26 16:33
+ */
+
+package net.semanticmetadata.lire.imageanalysis.distance;
+
+/**
+ * Computes the distance of a query to features in their byte[] representation, i.e. the one of
+ * {@link net.semanticmetadata.lire.imageanalysis.LireFeature#getByteArrayRepresentation()}, without creating or
+ * filling a LireFeature instance per candidate. The distances are the same as the ones of
+ * {@link net.semanticmetadata.lire.imageanalysis.LireFeature#getDistance(net.semanticmetadata.lire.imageanalysis.LireFeature)}
+ * up to rounding errors.
+ * <br/>
+ * Kernels keep the decoded query and scratch space, so they are not thread safe. Create one per thread with
+ * {@link DistanceKernels#forFeature(Class)}.
+ */
+public interface DistanceKernel {
+    /**
+     * Sets the query all following distances are computed to.
+     *
+     * @param in     the byte[] representation of the query feature.
+     * @param offset the offset of the feature in the array.
+     * @param length the length of the feature in bytes.
+     */
+    public void setQuery(byte[] in, int offset, int length);
+
+    /**
+     * Computes the distance of the query to the given feature.
+     *
+     * @param in     the byte[] representation of the candidate feature.
+     * @param offset the offset of the feature in the array.
+     * @param length the length of the feature in bytes.
+     * @return the distance, as returned by getDistance(..) of the respective LireFeature.
+     */
+    public float getDistance(byte[] in, int offset, int length);
+}
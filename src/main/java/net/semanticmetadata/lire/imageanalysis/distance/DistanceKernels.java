@@ -0,0 +1,229 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ * Updated: 18.10.26 16:33
+ */
+
+package net.semanticmetadata.lire.imageanalysis.distance;
+
+import net.semanticmetadata.lire.imageanalysis.CEDD;
+import net.semanticmetadata.lire.imageanalysis.FCTH;
+import net.semanticmetadata.lire.imageanalysis.JCD;
+
+/**
+ * Distance kernels working on raw arrays. The loops are kept simple, without branches and with independent
+ * accumulators, so the JIT compiler can unroll and vectorize them. Integer sums are exact, so the result does not
+ * depend on the order of the summation.
+ */
+public final class DistanceKernels {
+
+    private DistanceKernels() {
+    }
+
+    /**
+     * Creates a kernel for the byte[] representation of the given feature class.
+     *
+     * @param featureClass the class of the feature, for instance CEDD.class
+     * @return a new kernel or null if there is no kernel for the feature.
+     */
+    public static DistanceKernel forFeature(Class<?> featureClass) {
+        if (featureClass == CEDD.class || featureClass == FCTH.class) return new PackedTanimotoKernel();
+        if (featureClass == JCD.class) return new RunLengthTanimotoKernel(168);
+        return null;
+    }
+
+    /**
+     * Tanimoto distance of two histograms as in {@link CEDD#getDistance(net.semanticmetadata.lire.imageanalysis.LireFeature)},
+     * computed in a single pass with exact integer sums.
+     *
+     * @param h1 the first histogram, all bins >= 0
+     * @param h2 the second histogram of the same length, all bins >= 0
+     * @return the distance in [0, 100]
+     */
+    public static float tanimoto(byte[] h1, byte[] h2) {
+        assert (h1.length == h2.length);
+        int sum1 = 0, sum2 = 0, squares1 = 0, squares2 = 0, dot = 0;
+        for (int i = 0; i < h1.length; i++) {
+            sum1 += h1[i];
+            sum2 += h2[i];
+            squares1 += h1[i] * h1[i];
+            squares2 += h2[i] * h2[i];
+            dot += h1[i] * h2[i];
+        }
+        return tanimoto(sum1, squares1, sum2, squares2, dot);
+    }
+
+    /**
+     * Tanimoto distance from the sums of two histograms. The histograms are normalized by their sums, which is done
+     * here on the sums instead of on each bin: with a = h1/sum1 and b = h2/sum2 the coefficient
+     * a.b / (a.a + b.b - a.b) is the same as (h1.h2 sum1 sum2) / (h1.h1 sum2^2 + h2.h2 sum1^2 - h1.h2 sum1 sum2).
+     *
+     * @param sum1     sum of the bins of the first histogram
+     * @param squares1 sum of the squared bins of the first histogram
+     * @param sum2     sum of the bins of the second histogram
+     * @param squares2 sum of the squared bins of the second histogram
+     * @param dot      dot product of the histograms
+     * @return the distance in [0, 100], 0 if both histograms are empty, 100 if one of them is.
+     */
+    public static float tanimoto(long sum1, long squares1, long sum2, long squares2, long dot) {
+        if (sum1 == 0 && sum2 == 0) return 0f;
+        if (sum1 == 0 || sum2 == 0) return 100f;
+        double product = (double) dot * sum1 * sum2;
+        double denominator = (double) squares1 * sum2 * sum2 + (double) squares2 * sum1 * sum1 - product;
+        return (float) (100d - 100d * (product / denominator));
+    }
+
+    /**
+     * Manhattan distance of two slices.
+     *
+     * @param h1      the first array
+     * @param offset1 start of the slice in the first array
+     * @param h2      the second array
+     * @param offset2 start of the slice in the second array
+     * @param length  length of the slices
+     * @return the sum of the absolute differences.
+     */
+    public static float distL1(float[] h1, int offset1, float[] h2, int offset2, int length) {
+        float s0 = 0f, s1 = 0f, s2 = 0f, s3 = 0f;
+        int i = 0;
+        for (; i + 3 < length; i += 4) {
+            s0 += Math.abs(h1[offset1 + i] - h2[offset2 + i]);
+            s1 += Math.abs(h1[offset1 + i + 1] - h2[offset2 + i + 1]);
+            s2 += Math.abs(h1[offset1 + i + 2] - h2[offset2 + i + 2]);
+            s3 += Math.abs(h1[offset1 + i + 3] - h2[offset2 + i + 3]);
+        }
+        for (; i < length; i++) {
+            s0 += Math.abs(h1[offset1 + i] - h2[offset2 + i]);
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * Squared Euclidean distance of two slices, use it instead of {@link #distL2} if only the order of distances
+     * is of interest.
+     *
+     * @param h1      the first array
+     * @param offset1 start of the slice in the first array
+     * @param h2      the second array
+     * @param offset2 start of the slice in the second array
+     * @param length  length of the slices
+     * @return the sum of the squared differences.
+     */
+    public static float squaredL2(float[] h1, int offset1, float[] h2, int offset2, int length) {
+        float s0 = 0f, s1 = 0f, s2 = 0f, s3 = 0f, d0, d1, d2, d3;
+        int i = 0;
+        for (; i + 3 < length; i += 4) {
+            d0 = h1[offset1 + i] - h2[offset2 + i];
+            d1 = h1[offset1 + i + 1] - h2[offset2 + i + 1];
+            d2 = h1[offset1 + i + 2] - h2[offset2 + i + 2];
+            d3 = h1[offset1 + i + 3] - h2[offset2 + i + 3];
+            s0 += d0 * d0;
+            s1 += d1 * d1;
+            s2 += d2 * d2;
+            s3 += d3 * d3;
+        }
+        for (; i < length; i++) {
+            d0 = h1[offset1 + i] - h2[offset2 + i];
+            s0 += d0 * d0;
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * Euclidean distance of two slices.
+     *
+     * @see #squaredL2(float[], int, float[], int, int)
+     */
+    public static float distL2(float[] h1, int offset1, float[] h2, int offset2, int length) {
+        return (float) Math.sqrt(squaredL2(h1, offset1, h2, offset2, length));
+    }
+
+    /**
+     * Dot product of two slices.
+     *
+     * @param h1      the first array
+     * @param offset1 start of the slice in the first array
+     * @param h2      the second array
+     * @param offset2 start of the slice in the second array
+     * @param length  length of the slices
+     * @return the sum of the products.
+     */
+    public static float dot(float[] h1, int offset1, float[] h2, int offset2, int length) {
+        float s0 = 0f, s1 = 0f, s2 = 0f, s3 = 0f;
+        int i = 0;
+        for (; i + 3 < length; i += 4) {
+            s0 += h1[offset1 + i] * h2[offset2 + i];
+            s1 += h1[offset1 + i + 1] * h2[offset2 + i + 1];
+            s2 += h1[offset1 + i + 2] * h2[offset2 + i + 2];
+            s3 += h1[offset1 + i + 3] * h2[offset2 + i + 3];
+        }
+        for (; i < length; i++) {
+            s0 += h1[offset1 + i] * h2[offset2 + i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * Tanimoto distance of two slices as in {@link net.semanticmetadata.lire.utils.MetricsUtils#tanimoto(float[], float[])},
+     * computed in a single pass.
+     *
+     * @param h1      the first array, all values >= 0
+     * @param offset1 start of the slice in the first array
+     * @param h2      the second array, all values >= 0
+     * @param offset2 start of the slice in the second array
+     * @param length  length of the slices
+     * @return the distance in [0, 100]
+     */
+    public static float tanimoto(float[] h1, int offset1, float[] h2, int offset2, int length) {
+        double sum1 = 0, sum2 = 0, squares1 = 0, squares2 = 0, dot = 0;
+        float a, b;
+        for (int i = 0; i < length; i++) {
+            a = h1[offset1 + i];
+            b = h2[offset2 + i];
+            sum1 += a;
+            sum2 += b;
+            squares1 += a * a;
+            squares2 += b * b;
+            dot += a * b;
+        }
+        if (sum1 == 0 && sum2 == 0) return 0f;
+        if (sum1 == 0 || sum2 == 0) return 100f;
+        double product = dot * sum1 * sum2;
+        return (float) (100d - 100d * (product / (squares1 * sum2 * sum2 + squares2 * sum1 * sum1 - product)));
+    }
+}
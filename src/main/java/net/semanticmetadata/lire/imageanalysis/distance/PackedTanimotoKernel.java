@@ -0,0 +1,97 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ * Updated: 18.10.26 16:33
+ */
+
+package net.semanticmetadata.lire.imageanalysis.distance;
+
+/**
+ * Tanimoto distance on the byte[] representation of {@link net.semanticmetadata.lire.imageanalysis.CEDD} and
+ * {@link net.semanticmetadata.lire.imageanalysis.FCTH}, which stores two 4 bit bins per byte (with an offset of
+ * 128) and cuts trailing zeros. The query is unpacked once, the candidates are read straight from the packed bytes.
+ * <br/>
+ * As Tanimoto does not depend on the scale of the histograms, the bins are used as they are stored, so FCTH bins
+ * are two times the values of the histogram. All sums are exact integers.
+ */
+public class PackedTanimotoKernel implements DistanceKernel {
+    private int[] query = new int[0];
+    // number of bytes of the query, each of them holding two bins.
+    private int queryLength = 0;
+    private long querySum = 0, querySquares = 0;
+
+    public void setQuery(byte[] in, int offset, int length) {
+        if (query.length < length << 1) query = new int[length << 1];
+        queryLength = length;
+        querySum = 0;
+        querySquares = 0;
+        int tmp;
+        for (int i = 0; i < length; i++) {
+            tmp = in[offset + i] + 128;
+            query[i << 1] = tmp >> 4;
+            query[(i << 1) + 1] = tmp & 0x000F;
+        }
+        for (int i = 0; i < length << 1; i++) {
+            querySum += query[i];
+            querySquares += query[i] * query[i];
+        }
+    }
+
+    public float getDistance(byte[] in, int offset, int length) {
+        int sum = 0, squares = 0, dot = 0;
+        int high, low, tmp;
+        // the bins both features have, the rest of the longer one is multiplied with zero in the dot product.
+        int common = Math.min(length, queryLength);
+        for (int i = 0; i < common; i++) {
+            tmp = in[offset + i] + 128;
+            high = tmp >> 4;
+            low = tmp & 0x000F;
+            sum += high + low;
+            squares += high * high + low * low;
+            dot += query[i << 1] * high + query[(i << 1) + 1] * low;
+        }
+        for (int i = common; i < length; i++) {
+            tmp = in[offset + i] + 128;
+            high = tmp >> 4;
+            low = tmp & 0x000F;
+            sum += high + low;
+            squares += high * high + low * low;
+        }
+        return DistanceKernels.tanimoto(querySum, querySquares, sum, squares, dot);
+    }
+}
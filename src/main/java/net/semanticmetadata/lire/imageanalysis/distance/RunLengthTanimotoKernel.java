@@ -0,0 +1,98 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ * Updated: 18.10.26 16:33
+ */
+
+package net.semanticmetadata.lire.imageanalysis.distance;
+
+/**
+ * Tanimoto distance on the byte[] representation of {@link net.semanticmetadata.lire.imageanalysis.JCD}, which
+ * stores non zero bins as positive bytes and runs of zero bins as negative run lengths. The query is decoded once,
+ * for the candidates only the non zero bins are visited.
+ * <br/>
+ * As Tanimoto does not depend on the scale of the histograms, the bins are used as they are stored, i.e. two
+ * times the values of the histogram. All sums are exact integers.
+ */
+public class RunLengthTanimotoKernel implements DistanceKernel {
+    private final int[] query;
+    private long querySum = 0, querySquares = 0;
+
+    /**
+     * @param dimensions the number of bins of the histogram, 168 for JCD.
+     */
+    public RunLengthTanimotoKernel(int dimensions) {
+        query = new int[dimensions];
+    }
+
+    public void setQuery(byte[] in, int offset, int length) {
+        querySum = 0;
+        querySquares = 0;
+        int position = 0, value;
+        for (int i = offset; i < offset + length && position < query.length; i++) {
+            if (in[i] > 0) {
+                value = in[i];
+                query[position++] = value;
+                querySum += value;
+                querySquares += value * value;
+            } else {
+                for (int run = -in[i]; run > 0 && position < query.length; run--) {
+                    query[position++] = 0;
+                }
+            }
+        }
+        while (position < query.length) query[position++] = 0;
+    }
+
+    public float getDistance(byte[] in, int offset, int length) {
+        long sum = 0, squares = 0, dot = 0;
+        int position = 0, value;
+        for (int i = offset; i < offset + length && position < query.length; i++) {
+            if (in[i] > 0) {
+                value = in[i];
+                sum += value;
+                squares += value * value;
+                dot += value * query[position];
+                position++;
+            } else {
+                position -= in[i];
+            }
+        }
+        return DistanceKernels.tanimoto(querySum, querySquares, sum, squares, dot);
+    }
+}
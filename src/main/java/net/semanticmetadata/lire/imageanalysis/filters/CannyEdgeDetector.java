@@ -53,13 +53,11 @@ import java.awt.image.Kernel;
  * @author Mathias Lux, mathias@juggle.at, 05.04.13
  */
 public class CannyEdgeDetector {
-    static ConvolveOp gaussian = new ConvolveOp(new Kernel(5, 5, ImageUtils.makeGaussianKernel(5, 1.4f)));
+    static EdgeFilters.GaussianKernel gaussian = new EdgeFilters.GaussianKernel(5, 1.4f);
+    // for gray images with other sample sizes or more than one band.
+    static ConvolveOp convolveOp = new ConvolveOp(new Kernel(5, 5, ImageUtils.makeGaussianKernel(5, 1.4f)));
     static ColorConvertOp grayscale = new ColorConvertOp(ColorSpace.getInstance(ColorSpace.CS_GRAY), null);
 
-    int[] tmp255 = {255};
-    int[] tmp128 = {128};
-    int[] tmp000 = {0};
-    int[] tmpPixel = {0};
     // double thresholds for Canny edge detector
     double thresholdLow = 60, thresholdHigh = 100;
 
@@ -92,179 +90,45 @@ public class CannyEdgeDetector {
      * @return the filtered image.
      */
     public BufferedImage filter() {
-        // All for Canny Edge ...
-        BufferedImage gray;
-        double[][] gx, gy; // Sobel outputs in x and y direction.
-        double[][] gd, gm; // gradient direction and gradient magnitude
-
-        // doing canny edge detection first:
-        // filter images:
-        gray = grayscale.filter(bimg, null);
-        gray = gaussian.filter(gray, null);
-        gx = sobelFilterX(gray);
-        gy = sobelFilterY(gray);
+        // doing canny edge detection, see EdgeFilters for the single steps. The blur zero fills the border like the
+        // ConvolveOp, so the edges are the same as they have always been.
+        BufferedImage gray = grayscale.filter(bimg, null);
         int width = gray.getWidth();
         int height = gray.getHeight();
-        gd = new double[width][height];
-        gm = new double[width][height];
-        for (int x = 0; x < width; x++) {
-            for (int y = 0; y < height; y++) {
-                // setting gradient magnitude and gradient direction
-                if (gx[x][y] != 0) {
-                    gd[x][y] = Math.atan(gy[x][y] / gx[x][y]);
-                } else {
-                    gd[x][y] = Math.PI / 2d;
-                }
-                gm[x][y] = Math.sqrt(gy[x][y] * gy[x][y] + gx[x][y] * gx[x][y]);
-//                gm[x][y] = Math.hypot(gy[x][y], gx[x][y]);
-            }
-        }
-        // Non-maximum suppression
-        for (int x = 0; x < width; x++) {
-            gray.getRaster().setPixel(x, 0, new int[]{255});
-            gray.getRaster().setPixel(x, height - 1, new int[]{255});
-        }
-        for (int y = 0; y < height; y++) {
-            gray.getRaster().setPixel(0, y, new int[]{255});
-            gray.getRaster().setPixel(width - 1, y, new int[]{255});
+        int size = width * height;
+        byte[] pixels;
+        if (gray.getRaster().getNumBands() == 1 && gray.getSampleModel().getSampleSize(0) == 8) {
+            pixels = new byte[size];
+            EdgeFilters.gaussianBlur(EdgeFilters.getGrayPixels(gray), width, height, gaussian,
+                    new int[(gaussian.getRadius() + 1) * width], pixels);
+        } else {
+            gray = convolveOp.filter(gray, null);
+            pixels = EdgeFilters.getGrayPixels(gray);
         }
-        for (int x = 1; x < width - 1; x++) {
-            for (int y = 1; y < height - 1; y++) {
-                if (gd[x][y] < (Math.PI / 8d) && gd[x][y] >= (-Math.PI / 8d)) {
-                    // check if pixel is a local maximum ...
-                    if (gm[x][y] > gm[x + 1][y] && gm[x][y] > gm[x - 1][y])
-                        setPixel(x, y, gray, gm[x][y]);
-                    else
-                        gray.getRaster().setPixel(x, y, tmp255);
-                } else if (gd[x][y] < (3d * Math.PI / 8d) && gd[x][y] >= (Math.PI / 8d)) {
-                    // check if pixel is a local maximum ...
-                    if (gm[x][y] > gm[x - 1][y - 1] && gm[x][y] > gm[x + 1][y + 1])
-                        setPixel(x, y, gray, gm[x][y]);
-                    else
-                        gray.getRaster().setPixel(x, y, tmp255);
-                } else if (gd[x][y] < (-3d * Math.PI / 8d) || gd[x][y] >= (3d * Math.PI / 8d)) {
-                    if (gm[x][y] > gm[x][y + 1] && gm[x][y] > gm[x][y - 1])
-                        setPixel(x, y, gray, gm[x][y]);
-                    else
-                        gray.getRaster().setPixel(x, y, tmp255);
-                } else if (gd[x][y] < (-Math.PI / 8d) && gd[x][y] >= (-3d * Math.PI / 8d)) {
-                    if (gm[x][y] > gm[x + 1][y - 1] && gm[x][y] > gm[x - 1][y + 1])
-                        setPixel(x, y, gray, gm[x][y]);
-                    else
-                        gray.getRaster().setPixel(x, y, tmp255);
-                } else {
-                    gray.getRaster().setPixel(x, y, tmp255);
-                }
+        int[] buffer = new int[size];
+        short[] gx = new short[size], gy = new short[size]; // Sobel outputs in x and y direction.
+        byte[] edges = new byte[size];
+        EdgeFilters.sobel(pixels, width, height, gx, gy, buffer);
+        // pixels above thresholdLow are strong edges, the ones above thresholdHigh weak ones.
+        EdgeFilters.nonMaxSuppression(gx, gy, buffer, width, height, thresholdHigh, thresholdLow, edges);
+        // weak pixels next to the border, which are not connected to strong ones, have always stayed weak (128).
+        int[] ring = new int[2 * (width + height)];
+        int ringSize = 0;
+        for (int y = 1; y < height - 1; y++) {
+            for (int x = 1; x < width - 1; x++) {
+                if (y > 1 && y < height - 2 && x > 1 && x < width - 2) x = width - 2; // skip the inner pixels.
+                if (edges[y * width + x] == EdgeFilters.WEAK_EDGE) ring[ringSize++] = y * width + x;
             }
         }
-        // hysteresis ... walk along lines of strong pixels and make the weak ones strong.
-        int[] tmp = {0};
-        for (int x = 1; x < width - 1; x++) {
-            for (int y = 1; y < height - 1; y++) {
-                if (gray.getRaster().getPixel(x, y, tmp)[0] < 50) {
-                    // It's a strong pixel, lets find the neighbouring weak ones.
-                    trackWeakOnes(x, y, gray);
-                }
-            }
+        // the magnitudes are not needed anymore, so the buffer is used as stack.
+        EdgeFilters.hysteresis(edges, width, height, buffer);
+        for (int i = 0; i < size; i++) {
+            pixels[i] = edges[i] == EdgeFilters.EDGE ? 0 : (byte) 255;
         }
-        // removing the single weak pixels.
-        for (int x = 2; x < width - 2; x++) {
-            for (int y = 2; y < height - 2; y++) {
-                if (gray.getRaster().getPixel(x, y, tmp)[0] > 50) {
-                    gray.getRaster().setPixel(x, y, tmp255);
-                }
-            }
+        for (int i = 0; i < ringSize; i++) {
+            if (edges[ring[i]] != EdgeFilters.EDGE) pixels[ring[i]] = (byte) 128;
         }
+        gray.getRaster().setDataElements(0, 0, width, height, pixels);
         return gray;
     }
-
-    /**
-     * Recursive tracking of weak points.
-     *
-     * @param x
-     * @param y
-     * @param gray
-     */
-    private void trackWeakOnes(int x, int y, BufferedImage gray) {
-        for (int xx = x - 1; xx <= x + 1; xx++)
-            for (int yy = y - 1; yy <= y + 1; yy++) {
-                if (isWeak(xx, yy, gray)) {
-                    gray.getRaster().setPixel(xx, yy, tmp000);
-                    trackWeakOnes(xx, yy, gray);
-                }
-            }
-    }
-
-    private boolean isWeak(int x, int y, BufferedImage gray) {
-        return (gray.getRaster().getPixel(x, y, tmpPixel)[0] > 0 && gray.getRaster().getPixel(x, y, tmpPixel)[0] < 255);
-    }
-
-    /**
-     * Distinguishes between weak and strong edge points based on the thresholds given.
-     * @param x
-     * @param y
-     * @param gray
-     * @param v
-     */
-    private void setPixel(int x, int y, BufferedImage gray, double v) {
-        if (v > thresholdLow) gray.getRaster().setPixel(x, y, tmp000);
-        else if (v > thresholdHigh) gray.getRaster().setPixel(x, y, tmp128);
-        else gray.getRaster().setPixel(x, y, tmp255);
-    }
-
-    private double[][] sobelFilterX(BufferedImage gray) {
-        double[][] result = new double[gray.getWidth()][gray.getHeight()];
-        int[] tmp = new int[1];
-        int tmpSum;
-        for (int x = 1; x < gray.getWidth() - 1; x++) {
-            for (int y = 1; y < gray.getHeight() - 1; y++) {
-                tmpSum = 0;
-                tmpSum += gray.getRaster().getPixel(x - 1, y - 1, tmp)[0];
-                tmpSum += 2 * gray.getRaster().getPixel(x - 1, y, tmp)[0];
-                tmpSum += gray.getRaster().getPixel(x - 1, y + 1, tmp)[0];
-                tmpSum -= gray.getRaster().getPixel(x + 1, y - 1, tmp)[0];
-                tmpSum -= 2 * gray.getRaster().getPixel(x + 1, y, tmp)[0];
-                tmpSum -= gray.getRaster().getPixel(x + 1, y + 1, tmp)[0];
-                result[x][y] = tmpSum;
-            }
-        }
-        for (int x = 0; x < gray.getWidth(); x++) {
-            result[x][0] = 0;
-            result[x][gray.getHeight() - 1] = 0;
-        }
-        for (int y = 0; y < gray.getHeight(); y++) {
-            result[0][y] = 0;
-            result[gray.getWidth() - 1][y] = 0;
-        }
-        return result;
-    }
-
-    private double[][] sobelFilterY(BufferedImage gray) {
-        double[][] result = new double[gray.getWidth()][gray.getHeight()];
-        int[] tmp = new int[1];
-        int tmpSum = 0;
-        for (int x = 1; x < gray.getWidth() - 1; x++) {
-            for (int y = 1; y < gray.getHeight() - 1; y++) {
-                tmpSum = 0;
-                tmpSum += gray.getRaster().getPixel(x - 1, y - 1, tmp)[0];
-                tmpSum += 2 * gray.getRaster().getPixel(x, y - 1, tmp)[0];
-                tmpSum += gray.getRaster().getPixel(x + 1, y - 1, tmp)[0];
-                tmpSum -= gray.getRaster().getPixel(x - 1, y + 1, tmp)[0];
-                tmpSum -= 2 * gray.getRaster().getPixel(x, y + 1, tmp)[0];
-                tmpSum -= gray.getRaster().getPixel(x + 1, y + 1, tmp)[0];
-                result[x][y] = tmpSum;
-            }
-        }
-        for (int x = 0; x < gray.getWidth(); x++) {
-            result[x][0] = 0;
-            result[x][gray.getHeight() - 1] = 0;
-        }
-        for (int y = 0; y < gray.getHeight(); y++) {
-            result[0][y] = 0;
-            result[gray.getWidth() - 1][y] = 0;
-        }
-        return result;
-    }
-
-
 }
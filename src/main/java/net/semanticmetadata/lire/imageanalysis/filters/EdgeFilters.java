@@ -0,0 +1,355 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ * Updated: 18.10.26 17:32
+ */
+
+package net.semanticmetadata.lire.imageanalysis.filters;
+
+import net.semanticmetadata.lire.utils.ImageUtils;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+
+/**
+ * The steps of Canny edge detection on flat arrays with integer arithmetic: Gaussian smoothing, Sobel gradients,
+ * non-maximum suppression and hysteresis. They are shared by {@link CannyEdgeDetector},
+ * {@link net.semanticmetadata.lire.imageanalysis.PHOG} and
+ * {@link net.semanticmetadata.lire.imageanalysis.BinaryPatternsPyramid}.
+ * <br/>
+ * All images are stored row by row, the value of pixel (x, y) is at index y * width + x. The methods are static and
+ * write to arrays given by the caller, so buffers can be reused from image to image and by several threads.
+ */
+public class EdgeFilters {
+    /**
+     * Values of the edge map created by {@link #nonMaxSuppression(short[], short[], int[], int, int, double, double, byte[])}.
+     */
+    public static final byte NO_EDGE = 0, WEAK_EDGE = 1, EDGE = 2;
+
+    // tan(PI / 8) in 32 bit fixed point. The ratio of two gradients up to 1020 is never closer to it than 1e-7,
+    // so sorting gradients into directions this way gives the same result as comparing the angle from Math.atan.
+    private static final long TAN_PI_8 = Math.round(Math.tan(Math.PI / 8d) * (1L << 32));
+    private static final long ONE = 1L << 32;
+
+    /**
+     * Returns the gray values of an image of type {@link BufferedImage#TYPE_BYTE_GRAY}. For an image created with
+     * new BufferedImage(...) this is the data array of the image itself, otherwise the values are copied.
+     *
+     * @param gray the gray image.
+     * @return the gray values, use value &amp; 0xff to get them in [0, 255].
+     */
+    public static byte[] getGrayPixels(BufferedImage gray) {
+        Raster raster = gray.getRaster();
+        int width = gray.getWidth(), height = gray.getHeight();
+        if (raster.getDataBuffer() instanceof DataBufferByte && raster.getSampleModel() instanceof ComponentSampleModel
+                && raster.getNumBands() == 1 && raster.getParent() == null) {
+            ComponentSampleModel sm = (ComponentSampleModel) raster.getSampleModel();
+            DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+            if (buffer.getOffset() == 0 && sm.getPixelStride() == 1 && sm.getScanlineStride() == width
+                    && sm.getBandOffsets()[0] == 0 && buffer.getData().length == width * height)
+                return buffer.getData();
+        }
+        int[] samples = raster.getSamples(0, 0, width, height, 0, (int[]) null);
+        byte[] pixels = new byte[samples.length];
+        for (int i = 0; i < samples.length; i++) {
+            pixels[i] = (byte) samples[i];
+        }
+        return pixels;
+    }
+
+    /**
+     * Smoothes the image with a Gaussian kernel in two passes, first along the columns, then along the rows. The
+     * result is the same as the one of a {@link java.awt.image.ConvolveOp} with the kernel of
+     * {@link ImageUtils#makeGaussianKernel(int, float)} and {@link java.awt.image.ConvolveOp#EDGE_ZERO_FILL}: the
+     * pixels closer to the border than the radius of the kernel are set to 0.
+     *
+     * @param gray    the gray values.
+     * @param width   the width of the image.
+     * @param height  the height of the image.
+     * @param kernel  the kernel.
+     * @param columns a buffer of at least (kernel.getRadius() + 1) * width values.
+     * @param blurred the array the smoothed gray values are written to, must not be gray itself.
+     */
+    public static void gaussianBlur(byte[] gray, int width, int height, GaussianKernel kernel, int[] columns,
+                                    byte[] blurred) {
+        int r = kernel.radius, stride = r + 1;
+        int[] weights = kernel.weights;
+        int shift = kernel.shift;
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            if (y < r || y >= height - r || width <= 2 * r) {
+                for (int i = row; i < row + width; i++) blurred[i] = 0;
+                continue;
+            }
+            // the kernel is symmetric, so the column pass keeps the sums of the two pixels at the same distance.
+            for (int x = 0; x < width; x++) columns[x] = gray[row + x] & 0xff;
+            for (int d = 1; d <= r; d++) {
+                int c = d * width, above = row - d * width, below = row + d * width;
+                for (int x = 0; x < width; x++) {
+                    columns[c + x] = (gray[above + x] & 0xff) + (gray[below + x] & 0xff);
+                }
+            }
+            for (int x = 0; x < r; x++) blurred[row + x] = blurred[row + width - 1 - x] = 0;
+            for (int x = r; x < width - r; x++) {
+                int sum = 0;
+                for (int dy = 0; dy <= r; dy++) {
+                    int c = dy * width + x, w = dy * stride;
+                    sum += weights[w] * columns[c];
+                    for (int dx = 1; dx <= r; dx++) {
+                        sum += weights[w + dx] * (columns[c - dx] + columns[c + dx]);
+                    }
+                }
+                sum >>= shift;
+                blurred[row + x] = (byte) (sum > 255 ? 255 : sum);
+            }
+        }
+    }
+
+    /**
+     * Applies the 3x3 Sobel operators. The gradient in x direction is the left column minus the right one, the
+     * gradient in y direction the top row minus the bottom one. Both are 0 for the border pixels.
+     *
+     * @param gray      the gray values.
+     * @param width     the width of the image.
+     * @param height    the height of the image.
+     * @param gx        the array the gradients in x direction are written to.
+     * @param gy        the array the gradients in y direction are written to.
+     * @param magnitude the array the squared gradient magnitudes gx * gx + gy * gy are written to.
+     */
+    public static void sobel(byte[] gray, int width, int height, short[] gx, short[] gy, int[] magnitude) {
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            if (y == 0 || y == height - 1) {
+                for (int i = row; i < row + width; i++) {
+                    gx[i] = 0;
+                    gy[i] = 0;
+                    magnitude[i] = 0;
+                }
+                continue;
+            }
+            gx[row] = gy[row] = gx[row + width - 1] = gy[row + width - 1] = 0;
+            magnitude[row] = magnitude[row + width - 1] = 0;
+            for (int i = row + 1; i < row + width - 1; i++) {
+                int topLeft = gray[i - width - 1] & 0xff, top = gray[i - width] & 0xff, topRight = gray[i - width + 1] & 0xff;
+                int left = gray[i - 1] & 0xff, right = gray[i + 1] & 0xff;
+                int bottomLeft = gray[i + width - 1] & 0xff, bottom = gray[i + width] & 0xff, bottomRight = gray[i + width + 1] & 0xff;
+                int dx = topLeft + 2 * left + bottomLeft - topRight - 2 * right - bottomRight;
+                int dy = topLeft + 2 * top + topRight - bottomLeft - 2 * bottom - bottomRight;
+                gx[i] = (short) dx;
+                gy[i] = (short) dy;
+                magnitude[i] = dx * dx + dy * dy;
+            }
+        }
+    }
+
+    /**
+     * Keeps the pixels whose gradient magnitude is a local maximum along the gradient direction, which is rounded to
+     * horizontal, vertical or one of the diagonals. The ones with a magnitude above strongThreshold are marked as
+     * {@link #EDGE}, the ones above weakThreshold as {@link #WEAK_EDGE}. All others, including the border, are set to
+     * {@link #NO_EDGE}.
+     *
+     * @param gx              the gradients in x direction, see {@link #sobel(byte[], int, int, short[], short[], int[])}.
+     * @param gy              the gradients in y direction.
+     * @param magnitude       the squared gradient magnitudes.
+     * @param width           the width of the image.
+     * @param height          the height of the image.
+     * @param weakThreshold   the magnitude a weak edge pixel has to exceed.
+     * @param strongThreshold the magnitude a strong edge pixel has to exceed.
+     * @param edges           the array the edge map is written to.
+     */
+    public static void nonMaxSuppression(short[] gx, short[] gy, int[] magnitude, int width, int height,
+                                         double weakThreshold, double strongThreshold, byte[] edges) {
+        nonMaxSuppression(gx, gy, magnitude, width, height, weakThreshold, strongThreshold, true, edges);
+    }
+
+    /**
+     * Like {@link #nonMaxSuppression(short[], short[], int[], int, int, double, double, byte[])}, but optionally with
+     * the comparison {@link net.semanticmetadata.lire.imageanalysis.BinaryPatternsPyramid} has always used. It
+     * compares a pixel with a single neighbour only in two of the directions: with the one below in vertical
+     * direction and with the upper left one on the diagonal from the upper left to the lower right.
+     *
+     * @param gx              the gradients in x direction, see {@link #sobel(byte[], int, int, short[], short[], int[])}.
+     * @param gy              the gradients in y direction.
+     * @param magnitude       the squared gradient magnitudes.
+     * @param width           the width of the image.
+     * @param height          the height of the image.
+     * @param weakThreshold   the magnitude a weak edge pixel has to exceed.
+     * @param strongThreshold the magnitude a strong edge pixel has to exceed.
+     * @param bothNeighbours  true to compare with both neighbours in all directions, false for the comparison of
+     *                        BinaryPatternsPyramid.
+     * @param edges           the array the edge map is written to.
+     */
+    public static void nonMaxSuppression(short[] gx, short[] gy, int[] magnitude, int width, int height,
+                                         double weakThreshold, double strongThreshold, boolean bothNeighbours,
+                                         byte[] edges) {
+        long weak = squaredThreshold(weakThreshold), strong = squaredThreshold(strongThreshold);
+        long min = Math.min(weak, strong);
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            if (y == 0 || y == height - 1) {
+                for (int i = row; i < row + width; i++) edges[i] = NO_EDGE;
+                continue;
+            }
+            edges[row] = edges[row + width - 1] = NO_EDGE;
+            for (int i = row + 1; i < row + width - 1; i++) {
+                int m = magnitude[i];
+                if (m <= min) {
+                    edges[i] = NO_EDGE;
+                    continue;
+                }
+                int dx = gx[i], dy = gy[i];
+                long a = Math.abs(dx), b = Math.abs(dy);
+                int n1, n2; // the neighbours along the gradient
+                if (dx != 0 && b * ONE < a * TAN_PI_8) {
+                    n1 = i - 1;
+                    n2 = i + 1;
+                } else if (dx == 0 || b * TAN_PI_8 > a * ONE) {
+                    n1 = bothNeighbours ? i - width : i + width;
+                    n2 = i + width;
+                } else if ((dx > 0) == (dy > 0)) {
+                    n1 = i - width - 1;
+                    n2 = bothNeighbours ? i + width + 1 : i - width - 1;
+                } else {
+                    n1 = i - width + 1;
+                    n2 = i + width - 1;
+                }
+                if (m > magnitude[n1] && m > magnitude[n2]) {
+                    edges[i] = m > strong ? EDGE : m > weak ? WEAK_EDGE : NO_EDGE;
+                } else {
+                    edges[i] = NO_EDGE;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the largest integer whose square root does not exceed the threshold, so for squared magnitudes m the
+     * test m &gt; squaredThreshold(t) is the same as Math.sqrt(m) &gt; t.
+     */
+    private static long squaredThreshold(double threshold) {
+        if (threshold < 0) return -1;
+        long m = (long) Math.floor(threshold * threshold);
+        while (m >= 0 && Math.sqrt(m) > threshold) m--;
+        while (Math.sqrt(m + 1) <= threshold) m++;
+        return m;
+    }
+
+    /**
+     * Turns weak edge pixels connected to strong ones into strong ones and removes the remaining weak pixels. The
+     * edges are followed with an explicit stack instead of recursion, so long edges cannot overflow the call stack.
+     *
+     * @param edges  the edge map of {@link #nonMaxSuppression(short[], short[], int[], int, int, double, double, byte[])},
+     *               the border must not contain any edges.
+     * @param width  the width of the image.
+     * @param height the height of the image.
+     * @param stack  a buffer of at least width * height values.
+     */
+    public static void hysteresis(byte[] edges, int width, int height, int[] stack) {
+        int size = width * height;
+        int top = 0;
+        for (int i = 0; i < size; i++) {
+            if (edges[i] == EDGE) stack[top++] = i;
+        }
+        int[] neighbours = {-width - 1, -width, -width + 1, -1, 1, width - 1, width, width + 1};
+        while (top > 0) {
+            int i = stack[--top];
+            for (int offset : neighbours) {
+                int n = i + offset;
+                if (edges[n] == WEAK_EDGE) {
+                    edges[n] = EDGE;
+                    stack[top++] = n;
+                }
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            if (edges[i] == WEAK_EDGE) edges[i] = NO_EDGE;
+        }
+    }
+
+    /**
+     * The kernel of {@link ImageUtils#makeGaussianKernel(int, float)} with the integer weights a
+     * {@link java.awt.image.ConvolveOp} computes with for 8 bit images. They are the float weights scaled to 23 bits
+     * for kernels summing up to less than 1, rounded if the rounded weights stay below 1 &lt;&lt; 23 and truncated
+     * otherwise. The smoothed value is the weighted sum shifted right by the scale.
+     */
+    public static class GaussianKernel {
+        private final int radius, shift;
+        // the weights of one quadrant, the one at distance (dx, dy) from the center is at dy * (radius + 1) + dx.
+        private final int[] weights;
+
+        /**
+         * Creates the kernel for {@link #gaussianBlur(byte[], int, int, GaussianKernel, int[], byte[])}.
+         *
+         * @param size  the size of the kernel, an odd number, i.e. 5
+         * @param sigma sigma, i.e. 1.4
+         */
+        public GaussianKernel(int size, float sigma) {
+            if (size < 1 || size % 2 == 0) throw new IllegalArgumentException("Kernel size has to be odd: " + size);
+            float[] kernel = ImageUtils.makeGaussianKernel(size, sigma);
+            double sum = 0;
+            for (float k : kernel) sum += k;
+            radius = size / 2;
+            shift = Math.min(23, 22 - Math.getExponent(sum));
+            double scale = (double) (1L << shift);
+            long[] scaled = new long[kernel.length];
+            long total = 0;
+            for (int i = 0; i < kernel.length; i++) {
+                scaled[i] = (long) (kernel[i] * scale + 0.5);
+                total += scaled[i];
+            }
+            if (total >= 1L << 23) {
+                for (int i = 0; i < kernel.length; i++) scaled[i] = (long) (kernel[i] * scale);
+            }
+            weights = new int[(radius + 1) * (radius + 1)];
+            for (int dy = 0; dy <= radius; dy++) {
+                for (int dx = 0; dx <= radius; dx++) {
+                    weights[dy * (radius + 1) + dx] = (int) scaled[(radius + dy) * size + radius + dx];
+                }
+            }
+        }
+
+        /**
+         * @return the radius of the kernel, size / 2.
+         */
+        public int getRadius() {
+            return radius;
+        }
+    }
+}
@@ -56,6 +56,10 @@ public class ColorLayoutImpl {
     protected int[][] shape;
     protected int imgYSize, imgXSize;
     protected BufferedImage img;
+    /**
+     * The YCbCr planes used instead of img while extracting with {@link #extract(int[][], int, int)}.
+     */
+    private int[][] yCbCr = null;
 
     protected static int[] availableCoeffNumbers = {1, 3, 6, 10, 15, 21, 28, 64};
 
@@ -184,6 +188,26 @@ public class ColorLayoutImpl {
         init();
     }
 
+    /**
+     * Extracts the descriptor from YCbCr planes, e.g. the ones of
+     * {@link net.semanticmetadata.lire.imageanalysis.utils.ImageContext#getYCbCr()}.
+     *
+     * @param yCbCr  the Y, Cb and Cr values of the pixels, row by row.
+     * @param width  the width of the image.
+     * @param height the height of the image.
+     */
+    public void extract(int[][] yCbCr, int width, int height) {
+        this.img = null;
+        this.yCbCr = yCbCr;
+        imgYSize = height;
+        imgXSize = width;
+        try {
+            init();
+        } finally {
+            this.yCbCr = null;
+        }
+    }
+
     private void createShape() {
         int y_axis, x_axis;
         int i, k, x, y, j;
@@ -203,26 +227,41 @@ public class ColorLayoutImpl {
             shape[2][i] = 0;
         }
 
-        WritableRaster raster = img.getRaster();
-        int[] pixel = {0, 0, 0};
-        for (y = 0; y < imgYSize; y++) {
-            for (x = 0; x < imgXSize; x++) {
-                raster.getPixel(x, y, pixel);
-                R = pixel[0];
-                G = pixel[1];
-                B = pixel[2];
-
+        if (yCbCr != null) {
+            for (y = 0; y < imgYSize; y++) {
                 y_axis = (int) (y / (imgYSize / 8.0));
-                x_axis = (int) (x / (imgXSize / 8.0));
-
-                k = (y_axis << 3) + x_axis;
-
-                //RGB to YCbCr, partition and average-calculation
-                yy = (0.299 * R + 0.587 * G + 0.114 * B) / 256.0;
-                sum[0][k] += (int) (219.0 * yy + 16.5); // Y
-                sum[1][k] += (int) (224.0 * 0.564 * (B / 256.0 * 1.0 - yy) + 128.5); // Cb
-                sum[2][k] += (int) (224.0 * 0.713 * (R / 256.0 * 1.0 - yy) + 128.5); // Cr
-                cnt[k]++;
+                for (x = 0; x < imgXSize; x++) {
+                    x_axis = (int) (x / (imgXSize / 8.0));
+                    k = (y_axis << 3) + x_axis;
+                    int p = y * imgXSize + x;
+                    sum[0][k] += yCbCr[0][p];
+                    sum[1][k] += yCbCr[1][p];
+                    sum[2][k] += yCbCr[2][p];
+                    cnt[k]++;
+                }
+            }
+        } else {
+            WritableRaster raster = img.getRaster();
+            int[] pixel = {0, 0, 0};
+            for (y = 0; y < imgYSize; y++) {
+                for (x = 0; x < imgXSize; x++) {
+                    raster.getPixel(x, y, pixel);
+                    R = pixel[0];
+                    G = pixel[1];
+                    B = pixel[2];
+
+                    y_axis = (int) (y / (imgYSize / 8.0));
+                    x_axis = (int) (x / (imgXSize / 8.0));
+
+                    k = (y_axis << 3) + x_axis;
+
+                    //RGB to YCbCr, partition and average-calculation
+                    yy = (0.299 * R + 0.587 * G + 0.114 * B) / 256.0;
+                    sum[0][k] += (int) (219.0 * yy + 16.5); // Y
+                    sum[1][k] += (int) (224.0 * 0.564 * (B / 256.0 * 1.0 - yy) + 128.5); // Cb
+                    sum[2][k] += (int) (224.0 * 0.713 * (R / 256.0 * 1.0 - yy) + 128.5); // Cr
+                    cnt[k]++;
+                }
             }
         }
 
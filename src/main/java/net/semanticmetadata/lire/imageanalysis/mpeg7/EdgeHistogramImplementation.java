@@ -124,6 +124,10 @@ public class EdgeHistogramImplementation {
     private double[] Local_Edge_Histogram = new double[80];
     private int blockSize = -1;
     private BufferedImage image;
+    /**
+     * The luminance used instead of the image while extracting with {@link #extract(int[], int, int)}.
+     */
+    private int[] luminance = null;
 
     /**
      * The actual edge histogram.
@@ -157,6 +161,32 @@ public class EdgeHistogramImplementation {
         edgeHistogram = setEdgeHistogram();
     }
 
+    /**
+     * Extracts the descriptor from the luminance of the pixels, e.g. the Y plane of
+     * {@link net.semanticmetadata.lire.imageanalysis.utils.ImageContext#getYCbCr()}.
+     *
+     * @param luminance the luminance values of the pixels, row by row.
+     * @param width     the width of the image.
+     * @param height    the height of the image.
+     */
+    public void extract(int[] luminance, int width, int height) {
+        bins = new int[80];
+        treshold = 11;
+        num_block = 1100;
+        Local_Edge_Histogram = new double[80];
+        blockSize = -1;
+        this.image = null;
+        this.luminance = luminance;
+        this.width = width;
+        this.height = height;
+        try {
+            extractFeature();
+        } finally {
+            this.luminance = null;
+        }
+        edgeHistogram = setEdgeHistogram();
+    }
+
     public EdgeHistogramImplementation(String descriptor) {
         setStringRepresentation(descriptor);
     }
@@ -254,7 +284,7 @@ public class EdgeHistogramImplementation {
         grey_level = new double[(int) width][(int) height];
         for (int x = 0; x < width; x++) {
             for (int y = 0; y < height; y++) {
-                grey_level[x][y] = getYfromRGB(image.getRGB(x, y));
+                grey_level[x][y] = luminance != null ? luminance[y * (int) width + x] : getYfromRGB(image.getRGB(x, y));
             }
         }
 
@@ -0,0 +1,253 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ * Updated: 18.10.26 17:11
+ */
+
+package net.semanticmetadata.lire.imageanalysis.utils;
+
+import net.semanticmetadata.lire.utils.ImageUtils;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * Holds one image and the pixel data derived from it, so several features extracted from the same image share the
+ * scaling and the color space conversions. Everything is computed on first use and kept for the lifetime of the
+ * context, so create one context per image, e.g. in {@link net.semanticmetadata.lire.impl.ChainedDocumentBuilder}.
+ * <br/>
+ * All planes are stored row by row, the value of pixel (x, y) is at index y * width + x. The arrays are shared with
+ * all features using the context and must not be changed. The getters are synchronized, so a context can be used by
+ * builders running in parallel.
+ *
+ * @see net.semanticmetadata.lire.imageanalysis.ImageContextFeature
+ */
+public class ImageContext {
+    private final BufferedImage original;
+    private final int maxSideLength;
+    private BufferedImage image = null, rgbImage = null, grayImage = null;
+    private int[] rgb = null;
+    private byte[] gray = null;
+    private int[][] hsv = null, yCbCr = null;
+
+    /**
+     * Creates a context for an image used in its original size.
+     *
+     * @param image the image.
+     */
+    public ImageContext(BufferedImage image) {
+        this(image, 0);
+    }
+
+    /**
+     * Creates a context for an image which is scaled down to fit in a box of maxSideLength x maxSideLength, like
+     * with {@link ImageUtils#scaleImage(java.awt.image.BufferedImage, int)}.
+     *
+     * @param image         the image, it remains untouched.
+     * @param maxSideLength the maximum side length, 0 to keep the original size.
+     */
+    public ImageContext(BufferedImage image, int maxSideLength) {
+        this.original = image;
+        this.maxSideLength = maxSideLength;
+    }
+
+    /**
+     * @return the image the context has been created for.
+     */
+    public BufferedImage getOriginalImage() {
+        return original;
+    }
+
+    /**
+     * @return the image features are extracted from, i.e. the scaled down image or the original one if it is small enough.
+     */
+    public synchronized BufferedImage getImage() {
+        if (image == null) {
+            image = maxSideLength > 0 ? ImageUtils.scaleImage(original, maxSideLength) : original;
+        }
+        return image;
+    }
+
+    public int getWidth() {
+        return getImage().getWidth();
+    }
+
+    public int getHeight() {
+        return getImage().getHeight();
+    }
+
+    /**
+     * @return the image with 8 bits per color channel, see {@link ImageUtils#get8BitRGBImage(java.awt.image.BufferedImage)}.
+     */
+    public synchronized BufferedImage getRGBImage() {
+        if (rgbImage == null) rgbImage = ImageUtils.get8BitRGBImage(getImage());
+        return rgbImage;
+    }
+
+    /**
+     * @return the pixels of {@link #getRGBImage()} as packed ints like {@link BufferedImage#getRGB(int, int)},
+     * red in bits 16-23, green in bits 8-15 and blue in bits 0-7.
+     */
+    public synchronized int[] getRGB() {
+        if (rgb == null) {
+            BufferedImage img = getRGBImage();
+            rgb = readRGB(img);
+            if (rgb == null) rgb = img.getRGB(0, 0, img.getWidth(), img.getHeight(), null, 0, img.getWidth());
+        }
+        return rgb;
+    }
+
+    /**
+     * Reads the pixels of the two image types {@link ImageUtils#get8BitRGBImage(java.awt.image.BufferedImage)}
+     * returns straight from the data buffer, which gives the same values as {@link BufferedImage#getRGB(int, int)}
+     * without converting each pixel through the color model.
+     *
+     * @param img the image.
+     * @return the packed pixels, or null if the layout of the image is not supported.
+     */
+    private static int[] readRGB(BufferedImage img) {
+        WritableRaster raster = img.getRaster();
+        int width = img.getWidth(), height = img.getHeight();
+        int[] pixels = new int[width * height];
+        if (img.getType() == BufferedImage.TYPE_INT_RGB && raster.getSampleModel() instanceof SinglePixelPackedSampleModel
+                && raster.getDataBuffer() instanceof DataBufferInt) {
+            SinglePixelPackedSampleModel sm = (SinglePixelPackedSampleModel) raster.getSampleModel();
+            DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+            int[] data = buffer.getData();
+            int stride = sm.getScanlineStride();
+            int offset = buffer.getOffset() + sm.getOffset(-raster.getSampleModelTranslateX(), -raster.getSampleModelTranslateY());
+            for (int y = 0, i = 0; y < height; y++) {
+                for (int k = offset + y * stride, end = k + width; k < end; k++) {
+                    pixels[i++] = 0xff000000 | data[k];
+                }
+            }
+            return pixels;
+        }
+        if (img.getType() == BufferedImage.TYPE_3BYTE_BGR && raster.getSampleModel() instanceof ComponentSampleModel
+                && raster.getDataBuffer() instanceof DataBufferByte && raster.getDataBuffer().getNumBanks() == 1) {
+            ComponentSampleModel sm = (ComponentSampleModel) raster.getSampleModel();
+            DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+            byte[] data = buffer.getData();
+            int stride = sm.getScanlineStride(), pixelStride = sm.getPixelStride();
+            int[] bands = sm.getBandOffsets();
+            int offset = buffer.getOffset() - raster.getSampleModelTranslateY() * stride - raster.getSampleModelTranslateX() * pixelStride;
+            int r = offset + bands[0], g = offset + bands[1], b = offset + bands[2];
+            for (int y = 0, i = 0; y < height; y++) {
+                for (int x = 0, k = y * stride; x < width; x++, k += pixelStride) {
+                    pixels[i++] = 0xff000000 | (data[r + k] & 0xff) << 16 | (data[g + k] & 0xff) << 8 | (data[b + k] & 0xff);
+                }
+            }
+            return pixels;
+        }
+        return null;
+    }
+
+    /**
+     * @return the image converted to gray, see {@link ImageUtils#getGrayscaleImage(java.awt.image.BufferedImage)}.
+     */
+    public synchronized BufferedImage getGrayscaleImage() {
+        if (grayImage == null) grayImage = ImageUtils.getGrayscaleImage(getImage());
+        return grayImage;
+    }
+
+    /**
+     * @return the gray values of {@link #getGrayscaleImage()}, use value &amp; 0xff to get them in [0, 255].
+     */
+    public synchronized byte[] getGray() {
+        if (gray == null) {
+            // a new TYPE_BYTE_GRAY image has one byte per pixel without padding.
+            gray = ((DataBufferByte) getGrayscaleImage().getRaster().getDataBuffer()).getData();
+        }
+        return gray;
+    }
+
+    /**
+     * Converts the pixels of {@link #getRGB()} to HSV, with hue in [0, 359], saturation and value in [0, 255].
+     *
+     * @return the hue, saturation and value planes.
+     */
+    public synchronized int[][] getHSV() {
+        if (hsv == null) {
+            int[] pixels = getRGB();
+            hsv = new int[3][pixels.length];
+            for (int i = 0; i < pixels.length; i++) {
+                int r = (pixels[i] >> 16) & 0xff, g = (pixels[i] >> 8) & 0xff, b = pixels[i] & 0xff;
+                int max = Math.max(Math.max(r, g), b);
+                int min = Math.min(Math.min(r, g), b);
+                hsv[1][i] = max == 0 ? 0 : (int) (((max - min) / (float) max) * 255f);
+                float hue = 0f;
+                if (max != min) {
+                    float maxMinusMin = (float) (max - min);
+                    if (r == max) hue = (g - b) / maxMinusMin;
+                    else if (g == max) hue = 2 + (b - r) / maxMinusMin;
+                    else hue = 4 + (r - g) / maxMinusMin;
+                    hue *= 60f;
+                    if (hue < 0f) hue += 360f;
+                }
+                hsv[0][i] = (int) hue;
+                hsv[2][i] = max;
+            }
+        }
+        return hsv;
+    }
+
+    /**
+     * Converts the pixels of {@link #getRGB()} to YCbCr as defined for the MPEG-7 descriptors, with Y in [16, 235]
+     * and Cb, Cr in [16, 240].
+     *
+     * @return the Y, Cb and Cr planes.
+     */
+    public synchronized int[][] getYCbCr() {
+        if (yCbCr == null) {
+            int[] pixels = getRGB();
+            yCbCr = new int[3][pixels.length];
+            for (int i = 0; i < pixels.length; i++) {
+                int r = (pixels[i] >> 16) & 0xff, g = (pixels[i] >> 8) & 0xff, b = pixels[i] & 0xff;
+                double yy = (0.299 * r + 0.587 * g + 0.114 * b) / 256.0;
+                yCbCr[0][i] = (int) (219.0 * yy + 16.5);
+                yCbCr[1][i] = (int) (224.0 * 0.564 * (b / 256.0 * 1.0 - yy) + 128.5);
+                yCbCr[2][i] = (int) (224.0 * 0.713 * (r / 256.0 * 1.0 - yy) + 128.5);
+            }
+        }
+        return yCbCr;
+    }
+}
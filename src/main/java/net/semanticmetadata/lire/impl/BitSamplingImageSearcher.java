@@ -41,22 +41,18 @@
 
 package net.semanticmetadata.lire.impl;
 
-import net.semanticmetadata.lire.AbstractImageSearcher;
 import net.semanticmetadata.lire.ImageDuplicates;
-import net.semanticmetadata.lire.ImageSearchHits;
 import net.semanticmetadata.lire.imageanalysis.LireFeature;
 import net.semanticmetadata.lire.indexing.hashing.BitSampling;
-import org.apache.lucene.document.Document;
+import net.semanticmetadata.lire.indexing.hashing.BitSamplingHasher;
+import net.semanticmetadata.lire.indexing.hashing.Hasher;
 import org.apache.lucene.index.FieldInvertState;
 import org.apache.lucene.index.IndexReader;
-import org.apache.lucene.index.Term;
-import org.apache.lucene.search.*;
 import org.apache.lucene.search.similarities.DefaultSimilarity;
+import org.apache.lucene.search.similarities.Similarity;
 
-import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.TreeSet;
 
 /**
  * This class allows for searching based on {@link net.semanticmetadata.lire.indexing.hashing.BitSampling}
@@ -67,14 +63,7 @@ import java.util.TreeSet;
  * @author Mathias Lux, mathias@juggle.at, 2013-04-12
  */
 
-public class BitSamplingImageSearcher extends AbstractImageSearcher {
-    private int maxResultsHashBased = 1000;
-    private int maximumHits = 100;
-    private String featureFieldName = null;
-    private LireFeature feature = null;
-    private String hashesFieldName = null;
-    private boolean partialHashes = false;
-
+public class BitSamplingImageSearcher extends HashingImageSearcher {
     /**
      * Creates a new searcher for BitSampling based hashes.
      *
@@ -89,7 +78,7 @@ public class BitSamplingImageSearcher extends AbstractImageSearcher {
         this.hashesFieldName = hashesFieldName;
         this.feature = feature;
         try {
-            BitSampling.readHashFunctions();
+            hasher = new BitSamplingHasher(BitSampling.readHashFunctions());
         } catch (IOException e) {
             System.err.println("Error reading hash functions from default location.");
             e.printStackTrace();
@@ -108,7 +97,7 @@ public class BitSamplingImageSearcher extends AbstractImageSearcher {
         this.hashesFieldName = featureFieldName + GenericDocumentBuilder.HASH_FIELD_SUFFIX;
         this.feature = feature;
         try {
-            BitSampling.readHashFunctions();
+            hasher = new BitSamplingHasher(BitSampling.readHashFunctions());
         } catch (IOException e) {
             System.err.println("Error reading hash functions from default location.");
             e.printStackTrace();
@@ -129,7 +118,7 @@ public class BitSamplingImageSearcher extends AbstractImageSearcher {
         this.feature = feature;
         partialHashes = useFastSearch;
         try {
-            BitSampling.readHashFunctions();
+            hasher = new BitSamplingHasher(BitSampling.readHashFunctions());
         } catch (IOException e) {
             System.err.println("Error reading hash functions from default location.");
             e.printStackTrace();
@@ -150,7 +139,7 @@ public class BitSamplingImageSearcher extends AbstractImageSearcher {
         this.feature = feature;
         maxResultsHashBased = numHashedResults;
         try {
-            BitSampling.readHashFunctions();
+            hasher = new BitSamplingHasher(BitSampling.readHashFunctions());
         } catch (IOException e) {
             System.err.println("Error reading hash functions from default location.");
             e.printStackTrace();
@@ -164,7 +153,7 @@ public class BitSamplingImageSearcher extends AbstractImageSearcher {
         this.feature = feature;
         maxResultsHashBased = numHashedResults;
         try {
-            BitSampling.readHashFunctions();
+            hasher = new BitSamplingHasher(BitSampling.readHashFunctions());
         } catch (IOException e) {
             System.err.println("Error reading hash functions from default location.");
             e.printStackTrace();
@@ -177,7 +166,7 @@ public class BitSamplingImageSearcher extends AbstractImageSearcher {
         this.hashesFieldName = hashesFieldName;
         this.feature = feature;
         try {
-            BitSampling.readHashFunctions(hashes);
+            hasher = new BitSamplingHasher(BitSampling.readHashFunctions(hashes));
             hashes.close();
         } catch (IOException e) {
             System.err.println("Error reading has functions from given input stream.");
@@ -192,7 +181,7 @@ public class BitSamplingImageSearcher extends AbstractImageSearcher {
         this.feature = feature;
         maxResultsHashBased = numHashedResults;
         try {
-            BitSampling.readHashFunctions(hashes);
+            hasher = new BitSamplingHasher(BitSampling.readHashFunctions(hashes));
             hashes.close();
         } catch (IOException e) {
             System.err.println("Error reading has functions from given input stream.");
@@ -200,76 +189,29 @@ public class BitSamplingImageSearcher extends AbstractImageSearcher {
         }
     }
 
-    public ImageSearchHits search(BufferedImage image, IndexReader reader) throws IOException {
-        try {
-            LireFeature queryFeature = feature.getClass().newInstance();
-            queryFeature.extract(image);
-            int[] ints = BitSampling.generateHashes(queryFeature.getDoubleHistogram());
-            String[] hashes = new String[ints.length];
-            for (int i = 0; i < ints.length; i++) {
-                hashes[i] = Integer.toString(ints[i]);
-            }
-            return search(hashes, queryFeature, reader);
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        return null;
-    }
-
-    public ImageSearchHits search(Document doc, IndexReader reader) throws IOException {
-        try {
-            LireFeature queryFeature = feature.getClass().newInstance();
-            queryFeature.setByteArrayRepresentation(doc.getBinaryValue(featureFieldName).bytes,
-                    doc.getBinaryValue(featureFieldName).offset,
-                    doc.getBinaryValue(featureFieldName).length);
-            return search(doc.getValues(hashesFieldName)[0].split(" "), queryFeature, reader);
-//            return search(doc.getValues(hashesFieldName + "_q")[0].split(" "), queryFeature, reader);  // just for debug if a query feature is stored in the index.
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        return null;
+    /**
+     * Creates a new searcher using the given hash functions instead of the ones of {@link BitSampling}, which have to
+     * be the ones used for indexing.
+     *
+     * @param maximumHits      how many hits the searcher shall return.
+     * @param featureFieldName the field name of the feature.
+     * @param hashesFieldName  the field name of the hashes.
+     * @param feature          an instance of the feature.
+     * @param hasher           the hash functions.
+     * @param numHashedResults the number of candidate results retrieved from the index before re-ranking.
+     */
+    public BitSamplingImageSearcher(int maximumHits, String featureFieldName, String hashesFieldName, LireFeature feature, Hasher hasher, int numHashedResults) {
+        this.maximumHits = maximumHits;
+        this.featureFieldName = featureFieldName;
+        this.hashesFieldName = hashesFieldName;
+        this.feature = feature;
+        this.hasher = hasher;
+        maxResultsHashBased = numHashedResults;
     }
 
-    private ImageSearchHits search(String[] hashes, LireFeature queryFeature, IndexReader reader) throws IOException {
-        // first search by text:
-        IndexSearcher searcher = new IndexSearcher(reader);
-        searcher.setSimilarity(new BaseSimilarity());
-        BooleanQuery query = new BooleanQuery();
-        for (int i = 0; i < hashes.length; i++) {
-            // be aware that the hashFunctionsFileName of the field must match the one you put the hashes in before.
-            if (partialHashes) {
-                if (Math.random() < 0.5)
-                    query.add(new BooleanClause(new TermQuery(new Term(hashesFieldName, hashes[i] + "")), BooleanClause.Occur.SHOULD));
-            } else
-                query.add(new BooleanClause(new TermQuery(new Term(hashesFieldName, hashes[i] + "")), BooleanClause.Occur.SHOULD));
-        }
-        TopDocs docs = searcher.search(query, maxResultsHashBased);
-//        System.out.println(docs.totalHits);
-        // then re-rank
-        TreeSet<SimpleResult> resultScoreDocs = new TreeSet<SimpleResult>();
-        float maxDistance = -1f;
-        float tmpScore;
-        for (int i = 0; i < docs.scoreDocs.length; i++) {
-            feature.setByteArrayRepresentation(reader.document(docs.scoreDocs[i].doc).getBinaryValue(featureFieldName).bytes,
-                    reader.document(docs.scoreDocs[i].doc).getBinaryValue(featureFieldName).offset,
-                    reader.document(docs.scoreDocs[i].doc).getBinaryValue(featureFieldName).length);
-            tmpScore = queryFeature.getDistance(feature);
-            assert (tmpScore >= 0);
-            if (resultScoreDocs.size() < maximumHits) {
-                resultScoreDocs.add(new SimpleResult(tmpScore, reader.document(docs.scoreDocs[i].doc), docs.scoreDocs[i].doc));
-                maxDistance = Math.max(maxDistance, tmpScore);
-            } else if (tmpScore < maxDistance) {
-                // if it is nearer to the sample than at least one of the current set:
-                // remove the last one ...
-                resultScoreDocs.remove(resultScoreDocs.last());
-                // add the new one ...
-                resultScoreDocs.add(new SimpleResult(tmpScore, reader.document(docs.scoreDocs[i].doc), docs.scoreDocs[i].doc));
-                // and set our new distance border ...
-                maxDistance = resultScoreDocs.last().getDistance();
-            }
-        }
-        assert (resultScoreDocs.size() <= maximumHits);
-        return new SimpleImageSearchHits(resultScoreDocs, maxDistance);
+    @Override
+    Similarity getSimilarity() {
+        return new BaseSimilarity();
     }
 
     public ImageDuplicates findDuplicates(IndexReader reader) throws IOException {
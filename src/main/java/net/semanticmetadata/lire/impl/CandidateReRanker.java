@@ -0,0 +1,133 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ * Updated: 18.10.26 17:00
+ */
+
+package net.semanticmetadata.lire.impl;
+
+import net.semanticmetadata.lire.imageanalysis.LireFeature;
+import net.semanticmetadata.lire.indexing.cache.FeatureColumn;
+import net.semanticmetadata.lire.indexing.cache.FeatureValues;
+import net.semanticmetadata.lire.indexing.cache.SegmentCache;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Re-ranks candidates, for instance from hashing based search, by the distance of their features to the query.
+ * The candidates are visited in docID order segment by segment, and only the feature of each candidate is read,
+ * once, either from doc values, from the stored field alone, or from a cached {@link FeatureColumn}. No documents
+ * are loaded here, {@link SimpleImageSearchHits} loads the ones of the final results on demand.
+ * <br/>
+ * The feature instance given to {@link #reRank(int[], LireFeature, LireFeature, IndexReader, int)} is re-used for
+ * all candidates, so instances are not thread safe if the searcher shares its feature.
+ */
+public class CandidateReRanker {
+    private final String fieldName;
+    private SegmentCache<FeatureColumn> featureColumns = null;
+
+    /**
+     * @param fieldName the name of the field the feature is stored in.
+     */
+    public CandidateReRanker(String fieldName) {
+        this.fieldName = fieldName;
+    }
+
+    /**
+     * Sets whether the features are read from {@link FeatureColumn}s, which are loaded once per segment and
+     * cached with the re-ranker. Pays off if the same searcher is used for many queries.
+     *
+     * @param useFeatureColumn true to cache the features in columns, false to read them from the index (default).
+     */
+    public void setUseFeatureColumn(boolean useFeatureColumn) {
+        if (!useFeatureColumn) {
+            featureColumns = null;
+        } else if (featureColumns == null) {
+            featureColumns = new SegmentCache<FeatureColumn>() {
+                @Override
+                protected FeatureColumn load(AtomicReader reader) throws IOException {
+                    return FeatureColumn.load(reader, fieldName);
+                }
+            };
+        }
+    }
+
+    /**
+     * Computes the distance of the query to each candidate and keeps the closest ones.
+     *
+     * @param candidates   the docIDs of the candidates in the given reader, in any order.
+     * @param queryFeature the query.
+     * @param feature      an instance of the feature, used for reading the candidates.
+     * @param reader       the index.
+     * @param maximumHits  the number of results to keep.
+     * @return the closest candidates.
+     * @throws IOException
+     */
+    public TopKCollector reRank(int[] candidates, LireFeature queryFeature, LireFeature feature, IndexReader reader, int maximumHits) throws IOException {
+        TopKCollector results = new TopKCollector(maximumHits);
+        int[] docs = candidates.clone();
+        Arrays.sort(docs);
+        int i = 0;
+        for (AtomicReaderContext leaf : reader.leaves()) {
+            if (i >= docs.length) break;
+            int end = leaf.docBase + leaf.reader().maxDoc();
+            if (docs[i] >= end) continue;
+            if (featureColumns != null) {
+                FeatureColumn.Cursor cursor = featureColumns.get(leaf).cursor();
+                for (; i < docs.length && docs[i] < end; i++) {
+                    if (cursor.load(docs[i] - leaf.docBase, feature))
+                        results.collect(docs[i], queryFeature.getDistance(feature));
+                }
+            } else {
+                FeatureValues values = new FeatureValues(leaf.reader(), fieldName);
+                for (; i < docs.length && docs[i] < end; i++) {
+                    BytesRef bytes = values.get(docs[i] - leaf.docBase);
+                    if (bytes == null) continue;
+                    feature.setByteArrayRepresentation(bytes.bytes, bytes.offset, bytes.length);
+                    results.collect(docs[i], queryFeature.getDistance(feature));
+                }
+            }
+        }
+        return results;
+    }
+}
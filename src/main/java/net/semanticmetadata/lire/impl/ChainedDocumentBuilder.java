@@ -43,13 +43,16 @@ package net.semanticmetadata.lire.impl;
 
 import net.semanticmetadata.lire.AbstractDocumentBuilder;
 import net.semanticmetadata.lire.DocumentBuilder;
+import net.semanticmetadata.lire.imageanalysis.utils.ImageContext;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.StringField;
 
 import java.awt.image.BufferedImage;
 import java.io.FileNotFoundException;
+import java.util.Collections;
 import java.util.LinkedList;
+import java.util.List;
 
 /**
  * Chaining of DocumentBuilder. If you need several different feature, create a ChainedDocumentBuilder and add
@@ -79,13 +82,44 @@ public class ChainedDocumentBuilder extends AbstractDocumentBuilder {
         builders.add(builder);
     }
 
+    /**
+     * Returns the builders in the order they have been added, for instance to run them in parallel on one image.
+     * @return an unmodifiable view of the builders.
+     */
+    public List<DocumentBuilder> getBuilders() {
+        return Collections.unmodifiableList(builders);
+    }
+
+    /**
+     * Runs a builder on the image of a context. Instances of {@link GenericDocumentBuilder} share the pixel data of
+     * the context, all other builders get the original image.
+     * @param builder the builder.
+     * @param context the context of the image, created with {@link #createImageContext(java.awt.image.BufferedImage)}.
+     * @return the fields created by the builder.
+     */
+    public static Field[] createDescriptorFields(DocumentBuilder builder, ImageContext context) {
+        if (builder instanceof GenericDocumentBuilder)
+            return ((GenericDocumentBuilder) builder).createDescriptorFields(context);
+        return builder.createDescriptorFields(context.getOriginalImage());
+    }
+
+    /**
+     * Creates the context shared by all builders for one image, scaled like in {@link GenericDocumentBuilder}.
+     * @param image the image.
+     * @return the new context.
+     */
+    public static ImageContext createImageContext(BufferedImage image) {
+        return new ImageContext(image, GenericDocumentBuilder.MAX_IMAGE_DIMENSION);
+    }
+
     @Override
     public Field[] createDescriptorFields(BufferedImage image) {
         docsCreated = true;
         LinkedList<Field> resultList = new LinkedList<Field>();
         if (builders.size() >= 1) {
+            ImageContext context = createImageContext(image);
             for (DocumentBuilder builder : builders) {
-                Field[] fields = builder.createDescriptorFields(image);
+                Field[] fields = createDescriptorFields(builder, context);
                 for (int i = 0; i < fields.length; i++) {
                     resultList.add(fields[i]);
                 }
@@ -100,8 +134,9 @@ public class ChainedDocumentBuilder extends AbstractDocumentBuilder {
         if (identifier != null)
             doc.add(new StringField(DocumentBuilder.FIELD_NAME_IDENTIFIER, identifier, Field.Store.YES)); // changed to StringField based on the suggestions of Berthold Daum <berthold.daum@bdaum.de>
         if (builders.size() >= 1) {
+            ImageContext context = createImageContext(image);
             for (DocumentBuilder builder : builders) {
-                Field[] fields = builder.createDescriptorFields(image);
+                Field[] fields = createDescriptorFields(builder, context);
                 for (int i = 0; i < fields.length; i++) {
                     Field field = fields[i];
                     doc.add(field);
@@ -54,7 +54,6 @@ import org.apache.lucene.util.Bits;
 
 import java.awt.image.BufferedImage;
 import java.io.IOException;
-import java.util.TreeSet;
 import java.util.logging.Logger;
 
 /**
@@ -69,14 +68,9 @@ public class FastOpponentImageSearcher extends AbstractImageSearcher {
     private OpponentHistogram cachedInstance = null;
 
     private int maxHits = 10;
-    protected TreeSet<SimpleResult> docs;
-    private byte[] tempBinaryValue;
-    private double maxDistance;
-    private float overallMaxDistance;
 
     public FastOpponentImageSearcher(int maxHits) {
         this.maxHits = maxHits;
-        docs = new TreeSet<SimpleResult>();
         this.cachedInstance = new OpponentHistogram();
     }
 
@@ -93,21 +87,18 @@ public class FastOpponentImageSearcher extends AbstractImageSearcher {
         lireFeature.extract(bimg);
         logger.fine("Extraction from image finished");
 
-        double maxDistance = findSimilar(reader, lireFeature);
-        searchHits = new SimpleImageSearchHits(this.docs, (float) maxDistance);
+        searchHits = new SimpleImageSearchHits(findSimilar(reader, lireFeature), reader);
         return searchHits;
     }
 
     /**
      * @param reader
      * @param lireFeature
-     * @return the maximum distance found for normalizing.
+     * @return the collected docIDs and distances.
      * @throws java.io.IOException
      */
-    protected double findSimilar(IndexReader reader, LireFeature lireFeature) throws IOException {
-        maxDistance = -1f;
-        // clear result set ...
-        docs.clear();
+    protected TopKCollector findSimilar(IndexReader reader, LireFeature lireFeature) throws IOException {
+        TopKCollector results = new TopKCollector(maxHits);
         // Needed for check whether the document is deleted.
         Bits liveDocs = MultiFields.getLiveDocs(reader);
         Document d;
@@ -120,29 +111,9 @@ public class FastOpponentImageSearcher extends AbstractImageSearcher {
             d = reader.document(i);
             tmpDistance = getDistance(d, histogram);
             assert (tmpDistance >= 0);
-            // calculate the overall max distance to normalize score afterwards
-//            if (overallMaxDistance < tmpDistance) {
-//                overallMaxDistance = tmpDistance;
-//            }
-            // if it is the first document:
-            if (maxDistance < 0) {
-                maxDistance = tmpDistance;
-            }
-            // if the array is not full yet:
-            if (this.docs.size() < maxHits) {
-                this.docs.add(new SimpleResult((float) tmpDistance, d, i));
-                if (tmpDistance > maxDistance) maxDistance = tmpDistance;
-            } else if (tmpDistance < maxDistance) {
-                // if it is nearer to the sample than at least on of the current set:
-                // remove the last one ...
-                this.docs.remove(this.docs.last());
-                // add the new one ...
-                this.docs.add(new SimpleResult((float) tmpDistance, d, i));
-                // and set our new distance border ...
-                maxDistance = this.docs.last().getDistance();
-            }
+            results.collect(i, (float) tmpDistance);
         }
-        return maxDistance;
+        return results;
     }
 
     /**
@@ -172,9 +143,7 @@ public class FastOpponentImageSearcher extends AbstractImageSearcher {
             lireFeature.setByteArrayRepresentation(doc.getField(DocumentBuilder.FIELD_NAME_OPPONENT_HISTOGRAM).binaryValue().bytes,
                     doc.getField(DocumentBuilder.FIELD_NAME_OPPONENT_HISTOGRAM).binaryValue().offset,
                     doc.getField(DocumentBuilder.FIELD_NAME_OPPONENT_HISTOGRAM).binaryValue().length);
-        double maxDistance = findSimilar(reader, lireFeature);
-
-        searchHits = new SimpleImageSearchHits(this.docs, (float) maxDistance);
+        searchHits = new SimpleImageSearchHits(findSimilar(reader, lireFeature), reader);
         return searchHits;
     }
 
@@ -44,9 +44,10 @@ import net.semanticmetadata.lire.AbstractDocumentBuilder;
 import net.semanticmetadata.lire.DocumentBuilder;
 import net.semanticmetadata.lire.imageanalysis.*;
 import net.semanticmetadata.lire.imageanalysis.joint.JointHistogram;
+import net.semanticmetadata.lire.imageanalysis.utils.ImageContext;
 import net.semanticmetadata.lire.indexing.hashing.BitSampling;
+import net.semanticmetadata.lire.indexing.hashing.Hasher;
 import net.semanticmetadata.lire.indexing.hashing.LocalitySensitiveHashing;
-import net.semanticmetadata.lire.utils.ImageUtils;
 import net.semanticmetadata.lire.utils.SerializationUtils;
 import org.apache.lucene.document.*;
 import org.apache.lucene.util.BytesRef;
@@ -75,6 +76,7 @@ public class GenericDocumentBuilder extends AbstractDocumentBuilder {
     Mode currentMode = DEFAULT_MODE;
     // private LireFeature lireFeature;
     protected HashingMode hashingMode = HashingMode.BitSampling;
+    private Hasher hasher = null;
 
     public static HashMap<Class, String> fieldForClass = new HashMap<Class, String>();
     public static HashMap<String, Class> classForField = new HashMap<String, Class>();
@@ -134,9 +136,11 @@ public class GenericDocumentBuilder extends AbstractDocumentBuilder {
         classForField.put(FIELD_NAME_TAMURA, Tamura.class);
     }
 
-    // Decide between byte array version (fast) or string version (slow)
+    // Decide between byte array version (fast) or string version (slow). DocValues stores the byte array as
+    // BinaryDocValuesField, which linear searchers can scan segment by segment without decompressing stored fields.
+    // A stored copy is kept in addition, so documents loaded with IndexReader.document(int) can still be used as queries.
     public enum Mode {
-        Fast, Slow
+        Fast, Slow, DocValues
     }
 
     /**
@@ -221,7 +225,8 @@ public class GenericDocumentBuilder extends AbstractDocumentBuilder {
      *
      * @param descriptorClass has to implement {@link net.semanticmetadata.lire.imageanalysis.LireFeature}
      * @param fieldName       the field hashFunctionsFileName in the index.
-     * @param mode            the mode the GenericDocumentBuilder should work in, byte[] (== Mode.Fast) or string (==Mode.Slow) storage in Lucene.
+     * @param mode            the mode the GenericDocumentBuilder should work in, byte[] (== Mode.Fast), string (==Mode.Slow)
+     *                        or doc values (== Mode.DocValues) storage in Lucene.
      */
     public GenericDocumentBuilder(Class<? extends LireFeature> descriptorClass, String fieldName, Mode mode) {
         this.descriptorClass = descriptorClass;
@@ -230,37 +235,53 @@ public class GenericDocumentBuilder extends AbstractDocumentBuilder {
     }
 
     public Field[] createDescriptorFields(BufferedImage image) {
-        Field[] result;
-        if (hashingEnabled) result = new Field[2];
-        else result = new Field[1];
-        String featureString = "";
         assert (image != null);
-        BufferedImage bimg = image;
         // Scaling image is especially with the correlogram features very important!
         // All images are scaled to guarantee a certain upper limit for indexing.
-        if (Math.max(image.getHeight(), image.getWidth()) > MAX_IMAGE_DIMENSION) {
-            bimg = ImageUtils.scaleImage(image, MAX_IMAGE_DIMENSION);
-        }
-        Document doc = null;
+        return createDescriptorFields(new ImageContext(image, MAX_IMAGE_DIMENSION));
+    }
+
+    /**
+     * Creates the fields from the shared pixel data of an image, features implementing {@link ImageContextFeature}
+     * are extracted from the context, all others from {@link ImageContext#getImage()}. Create the context with
+     * {@link #MAX_IMAGE_DIMENSION} to get the same fields as with {@link #createDescriptorFields(java.awt.image.BufferedImage)}.
+     *
+     * @param context the context of the image.
+     * @return the fields.
+     */
+    public Field[] createDescriptorFields(ImageContext context) {
+        Field[] result;
+        int length = hashingEnabled ? 2 : 1;
+        if (currentMode == Mode.DocValues) length++;
+        result = new Field[length];
         try {
             logger.finer("Starting extraction from image [" + descriptorClass.getName() + "].");
             LireFeature lireFeature = null;
 
             lireFeature = descriptorClass.newInstance();
 
-            lireFeature.extract(bimg);
+            if (lireFeature instanceof ImageContextFeature) ((ImageContextFeature) lireFeature).extract(context);
+            else lireFeature.extract(context.getImage());
 //            featureString = vd.getStringRepresentation();
             logger.fine("Extraction finished [" + descriptorClass.getName() + "].");
 
-            // TODO: Stored field is compressed and upon search decompression takes a lot of time (> 50% with a small index with 50k images). Find something else ...
-            result[0] = new StoredField(fieldName, new BytesRef(lireFeature.getByteArrayRepresentation()));
+            // Stored field is compressed and upon search decompression takes a lot of time (> 50% with a small index with 50k images).
+            // Mode.DocValues avoids that, the linear searchers read doc values if there are any. The stored copy
+            // in the last slot is only read for query documents, e.g. with search(Document, IndexReader).
+            if (currentMode == Mode.DocValues) {
+                result[0] = new BinaryDocValuesField(fieldName, new BytesRef(lireFeature.getByteArrayRepresentation()));
+                result[length - 1] = new StoredField(fieldName, new BytesRef(lireFeature.getByteArrayRepresentation()));
+            } else
+                result[0] = new StoredField(fieldName, new BytesRef(lireFeature.getByteArrayRepresentation()));
 
             // if BitSampling is an issue we add a field with the given hashFunctionsFileName and the suffix "hash":
             if (hashingEnabled) {
                 // TODO: check eventually if there is a more compressed string version of the integers. i.e. the hex string
                 if (lireFeature.getDoubleHistogram().length <= 3100) {
                     int[] hashes;
-                    if (hashingMode == HashingMode.BitSampling) {
+                    if (hasher != null) {
+                        hashes = hasher.hash(lireFeature.getDoubleHistogram());
+                    } else if (hashingMode == HashingMode.BitSampling) {
                         hashes = BitSampling.generateHashes(lireFeature.getDoubleHistogram());
                     } else {
                         hashes = LocalitySensitiveHashing.generateHashes(lireFeature.getDoubleHistogram());
@@ -302,4 +323,15 @@ public class GenericDocumentBuilder extends AbstractDocumentBuilder {
 
         return doc;
     }
+
+    /**
+     * Uses the given hash functions instead of the static ones of {@link BitSampling} or
+     * {@link LocalitySensitiveHashing}, for instance to index with different configurations in one JVM. Only
+     * applies if hashing is enabled.
+     *
+     * @param hasher the hash functions, null to use the static ones again.
+     */
+    public void setHasher(Hasher hasher) {
+        this.hasher = hasher;
+    }
 }
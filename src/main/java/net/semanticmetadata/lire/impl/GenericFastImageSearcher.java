@@ -45,16 +45,26 @@ import net.semanticmetadata.lire.DocumentBuilder;
 import net.semanticmetadata.lire.ImageDuplicates;
 import net.semanticmetadata.lire.ImageSearchHits;
 import net.semanticmetadata.lire.imageanalysis.LireFeature;
+import net.semanticmetadata.lire.imageanalysis.distance.DistanceKernel;
+import net.semanticmetadata.lire.imageanalysis.distance.DistanceKernels;
 import net.semanticmetadata.lire.imageanalysis.sift.FloatArray;
+import net.semanticmetadata.lire.indexing.cache.FeatureColumn;
+import net.semanticmetadata.lire.indexing.cache.FeatureValues;
+import net.semanticmetadata.lire.indexing.cache.SegmentCache;
 import net.semanticmetadata.lire.utils.ImageUtils;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
 import org.apache.lucene.index.IndexReader;
-import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.ReaderUtil;
 import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
 
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -72,13 +82,27 @@ public class GenericFastImageSearcher extends AbstractImageSearcher {
     protected LireFeature cachedInstance = null;
     protected boolean isCaching = false;
 
-    protected LinkedList<byte[]> featureCache;
+    /**
+     * The caches hold the features per segment, so they are re-used for the unchanged segments if the index is
+     * re-opened with DirectoryReader.openIfChanged(..) and the new reader is passed to search(..).
+     */
+    protected SegmentCache<byte[][]> featureCache;
+    protected boolean useFeatureColumn = false;
+    protected SegmentCache<FeatureColumn> featureColumns;
     protected IndexReader reader;
 
     protected int maxHits = 10;
-    protected TreeSet<SimpleResult> docs;
-    protected float maxDistance;
     protected boolean useSimilarityScore = false;
+    protected ForkJoinPool forkJoinPool = null;
+    protected boolean useDistanceKernels = true;
+    /**
+     * Partitions smaller than this are not split any further in parallel search.
+     */
+    protected static final int MIN_PARTITION_SIZE = 1024;
+    /**
+     * Number of queries compared to a feature of the index in one go in batch search.
+     */
+    protected static final int QUERY_BLOCK_SIZE = 32;
 
     /**
      * Creates a new ImageSearcher for the given feature.
@@ -90,7 +114,6 @@ public class GenericFastImageSearcher extends AbstractImageSearcher {
      */
     public GenericFastImageSearcher(int maxHits, Class<?> descriptorClass, String fieldName) {
         this.maxHits = maxHits;
-        docs = new TreeSet<SimpleResult>();
         this.descriptorClass = descriptorClass;
         this.fieldName = fieldName;
         try {
@@ -114,7 +137,6 @@ public class GenericFastImageSearcher extends AbstractImageSearcher {
      */
     public GenericFastImageSearcher(int maxHits, Class<?> descriptorClass, String fieldName, boolean useSimilarityScore) {
         this.maxHits = maxHits;
-        docs = new TreeSet<SimpleResult>();
         this.descriptorClass = descriptorClass;
         this.fieldName = fieldName;
         this.useSimilarityScore = useSimilarityScore;
@@ -137,7 +159,6 @@ public class GenericFastImageSearcher extends AbstractImageSearcher {
      */
     public GenericFastImageSearcher(int maxHits, Class<?> descriptorClass) {
         this.maxHits = maxHits;
-        docs = new TreeSet<SimpleResult>();
         this.descriptorClass = descriptorClass;
         try {
             this.cachedInstance = (LireFeature) this.descriptorClass.newInstance();
@@ -152,16 +173,38 @@ public class GenericFastImageSearcher extends AbstractImageSearcher {
 
     protected void init() {
         // put all respective features into an in-memory cache ...
-        if (isCaching && reader != null) {
-            int docs = reader.numDocs();
-            featureCache = new LinkedList<byte[]>();
-            try {
-                Document d;
-                for (int i = 0; i < docs; i++) {
-                    d = reader.document(i);
-                    cachedInstance.setByteArrayRepresentation(d.getField(fieldName).binaryValue().bytes, d.getField(fieldName).binaryValue().offset, d.getField(fieldName).binaryValue().length);
-                    featureCache.add(cachedInstance.getByteArrayRepresentation());
+        if (isCaching && useFeatureColumn) {
+            // ... or pack them into one off-heap column per segment addressed by docID.
+            featureColumns = new SegmentCache<FeatureColumn>() {
+                @Override
+                protected FeatureColumn load(AtomicReader reader) throws IOException {
+                    return FeatureColumn.load(reader, fieldName);
+                }
+            };
+        } else if (isCaching) {
+            featureCache = new SegmentCache<byte[][]>() {
+                @Override
+                protected byte[][] load(AtomicReader reader) throws IOException {
+                    LireFeature feature = newInstance();
+                    FeatureValues values = new FeatureValues(reader, fieldName);
+                    Bits liveDocs = reader.getLiveDocs();
+                    byte[][] features = new byte[reader.maxDoc()][];
+                    BytesRef bytes;
+                    for (int i = 0; i < features.length; i++) {
+                        if (liveDocs != null && !liveDocs.get(i)) continue; // if it is deleted, just leave it empty.
+                        bytes = values.get(i);
+                        if (bytes == null) continue;
+                        feature.setByteArrayRepresentation(bytes.bytes, bytes.offset, bytes.length);
+                        features[i] = feature.getByteArrayRepresentation();
+                    }
+                    return features;
                 }
+            };
+        }
+        if (reader != null) {
+            try {
+                if (featureColumns != null) featureColumns.warm(reader);
+                else if (featureCache != null) featureCache.warm(reader);
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -181,7 +224,36 @@ public class GenericFastImageSearcher extends AbstractImageSearcher {
     public GenericFastImageSearcher(int maxHits, Class<?> descriptorClass, String fieldName, boolean isCaching, IndexReader reader) {
         this.isCaching = isCaching;
         this.maxHits = maxHits;
-        docs = new TreeSet<SimpleResult>();
+        this.descriptorClass = descriptorClass;
+        this.fieldName = fieldName;
+        try {
+            this.cachedInstance = (LireFeature) this.descriptorClass.newInstance();
+        } catch (InstantiationException e) {
+            logger.log(Level.SEVERE, "Error instantiating class for generic image searcher (" + descriptorClass.getName() + "): " + e.getMessage());
+        } catch (IllegalAccessException e) {
+            logger.log(Level.SEVERE, "Error instantiating class for generic image searcher (" + descriptorClass.getName() + "): " + e.getMessage());
+        }
+        this.reader = reader;
+        init();
+    }
+
+    /**
+     * Creates a n ImageSearcher for the given feature. If isCaching is set to true, the features will be hold in memory,
+     * which speeds up search significantly. With useFeatureColumn set to true, the features are packed into one
+     * contiguous off-heap {@link FeatureColumn}, distances are computed straight from the column and the stored
+     * documents are only loaded for the final results. This saves a lot of heap and is faster than the default cache.
+     *
+     * @param maxHits          the maximum number of hits
+     * @param descriptorClass  the feature class. It has to implement {@link LireFeature}
+     * @param fieldName        a custom field name for the index.
+     * @param isCaching        set to true if you want to search in-memory.
+     * @param reader           the IndexReader used for accessing the index.
+     * @param useFeatureColumn set to true to use an off-heap column instead of a list of byte[] as cache.
+     */
+    public GenericFastImageSearcher(int maxHits, Class<?> descriptorClass, String fieldName, boolean isCaching, IndexReader reader, boolean useFeatureColumn) {
+        this.isCaching = isCaching;
+        this.useFeatureColumn = useFeatureColumn;
+        this.maxHits = maxHits;
         this.descriptorClass = descriptorClass;
         this.fieldName = fieldName;
         try {
@@ -207,7 +279,6 @@ public class GenericFastImageSearcher extends AbstractImageSearcher {
     public GenericFastImageSearcher(int maxHits, Class<?> descriptorClass, boolean isCaching, IndexReader reader) {
         this.isCaching = isCaching;
         this.maxHits = maxHits;
-        docs = new TreeSet<SimpleResult>();
         this.descriptorClass = descriptorClass;
         try {
             this.cachedInstance = (LireFeature) this.descriptorClass.newInstance();
@@ -221,6 +292,21 @@ public class GenericFastImageSearcher extends AbstractImageSearcher {
         init();
     }
 
+    /**
+     * Sets the pool used for searching. If a pool is set, the index is split in partitions, which are scanned in
+     * parallel, each with its own result list, and the results are merged at the end. Set to null to search in
+     * the calling thread.
+     *
+     * @param forkJoinPool the pool to use, or null for serial search.
+     */
+    public void setForkJoinPool(ForkJoinPool forkJoinPool) {
+        this.forkJoinPool = forkJoinPool;
+    }
+
+    public ForkJoinPool getForkJoinPool() {
+        return forkJoinPool;
+    }
+
     public ImageSearchHits search(BufferedImage image, IndexReader reader) throws IOException {
         logger.finer("Starting extraction.");
         LireFeature lireFeature = null;
@@ -235,12 +321,7 @@ public class GenericFastImageSearcher extends AbstractImageSearcher {
             lireFeature.extract(bimg);
             logger.fine("Extraction from image finished");
 
-            float maxDistance = findSimilar(reader, lireFeature);
-            if (!useSimilarityScore) {
-                searchHits = new SimpleImageSearchHits(this.docs, maxDistance);
-            } else {
-                searchHits = new SimpleImageSearchHits(this.docs, maxDistance, useSimilarityScore);
-            }
+            searchHits = createHits(findSimilar(reader, lireFeature), reader);
         } catch (InstantiationException e) {
             logger.log(Level.SEVERE, "Error instantiating class for generic image searcher: " + e.getMessage());
         } catch (IllegalAccessException e) {
@@ -249,69 +330,172 @@ public class GenericFastImageSearcher extends AbstractImageSearcher {
         return searchHits;
     }
 
+    protected SimpleImageSearchHits createHits(TopKCollector results, IndexReader reader) {
+        results.sort();
+        // the distance of the last result is used for normalizing.
+        float maxDistance = results.size() == 0 ? 0f : results.distance(results.size() - 1);
+        return new SimpleImageSearchHits(results, reader, maxDistance, useSimilarityScore);
+    }
+
     /**
+     * Finds the maxHits nearest documents to the query. All the search state is local to the call, so the searcher
+     * can be used by multiple threads at once.
+     *
      * @param reader
      * @param lireFeature
-     * @return the maximum distance found for normalizing.
+     * @return the collected docIDs and distances.
      * @throws java.io.IOException
      */
-    protected float findSimilar(IndexReader reader, LireFeature lireFeature) throws IOException {
-        maxDistance = Float.MAX_VALUE;
-//        overallMaxDistance = -1f;
+    protected TopKCollector findSimilar(IndexReader reader, LireFeature lireFeature) throws IOException {
+        return findSimilar(reader, new LireFeature[]{lireFeature})[0];
+    }
 
-        // clear result set ...
-        docs.clear();
+    /**
+     * Finds the maxHits nearest documents for each of the queries in a single pass over the index. Each feature
+     * of the index is read once and compared to a block of {@link #QUERY_BLOCK_SIZE} queries, so the queries stay
+     * in the CPU cache. With a pool set, blocks of queries and partitions of the index are scanned in parallel.
+     *
+     * @param reader
+     * @param lireFeatures the queries.
+     * @return the collected docIDs and distances, one collector per query.
+     * @throws java.io.IOException
+     */
+    protected TopKCollector[] findSimilar(IndexReader reader, LireFeature[] lireFeatures) throws IOException {
+        int maxDoc = reader.maxDoc();
+        if (forkJoinPool != null && (maxDoc > MIN_PARTITION_SIZE || lireFeatures.length > QUERY_BLOCK_SIZE)) {
+            int partitionSize = Math.max(MIN_PARTITION_SIZE, maxDoc / (forkJoinPool.getParallelism() * 4));
+            byte[][] queries = new byte[lireFeatures.length][];
+            for (int i = 0; i < queries.length; i++) {
+                queries[i] = lireFeatures[i].getByteArrayRepresentation();
+            }
+            return forkJoinPool.invoke(new PartitionScan(reader.leaves(), queries, 0, queries.length, 0, maxDoc, partitionSize));
+        } else {
+            TopKCollector[] results = new TopKCollector[lireFeatures.length];
+            for (int i = 0; i < results.length; i++) {
+                results[i] = new TopKCollector(maxHits);
+            }
+            LireFeature candidate = newInstance();
+            for (int i = 0; i < lireFeatures.length; i += QUERY_BLOCK_SIZE) {
+                int end = Math.min(lireFeatures.length, i + QUERY_BLOCK_SIZE);
+                scan(reader.leaves(), Arrays.copyOfRange(lireFeatures, i, end), candidate, 0, maxDoc, Arrays.copyOfRange(results, i, end));
+            }
+            return results;
+        }
+    }
+
+    /**
+     * Scans the docIDs [from, to) of the index segment by segment and collects the maxHits nearest ones for each query.
+     *
+     * @param leaves       the segments of the reader.
+     * @param lireFeatures the queries, owned by the calling thread.
+     * @param candidate    an instance owned by the calling thread for reading the features of the index.
+     * @param from         first docID, inclusive.
+     * @param to           last docID, exclusive.
+     * @param results      the collectors for the results, one per query.
+     * @throws IOException
+     */
+    protected void scan(List<AtomicReaderContext> leaves, LireFeature[] lireFeatures, LireFeature candidate, int from, int to, TopKCollector[] results) throws IOException {
+        if (from >= to) return;
+        for (int l = ReaderUtil.subIndex(from, leaves); l < leaves.size() && leaves.get(l).docBase < to; l++) {
+            AtomicReaderContext leaf = leaves.get(l);
+            int end = Math.min(to - leaf.docBase, leaf.reader().maxDoc());
+            scan(leaf, lireFeatures, candidate, Math.max(from - leaf.docBase, 0), end, results);
+        }
+    }
+
+    /**
+     * Scans the docIDs [from, to) of one segment and collects the maxHits nearest ones for each query. Deleted
+     * documents are skipped based on the live docs of the segment. Without a cache the features are read from the
+     * doc values if the index has been created with {@link GenericDocumentBuilder.Mode#DocValues}, otherwise from
+     * the stored documents.
+     *
+     * @param leaf         the segment.
+     * @param lireFeatures the queries, owned by the calling thread.
+     * @param candidate    an instance owned by the calling thread for reading the features of the index.
+     * @param from         first docID within the segment, inclusive.
+     * @param to           last docID within the segment, exclusive.
+     * @param results      the collectors for the results, one per query. DocIDs are collected relative to the top
+     *                     level reader.
+     * @throws IOException
+     */
+    protected void scan(AtomicReaderContext leaf, LireFeature[] lireFeatures, LireFeature candidate, int from, int to, TopKCollector[] results) throws IOException {
         // Needed for check whether the document is deleted.
-        Bits liveDocs = MultiFields.getLiveDocs(reader);
-        Document d;
-        float tmpDistance;
-        int docs = reader.numDocs();
-        if (!isCaching) {
+        Bits liveDocs = leaf.reader().getLiveDocs();
+        DistanceKernel[] kernels = createKernels(lireFeatures);
+        if (featureColumns != null) {
+            // we compute the distances straight from the off-heap column.
+            FeatureColumn.Cursor cursor = featureColumns.get(leaf).cursor();
+            for (int i = from; i < to; i++) {
+                if (liveDocs != null && !liveDocs.get(i)) continue; // if it is deleted, just ignore it.
+                if (cursor.load(i) == 0) continue; // no feature stored for this document.
+                collect(leaf.docBase + i, cursor.bytes(), 0, cursor.length(), lireFeatures, kernels, candidate, results);
+            }
+        } else if (featureCache != null) {
+            // we use the in-memory cache to find the matching docs from the index.
+            byte[][] features = featureCache.get(leaf);
+            for (int i = from; i < to; i++) {
+                if (liveDocs != null && !liveDocs.get(i)) continue; // if it is deleted, just ignore it.
+                if (features[i] == null) continue; // no feature stored for this document.
+                collect(leaf.docBase + i, features[i], 0, features[i].length, lireFeatures, kernels, candidate, results);
+            }
+        } else {
             // we read each and every document from the index and then we compare it to the query.
-            for (int i = 0; i < docs; i++) {
-                if (reader.hasDeletions() && !liveDocs.get(i)) continue; // if it is deleted, just ignore it.
+            FeatureValues values = new FeatureValues(leaf.reader(), fieldName);
+            BytesRef bytes;
+            for (int i = from; i < to; i++) {
+                if (liveDocs != null && !liveDocs.get(i)) continue; // if it is deleted, just ignore it.
+                bytes = values.get(i);
+                if (bytes == null) continue; // no feature stored for this document.
+                collect(leaf.docBase + i, bytes.bytes, bytes.offset, bytes.length, lireFeatures, kernels, candidate, results);
+            }
+        }
+    }
 
-                d = reader.document(i);
-                tmpDistance = getDistance(d, lireFeature);
+    /**
+     * Computes the distances of the queries to one feature of the index, either with the kernels straight from the
+     * bytes or by reading the bytes into the candidate instance.
+     */
+    private static void collect(int docId, byte[] feature, int offset, int length, LireFeature[] lireFeatures, DistanceKernel[] kernels, LireFeature candidate, TopKCollector[] results) {
+        float tmpDistance;
+        if (kernels != null) {
+            for (int q = 0; q < kernels.length; q++) {
+                tmpDistance = kernels[q].getDistance(feature, offset, length);
                 assert (tmpDistance >= 0);
-                // if the array is not full yet:
-                if (this.docs.size() < maxHits) {
-                    this.docs.add(new SimpleResult(tmpDistance, d, i));
-                    if (tmpDistance > maxDistance) maxDistance = tmpDistance;
-                } else if (tmpDistance < maxDistance) {
-                    // if it is nearer to the sample than at least on of the current set:
-                    // remove the last one ...
-                    this.docs.remove(this.docs.last());
-                    // add the new one ...
-                    this.docs.add(new SimpleResult(tmpDistance, d, i));
-                    // and set our new distance border ...
-                    maxDistance = this.docs.last().getDistance();
-                }
+                results[q].collect(docId, tmpDistance);
             }
         } else {
-            // we use the in-memory cache to find the matching docs from the index.
-            int count = 0;
-            for (Iterator<byte[]> iterator = featureCache.iterator(); iterator.hasNext(); ) {
-                cachedInstance.setByteArrayRepresentation(iterator.next());
-                tmpDistance = lireFeature.getDistance(cachedInstance);
+            candidate.setByteArrayRepresentation(feature, offset, length);
+            for (int q = 0; q < lireFeatures.length; q++) {
+                tmpDistance = lireFeatures[q].getDistance(candidate);
                 assert (tmpDistance >= 0);
-                // if the array is not full yet:
-                if (this.docs.size() < maxHits) {
-                    this.docs.add(new SimpleResult(tmpDistance, reader.document(count), count));
-                    if (tmpDistance > maxDistance) maxDistance = tmpDistance;
-                } else if (tmpDistance < maxDistance) {
-                    // if it is nearer to the sample than at least on of the current set:
-                    // remove the last one ...
-                    this.docs.remove(this.docs.last());
-                    // add the new one ...
-                    this.docs.add(new SimpleResult(tmpDistance, reader.document(count), count));
-                    // and set our new distance border ...
-                    maxDistance = this.docs.last().getDistance();
-                }
-                count++;
+                results[q].collect(docId, tmpDistance);
             }
         }
-        return maxDistance;
+    }
+
+    /**
+     * @return a kernel for each of the queries, or null if kernels are disabled or there is none for the feature.
+     */
+    private DistanceKernel[] createKernels(LireFeature[] lireFeatures) {
+        if (!useDistanceKernels || DistanceKernels.forFeature(descriptorClass) == null) return null;
+        DistanceKernel[] kernels = new DistanceKernel[lireFeatures.length];
+        byte[] query;
+        for (int q = 0; q < kernels.length; q++) {
+            kernels[q] = DistanceKernels.forFeature(descriptorClass);
+            query = lireFeatures[q].getByteArrayRepresentation();
+            kernels[q].setQuery(query, 0, query.length);
+        }
+        return kernels;
+    }
+
+    /**
+     * For features with a {@link DistanceKernel}, i.e. CEDD, FCTH and JCD, distances are computed straight from the
+     * byte[] representation of the index by default. Set to false to use LireFeature#getDistance(..) instead.
+     *
+     * @param useDistanceKernels true to use distance kernels if there is one for the feature.
+     */
+    public void setUseDistanceKernels(boolean useDistanceKernels) {
+        this.useDistanceKernels = useDistanceKernels;
     }
 
     /**
@@ -322,29 +506,39 @@ public class GenericFastImageSearcher extends AbstractImageSearcher {
      * @return the distance between the given feature and the feature stored in the document.
      */
     protected float getDistance(Document document, LireFeature lireFeature) {
-        if (document.getField(fieldName).binaryValue() != null && document.getField(fieldName).binaryValue().length > 0) {
-            cachedInstance.setByteArrayRepresentation(document.getField(fieldName).binaryValue().bytes, document.getField(fieldName).binaryValue().offset, document.getField(fieldName).binaryValue().length);
-            return lireFeature.getDistance(cachedInstance);
+        return getDistance(document, lireFeature, cachedInstance);
+    }
+
+    private float getDistance(Document document, LireFeature lireFeature, LireFeature candidate) {
+        BytesRef bytes = document.getBinaryValue(fieldName);
+        if (bytes != null && bytes.length > 0) {
+            candidate.setByteArrayRepresentation(bytes.bytes, bytes.offset, bytes.length);
+            return lireFeature.getDistance(candidate);
         } else {
             logger.warning("No feature stored in this document! (" + descriptorClass.getName() + ")");
         }
         return 0f;
     }
 
+    private LireFeature newInstance() {
+        try {
+            return (LireFeature) descriptorClass.newInstance();
+        } catch (Exception e) {
+            throw new IllegalStateException("Error instantiating class for generic image searcher (" + descriptorClass.getName() + "): " + e.getMessage(), e);
+        }
+    }
+
     public ImageSearchHits search(Document doc, IndexReader reader) throws IOException {
         SimpleImageSearchHits searchHits = null;
         try {
             LireFeature lireFeature = (LireFeature) descriptorClass.newInstance();
 
-            if (doc.getField(fieldName).binaryValue() != null && doc.getField(fieldName).binaryValue().length > 0)
-                lireFeature.setByteArrayRepresentation(doc.getField(fieldName).binaryValue().bytes, doc.getField(fieldName).binaryValue().offset, doc.getField(fieldName).binaryValue().length);
-            float maxDistance = findSimilar(reader, lireFeature);
-
-            if (!useSimilarityScore) {
-                searchHits = new SimpleImageSearchHits(this.docs, maxDistance);
-            } else {
-                searchHits = new SimpleImageSearchHits(this.docs, maxDistance, useSimilarityScore);
-            }
+            BytesRef bytes = doc.getBinaryValue(fieldName);
+            if (bytes != null && bytes.length > 0)
+                lireFeature.setByteArrayRepresentation(bytes.bytes, bytes.offset, bytes.length);
+            else
+                logger.warning("No feature stored in the query document! (" + descriptorClass.getName() + ")");
+            searchHits = createHits(findSimilar(reader, lireFeature), reader);
         } catch (InstantiationException e) {
             logger.log(Level.SEVERE, "Error instantiating class for generic image searcher: " + e.getMessage());
         } catch (IllegalAccessException e) {
@@ -353,37 +547,182 @@ public class GenericFastImageSearcher extends AbstractImageSearcher {
         return searchHits;
     }
 
+    /**
+     * Searches for all the given images in a single pass over the index.
+     *
+     * @param images the query images.
+     * @param reader the reader to search in.
+     * @return the hits, one for each image in the same order.
+     * @throws IOException
+     * @see #search(net.semanticmetadata.lire.imageanalysis.LireFeature[], org.apache.lucene.index.IndexReader)
+     */
+    public ImageSearchHits[] search(BufferedImage[] images, IndexReader reader) throws IOException {
+        LireFeature[] lireFeatures = new LireFeature[images.length];
+        for (int i = 0; i < images.length; i++) {
+            lireFeatures[i] = newInstance();
+            // Scaling image is especially with the correlogram features very important!
+            BufferedImage bimg = images[i];
+            if (Math.max(bimg.getHeight(), bimg.getWidth()) > GenericDocumentBuilder.MAX_IMAGE_DIMENSION) {
+                bimg = ImageUtils.scaleImage(bimg, GenericDocumentBuilder.MAX_IMAGE_DIMENSION);
+            }
+            lireFeatures[i].extract(bimg);
+        }
+        logger.fine("Extraction from images finished");
+        return search(lireFeatures, reader);
+    }
+
+    /**
+     * Searches for all the given documents in a single pass over the index, for instance to find the duplicates of
+     * a batch of new documents.
+     *
+     * @param docs   the query documents, they have to contain the feature field.
+     * @param reader the reader to search in.
+     * @return the hits, one for each document in the same order.
+     * @throws IOException
+     * @see #search(net.semanticmetadata.lire.imageanalysis.LireFeature[], org.apache.lucene.index.IndexReader)
+     */
+    public ImageSearchHits[] search(Document[] docs, IndexReader reader) throws IOException {
+        LireFeature[] lireFeatures = new LireFeature[docs.length];
+        for (int i = 0; i < docs.length; i++) {
+            lireFeatures[i] = newInstance();
+            BytesRef bytes = docs[i].getBinaryValue(fieldName);
+            if (bytes != null && bytes.length > 0)
+                lireFeatures[i].setByteArrayRepresentation(bytes.bytes, bytes.offset, bytes.length);
+            else
+                logger.warning("No feature stored in query document " + i + "! (" + descriptorClass.getName() + ")");
+        }
+        return search(lireFeatures, reader);
+    }
+
+    /**
+     * Searches for all the given features in a single pass over the index. The features of the index are read once
+     * and compared to all queries, so searching for N queries at once is much faster than N single searches. Set a
+     * pool with {@link #setForkJoinPool(java.util.concurrent.ForkJoinPool)} to use multiple threads.
+     *
+     * @param lireFeatures the queries, instances of the feature class of the searcher.
+     * @param reader       the reader to search in.
+     * @return the hits, one for each query in the same order.
+     * @throws IOException
+     */
+    public ImageSearchHits[] search(LireFeature[] lireFeatures, IndexReader reader) throws IOException {
+        TopKCollector[] results = findSimilar(reader, lireFeatures);
+        ImageSearchHits[] searchHits = new ImageSearchHits[results.length];
+        for (int i = 0; i < results.length; i++) {
+            searchHits[i] = createHits(results[i], reader);
+        }
+        return searchHits;
+    }
+
+    /**
+     * Scans a block of queries over a partition of the index. Blocks with more than {@link #QUERY_BLOCK_SIZE}
+     * queries and partitions larger than the given size are split in halves, which are scanned in parallel. Each
+     * task has its own query and candidate instances, as getDistance(...) of most features uses instance fields as
+     * scratch space, and the results of the halves are merged when joined.
+     */
+    private class PartitionScan extends RecursiveTask<TopKCollector[]> {
+        private static final long serialVersionUID = 1L;
+        private final List<AtomicReaderContext> leaves;
+        private final byte[][] queries;
+        private final int queryFrom, queryTo, from, to, partitionSize;
+
+        PartitionScan(List<AtomicReaderContext> leaves, byte[][] queries, int queryFrom, int queryTo, int from, int to, int partitionSize) {
+            this.leaves = leaves;
+            this.queries = queries;
+            this.queryFrom = queryFrom;
+            this.queryTo = queryTo;
+            this.from = from;
+            this.to = to;
+            this.partitionSize = partitionSize;
+        }
+
+        @Override
+        protected TopKCollector[] compute() {
+            if (queryTo - queryFrom > QUERY_BLOCK_SIZE) {
+                // split the queries, each half gets its own collectors.
+                int middle = (queryFrom + queryTo) >>> 1;
+                PartitionScan left = new PartitionScan(leaves, queries, queryFrom, middle, from, to, partitionSize);
+                PartitionScan right = new PartitionScan(leaves, queries, middle, queryTo, from, to, partitionSize);
+                left.fork();
+                TopKCollector[] rightResults = right.compute();
+                TopKCollector[] leftResults = left.join();
+                TopKCollector[] results = new TopKCollector[queryTo - queryFrom];
+                System.arraycopy(leftResults, 0, results, 0, leftResults.length);
+                System.arraycopy(rightResults, 0, results, leftResults.length, rightResults.length);
+                return results;
+            }
+            if (to - from <= partitionSize) {
+                LireFeature[] lireFeatures = new LireFeature[queryTo - queryFrom];
+                TopKCollector[] results = new TopKCollector[queryTo - queryFrom];
+                for (int i = 0; i < lireFeatures.length; i++) {
+                    lireFeatures[i] = newInstance();
+                    lireFeatures[i].setByteArrayRepresentation(queries[queryFrom + i]);
+                    results[i] = new TopKCollector(maxHits);
+                }
+                try {
+                    scan(leaves, lireFeatures, newInstance(), from, to, results);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                return results;
+            }
+            int middle = (from + to) >>> 1;
+            PartitionScan left = new PartitionScan(leaves, queries, queryFrom, queryTo, from, middle, partitionSize);
+            PartitionScan right = new PartitionScan(leaves, queries, queryFrom, queryTo, middle, to, partitionSize);
+            left.fork();
+            TopKCollector[] results = right.compute();
+            TopKCollector[] leftResults = left.join();
+            for (int i = 0; i < results.length; i++) {
+                results[i].merge(leftResults[i]);
+            }
+            return results;
+        }
+    }
+
     public ImageDuplicates findDuplicates(IndexReader reader) throws IOException {
         // get the first document:
         SimpleImageDuplicates simpleImageDuplicates = null;
         try {
 //            if (!IndexReader.indexExists(reader.directory()))
 //                throw new FileNotFoundException("No index found at this specific location.");
-            Document doc = reader.document(0);
-
+            // the features are read like in the linear search, i.e. from the doc values if there are any.
+            List<AtomicReaderContext> leaves = reader.leaves();
+            if (leaves.isEmpty()) return null;
             LireFeature lireFeature = (LireFeature) descriptorClass.newInstance();
-            if (doc.getField(fieldName).binaryValue() != null && doc.getField(fieldName).binaryValue().length > 0)
-                lireFeature.setByteArrayRepresentation(doc.getField(fieldName).binaryValue().bytes, doc.getField(fieldName).binaryValue().offset, doc.getField(fieldName).binaryValue().length);
+            BytesRef first = new FeatureValues(leaves.get(0).reader(), fieldName).get(0);
+            if (first != null)
+                lireFeature.setByteArrayRepresentation(first.bytes, first.offset, first.length);
 
             HashMap<Float, List<String>> duplicates = new HashMap<Float, List<String>>();
+            Set<String> identifierField = Collections.singleton(DocumentBuilder.FIELD_NAME_IDENTIFIER);
+            LireFeature candidate = (LireFeature) descriptorClass.newInstance();
 
-            // Needed for check whether the document is deleted.
-            Bits liveDocs = MultiFields.getLiveDocs(reader);
-
-            int docs = reader.numDocs();
             int numDuplicates = 0;
-            for (int i = 0; i < docs; i++) {
-                if (reader.hasDeletions() && !liveDocs.get(i)) continue; // if it is deleted, just ignore it.
-
-                Document d = reader.document(i);
-                float distance = getDistance(d, lireFeature);
-
-                if (!duplicates.containsKey(distance)) {
-                    duplicates.put(distance, new LinkedList<String>());
-                } else {
-                    numDuplicates++;
+            for (AtomicReaderContext leaf : leaves) {
+                AtomicReader leafReader = leaf.reader();
+                // Needed for check whether the document is deleted.
+                Bits liveDocs = leafReader.getLiveDocs();
+                FeatureValues values = new FeatureValues(leafReader, fieldName);
+                int docs = leafReader.maxDoc();
+                for (int i = 0; i < docs; i++) {
+                    if (liveDocs != null && !liveDocs.get(i)) continue; // if it is deleted, just ignore it.
+
+                    BytesRef bytes = values.get(i);
+                    float distance = 0f;
+                    if (bytes != null) {
+                        candidate.setByteArrayRepresentation(bytes.bytes, bytes.offset, bytes.length);
+                        distance = lireFeature.getDistance(candidate);
+                    } else {
+                        logger.warning("No feature stored in this document! (" + descriptorClass.getName() + ")");
+                    }
+
+                    if (!duplicates.containsKey(distance)) {
+                        duplicates.put(distance, new LinkedList<String>());
+                    } else {
+                        numDuplicates++;
+                    }
+                    Document d = leafReader.document(i, identifierField);
+                    duplicates.get(distance).add(d.getField(DocumentBuilder.FIELD_NAME_IDENTIFIER).stringValue());
                 }
-                duplicates.get(distance).add(d.getField(DocumentBuilder.FIELD_NAME_IDENTIFIER).stringValue());
             }
 
             if (numDuplicates == 0) return null;
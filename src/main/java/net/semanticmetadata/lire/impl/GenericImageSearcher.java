@@ -56,7 +56,6 @@ import java.io.IOException;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.TreeSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -74,12 +73,10 @@ public class GenericImageSearcher extends AbstractImageSearcher {
     String fieldName;
 
     private int maxHits = 10;
-    protected TreeSet<SimpleResult> docs;
     private LireFeature cachedInstance;
 
     public GenericImageSearcher(int maxHits, Class<?> descriptorClass, String fieldName) {
         this.maxHits = maxHits;
-        docs = new TreeSet<SimpleResult>();
         this.descriptorClass = descriptorClass;
         this.fieldName = fieldName;
         try {
@@ -105,8 +102,7 @@ public class GenericImageSearcher extends AbstractImageSearcher {
             lireFeature.extract(bimg);
             logger.fine("Extraction from image finished");
 
-            float maxDistance = findSimilar(reader, lireFeature);
-            searchHits = new SimpleImageSearchHits(this.docs, maxDistance);
+            searchHits = new SimpleImageSearchHits(findSimilar(reader, lireFeature), reader);
         } catch (InstantiationException e) {
             logger.log(Level.SEVERE, "Error instantiating class for generic image searcher: " + e.getMessage());
         } catch (IllegalAccessException e) {
@@ -118,14 +114,12 @@ public class GenericImageSearcher extends AbstractImageSearcher {
     /**
      * @param reader
      * @param lireFeature
-     * @return the maximum distance found for normalizing.
+     * @return the collected docIDs and distances.
      * @throws java.io.IOException
      */
-    protected float findSimilar(IndexReader reader, LireFeature lireFeature) throws IOException {
-        float maxDistance = -1f, overallMaxDistance = -1f;
+    protected TopKCollector findSimilar(IndexReader reader, LireFeature lireFeature) throws IOException {
         float tmpDistance = 0f;
-        // clear result set ...
-        docs.clear();
+        TopKCollector results = new TopKCollector(maxHits);
         // Needed for check whether the document is deleted.
         Bits liveDocs = MultiFields.getLiveDocs(reader);
 
@@ -137,32 +131,10 @@ public class GenericImageSearcher extends AbstractImageSearcher {
 
             d = reader.document(i);
             tmpDistance = getDistance(d, lireFeature);
-//            if (distance < 0 || Float.isNaN(distance))
-//                System.out.println("X");
             assert (tmpDistance >= 0);
-            // calculate the overall max distance to normalize score afterwards
-            if (overallMaxDistance < tmpDistance) {
-                overallMaxDistance = tmpDistance;
-            }
-            // if it is the first document:
-            if (maxDistance < 0) {
-                maxDistance = tmpDistance;
-            }
-            // if the array is not full yet:
-            if (this.docs.size() < maxHits) {
-                this.docs.add(new SimpleResult(tmpDistance, d, i));
-                if (tmpDistance > maxDistance) maxDistance = tmpDistance;
-            } else if (tmpDistance < maxDistance) {
-                // if it is nearer to the sample than at least on of the current set:
-                // remove the last one ...
-                this.docs.remove(this.docs.last());
-                // add the new one ...
-                this.docs.add(new SimpleResult(tmpDistance, d, i));
-                // and set our new distance border ...
-                maxDistance = this.docs.last().getDistance();
-            }
+            results.collect(i, tmpDistance);
         }
-        return maxDistance;
+        return results;
     }
 
     protected float getDistance(Document d, LireFeature lireFeature) {
@@ -187,9 +159,7 @@ public class GenericImageSearcher extends AbstractImageSearcher {
             String[] cls = doc.getValues(fieldName);
             if (cls != null && cls.length > 0)
                 lireFeature.setStringRepresentation(cls[0]);
-            float maxDistance = findSimilar(reader, lireFeature);
-
-            searchHits = new SimpleImageSearchHits(this.docs, maxDistance);
+            searchHits = new SimpleImageSearchHits(findSimilar(reader, lireFeature), reader);
         } catch (InstantiationException e) {
             logger.log(Level.SEVERE, "Error instantiating class for generic image searcher: " + e.getMessage());
         } catch (IllegalAccessException e) {
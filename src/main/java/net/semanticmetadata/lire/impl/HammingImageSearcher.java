@@ -0,0 +1,186 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ * Updated: 18.10.26 17:01
+ */
+
+package net.semanticmetadata.lire.impl;
+
+import net.semanticmetadata.lire.ImageDuplicates;
+import net.semanticmetadata.lire.ImageSearchHits;
+import net.semanticmetadata.lire.imageanalysis.LireFeature;
+import net.semanticmetadata.lire.indexing.hashing.BitSampling;
+import net.semanticmetadata.lire.indexing.hashing.BitSamplingHasher;
+import net.semanticmetadata.lire.indexing.hashing.HammingIndex;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.util.BytesRef;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Searches by the Hamming distance of the packed bit sampling hashes in a {@link HammingIndex}, i.e. a linear scan
+ * over binary codes instead of the features. Optionally the closest candidates are re-ranked by the distance
+ * function of the feature, like in {@link BitSamplingImageSearcher}. Without re-ranking the score of a hit is its
+ * Hamming distance.
+ * <br/>
+ * The index has to be created from the same reader that is used for searching, and the hash functions have to be
+ * the ones used for indexing.
+ */
+public class HammingImageSearcher extends ReRankingImageSearcher {
+    private BitSamplingHasher hasher = null;
+    private HammingIndex index;
+    private int numReRanked = 0;
+    private ExecutorService pool = null;
+    private int numThreads = 1;
+
+    /**
+     * Creates a new searcher with the default {@link BitSampling} functions. The field name is inferred from the
+     * entries in {@link GenericDocumentBuilder}.
+     *
+     * @param maximumHits how many hits the searcher shall return.
+     * @param feature     an instance of the feature.
+     * @param index       the packed hashes of the index to search.
+     */
+    public HammingImageSearcher(int maximumHits, LireFeature feature, HammingIndex index) {
+        this.maximumHits = maximumHits;
+        this.featureFieldName = GenericDocumentBuilder.fieldForClass.get(feature.getClass());
+        this.feature = feature;
+        this.index = index;
+        try {
+            hasher = new BitSamplingHasher(BitSampling.readHashFunctions());
+        } catch (IOException e) {
+            System.err.println("Error reading hash functions from default location.");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @param maximumHits      how many hits the searcher shall return.
+     * @param featureFieldName the field name of the feature.
+     * @param feature          an instance of the feature.
+     * @param hasher           the hash functions used for indexing.
+     * @param index            the packed hashes of the index to search.
+     */
+    public HammingImageSearcher(int maximumHits, String featureFieldName, LireFeature feature, BitSamplingHasher hasher, HammingIndex index) {
+        this.maximumHits = maximumHits;
+        this.featureFieldName = featureFieldName;
+        this.feature = feature;
+        this.hasher = hasher;
+        this.index = index;
+    }
+
+    /**
+     * Sets the number of candidates with the smallest Hamming distance which are re-ranked by the distance function
+     * of the feature.
+     *
+     * @param numReRanked the number of candidates, 0 to return the Hamming distances (default).
+     */
+    public void setNumReRanked(int numReRanked) {
+        this.numReRanked = numReRanked;
+    }
+
+    /**
+     * Sets the number of threads scanning the codes. The threads are daemon threads, kept for the lifetime of the
+     * searcher.
+     *
+     * @param numThreads the number of threads, 1 to search in the calling thread (default).
+     */
+    public void setNumThreads(int numThreads) {
+        if (pool != null) pool.shutdown();
+        this.numThreads = Math.max(1, numThreads);
+        pool = this.numThreads == 1 ? null : Executors.newFixedThreadPool(this.numThreads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "HammingImageSearcher");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    public ImageSearchHits search(BufferedImage image, IndexReader reader) throws IOException {
+        try {
+            LireFeature queryFeature = feature.getClass().newInstance();
+            queryFeature.extract(image);
+            return search(queryFeature, reader);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    public ImageSearchHits search(Document doc, IndexReader reader) throws IOException {
+        try {
+            LireFeature queryFeature = feature.getClass().newInstance();
+            BytesRef bytes = doc.getBinaryValue(featureFieldName);
+            queryFeature.setByteArrayRepresentation(bytes.bytes, bytes.offset, bytes.length);
+            return search(queryFeature, reader);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    private ImageSearchHits search(LireFeature queryFeature, IndexReader reader) throws IOException {
+        if (reader.maxDoc() != index.maxDoc())
+            throw new IllegalArgumentException("The Hamming index has been created for a different reader, maxDoc " + index.maxDoc() + " != " + reader.maxDoc());
+        long[] query = HammingIndex.pack(hasher.hash(queryFeature.getDoubleHistogram()), hasher.getBits());
+        int k = numReRanked > 0 ? Math.max(numReRanked, maximumHits) : maximumHits;
+        TopKCollector candidates = pool == null ? index.search(query, k, MultiFields.getLiveDocs(reader))
+                : index.search(query, k, MultiFields.getLiveDocs(reader), pool, numThreads);
+        if (numReRanked <= 0) return new SimpleImageSearchHits(candidates, reader);
+        return reRank(candidates, queryFeature, reader);
+    }
+
+    /**
+     * Searches with every document of the index and groups it with the hits at distance 0. Without re-ranking these
+     * are the documents with the same hashes.
+     *
+     * @param reader the index the Hamming index has been created from.
+     * @return the groups of duplicates, null if there are none.
+     * @throws IOException in case the index cannot be read.
+     */
+    public ImageDuplicates findDuplicates(IndexReader reader) throws IOException {
+        return SimpleImageDuplicates.findBySearch(this, reader);
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ */
+
+package net.semanticmetadata.lire.impl;
+
+import net.semanticmetadata.lire.ImageSearchHits;
+import net.semanticmetadata.lire.imageanalysis.LireFeature;
+import net.semanticmetadata.lire.indexing.hashing.HashBucketIndex;
+import net.semanticmetadata.lire.indexing.hashing.Hasher;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.*;
+import org.apache.lucene.search.similarities.Similarity;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * Base class of the searchers for hashes stored as terms of a Lucene field. The candidates are the documents
+ * sharing the most hash values with the query, either found by a Lucene query or by a {@link HashBucketIndex}.
+ */
+abstract class HashingImageSearcher extends ReRankingImageSearcher {
+    int maxResultsHashBased = 1000;
+    String hashesFieldName = null;
+    Hasher hasher = null;
+    boolean partialHashes = false;
+    private int numProbes = 0;
+    private boolean useBucketIndex = false;
+
+    /**
+     * Sets the number of probes per hash function or bundle for multi-probe search, see
+     * {@link Hasher#probe(double[], int)}. The query then also includes the buckets next to the ones of the query,
+     * which finds more of the near neighbours with fewer candidates. Queries from documents are hashed again then,
+     * instead of using the stored hashes.
+     * If the query has more hash values than {@link BooleanQuery#getMaxClauseCount()}, the candidates are taken
+     * from the {@link HashBucketIndex}.
+     *
+     * @param numProbes the number of additional buckets, 0 to switch multi-probe search off (default).
+     */
+    public void setNumProbes(int numProbes) {
+        this.numProbes = numProbes;
+    }
+
+    /**
+     * Sets whether the candidates are taken from a {@link HashBucketIndex} instead of a Lucene query on the hash
+     * field. The posting tables are loaded from the stored hashes once per segment and cached, so the first search
+     * on a new segment is slow, but subsequent searches only count bucket collisions in memory. The bucket index
+     * also tells the hash values of different bundles apart.
+     *
+     * @param useBucketIndex true to use the in-memory bucket index, false for a Lucene query (default).
+     */
+    public void setUseBucketIndex(boolean useBucketIndex) {
+        this.useBucketIndex = useBucketIndex;
+    }
+
+    /**
+     * @return the similarity scoring the documents of the Lucene query for the hash values.
+     */
+    abstract Similarity getSimilarity();
+
+    /**
+     * Hash values of the query feature per bundle, including the probes in multi-probe mode.
+     */
+    private int[][] getQuery(LireFeature queryFeature) {
+        return hasher.probe(queryFeature.getDoubleHistogram(), numProbes);
+    }
+
+    public ImageSearchHits search(BufferedImage image, IndexReader reader) throws IOException {
+        try {
+            LireFeature queryFeature = feature.getClass().newInstance();
+            queryFeature.extract(image);
+            return search(getQuery(queryFeature), queryFeature, reader);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    public ImageSearchHits search(Document doc, IndexReader reader) throws IOException {
+        try {
+            LireFeature queryFeature = feature.getClass().newInstance();
+            queryFeature.setByteArrayRepresentation(doc.getBinaryValue(featureFieldName).bytes,
+                    doc.getBinaryValue(featureFieldName).offset,
+                    doc.getBinaryValue(featureFieldName).length);
+            if (numProbes > 0) return search(getQuery(queryFeature), queryFeature, reader);
+            int[] hashes = HashBucketIndex.parseHashes(doc.getValues(hashesFieldName)[0]);
+            int[][] query = new int[hashes.length][];
+            for (int i = 0; i < hashes.length; i++) query[i] = new int[]{hashes[i]};
+            return search(query, queryFeature, reader);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    private ImageSearchHits search(int[][] query, LireFeature queryFeature, IndexReader reader) throws IOException {
+        int[] candidates = useBucketIndex(query) ? HashBucketIndex.getCandidates(reader, hashesFieldName, query, maxResultsHashBased)
+                : getCandidates(query, reader);
+        return reRank(candidates, queryFeature, reader);
+    }
+
+    /**
+     * Multi-probe queries easily have more hash values than a BooleanQuery takes clauses, those are answered by the
+     * {@link HashBucketIndex} instead.
+     */
+    private boolean useBucketIndex(int[][] query) {
+        if (useBucketIndex) return true;
+        int clauses = 0;
+        for (int[] hashes : query) clauses += hashes.length;
+        return clauses > BooleanQuery.getMaxClauseCount();
+    }
+
+    /**
+     * Candidates by a Lucene query for the hash values.
+     */
+    private int[] getCandidates(int[][] query, IndexReader reader) throws IOException {
+        // first search by text:
+        IndexSearcher searcher = new IndexSearcher(reader);
+        searcher.setSimilarity(getSimilarity());
+        BooleanQuery booleanQuery = new BooleanQuery();
+        for (int[] hashes : query) {
+            for (int hash : hashes) {
+                // be aware that the hashFunctionsFileName of the field must match the one you put the hashes in before.
+                if (partialHashes && Math.random() >= 0.5) continue;
+                booleanQuery.add(new BooleanClause(new TermQuery(new Term(hashesFieldName, Integer.toString(hash))), BooleanClause.Occur.SHOULD));
+            }
+        }
+        TopDocs docs = searcher.search(booleanQuery, maxResultsHashBased);
+        int[] result = new int[docs.scoreDocs.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = docs.scoreDocs[i].doc;
+        }
+        return result;
+    }
+}
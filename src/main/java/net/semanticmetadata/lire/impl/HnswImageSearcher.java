@@ -0,0 +1,154 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ * Updated: 18.10.26 17:07
+ */
+
+package net.semanticmetadata.lire.impl;
+
+import net.semanticmetadata.lire.AbstractImageSearcher;
+import net.semanticmetadata.lire.ImageDuplicates;
+import net.semanticmetadata.lire.ImageSearchHits;
+import net.semanticmetadata.lire.imageanalysis.LireFeature;
+import net.semanticmetadata.lire.indexing.hnsw.HnswIndex;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.util.BytesRef;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Searches with a {@link HnswIndex}, a proximity graph using the distance function of the feature, so the hits
+ * are scored like with {@link GenericFastImageSearcher}, but only a part of the index is visited. The size of the
+ * candidate list, ef, trades speed for recall. One searcher can be used by several threads.
+ */
+public class HnswImageSearcher extends AbstractImageSearcher {
+    private int maximumHits = 100;
+    private String featureFieldName = null;
+    private LireFeature feature = null;
+    private HnswIndex index;
+    private int ef = 100;
+
+    /**
+     * Creates a new searcher, the field name is inferred from the entries in {@link GenericDocumentBuilder}.
+     *
+     * @param maximumHits how many hits the searcher shall return.
+     * @param feature     an instance of the feature.
+     * @param index       the graph of the feature.
+     */
+    public HnswImageSearcher(int maximumHits, LireFeature feature, HnswIndex index) {
+        this(maximumHits, GenericDocumentBuilder.fieldForClass.get(feature.getClass()), feature, index);
+    }
+
+    /**
+     * @param maximumHits      how many hits the searcher shall return.
+     * @param featureFieldName the field name of the feature.
+     * @param feature          an instance of the feature.
+     * @param index            the graph of the feature.
+     */
+    public HnswImageSearcher(int maximumHits, String featureFieldName, LireFeature feature, HnswIndex index) {
+        this.maximumHits = maximumHits;
+        this.featureFieldName = featureFieldName;
+        this.feature = feature;
+        this.index = index;
+    }
+
+    /**
+     * Creates a new searcher with the graph stored next to a Lucene index, see {@link HnswIndex#getFile(File, String)}.
+     *
+     * @param maximumHits      how many hits the searcher shall return.
+     * @param featureFieldName the field name of the feature.
+     * @param feature          an instance of the feature.
+     * @param indexDirectory   the directory of the Lucene index.
+     * @throws IOException if the graph cannot be read.
+     */
+    public HnswImageSearcher(int maximumHits, String featureFieldName, LireFeature feature, File indexDirectory) throws IOException {
+        this(maximumHits, featureFieldName, feature, HnswIndex.open(HnswIndex.getFile(indexDirectory, featureFieldName)));
+    }
+
+    /**
+     * @param ef the size of the candidate list of a search, 100 by default. Values below the maximum number of hits
+     *           are raised to it.
+     */
+    public void setEf(int ef) {
+        this.ef = ef;
+    }
+
+    public ImageSearchHits search(BufferedImage image, IndexReader reader) throws IOException {
+        try {
+            LireFeature queryFeature = feature.getClass().newInstance();
+            queryFeature.extract(image);
+            return search(queryFeature, reader);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    public ImageSearchHits search(Document doc, IndexReader reader) throws IOException {
+        try {
+            LireFeature queryFeature = feature.getClass().newInstance();
+            BytesRef bytes = doc.getBinaryValue(featureFieldName);
+            queryFeature.setByteArrayRepresentation(bytes.bytes, bytes.offset, bytes.length);
+            return search(queryFeature, reader);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    private ImageSearchHits search(LireFeature queryFeature, IndexReader reader) throws IOException {
+        if (index.maxDoc() > reader.maxDoc())
+            throw new IllegalArgumentException("The HNSW index has been created for a different reader, maxDoc " + index.maxDoc() + " > " + reader.maxDoc());
+        return new SimpleImageSearchHits(index.search(queryFeature, maximumHits, ef, MultiFields.getLiveDocs(reader)), reader);
+    }
+
+    /**
+     * Searches with every document of the index and groups it with the hits at distance 0.
+     *
+     * @param reader the index the graph has been created from.
+     * @return the groups of duplicates, null if there are none.
+     * @throws IOException in case the index cannot be read.
+     */
+    public ImageDuplicates findDuplicates(IndexReader reader) throws IOException {
+        return SimpleImageDuplicates.findBySearch(this, reader);
+    }
+}
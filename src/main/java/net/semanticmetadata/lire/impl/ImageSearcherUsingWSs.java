@@ -11,6 +11,7 @@ import java.io.IOException;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 
 /**
  * Created by Nektarios on 9/10/2014.
@@ -21,6 +22,7 @@ public class ImageSearcherUsingWSs extends GenericFastImageSearcher {
     private boolean inverseDocFrequency = false;
     private boolean normalizeHistogram = false;
     private String ws = "nnn";
+    private List<byte[]> cachedFeatures;
 
     public ImageSearcherUsingWSs(int maxHits, Class<?> descriptorClass, String fieldName) {
         super(maxHits, descriptorClass, fieldName);
@@ -93,13 +95,13 @@ public class ImageSearcherUsingWSs extends GenericFastImageSearcher {
         // put all respective features into an in-memory cache ...
         if (isCaching && reader != null) {
             int docs = reader.numDocs();
-            featureCache = new LinkedList<byte[]>();
+            cachedFeatures = new LinkedList<byte[]>();
             try {
                 Document d;
                 for (int i = 0; i < docs; i++) {
                     d = reader.document(i);
                     cachedInstance.setByteArrayRepresentation(d.getField(fieldName).binaryValue().bytes, d.getField(fieldName).binaryValue().offset, d.getField(fieldName).binaryValue().length);
-                    featureCache.add(cachedInstance.getByteArrayRepresentation());
+                    cachedFeatures.add(cachedInstance.getByteArrayRepresentation());
                     if (idfValues == null)
                         idfValues = new double[cachedInstance.getDoubleHistogram().length];
                     for (int j = 0; j < cachedInstance.getDoubleHistogram().length; j++) {
@@ -115,14 +117,12 @@ public class ImageSearcherUsingWSs extends GenericFastImageSearcher {
     /**
      * @param reader
      * @param lireFeature
-     * @return the maximum distance found for normalizing.
+     * @return the collected docIDs and distances.
      * @throws java.io.IOException
      */
-    protected float findSimilar(IndexReader reader, LireFeature lireFeature) throws IOException {
-        maxDistance = -1f;
-//        overallMaxDistance = -1f;
-        // clear result set ...
-        docs.clear();
+    protected TopKCollector findSimilar(IndexReader reader, LireFeature lireFeature) throws IOException {
+        // result set is local to the call ...
+        TopKCollector results = new TopKCollector(maxHits);
         // Needed for check whether the document is deleted.
         Bits liveDocs = MultiFields.getLiveDocs(reader);
         Document d;
@@ -136,28 +136,12 @@ public class ImageSearcherUsingWSs extends GenericFastImageSearcher {
                 d = reader.document(i);
                 tmpDistance = getDistance(d, lireFeature);
                 assert (tmpDistance >= 0);
-                // if it is the first document:
-                if (maxDistance < 0) {
-                    maxDistance = tmpDistance;
-                }
-                // if the array is not full yet:
-                if (this.docs.size() < maxHits) {
-                    this.docs.add(new SimpleResult(tmpDistance, d, i));
-                    if (tmpDistance > maxDistance) maxDistance = tmpDistance;
-                } else if (tmpDistance < maxDistance) {
-                    // if it is nearer to the sample than at least on of the current set:
-                    // remove the last one ...
-                    this.docs.remove(this.docs.last());
-                    // add the new one ...
-                    this.docs.add(new SimpleResult(tmpDistance, d, i));
-                    // and set our new distance border ...
-                    maxDistance = this.docs.last().getDistance();
-                }
+                results.collect(i, tmpDistance);
             }
         } else {
             // we use the in-memory cache to find the matching docs from the index.
             int count = 0;
-            for (Iterator<byte[]> iterator = featureCache.iterator(); iterator.hasNext(); ) {
+            for (Iterator<byte[]> iterator = cachedFeatures.iterator(); iterator.hasNext(); ) {
                 cachedInstance.setByteArrayRepresentation(iterator.next());
                 if (reader.hasDeletions() && !liveDocs.get(count)) {
                     count++;
@@ -165,28 +149,24 @@ public class ImageSearcherUsingWSs extends GenericFastImageSearcher {
                 } else {
                     tmpDistance = getDistance(cachedInstance, lireFeature, reader);
                     assert (tmpDistance >= 0) : tmpDistance;
-                    // if it is the first document:
-                    if (maxDistance < 0) {
-                        maxDistance = tmpDistance;
-                    }
-                    // if the array is not full yet:
-                    if (this.docs.size() < maxHits) {
-                        this.docs.add(new SimpleResult(tmpDistance, reader.document(count), count));
-                        if (tmpDistance > maxDistance) maxDistance = tmpDistance;
-                    } else if (tmpDistance < maxDistance) {
-                        // if it is nearer to the sample than at least on of the current set:
-                        // remove the last one ...
-                        this.docs.remove(this.docs.last());
-                        // add the new one ...
-                        this.docs.add(new SimpleResult(tmpDistance, reader.document(count), count));
-                        // and set our new distance border ...
-                        maxDistance = this.docs.last().getDistance();
-                    }
+                    results.collect(count, tmpDistance);
                     count++;
                 }
             }
         }
-        return maxDistance;
+        return results;
+    }
+
+    /**
+     * Searches for the queries one after another, as the weighting scheme is applied by
+     * {@link #findSimilar(org.apache.lucene.index.IndexReader, net.semanticmetadata.lire.imageanalysis.LireFeature)}.
+     */
+    protected TopKCollector[] findSimilar(IndexReader reader, LireFeature[] lireFeatures) throws IOException {
+        TopKCollector[] results = new TopKCollector[lireFeatures.length];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = findSimilar(reader, lireFeatures[i]);
+        }
+        return results;
     }
 
     private float getDistance(LireFeature cachedInstance, LireFeature lireFeature, IndexReader reader) {
@@ -41,23 +41,17 @@
 
 package net.semanticmetadata.lire.impl;
 
-import net.semanticmetadata.lire.AbstractImageSearcher;
-import net.semanticmetadata.lire.DocumentBuilder;
 import net.semanticmetadata.lire.ImageDuplicates;
-import net.semanticmetadata.lire.ImageSearchHits;
 import net.semanticmetadata.lire.imageanalysis.LireFeature;
+import net.semanticmetadata.lire.indexing.hashing.Hasher;
 import net.semanticmetadata.lire.indexing.hashing.LocalitySensitiveHashing;
-import org.apache.lucene.document.Document;
 import org.apache.lucene.index.FieldInvertState;
 import org.apache.lucene.index.IndexReader;
-import org.apache.lucene.index.Term;
-import org.apache.lucene.search.*;
 import org.apache.lucene.search.similarities.DefaultSimilarity;
+import org.apache.lucene.search.similarities.Similarity;
 
-import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.TreeSet;
 
 /**
  * This class allows for searching based on {@link net.semanticmetadata.lire.indexing.hashing.BitSampling}
@@ -67,13 +61,7 @@ import java.util.TreeSet;
  * @author Mathias Lux, mathias@juggle.at, 2013-04-12
  */
 
-public class LshImageSearcher extends AbstractImageSearcher {
-    private int maxResultsHashBased = 1000;
-    private int maximumHits = 100;
-    private String featureFieldName = DocumentBuilder.FIELD_NAME_OPPONENT_HISTOGRAM;
-    private LireFeature feature;
-    private String hashesFieldName = null;
-
+public class LshImageSearcher extends HashingImageSearcher {
     /**
      * Creates a new searcher for BitSampling based hashes.
      * @param maximumHits how many hits the searcher shall return.
@@ -88,6 +76,7 @@ public class LshImageSearcher extends AbstractImageSearcher {
         this.feature = feature;
         try {
             LocalitySensitiveHashing.readHashFunctions();
+            hasher = LocalitySensitiveHashing.getHasher();
         } catch (IOException e) {
             System.err.println("Error reading hash functions from default location.");
             e.printStackTrace();
@@ -102,6 +91,7 @@ public class LshImageSearcher extends AbstractImageSearcher {
         maxResultsHashBased = numHashedResults;
         try {
             LocalitySensitiveHashing.readHashFunctions();
+            hasher = LocalitySensitiveHashing.getHasher();
         } catch (IOException e) {
             System.err.println("Error reading hash functions from default location.");
             e.printStackTrace();
@@ -114,7 +104,8 @@ public class LshImageSearcher extends AbstractImageSearcher {
         this.hashesFieldName = hashesFieldName;
         this.feature = feature;
         try {
-            LocalitySensitiveHashing.readHashFunctions();
+            LocalitySensitiveHashing.readHashFunctions(hashes);
+            hasher = LocalitySensitiveHashing.getHasher();
             hashes.close();
         } catch (IOException e) {
             System.err.println("Error reading has functions from given input stream.");
@@ -129,7 +120,8 @@ public class LshImageSearcher extends AbstractImageSearcher {
         this.feature = feature;
         maxResultsHashBased = numHashedResults;
         try {
-            LocalitySensitiveHashing.readHashFunctions();
+            LocalitySensitiveHashing.readHashFunctions(hashes);
+            hasher = LocalitySensitiveHashing.getHasher();
             hashes.close();
         } catch (IOException e) {
             System.err.println("Error reading has functions from given input stream.");
@@ -137,97 +129,59 @@ public class LshImageSearcher extends AbstractImageSearcher {
         }
     }
 
-    public ImageSearchHits search(BufferedImage image, IndexReader reader) throws IOException {
-        try {
-            LireFeature queryFeature = feature.getClass().newInstance();
-            queryFeature.extract(image);
-            int[] ints = LocalitySensitiveHashing.generateHashes(queryFeature.getDoubleHistogram());
-            String[] hashes = new String[ints.length];
-            for (int i = 0; i < ints.length; i++) {
-                hashes[i] = Integer.toString(ints[i]);
-            }
-            return search(hashes, queryFeature, reader);
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        return null;
+    /**
+     * Creates a new searcher using the given hash functions instead of the ones of {@link LocalitySensitiveHashing},
+     * which have to be the ones used for indexing.
+     *
+     * @param maximumHits      how many hits the searcher shall return.
+     * @param featureFieldName the field name of the feature.
+     * @param hashesFieldName  the field name of the hashes.
+     * @param feature          an instance of the feature.
+     * @param hasher           the hash functions.
+     * @param numHashedResults the number of candidate results retrieved from the index before re-ranking.
+     */
+    public LshImageSearcher(int maximumHits, String featureFieldName, String hashesFieldName, LireFeature feature, Hasher hasher, int numHashedResults) {
+        this.maximumHits = maximumHits;
+        this.featureFieldName = featureFieldName;
+        this.hashesFieldName = hashesFieldName;
+        this.feature = feature;
+        this.hasher = hasher;
+        maxResultsHashBased = numHashedResults;
     }
 
-    public ImageSearchHits search(Document doc, IndexReader reader) throws IOException {
-        try {
-            LireFeature queryFeature = feature.getClass().newInstance();
-            queryFeature.setByteArrayRepresentation(doc.getBinaryValue(featureFieldName).bytes,
-                    doc.getBinaryValue(featureFieldName).offset,
-                    doc.getBinaryValue(featureFieldName).length);
-            return search(doc.getValues(hashesFieldName)[0].split(" "), queryFeature, reader);
-        } catch (Exception e) {
-            e.printStackTrace();
+    @Override
+    Similarity getSimilarity() {
+        return new DefaultSimilarity(){
+        @Override
+        public float tf(float freq) {
+            return 1;
+        }
+
+        @Override
+        public float idf(long docFreq, long numDocs) {
+            return 1;
         }
-        return null;
-    }
 
-    private ImageSearchHits search(String[] hashes, LireFeature queryFeature, IndexReader reader) throws IOException {
-        // first search by text:
-        IndexSearcher searcher = new IndexSearcher(reader);
-        searcher.setSimilarity(new DefaultSimilarity(){
-            @Override
-            public float tf(float freq) {
-                return 1;
-            }
-
-            @Override
-            public float idf(long docFreq, long numDocs) {
-                return 1;
-            }
-
-            @Override
-            public float coord(int overlap, int maxOverlap) {
-                return 1;
-            }
-
-            @Override
-            public float queryNorm(float sumOfSquaredWeights) {
-                return 1;
-            }
-
-            @Override
-            public float sloppyFreq(int distance) {
-                return 1;
-            }
-
-            @Override
-            public float lengthNorm(FieldInvertState state) {
-                return 1;
-            }
-        });
-        BooleanQuery query = new BooleanQuery();
-        for (int i = 0; i < hashes.length; i++) {
-            // be aware that the hashFunctionsFileName of the field must match the one you put the hashes in before.
-            query.add(new BooleanClause(new TermQuery(new Term(hashesFieldName, hashes[i] + "")), BooleanClause.Occur.SHOULD));
+        @Override
+        public float coord(int overlap, int maxOverlap) {
+            return 1;
         }
-        TopDocs docs = searcher.search(query, maxResultsHashBased);
-        // then re-rank
-        TreeSet<SimpleResult> resultScoreDocs = new TreeSet<SimpleResult>();
-        float maxDistance = 0f;
-        float tmpScore = 0f;
-        for (int i = 0; i < docs.scoreDocs.length; i++) {
-            feature.setByteArrayRepresentation(reader.document(docs.scoreDocs[i].doc).getBinaryValue(featureFieldName).bytes,
-                    reader.document(docs.scoreDocs[i].doc).getBinaryValue(featureFieldName).offset,
-                    reader.document(docs.scoreDocs[i].doc).getBinaryValue(featureFieldName).length);
-            tmpScore = queryFeature.getDistance(feature);
-            if (resultScoreDocs.size() < maximumHits) {
-                resultScoreDocs.add(new SimpleResult(tmpScore, reader.document(docs.scoreDocs[i].doc), docs.scoreDocs[i].doc));
-                maxDistance = Math.max(maxDistance, tmpScore);
-            } else if (tmpScore < maxDistance) {
-                resultScoreDocs.add(new SimpleResult(tmpScore, reader.document(docs.scoreDocs[i].doc), docs.scoreDocs[i].doc));
-            }
-            while (resultScoreDocs.size() > maximumHits) {
-                resultScoreDocs.remove(resultScoreDocs.last());
-                maxDistance = resultScoreDocs.last().getDistance();
-            }
-//            resultScoreDocs.add(new SimpleResult(tmpScore, reader.document(docs.scoreDocs[i].doc), docs.scoreDocs[i].doc));
+
+        @Override
+        public float queryNorm(float sumOfSquaredWeights) {
+            return 1;
+        }
+
+        @Override
+        public float sloppyFreq(int distance) {
+            return 1;
+        }
+
+        @Override
+        public float lengthNorm(FieldInvertState state) {
+            return 1;
         }
-        return new SimpleImageSearchHits(resultScoreDocs, maxDistance);
+        };
     }
 
     public ImageDuplicates findDuplicates(IndexReader reader) throws IOException {
@@ -0,0 +1,164 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ * Updated: 18.10.26 17:04
+ */
+
+package net.semanticmetadata.lire.impl;
+
+import net.semanticmetadata.lire.ImageDuplicates;
+import net.semanticmetadata.lire.ImageSearchHits;
+import net.semanticmetadata.lire.imageanalysis.LireFeature;
+import net.semanticmetadata.lire.indexing.pq.PQIndex;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.util.BytesRef;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Searches with a {@link PQIndex}: the approximate L2 distances of the compressed vectors give a list of
+ * candidates, which are then re-ranked by the distance function of the feature, like in
+ * {@link BitSamplingImageSearcher}. Without re-ranking the score of a hit is its approximate squared L2 distance.
+ */
+public class PQImageSearcher extends ReRankingImageSearcher {
+    private PQIndex index;
+    private int numProbes = 8;
+    private int numReRanked = 1000;
+
+    /**
+     * Creates a new searcher, the field name is inferred from the entries in {@link GenericDocumentBuilder}.
+     *
+     * @param maximumHits how many hits the searcher shall return.
+     * @param feature     an instance of the feature.
+     * @param index       the PQ index of the feature.
+     */
+    public PQImageSearcher(int maximumHits, LireFeature feature, PQIndex index) {
+        this(maximumHits, GenericDocumentBuilder.fieldForClass.get(feature.getClass()), feature, index);
+    }
+
+    /**
+     * @param maximumHits      how many hits the searcher shall return.
+     * @param featureFieldName the field name of the feature.
+     * @param feature          an instance of the feature.
+     * @param index            the PQ index of the feature.
+     */
+    public PQImageSearcher(int maximumHits, String featureFieldName, LireFeature feature, PQIndex index) {
+        this.maximumHits = maximumHits;
+        this.featureFieldName = featureFieldName;
+        this.feature = feature;
+        this.index = index;
+    }
+
+    /**
+     * Creates a new searcher with the PQ index stored next to a Lucene index, see {@link PQIndex#getFile(File, String)}.
+     *
+     * @param maximumHits      how many hits the searcher shall return.
+     * @param featureFieldName the field name of the feature.
+     * @param feature          an instance of the feature.
+     * @param indexDirectory   the directory of the Lucene index.
+     * @throws IOException if the PQ index cannot be read.
+     */
+    public PQImageSearcher(int maximumHits, String featureFieldName, LireFeature feature, File indexDirectory) throws IOException {
+        this(maximumHits, featureFieldName, feature, PQIndex.open(PQIndex.getFile(indexDirectory, featureFieldName)));
+    }
+
+    /**
+     * @param numProbes the number of lists of the PQ index visited per query, 8 by default.
+     */
+    public void setNumProbes(int numProbes) {
+        this.numProbes = numProbes;
+    }
+
+    /**
+     * Sets the number of candidates with the smallest approximate distance which are re-ranked by the distance
+     * function of the feature.
+     *
+     * @param numReRanked the number of candidates, 1000 by default, 0 to return the approximate distances.
+     */
+    public void setNumReRanked(int numReRanked) {
+        this.numReRanked = numReRanked;
+    }
+
+    public ImageSearchHits search(BufferedImage image, IndexReader reader) throws IOException {
+        try {
+            LireFeature queryFeature = feature.getClass().newInstance();
+            queryFeature.extract(image);
+            return search(queryFeature, reader);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    public ImageSearchHits search(Document doc, IndexReader reader) throws IOException {
+        try {
+            LireFeature queryFeature = feature.getClass().newInstance();
+            BytesRef bytes = doc.getBinaryValue(featureFieldName);
+            queryFeature.setByteArrayRepresentation(bytes.bytes, bytes.offset, bytes.length);
+            return search(queryFeature, reader);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    private ImageSearchHits search(LireFeature queryFeature, IndexReader reader) throws IOException {
+        if (index.maxDoc() > reader.maxDoc())
+            throw new IllegalArgumentException("The PQ index has been created for a different reader, maxDoc " + index.maxDoc() + " > " + reader.maxDoc());
+        int k = numReRanked > 0 ? Math.max(numReRanked, maximumHits) : maximumHits;
+        TopKCollector candidates = index.search(queryFeature.getDoubleHistogram(), k, numProbes, MultiFields.getLiveDocs(reader));
+        if (numReRanked <= 0) return new SimpleImageSearchHits(candidates, reader);
+        return reRank(candidates, queryFeature, reader);
+    }
+
+    /**
+     * Searches with every document of the index and groups it with the hits at distance 0. Without re-ranking these
+     * are the documents with the same PQ code in the same list.
+     *
+     * @param reader the index the PQ index has been created from.
+     * @return the groups of duplicates, null if there are none.
+     * @throws IOException in case the index cannot be read.
+     */
+    public ImageDuplicates findDuplicates(IndexReader reader) throws IOException {
+        return SimpleImageDuplicates.findBySearch(this, reader);
+    }
+}
@@ -45,13 +45,12 @@ import net.semanticmetadata.lire.ImageSearchHits;
 import net.semanticmetadata.lire.imageanalysis.LireFeature;
 import net.semanticmetadata.lire.utils.ImageUtils;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.index.AtomicReaderContext;
 import org.apache.lucene.index.IndexReader;
-import org.apache.lucene.index.MultiFields;
 import org.apache.lucene.util.Bits;
 
 import java.awt.image.BufferedImage;
 import java.io.IOException;
-import java.util.TreeSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -68,7 +67,6 @@ public class ParallelImageSearcher extends AbstractImageSearcher {
     Class<?> descriptorClass;
     String fieldName;
     private int maxHits = 10;
-    private TreeSet<SimpleResult>[] parDocs;
 
     public ParallelImageSearcher(int maxHits, Class<?> descriptorClass, String fieldName) {
         this.maxHits = maxHits;
@@ -102,9 +100,9 @@ public class ParallelImageSearcher extends AbstractImageSearcher {
                 logger.log(Level.SEVERE, "Error instantiating class for generic image searcher: " + e.getMessage());
             }
         }
-        float[] distance = findSimilar(reader, lireFeature);
-        for (int i = 0; i < distance.length; i++) {
-            searchHits[i] = new SimpleImageSearchHits(parDocs[i], distance[i]);
+        TopKCollector[] results = findSimilar(reader, lireFeature);
+        for (int i = 0; i < results.length; i++) {
+            searchHits[i] = new SimpleImageSearchHits(results[i], reader);
         }
         return searchHits;
 
@@ -127,9 +125,9 @@ public class ParallelImageSearcher extends AbstractImageSearcher {
                 logger.log(Level.SEVERE, "Error instantiating class for generic image searcher: " + e.getMessage());
             }
         }
-        float[] distance = findSimilar(reader, lireFeature);
-        for (int i = 0; i < distance.length; i++) {
-            searchHits[i] = new SimpleImageSearchHits(parDocs[i], distance[i]);
+        TopKCollector[] results = findSimilar(reader, lireFeature);
+        for (int i = 0; i < results.length; i++) {
+            searchHits[i] = new SimpleImageSearchHits(results[i], reader);
         }
         return searchHits;
 
@@ -138,64 +136,31 @@ public class ParallelImageSearcher extends AbstractImageSearcher {
     /**
      * @param reader
      * @param lireFeature
-     * @return the maximum distance found for normalizing.
+     * @return the collected docIDs and distances, one collector per query.
      * @throws java.io.IOException
      */
-    @SuppressWarnings("unchecked")
-    private float[] findSimilar(IndexReader reader, LireFeature[] lireFeature) throws IOException {
-        float[] maxDistance = new float[lireFeature.length];
-        float[] overallMaxDistance = new float[lireFeature.length];
-
-        for (int i = 0; i < overallMaxDistance.length; i++) {
-            overallMaxDistance[i] = -1f;
-            maxDistance[i] = -1f;
+    private TopKCollector[] findSimilar(IndexReader reader, LireFeature[] lireFeature) throws IOException {
+        TopKCollector[] results = new TopKCollector[lireFeature.length];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = new TopKCollector(maxHits);
         }
 
-        parDocs = new TreeSet[lireFeature.length];
-        for (int i = 0; i < parDocs.length; i++) {
-            parDocs[i] = new TreeSet<SimpleResult>();
-        }
-
-        // Needed for check whether the document is deleted.
-        Bits liveDocs = MultiFields.getLiveDocs(reader);
-
-        // clear result set ...
-
-        int docs = reader.numDocs();
-        for (int i = 0; i < docs; i++) {
-            if (reader.hasDeletions() && !liveDocs.get(i)) continue; // if it is deleted, just ignore it.
-
-            Document d = reader.document(i);
-            float[] distance = getDistance(d, lireFeature);
-            // calculate the overall max distance to normalize score afterwards
-            for (int j = 0; j < distance.length; j++) {
-                float f = distance[j];
-                if (overallMaxDistance[j] < f) {
-                    overallMaxDistance[j] = f;
-                }
-                // if it is the first document:
-                if (maxDistance[j] < 0) {
-                    maxDistance[j] = f;
+        // the index is read segment by segment, so there is no need to merge it into a single one.
+        for (AtomicReaderContext leaf : reader.leaves()) {
+            // Needed for check whether the document is deleted.
+            Bits liveDocs = leaf.reader().getLiveDocs();
+            int docs = leaf.reader().maxDoc();
+            for (int i = 0; i < docs; i++) {
+                if (liveDocs != null && !liveDocs.get(i)) continue; // if it is deleted, just ignore it.
+
+                Document d = leaf.reader().document(i);
+                float[] distance = getDistance(d, lireFeature);
+                for (int j = 0; j < distance.length; j++) {
+                    results[j].collect(leaf.docBase + i, distance[j]);
                 }
-                // if the array is not full yet:
-                if (this.parDocs[j].size() < maxHits) {
-                    this.parDocs[j].add(new SimpleResult(f, d, i));
-                    if (f > maxDistance[j]) {
-                        maxDistance[j] = f;
-                    }
-                } else if (f < maxDistance[j]) {
-                    // if it is nearer to the sample than at least on of the current set:
-                    // remove the last one ...
-                    this.parDocs[j].remove(this.parDocs[j].last());
-                    // add the new one ...
-                    this.parDocs[j].add(new SimpleResult(f, d, i));
-                    // and set our new distance border ...
-                    maxDistance[j] = this.parDocs[j].last().getDistance();
-                }
-
             }
         }
-        return maxDistance;
+        return results;
     }
 
     private float[] getDistance(Document d, LireFeature[] lireFeature) {
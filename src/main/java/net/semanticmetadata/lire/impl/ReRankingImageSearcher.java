@@ -0,0 +1,98 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ */
+
+package net.semanticmetadata.lire.impl;
+
+import net.semanticmetadata.lire.AbstractImageSearcher;
+import net.semanticmetadata.lire.imageanalysis.LireFeature;
+import org.apache.lucene.index.IndexReader;
+
+import java.io.IOException;
+
+/**
+ * Base class of the searchers which find candidates by an approximate index and re-rank them by the distance
+ * function of the feature with a {@link CandidateReRanker}.
+ */
+abstract class ReRankingImageSearcher extends AbstractImageSearcher {
+    int maximumHits = 100;
+    String featureFieldName = null;
+    LireFeature feature = null;
+    private CandidateReRanker reRanker = null;
+
+    /**
+     * Sets whether the features of the candidates are cached in a
+     * {@link net.semanticmetadata.lire.indexing.cache.FeatureColumn} per segment for re-ranking. Otherwise they are
+     * read from doc values or, if there are none, from the stored field of each candidate.
+     *
+     * @param useFeatureColumn true to cache the features with this searcher, false to read them from the index (default).
+     */
+    public void setUseFeatureColumn(boolean useFeatureColumn) {
+        getReRanker().setUseFeatureColumn(useFeatureColumn);
+    }
+
+    private CandidateReRanker getReRanker() {
+        if (reRanker == null) reRanker = new CandidateReRanker(featureFieldName);
+        return reRanker;
+    }
+
+    /**
+     * Re-ranks the candidates, reading only the feature of each candidate.
+     *
+     * @param candidates   the docIDs of the candidates, in any order.
+     * @param queryFeature the query.
+     * @param reader       the index.
+     * @return the maximumHits closest candidates.
+     * @throws IOException in case the index cannot be read.
+     */
+    SimpleImageSearchHits reRank(int[] candidates, LireFeature queryFeature, IndexReader reader) throws IOException {
+        return new SimpleImageSearchHits(getReRanker().reRank(candidates, queryFeature, feature, reader, maximumHits), reader);
+    }
+
+    /**
+     * Re-ranks the candidates collected from an approximate index.
+     */
+    SimpleImageSearchHits reRank(TopKCollector candidates, LireFeature queryFeature, IndexReader reader) throws IOException {
+        int[] docs = new int[candidates.size()];
+        for (int i = 0; i < docs.length; i++) {
+            docs[i] = candidates.docId(i);
+        }
+        return reRank(docs, queryFeature, reader);
+    }
+}
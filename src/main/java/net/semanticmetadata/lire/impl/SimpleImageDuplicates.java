@@ -39,8 +39,18 @@
 
 package net.semanticmetadata.lire.impl;
 
+import net.semanticmetadata.lire.DocumentBuilder;
 import net.semanticmetadata.lire.ImageDuplicates;
+import net.semanticmetadata.lire.ImageSearchHits;
+import net.semanticmetadata.lire.ImageSearcher;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.util.Bits;
 
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 
 /**
@@ -67,4 +77,39 @@ public class SimpleImageDuplicates implements ImageDuplicates {
     public List<String> getDuplicate(int position) {
         return duplicates.get(position);
     }
+
+    /**
+     * Finds duplicates for searchers without a faster way: every live document not yet in a group is used as query
+     * and grouped with the hits at distance 0. A group holds at most as many documents as the searcher returns hits.
+     *
+     * @param searcher the searcher, its hits have to have the distance as score.
+     * @param reader   the index.
+     * @return the groups of duplicates, null if there are none.
+     * @throws IOException in case the index cannot be read.
+     */
+    static SimpleImageDuplicates findBySearch(ImageSearcher searcher, IndexReader reader) throws IOException {
+        Bits liveDocs = MultiFields.getLiveDocs(reader);
+        HashSet<String> grouped = new HashSet<String>();
+        LinkedList<List<String>> results = new LinkedList<List<String>>();
+        for (int i = 0; i < reader.maxDoc(); i++) {
+            if (liveDocs != null && !liveDocs.get(i)) continue; // if it is deleted, just ignore it.
+            Document d = reader.document(i);
+            String identifier = d.get(DocumentBuilder.FIELD_NAME_IDENTIFIER);
+            if (identifier == null || grouped.contains(identifier)) continue;
+            ImageSearchHits hits = searcher.search(d, reader);
+            if (hits == null) continue;
+            List<String> group = new LinkedList<String>();
+            group.add(identifier);
+            for (int k = 0; k < hits.length(); k++) {
+                if (hits.score(k) > 0f) continue;
+                String duplicate = hits.doc(k).get(DocumentBuilder.FIELD_NAME_IDENTIFIER);
+                if (duplicate != null && !duplicate.equals(identifier) && grouped.add(duplicate)) group.add(duplicate);
+            }
+            if (group.size() > 1) {
+                grouped.add(identifier);
+                results.add(group);
+            }
+        }
+        return results.isEmpty() ? null : new SimpleImageDuplicates(results);
+    }
 }
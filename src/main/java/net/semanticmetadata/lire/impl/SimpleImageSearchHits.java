@@ -43,8 +43,9 @@ package net.semanticmetadata.lire.impl;
 
 import net.semanticmetadata.lire.ImageSearchHits;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
 
-import java.util.ArrayList;
+import java.io.IOException;
 import java.util.Collection;
 import java.util.Iterator;
 
@@ -56,17 +57,13 @@ import java.util.Iterator;
  * @author Mathias Lux, mathias@juggle.at
  */
 public class SimpleImageSearchHits implements ImageSearchHits {
-    ArrayList<SimpleResult> results;
+    private float[] distances;
+    private int[] docIds;
+    private Document[] documents;
+    private IndexReader reader = null;
 
     public SimpleImageSearchHits(Collection<SimpleResult> results, float maxDistance) {
-        this.results = new ArrayList<SimpleResult>(results.size());
-        this.results.addAll(results);
-        // this step normalizes and inverts the distance ...
-        // although its now a score or similarity like measure its further called distance
-        for (Iterator<SimpleResult> iterator = this.results.iterator(); iterator.hasNext(); ) {
-            SimpleResult result = iterator.next();
-            // result.setDistance(1f - result.getDistance() / maxDistance);
-        }
+        this(results, maxDistance, false);
     }
 
     /**
@@ -77,13 +74,74 @@ public class SimpleImageSearchHits implements ImageSearchHits {
      * @param useSimilarityScore set to tru is you want similarity scores, otherwise distances will be used. Note that using distance is faster in terms of runtime.
      */
     public SimpleImageSearchHits(Collection<SimpleResult> results, float maxDistance, boolean useSimilarityScore) {
-        this.results = new ArrayList<SimpleResult>(results.size());
-        this.results.addAll(results);
+        distances = new float[results.size()];
+        docIds = new int[results.size()];
+        documents = new Document[results.size()];
+        int i = 0;
         // this step normalizes and inverts the distance ...
         // although its now a score or similarity like measure its further called distance
-        for (Iterator<SimpleResult> iterator = this.results.iterator(); iterator.hasNext(); ) {
+        for (Iterator<SimpleResult> iterator = results.iterator(); iterator.hasNext(); i++) {
             SimpleResult result = iterator.next();
             if (useSimilarityScore) result.setDistance(1f - result.getDistance() / maxDistance);
+            distances[i] = result.getDistance();
+            docIds[i] = result.getIndexNumber();
+            documents[i] = result.getDocument();
+        }
+    }
+
+    /**
+     * Creates results from a {@link TopKCollector}. The documents are not loaded before they are actually requested
+     * with {@link #doc(int)}, so the reader must not be closed as long as the hits are in use.
+     *
+     * @param results            the collected results, they are sorted if not already done.
+     * @param reader             the reader the docIDs of the collector refer to.
+     * @param maxDistance        the distance used for normalization if useSimilarityScore is set.
+     * @param useSimilarityScore set to true is you want similarity scores, otherwise distances will be used.
+     */
+    public SimpleImageSearchHits(TopKCollector results, IndexReader reader, float maxDistance, boolean useSimilarityScore) {
+        results.sort();
+        this.reader = reader;
+        distances = new float[results.size()];
+        docIds = new int[results.size()];
+        documents = new Document[results.size()];
+        for (int i = 0; i < distances.length; i++) {
+            docIds[i] = results.docId(i);
+            distances[i] = results.distance(i);
+            if (useSimilarityScore) distances[i] = 1f - distances[i] / maxDistance;
+        }
+    }
+
+    /**
+     * Creates results from a {@link TopKCollector}, the scores are the distances.
+     *
+     * @param results the collected results.
+     * @param reader  the reader the docIDs of the collector refer to.
+     * @see #SimpleImageSearchHits(TopKCollector, IndexReader, float, boolean)
+     */
+    public SimpleImageSearchHits(TopKCollector results, IndexReader reader) {
+        this(results, reader, 0f, false);
+    }
+
+    /**
+     * Creates results from a {@link TopKCollector} whose docIDs are positions in another result list, for instance
+     * when a filter re-ranks the hits of a search. The documents are taken from the given hits, {@link #readerID(int)}
+     * returns the position in the given hits.
+     *
+     * @param results            the collected results, they are sorted if not already done.
+     * @param hits               the hits the positions of the collector refer to.
+     * @param maxDistance        the distance used for normalization if useSimilarityScore is set.
+     * @param useSimilarityScore set to true is you want similarity scores, otherwise distances will be used.
+     */
+    public SimpleImageSearchHits(TopKCollector results, ImageSearchHits hits, float maxDistance, boolean useSimilarityScore) {
+        results.sort();
+        distances = new float[results.size()];
+        docIds = new int[results.size()];
+        documents = new Document[results.size()];
+        for (int i = 0; i < distances.length; i++) {
+            docIds[i] = results.docId(i);
+            documents[i] = hits.doc(docIds[i]);
+            distances[i] = results.distance(i);
+            if (useSimilarityScore) distances[i] = 1f - distances[i] / maxDistance;
         }
     }
 
@@ -93,7 +151,7 @@ public class SimpleImageSearchHits implements ImageSearchHits {
      * @return the size of the result list.
      */
     public int length() {
-        return results.size();
+        return distances.length;
     }
 
     /**
@@ -107,17 +165,25 @@ public class SimpleImageSearchHits implements ImageSearchHits {
      * @return the score of the document at given position. The lower the better (its a distance measure).
      */
     public float score(int position) {
-        return results.get(position).getDistance();
+        return distances[position];
     }
 
     /**
-     * Returns the document at given position
+     * Returns the document at given position. If the hits have been created from a {@link TopKCollector} the
+     * document is read from the index on the first call.
      *
      * @param position defines the position.
      * @return the document at given position.
      */
     public Document doc(int position) {
-        return results.get(position).getDocument();
+        if (documents[position] == null && reader != null) {
+            try {
+                documents[position] = reader.document(docIds[position]);
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not read document " + docIds[position] + " from the index.", e);
+            }
+        }
+        return documents[position];
     }
 
     /**
@@ -127,7 +193,7 @@ public class SimpleImageSearchHits implements ImageSearchHits {
      * @return the id in the IndexReader.
      */
     public int readerID(int position) {
-        return results.get(position).getIndexNumber();
+        return docIds[position];
     }
 
     @SuppressWarnings("unused")
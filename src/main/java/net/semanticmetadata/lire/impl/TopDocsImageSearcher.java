@@ -49,7 +49,6 @@ import org.apache.lucene.util.Bits;
 
 import java.awt.image.BufferedImage;
 import java.io.IOException;
-import java.util.TreeSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -66,11 +65,9 @@ public class TopDocsImageSearcher {
     String fieldName;
 
     private int maxHits = 10;
-    protected TreeSet<SimpleResult> docs;
 
     public TopDocsImageSearcher(int maxHits, Class<?> descriptorClass, String fieldName) {
         this.maxHits = maxHits;
-        docs = new TreeSet<SimpleResult>();
         this.descriptorClass = descriptorClass;
         this.fieldName = fieldName;
     }
@@ -89,8 +86,7 @@ public class TopDocsImageSearcher {
             lireFeature.extract(bimg);
             logger.fine("Extraction from image finished");
 
-            float maxDistance = findSimilar(results, reader, lireFeature);
-            searchHits = new SimpleImageSearchHits(this.docs, maxDistance);
+            searchHits = new SimpleImageSearchHits(findSimilar(results, reader, lireFeature), reader);
         } catch (InstantiationException e) {
             logger.log(Level.SEVERE, "Error instantiating class for generic image searcher: " + e.getMessage());
         } catch (IllegalAccessException e) {
@@ -103,48 +99,24 @@ public class TopDocsImageSearcher {
      * @param results
      * @param reader
      * @param lireFeature
-     * @return the maximum distance found for normalizing.
+     * @return the collected docIDs and distances.
      * @throws java.io.IOException
      */
-    protected float findSimilar(TopDocs results, IndexReader reader, LireFeature lireFeature) throws IOException {
-        float maxDistance = -1f, overallMaxDistance = -1f;
-        boolean hasDeletions = reader.hasDeletions();
-
-        // clear result set ...
-        docs.clear();
+    protected TopKCollector findSimilar(TopDocs results, IndexReader reader, LireFeature lireFeature) throws IOException {
+        TopKCollector collector = new TopKCollector(maxHits);
         // Needed for check whether the document is deleted.
         Bits liveDocs = MultiFields.getLiveDocs(reader);
 
-        int docs = results.totalHits;
-        for (int i = 0; i < docs; i++) {
-            if (reader.hasDeletions() && !liveDocs.get(i)) continue; // if it is deleted, just ignore it.
+        for (int i = 0; i < results.scoreDocs.length; i++) {
+            int docId = results.scoreDocs[i].doc;
+            if (reader.hasDeletions() && !liveDocs.get(docId)) continue; // if it is deleted, just ignore it.
 
-            Document d = reader.document(results.scoreDocs[i].doc);
+            Document d = reader.document(docId);
             float distance = getDistance(d, lireFeature);
             assert (distance >= 0);
-            // calculate the overall max distance to normalize score afterwards
-            if (overallMaxDistance < distance) {
-                overallMaxDistance = distance;
-            }
-            // if it is the first document:
-            if (maxDistance < 0) {
-                maxDistance = distance;
-            }
-            // if the array is not full yet:
-            if (this.docs.size() < maxHits) {
-                this.docs.add(new SimpleResult(distance, d, i));
-                if (distance > maxDistance) maxDistance = distance;
-            } else if (distance < maxDistance) {
-                // if it is nearer to the sample than at least on of the current set:
-                // remove the last one ...
-                this.docs.remove(this.docs.last());
-                // add the new one ...
-                this.docs.add(new SimpleResult(distance, d, i));
-                // and set our new distance border ...
-                maxDistance = this.docs.last().getDistance();
-            }
+            collector.collect(docId, distance);
         }
-        return maxDistance;
+        return collector;
     }
 
     protected float getDistance(Document d, LireFeature lireFeature) {
@@ -176,9 +148,7 @@ public class TopDocsImageSearcher {
             String[] cls = doc.getValues(fieldName);
             if (cls != null && cls.length > 0)
                 lireFeature.setStringRepresentation(cls[0]);
-            float maxDistance = findSimilar(results, reader, lireFeature);
-
-            searchHits = new SimpleImageSearchHits(this.docs, maxDistance);
+            searchHits = new SimpleImageSearchHits(findSimilar(results, reader, lireFeature), reader);
         } catch (InstantiationException e) {
             logger.log(Level.SEVERE, "Error instantiating class for generic image searcher: " + e.getMessage());
         } catch (IllegalAccessException e) {
@@ -0,0 +1,195 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ * Updated: 18.10.26 16:23
+ */
+
+package net.semanticmetadata.lire.impl;
+
+/**
+ * Collects the k nearest documents of a search in a binary max-heap backed by parallel primitive arrays, so no
+ * objects are created per candidate. Results are ordered like {@link SimpleResult}, by distance first and by docID
+ * for equal distances. Documents are not part of the collector, they are loaded lazily by
+ * {@link SimpleImageSearchHits} for the results actually used.
+ * <p/>
+ * Use {@link #collect(int, float)} to offer candidates, then call {@link #sort()} to get the results in ascending
+ * order. A collector can be re-used for another search after {@link #clear()}. It is not thread safe, use one
+ * collector per thread and {@link #merge(TopKCollector)} them.
+ */
+public class TopKCollector {
+    private final int[] docIds;
+    private final float[] distances;
+    private int size = 0;
+    private boolean sorted = false;
+
+    /**
+     * @param k the maximum number of results to keep.
+     */
+    public TopKCollector(int k) {
+        docIds = new int[Math.max(0, k)];
+        distances = new float[Math.max(0, k)];
+    }
+
+    /**
+     * Offers a candidate to the collector.
+     *
+     * @param docId    the docID of the candidate.
+     * @param distance the distance of the candidate to the query.
+     * @return true if the candidate is among the k nearest seen so far.
+     */
+    public boolean collect(int docId, float distance) {
+        assert !sorted : "collector has already been sorted";
+        if (size < docIds.length) {
+            docIds[size] = docId;
+            distances[size] = distance;
+            siftUp(size++);
+            return true;
+        } else if (size > 0 && lessThan(distance, docId, distances[0], docIds[0])) {
+            // replace the farthest one ...
+            docIds[0] = docId;
+            distances[0] = distance;
+            siftDown(0, size);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * The distance a candidate has to beat to get into the results. Can be used to skip work early.
+     *
+     * @return the largest distance in the results if the collector is full, Float.MAX_VALUE otherwise.
+     */
+    public float getMaxDistance() {
+        if (size < docIds.length || size == 0) return Float.MAX_VALUE;
+        return distances[0];
+    }
+
+    /**
+     * Adds all results from the given collector.
+     *
+     * @param other another collector, for instance of a different thread.
+     */
+    public void merge(TopKCollector other) {
+        for (int i = 0; i < other.size; i++) {
+            collect(other.docIds[i], other.distances[i]);
+        }
+    }
+
+    /**
+     * Sorts the results in ascending order of distance. Afterwards no more candidates can be collected.
+     */
+    public void sort() {
+        if (sorted) return;
+        // heap sort: move the largest one to the end of the array and restore the heap for the rest.
+        for (int end = size - 1; end > 0; end--) {
+            swap(0, end);
+            siftDown(0, end);
+        }
+        sorted = true;
+    }
+
+    /**
+     * Empties the collector so it can be used for another search.
+     */
+    public void clear() {
+        size = 0;
+        sorted = false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return docIds.length;
+    }
+
+    /**
+     * @param position position in the result list, after {@link #sort()} position 0 is the nearest.
+     * @return the docID at the given position.
+     */
+    public int docId(int position) {
+        if (position >= size) throw new IndexOutOfBoundsException("Position " + position + " >= " + size);
+        return docIds[position];
+    }
+
+    /**
+     * @param position position in the result list, after {@link #sort()} position 0 is the nearest.
+     * @return the distance at the given position.
+     */
+    public float distance(int position) {
+        if (position >= size) throw new IndexOutOfBoundsException("Position " + position + " >= " + size);
+        return distances[position];
+    }
+
+    private static boolean lessThan(float distanceA, int docA, float distanceB, int docB) {
+        return distanceA < distanceB || (distanceA == distanceB && docA < docB);
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!lessThan(distances[parent], docIds[parent], distances[i], docIds[i])) break;
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i, int end) {
+        while (true) {
+            int largest = i;
+            int left = (i << 1) + 1, right = left + 1;
+            if (left < end && lessThan(distances[largest], docIds[largest], distances[left], docIds[left]))
+                largest = left;
+            if (right < end && lessThan(distances[largest], docIds[largest], distances[right], docIds[right]))
+                largest = right;
+            if (largest == i) return;
+            swap(i, largest);
+            i = largest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        int tmpDoc = docIds[a];
+        docIds[a] = docIds[b];
+        docIds[b] = tmpDoc;
+        float tmpDistance = distances[a];
+        distances[a] = distances[b];
+        distances[b] = tmpDistance;
+    }
+}
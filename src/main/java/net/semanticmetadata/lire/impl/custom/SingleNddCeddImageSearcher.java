@@ -48,12 +48,17 @@ import net.semanticmetadata.lire.imageanalysis.CEDD;
 import net.semanticmetadata.lire.imageanalysis.LireFeature;
 import net.semanticmetadata.lire.impl.SimpleImageSearchHits;
 import net.semanticmetadata.lire.impl.SimpleResult;
+import net.semanticmetadata.lire.impl.TopKCollector;
+import net.semanticmetadata.lire.indexing.cache.FeatureValues;
+import net.semanticmetadata.lire.indexing.cache.SegmentCache;
 import net.semanticmetadata.lire.utils.ImageUtils;
 import net.semanticmetadata.lire.utils.MetricsUtils;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
 import org.apache.lucene.index.IndexReader;
-import org.apache.lucene.index.MultiFields;
 import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
 
 import java.awt.image.BufferedImage;
 import java.io.IOException;
@@ -63,8 +68,9 @@ import java.util.logging.Logger;
 
 /**
  * A ImageSearcher that retrieves just the first result, caches the whole index and optimizes search time by 
- * bundling searches. Please note that as soon as the instance is created, changes in the index are not 
- * reflected.  
+ * bundling searches. The cache is held per segment, so if the index changes, re-open the reader with
+ * DirectoryReader.openIfChanged(..) and hand it over with {@link #setReader(IndexReader)}. Only new segments are
+ * loaded then, deletions are taken from the live docs of the current reader.
  *
  * @author Mathias Lux, mathias@juggle.at
  */
@@ -75,10 +81,10 @@ public class SingleNddCeddImageSearcher extends AbstractImageSearcher {
     protected LireFeature cachedInstance = null;
     protected boolean isCaching = true;
 
-    protected ArrayList<double[]> featureCache;
+    protected SegmentCache<double[][]> featureCache;
     protected IndexReader reader;
 
-    protected TreeSet<SimpleResult> docs;
+    protected TopKCollector docs;
 
     HashMap<double[], LinkedList<Integer>> hashMap;
 
@@ -90,7 +96,7 @@ public class SingleNddCeddImageSearcher extends AbstractImageSearcher {
     /**
      * Creates a new ImageSearcher for searching just one single image based on CEDD from a RAM cached data set.
      * 
-     * @param reader the index reader pointing to the index. It will be cached first, so changes will not be reflected in this instance. 
+     * @param reader the index reader pointing to the index. It will be cached first.
      */
     public SingleNddCeddImageSearcher(IndexReader reader) {
         init(reader);
@@ -100,7 +106,7 @@ public class SingleNddCeddImageSearcher extends AbstractImageSearcher {
      * Creates a new ImageSearcher for searching just one single image based on CEDD from a RAM cached data set. 
      * Set approximate to true if you want to speed up search and loose accuracy.
      *  
-     * @param reader the index reader pointing to the index. It will be cached first, so changes will not be reflected in this instance.
+     * @param reader the index reader pointing to the index. It will be cached first.
      * @param approximate set to true if you want to trade accuracy to speed, setting to true is faster (~ double speed), but less accurate                             
      */
     public SingleNddCeddImageSearcher(IndexReader reader, boolean approximate) {
@@ -122,11 +128,7 @@ public class SingleNddCeddImageSearcher extends AbstractImageSearcher {
     }
 
     protected void init(IndexReader reader) {
-        this.reader = reader;
-        if (reader.hasDeletions()) {
-            throw new UnsupportedOperationException("The index has to be optimized first to be cached! Use IndexWriter.forceMerge(0) to do this.");
-        } 
-        docs = new TreeSet<SimpleResult>();
+        docs = new TopKCollector(1);
         try {
             this.cachedInstance = (LireFeature) this.descriptorClass.newInstance();
             if (fieldName == null) fieldName = this.cachedInstance.getFieldName();
@@ -135,22 +137,43 @@ public class SingleNddCeddImageSearcher extends AbstractImageSearcher {
         } catch (IllegalAccessException e) {
             logger.log(Level.SEVERE, "Error instantiating class for generic image searcher (" + descriptorClass.getName() + "): " + e.getMessage());
         }
-        // put all respective features into an in-memory cache ...
-        if (isCaching && reader != null) {
-            int docs = reader.numDocs();
-            featureCache = new ArrayList<double[]>(docs);
-            try {
-                Document d;
-                for (int i = 0; i < docs; i++) {
-                    d = reader.document(i);
-                    cachedInstance.setByteArrayRepresentation(d.getField(fieldName).binaryValue().bytes, d.getField(fieldName).binaryValue().offset, d.getField(fieldName).binaryValue().length);
+        // put all respective features into an in-memory cache, one array per segment ...
+        featureCache = new SegmentCache<double[][]>() {
+            @Override
+            protected double[][] load(AtomicReader reader) throws IOException {
+                FeatureValues values = new FeatureValues(reader, fieldName);
+                Bits liveDocs = reader.getLiveDocs();
+                double[][] features = new double[reader.maxDoc()][];
+                BytesRef bytes;
+                for (int i = 0; i < features.length; i++) {
+                    if (liveDocs != null && !liveDocs.get(i)) continue; // if it is deleted, just leave it empty.
+                    bytes = values.get(i);
+                    if (bytes == null) continue;
+                    cachedInstance.setByteArrayRepresentation(bytes.bytes, bytes.offset, bytes.length);
                     // normalize features,o we can use L1
                     if (!halfDimensions) {
-                        featureCache.add(normalize(cachedInstance.getDoubleHistogram()));
+                        features[i] = normalize(cachedInstance.getDoubleHistogram());
                     } else {
-                        featureCache.add(crunch(cachedInstance.getDoubleHistogram()));
+                        features[i] = crunch(cachedInstance.getDoubleHistogram());
                     }
                 }
+                return features;
+            }
+        };
+        setReader(reader);
+    }
+
+    /**
+     * Sets the reader to search in, for instance after re-opening it with DirectoryReader.openIfChanged(..).
+     * Segments already cached for the previous reader are re-used, new segments are loaded.
+     *
+     * @param reader the index reader pointing to the index.
+     */
+    public void setReader(IndexReader reader) {
+        this.reader = reader;
+        if (isCaching && reader != null) {
+            try {
+                featureCache.warm(reader);
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -196,7 +219,6 @@ public class SingleNddCeddImageSearcher extends AbstractImageSearcher {
         double tmpDistance;
 
         // we use the in-memory cache to find the matching docs from the index.
-        int count = 0;
         double[] doubleHistogram;
         if (!halfDimensions) {
             doubleHistogram = normalize(lireFeature.getDoubleHistogram());
@@ -205,23 +227,29 @@ public class SingleNddCeddImageSearcher extends AbstractImageSearcher {
         }
         double[] tmp;
         int index = -1;
-        for (Iterator<double[]> iterator = featureCache.iterator(); iterator.hasNext(); ) {
-            tmp = iterator.next();
-            tmpDistance = MetricsUtils.distL1(doubleHistogram, tmp);
-            assert (tmpDistance >= 0);
-            if (tmpDistance < maxDistance) {
-                maxDistance = tmpDistance;
-                index = count;
+        for (AtomicReaderContext leaf : reader.leaves()) {
+            double[][] features = featureCache.get(leaf);
+            // Needed for check whether the document is deleted.
+            Bits liveDocs = leaf.reader().getLiveDocs();
+            for (int i = 0; i < features.length; i++) {
+                tmp = features[i];
+                if (tmp == null || (liveDocs != null && !liveDocs.get(i))) continue; // if it is deleted, just ignore it.
+                tmpDistance = MetricsUtils.distL1(doubleHistogram, tmp);
+                assert (tmpDistance >= 0);
+                if (tmpDistance < maxDistance) {
+                    maxDistance = tmpDistance;
+                    index = leaf.docBase + i;
+                }
             }
-            count++;
         }
-        this.docs.add(new SimpleResult((float) maxDistance, reader.document(index), index));
+        if (index >= 0) this.docs.collect(index, (float) maxDistance);
         return (float) maxDistance;
     }
 
     public SimpleResult findMostSimilar(LireFeature lireFeature) throws IOException {
         findSimilar(reader, lireFeature);
-        return docs.first();
+        if (docs.size() == 0) return null;
+        return new SimpleResult(docs.distance(0), reader.document(docs.docId(0)), docs.docId(0));
     }
 
     public SimpleResult[] findMostSimilar(LireFeature[] lireFeature) throws IOException {
@@ -234,13 +262,7 @@ public class SingleNddCeddImageSearcher extends AbstractImageSearcher {
 
         double tmpDistance;
 
-        int count = 0;
-        double[][] dhs = new double[0][];
-        try {
-            dhs = new double[length][featureCache.get(0).length];
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        double[][] dhs = new double[length][];
         for (int i = 0; i < dhs.length; i++) {
             if (!halfDimensions) {
                 dhs[i] = normalize(lireFeature[offset + i].getDoubleHistogram());
@@ -251,17 +273,22 @@ public class SingleNddCeddImageSearcher extends AbstractImageSearcher {
         double[] tmp;
         int[] indexes = new int[length];
         Arrays.fill(indexes, -1);
-        for (Iterator<double[]> iterator = featureCache.iterator(); iterator.hasNext(); ) {
-            tmp = iterator.next();
-            for (int i = 0; i < dhs.length; i++) {
-                tmpDistance = MetricsUtils.distL1(dhs[i], tmp);
-                assert (tmpDistance >= 0);
-                if (tmpDistance < maxDistanceArray[i]) {
-                    maxDistanceArray[i] = tmpDistance;
-                    indexes[i] = count;
+        for (AtomicReaderContext leaf : reader.leaves()) {
+            double[][] features = featureCache.get(leaf);
+            // Needed for check whether the document is deleted.
+            Bits liveDocs = leaf.reader().getLiveDocs();
+            for (int j = 0; j < features.length; j++) {
+                tmp = features[j];
+                if (tmp == null || (liveDocs != null && !liveDocs.get(j))) continue; // if it is deleted, just ignore it.
+                for (int i = 0; i < dhs.length; i++) {
+                    tmpDistance = MetricsUtils.distL1(dhs[i], tmp);
+                    assert (tmpDistance >= 0);
+                    if (tmpDistance < maxDistanceArray[i]) {
+                        maxDistanceArray[i] = tmpDistance;
+                        indexes[i] = leaf.docBase + j;
+                    }
                 }
             }
-            count++;
         }
         SimpleResult[] results = new SimpleResult[length];
         for (int i = 0; i < results.length; i++) {
@@ -299,11 +326,7 @@ public class SingleNddCeddImageSearcher extends AbstractImageSearcher {
                 lireFeature.setByteArrayRepresentation(doc.getField(fieldName).binaryValue().bytes, doc.getField(fieldName).binaryValue().offset, doc.getField(fieldName).binaryValue().length);
             float maxDistance = findSimilar(reader, lireFeature);
 
-            if (!useSimilarityScore) {
-                searchHits = new SimpleImageSearchHits(this.docs, maxDistance);
-            } else {
-                searchHits = new SimpleImageSearchHits(this.docs, maxDistance, useSimilarityScore);
-            }
+            searchHits = new SimpleImageSearchHits(this.docs, reader, maxDistance, useSimilarityScore);
         } catch (InstantiationException e) {
             logger.log(Level.SEVERE, "Error instantiating class for generic image searcher: " + e.getMessage());
         } catch (IllegalAccessException e) {
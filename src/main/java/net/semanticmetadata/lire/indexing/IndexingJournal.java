@@ -0,0 +1,229 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ * Updated: 18.10.26 16:40
+ */
+
+package net.semanticmetadata.lire.indexing;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.Directory;
+
+import java.io.*;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps track of the progress of a long running indexing process, so it can be resumed after a crash. The input is
+ * a list of items, e.g. files, processed in any order. The journal knows the position up to which all items are
+ * either in the index or have failed, and stores it with every commit as commit user data. On restart the indexer
+ * reads it with {@link #getCommitData(org.apache.lucene.store.Directory)} and continues from there, so only the work
+ * since the last commit has to be done again.
+ * <br/>
+ * Items which could not be indexed are written to a failure log, one line per item with the identifier and the
+ * reason separated by a tab, so they can be checked and indexed later on. Each item is logged once, also when the
+ * indexer resumes and runs into items which already failed before the crash.
+ */
+public class IndexingJournal implements Closeable {
+    /**
+     * Commit user data key for the position all items before have been handled.
+     */
+    public static final String POSITION = "lire.journal.position";
+    /**
+     * Commit user data key for the input, e.g. a directory or a list of files, the position refers to.
+     */
+    public static final String SOURCE = "lire.journal.source";
+    /**
+     * Commit user data key for the time of the commit in milliseconds.
+     */
+    public static final String TIMESTAMP = "lire.journal.timestamp";
+
+    private final BitSet done = new BitSet();
+    private int position;
+    private int failed = 0;
+    private PrintWriter failureLog = null;
+    // the identifiers in the failure log.
+    private final Set<String> logged = new HashSet<String>();
+
+    /**
+     * Creates a journal for a new run, the failed items are appended to the failure log.
+     *
+     * @param position   the position to start from, for instance from {@link #getPosition(java.util.Map, String)}
+     * @param failureLog the file to append failed items to, can be null.
+     * @throws IOException if the failure log cannot be opened.
+     */
+    public IndexingJournal(int position, File failureLog) throws IOException {
+        this(position, failureLog, false);
+    }
+
+    /**
+     * @param position   the position to start from, for instance from {@link #getPosition(java.util.Map, String)}
+     * @param failureLog the file to append failed items to, can be null.
+     * @param resume     true if a previous run on the same index is resumed. The items in the failure log are then
+     *                   read, see {@link #hasFailed(String)}, and not logged again.
+     * @throws IOException if the failure log cannot be read or opened.
+     */
+    public IndexingJournal(int position, File failureLog, boolean resume) throws IOException {
+        this.position = position;
+        if (failureLog == null) return;
+        if (resume && failureLog.exists()) {
+            BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(failureLog), "UTF-8"));
+            try {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    int tab = line.indexOf('\t');
+                    logged.add(tab < 0 ? line : line.substring(0, tab));
+                }
+            } finally {
+                br.close();
+            }
+        }
+        this.failureLog = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(failureLog, true), "UTF-8")));
+    }
+
+    /**
+     * Marks an item as handled, either it is in the index writer or it has been skipped because it was indexed before.
+     *
+     * @param position the position of the item in the input.
+     */
+    public synchronized void done(int position) {
+        if (position < this.position) return;
+        done.set(position);
+        while (done.get(this.position)) {
+            done.clear(this.position);
+            this.position++;
+        }
+    }
+
+    /**
+     * Marks an item as handled and writes it to the failure log, unless it is there already.
+     *
+     * @param position   the position of the item in the input.
+     * @param identifier the identifier of the item, e.g. the file name.
+     * @param reason     why the item could not be indexed.
+     */
+    public synchronized void failed(int position, String identifier, String reason) {
+        failed++;
+        if (failureLog != null && logged.add(identifier)) {
+            failureLog.println(identifier + '\t' + (reason == null ? "" : reason.replace('\n', ' ')));
+            failureLog.flush();
+        }
+        done(position);
+    }
+
+    /**
+     * @param identifier the identifier of an item, e.g. the file name.
+     * @return true if the item is in the failure log, either from this run or from the one resumed.
+     */
+    public synchronized boolean hasFailed(String identifier) {
+        return logged.contains(identifier);
+    }
+
+    /**
+     * @return the position all items before have been handled.
+     */
+    public synchronized int getPosition() {
+        return position;
+    }
+
+    /**
+     * @return the number of failed items since the journal has been created.
+     */
+    public synchronized int getFailedCount() {
+        return failed;
+    }
+
+    /**
+     * Commits the index and stores the current position with the commit. Items handled after the position has been
+     * taken may be part of the commit as well, so indexers have to skip or update items already in the index when
+     * they resume.
+     *
+     * @param writer the writer all handled items have been added to.
+     * @param source the input the positions refer to.
+     * @throws IOException in case the commit fails.
+     */
+    public void commit(IndexWriter writer, String source) throws IOException {
+        HashMap<String, String> data = new HashMap<String, String>(3);
+        data.put(POSITION, Integer.toString(getPosition()));
+        data.put(SOURCE, source);
+        data.put(TIMESTAMP, Long.toString(System.currentTimeMillis()));
+        synchronized (writer) {
+            writer.setCommitData(data);
+            writer.commit();
+        }
+    }
+
+    /**
+     * Reads the user data of the latest commit.
+     *
+     * @param directory the directory of the index.
+     * @return the user data, empty if there is no index yet.
+     * @throws IOException in case the index cannot be read.
+     */
+    public static Map<String, String> getCommitData(Directory directory) throws IOException {
+        if (!DirectoryReader.indexExists(directory)) return Collections.emptyMap();
+        List<IndexCommit> commits = DirectoryReader.listCommits(directory);
+        return commits.get(commits.size() - 1).getUserData();
+    }
+
+    /**
+     * @param commitData the user data of a commit.
+     * @param source     the input to be indexed.
+     * @return the position stored in the commit data if it refers to the given input, 0 otherwise.
+     */
+    public static int getPosition(Map<String, String> commitData, String source) {
+        if (source == null || !source.equals(commitData.get(SOURCE)) || commitData.get(POSITION) == null) return 0;
+        try {
+            return Integer.parseInt(commitData.get(POSITION));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    public synchronized void close() {
+        if (failureLog != null) failureLog.close();
+        failureLog = null;
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ * Updated: 18.10.26 16:20
+ */
+
+package net.semanticmetadata.lire.indexing.cache;
+
+import net.semanticmetadata.lire.imageanalysis.LireFeature;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A column store for the byte[] representations of one feature field. All features of an index are packed into
+ * one contiguous, off-heap buffer (either a direct ByteBuffer or a memory mapped file), the features are addressed
+ * by the Lucene docID. Deleted documents and documents without the field get an empty slot. Linear searchers can
+ * compute distances straight from the column and only load stored documents for the final results.
+ * <br/>
+ * Note that the docIDs are the ones of the IndexReader the column has been loaded from, so the column has to be
+ * reloaded if the index changes. Loading one column per segment with a {@link SegmentCache} avoids that, as
+ * segments do not change. A single column can hold up to 2 GB of feature data. Larger indexes have to be split
+ * into several columns this way, with the merge policy limiting the size of a segment, e.g. by
+ * TieredMergePolicy#setMaxMergedSegmentMB.
+ */
+public class FeatureColumn {
+    private final String fieldName;
+    private final ByteBuffer data;
+    private final int[] offsets;
+    private int maxLength = 0;
+
+    private FeatureColumn(String fieldName, ByteBuffer data, int[] offsets) {
+        this.fieldName = fieldName;
+        this.data = data;
+        this.offsets = offsets;
+        for (int i = 0; i < offsets.length - 1; i++) {
+            maxLength = Math.max(maxLength, offsets[i + 1] - offsets[i]);
+        }
+    }
+
+    /**
+     * Reads the features of the given field from all live documents of the reader into a direct ByteBuffer.
+     *
+     * @param reader    the reader to read the features from, either from doc values or stored fields.
+     * @param fieldName the name of the field the feature is stored in.
+     * @return the new column.
+     * @throws IOException in case the index cannot be read or the features exceed 2 GB.
+     */
+    public static FeatureColumn load(IndexReader reader, String fieldName) throws IOException {
+        DirectBufferOutputStream out = new DirectBufferOutputStream((int) Math.min(Integer.MAX_VALUE, Math.max(1024L, reader.maxDoc() * 64L)));
+        int[] offsets = readFeatures(reader, fieldName, out);
+        return new FeatureColumn(fieldName, out.getBuffer(), offsets);
+    }
+
+    /**
+     * Reads the features of the given field from all live documents of the reader, writes them to the given file
+     * and maps the file into memory. The page cache of the operating system is then used instead of the Java heap.
+     *
+     * @param reader    the reader to read the features from, either from doc values or stored fields.
+     * @param fieldName the name of the field the feature is stored in.
+     * @param file      the file the column data is written to. It is overwritten if it exists.
+     * @return the new column.
+     * @throws IOException in case the index cannot be read, the file cannot be written or the features exceed 2 GB.
+     */
+    public static FeatureColumn load(IndexReader reader, String fieldName, File file) throws IOException {
+        BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+        int[] offsets;
+        try {
+            offsets = readFeatures(reader, fieldName, out);
+        } finally {
+            out.close();
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new FeatureColumn(fieldName, mapped, offsets);
+        } finally {
+            // the mapping stays valid after the channel has been closed.
+            raf.close();
+        }
+    }
+
+    private static int[] readFeatures(IndexReader reader, String fieldName, OutputStream out) throws IOException {
+        int[] offsets = new int[reader.maxDoc() + 1];
+        long position = 0;
+        // features are read segment by segment, from the doc values if there are any.
+        for (AtomicReaderContext leaf : reader.leaves()) {
+            FeatureValues values = new FeatureValues(leaf.reader(), fieldName);
+            // Needed for check whether the document is deleted.
+            Bits liveDocs = leaf.reader().getLiveDocs();
+            for (int doc = 0; doc < leaf.reader().maxDoc(); doc++) {
+                offsets[leaf.docBase + doc] = (int) position;
+                if (liveDocs != null && !liveDocs.get(doc)) continue; // if it is deleted, just leave the slot empty.
+                BytesRef bytes = values.get(doc);
+                if (bytes == null) continue;
+                out.write(bytes.bytes, bytes.offset, bytes.length);
+                position += bytes.length;
+                if (position > Integer.MAX_VALUE)
+                    throw new IOException("Feature data of field " + fieldName + " exceeds 2 GB. Load one column per "
+                            + "segment with a SegmentCache and keep segments below 2 GB of feature data, e.g. with "
+                            + "TieredMergePolicy.setMaxMergedSegmentMB.");
+            }
+        }
+        offsets[reader.maxDoc()] = (int) position;
+        return offsets;
+    }
+
+    public String getFieldName() {
+        return fieldName;
+    }
+
+    /**
+     * @return the number of slots in the column, which is maxDoc of the reader it has been loaded from.
+     */
+    public int maxDoc() {
+        return offsets.length - 1;
+    }
+
+    /**
+     * @param docId the Lucene docID
+     * @return the length of the feature in bytes, 0 if there is none.
+     */
+    public int length(int docId) {
+        return offsets[docId + 1] - offsets[docId];
+    }
+
+    /**
+     * @return the number of bytes of the longest feature in the column.
+     */
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    /**
+     * @return the size of the packed feature data in bytes.
+     */
+    public long sizeInBytes() {
+        return offsets[offsets.length - 1];
+    }
+
+    /**
+     * Creates a new cursor for reading from the column. Cursors are cheap, but not thread safe, so create one
+     * per thread.
+     *
+     * @return a new cursor.
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Reads features from the column into a re-used buffer. Each cursor has its own view on the data.
+     */
+    public class Cursor {
+        private final ByteBuffer view = data.duplicate();
+        private byte[] buffer = new byte[Math.max(1, maxLength)];
+        private int length = 0;
+
+        /**
+         * Copies the feature of the given document to the buffer of the cursor.
+         *
+         * @param docId the Lucene docID
+         * @return the length of the feature in bytes, 0 if there is no feature for the document.
+         */
+        public int load(int docId) {
+            length = offsets[docId + 1] - offsets[docId];
+            if (length > 0) {
+                view.position(offsets[docId]);
+                view.get(buffer, 0, length);
+            }
+            return length;
+        }
+
+        /**
+         * Loads the feature of the given document into the given LireFeature instance.
+         *
+         * @param docId   the Lucene docID
+         * @param feature the instance to set the byte[] representation for.
+         * @return false if there is no feature for the document, true otherwise.
+         */
+        public boolean load(int docId, LireFeature feature) {
+            if (load(docId) == 0) return false;
+            feature.setByteArrayRepresentation(buffer, 0, length);
+            return true;
+        }
+
+        /**
+         * @return the buffer holding the last feature loaded. Only the first {@link #length()} bytes are valid.
+         */
+        public byte[] bytes() {
+            return buffer;
+        }
+
+        /**
+         * @return the length of the last feature loaded.
+         */
+        public int length() {
+            return length;
+        }
+    }
+
+    /**
+     * Writes into a direct ByteBuffer, which is doubled in size if it gets too small.
+     */
+    private static class DirectBufferOutputStream extends OutputStream {
+        private ByteBuffer buffer;
+
+        DirectBufferOutputStream(int initialCapacity) {
+            buffer = ByteBuffer.allocateDirect(initialCapacity);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            ensureCapacity(1);
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ensureCapacity(len);
+            buffer.put(b, off, len);
+        }
+
+        private void ensureCapacity(int len) {
+            if (buffer.remaining() < len) {
+                long capacity = Math.max((long) buffer.capacity() * 2, (long) buffer.position() + len);
+                ByteBuffer larger = ByteBuffer.allocateDirect((int) Math.min(capacity, Integer.MAX_VALUE));
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+        }
+
+        /**
+         * @return a read only buffer trimmed to the data written.
+         */
+        ByteBuffer getBuffer() {
+            ByteBuffer result = buffer;
+            if (buffer.remaining() > 0) {
+                // trim to the actual size to give back the unused direct memory.
+                result = ByteBuffer.allocateDirect(Math.max(1, buffer.position()));
+                buffer.flip();
+                result.put(buffer);
+            }
+            result.flip();
+            return result.asReadOnlyBuffer();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ * Updated: 18.10.26 16:26
+ */
+
+package net.semanticmetadata.lire.indexing.cache;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Reads the byte[] representations of one feature field from a single segment. If the feature has been indexed
+ * as {@link org.apache.lucene.document.BinaryDocValuesField} (see
+ * {@link net.semanticmetadata.lire.impl.GenericDocumentBuilder.Mode#DocValues}) the doc values are used, which
+ * are read sequentially without any decompression. Otherwise the stored documents are loaded.
+ * <br/>
+ * Instances are not thread safe, create one per segment and thread.
+ */
+public class FeatureValues {
+    private final AtomicReader reader;
+    private final String fieldName;
+    private final BinaryDocValues docValues;
+    private final Set<String> fieldsToLoad;
+
+    /**
+     * @param reader    the reader of the segment, for instance from {@link org.apache.lucene.index.IndexReader#leaves()}
+     * @param fieldName the name of the field the feature is stored in.
+     * @throws IOException in case the index cannot be read.
+     */
+    public FeatureValues(AtomicReader reader, String fieldName) throws IOException {
+        this.reader = reader;
+        this.fieldName = fieldName;
+        this.docValues = reader.getBinaryDocValues(fieldName);
+        this.fieldsToLoad = Collections.singleton(fieldName);
+    }
+
+    /**
+     * @return true if the features are read from doc values, false if the stored documents are used.
+     */
+    public boolean hasDocValues() {
+        return docValues != null;
+    }
+
+    /**
+     * Reads the feature of the given document. Note that the returned BytesRef may be re-used by the next call.
+     *
+     * @param docId the docID within the segment.
+     * @return the bytes of the feature or null if there is no feature for the document.
+     * @throws IOException in case the index cannot be read.
+     */
+    public BytesRef get(int docId) throws IOException {
+        BytesRef bytes;
+        if (docValues != null) {
+            bytes = docValues.get(docId);
+        } else {
+            Document d = reader.document(docId, fieldsToLoad);
+            IndexableField field = d.getField(fieldName);
+            bytes = (field == null) ? null : field.binaryValue();
+        }
+        if (bytes == null || bytes.length == 0) return null;
+        return bytes;
+    }
+}
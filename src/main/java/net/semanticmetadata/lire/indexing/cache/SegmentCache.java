@@ -0,0 +1,170 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ * Updated: 18.10.26 16:28
+ */
+
+package net.semanticmetadata.lire.indexing.cache;
+
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.IndexReader;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Caches data loaded from the segments of an index, for instance the features for linear search. Entries are keyed
+ * by the core cache key of the segment, which stays the same when a reader is re-opened with
+ * {@link org.apache.lucene.index.DirectoryReader#openIfChanged(org.apache.lucene.index.DirectoryReader)}, even if
+ * documents of the segment have been deleted in the meantime. So after a re-open only new segments are loaded, and
+ * entries of segments that have been merged away are dropped as soon as their core is closed.
+ * <br/>
+ * As deletions do not change the core, the cached data may contain deleted documents. Use the live docs of the
+ * current segment reader to skip them.
+ * <br/>
+ * Segments are loaded outside of the lock of the cache, so searches on segments already cached go on while a new
+ * segment, e.g. after a near-real-time re-open, is loaded. Threads asking for a segment being loaded wait for it.
+ *
+ * @param <T> the type of data cached per segment.
+ */
+public abstract class SegmentCache<T> {
+    // a task per segment core, which loads the data in the first thread asking for it.
+    private final Map<Object, FutureTask<T>> cache = new HashMap<Object, FutureTask<T>>();
+
+    /**
+     * Removes entries of closed segments.
+     */
+    private final AtomicReader.CoreClosedListener evictor = new AtomicReader.CoreClosedListener() {
+        public void onClose(Object ownerCoreCacheKey) {
+            synchronized (cache) {
+                cache.remove(ownerCoreCacheKey);
+            }
+        }
+    };
+
+    /**
+     * Loads the data for one segment. Called at most once per segment core.
+     *
+     * @param reader the reader of the segment, docIDs are the ones within the segment.
+     * @return the data to cache, must not be null.
+     * @throws IOException in case the index cannot be read.
+     */
+    protected abstract T load(AtomicReader reader) throws IOException;
+
+    /**
+     * Gets the data for the given segment, loads it if it is not in the cache yet.
+     *
+     * @param leaf the segment, for instance from {@link IndexReader#leaves()}
+     * @return the cached data.
+     * @throws IOException in case the index cannot be read.
+     */
+    public T get(AtomicReaderContext leaf) throws IOException {
+        final AtomicReader reader = leaf.reader();
+        Object key = reader.getCoreCacheKey();
+        FutureTask<T> task;
+        boolean loading = false;
+        synchronized (cache) {
+            task = cache.get(key);
+            if (task == null) {
+                task = new FutureTask<T>(new Callable<T>() {
+                    public T call() throws IOException {
+                        return load(reader);
+                    }
+                });
+                cache.put(key, task);
+                loading = true;
+            }
+        }
+        if (loading) {
+            reader.addCoreClosedListener(evictor);
+            task.run();
+        }
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for segment " + reader);
+        } catch (ExecutionException e) {
+            // failed loads are not cached, the next call tries again.
+            synchronized (cache) {
+                if (cache.get(key) == task) cache.remove(key);
+            }
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Loads all segments of the given reader which are not in the cache yet.
+     *
+     * @param reader the reader to load the segments of.
+     * @throws IOException in case the index cannot be read.
+     */
+    public void warm(IndexReader reader) throws IOException {
+        for (AtomicReaderContext leaf : reader.leaves()) {
+            get(leaf);
+        }
+    }
+
+    /**
+     * @return the number of segments in the cache.
+     */
+    public int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    /**
+     * Removes all entries from the cache.
+     */
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+}
@@ -215,6 +215,18 @@ public class BitSampling {
         return hashResults;
     }
 
+    /**
+     * Returns an instance with the hash functions read last, which keeps working if other functions are read
+     * later on.
+     *
+     * @return the hasher.
+     * @see #readHashFunctions()
+     */
+    public static BitSamplingHasher getHasher() {
+        if (hashes == null) throw new IllegalStateException("No hash functions have been read yet.");
+        return new BitSamplingHasher(hashes);
+    }
+
     public static void setW(double w) {
         BitSampling.w = w;
     }
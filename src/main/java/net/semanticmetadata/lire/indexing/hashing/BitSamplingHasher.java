@@ -0,0 +1,259 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ * Updated: 18.10.26 16:56
+ */
+
+package net.semanticmetadata.lire.indexing.hashing;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Bit sampling hash functions as an instance, see {@link BitSampling}. Each bundle of functions gives one hash
+ * value, one bit per function, which is set if the projection of the feature vector on the function's random
+ * vector is not negative. The hash values are the same as the ones of {@link BitSampling#generateHashes(double[])}
+ * with the same functions.
+ * <br/>
+ * For multi-probe queries the bits with the smallest absolute projection are the least confident ones. The probes
+ * of a bundle are its hash value with sets of these bits flipped, in the order of the sum of squared projections
+ * of the flipped bits, as in Lv et al., "Multi-probe LSH: efficient indexing for high-dimensional similarity
+ * search", VLDB 2007.
+ */
+public class BitSamplingHasher implements Hasher {
+    private final int bits, dimensions, numFunctionBundles;
+    /**
+     * All functions in one array, the vector of bit j of bundle i starts at (i * bits + j) * dimensions.
+     */
+    private final double[] functions;
+
+    /**
+     * Creates new random hash functions.
+     *
+     * @param bits               the number of bits per hash value, at most 31.
+     * @param numFunctionBundles the number of hash values per feature vector.
+     * @param dimensions         the maximum length of the feature vectors.
+     * @param w                  the values of the random vectors are drawn uniformly from [-w/2, w/2).
+     * @param seed               the seed for the random vectors.
+     */
+    public BitSamplingHasher(int bits, int numFunctionBundles, int dimensions, double w, long seed) {
+        this(bits, numFunctionBundles, dimensions);
+        Random random = new Random(seed);
+        for (int i = 0; i < functions.length; i++) {
+            functions[i] = (float) (random.nextDouble() * w - w / 2);
+        }
+    }
+
+    /**
+     * Uses the given hash functions, for instance the ones returned by {@link BitSampling#readHashFunctions()}.
+     *
+     * @param hashes the functions, [bundle][bit][dimension].
+     */
+    public BitSamplingHasher(double[][][] hashes) {
+        this(hashes[0].length, hashes.length, hashes[0][0].length);
+        for (int i = 0; i < numFunctionBundles; i++) {
+            for (int j = 0; j < bits; j++) {
+                System.arraycopy(hashes[i][j], 0, functions, (i * bits + j) * dimensions, dimensions);
+            }
+        }
+    }
+
+    private BitSamplingHasher(int bits, int numFunctionBundles, int dimensions) {
+        if (bits < 1 || bits > 31) throw new IllegalArgumentException("Number of bits has to be in [1, 31].");
+        this.bits = bits;
+        this.numFunctionBundles = numFunctionBundles;
+        this.dimensions = dimensions;
+        functions = new double[numFunctionBundles * bits * dimensions];
+    }
+
+    /**
+     * Reads hash functions in the format of {@link BitSampling#generateHashFunctions()}.
+     *
+     * @param in the stream to read from, it is not closed.
+     * @return the new hasher.
+     * @throws IOException
+     */
+    public static BitSamplingHasher read(InputStream in) throws IOException {
+        ObjectInputStream ois = new ObjectInputStream(new GZIPInputStream(in));
+        int bits = ois.readInt();
+        int dimensions = ois.readInt();
+        int numFunctionBundles = ois.readInt();
+        BitSamplingHasher result = new BitSamplingHasher(bits, numFunctionBundles, dimensions);
+        for (int i = 0; i < result.functions.length; i++) {
+            result.functions[i] = ois.readFloat();
+        }
+        return result;
+    }
+
+    /**
+     * Writes the hash functions in the format of {@link BitSampling#generateHashFunctions()}.
+     *
+     * @param out the stream to write to, it is not closed.
+     * @throws IOException
+     */
+    public void write(OutputStream out) throws IOException {
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        ObjectOutputStream oos = new ObjectOutputStream(gzip);
+        oos.writeInt(bits);
+        oos.writeInt(dimensions);
+        oos.writeInt(numFunctionBundles);
+        for (double function : functions) {
+            oos.writeFloat((float) function);
+        }
+        oos.flush();
+        gzip.finish();
+    }
+
+    public int[] hash(double[] histogram) {
+        checkLength(histogram);
+        int[] result = new int[numFunctionBundles];
+        for (int i = 0; i < numFunctionBundles; i++) {
+            for (int j = 0; j < bits; j++) {
+                if (!(project(histogram, i, j) < 0)) result[i] |= 1 << j;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Multi-probe hashing, returns for each bundle the hash value and numProbes values with the least confident
+     * bits flipped.
+     *
+     * @param histogram the feature vector.
+     * @param numProbes the number of additional hash values per bundle.
+     * @return the hash values and probes per bundle.
+     */
+    public int[][] probe(double[] histogram, int numProbes) {
+        checkLength(histogram);
+        numProbes = (int) Math.min(numProbes, (1L << bits) - 1);
+        int[][] result = new int[numFunctionBundles][];
+        double[] projections = new double[bits];
+        int[] order = new int[bits];
+        PriorityQueue<Perturbation> queue = new PriorityQueue<Perturbation>();
+        for (int i = 0; i < numFunctionBundles; i++) {
+            int hash = 0;
+            for (int j = 0; j < bits; j++) {
+                double value = project(histogram, i, j);
+                if (!(value < 0)) hash |= 1 << j;
+                projections[j] = value * value;
+            }
+            // bits by confidence, least confident first:
+            for (int j = 0; j < bits; j++) {
+                int pos = j;
+                while (pos > 0 && projections[order[pos - 1]] > projections[j]) {
+                    order[pos] = order[pos - 1];
+                    pos--;
+                }
+                order[pos] = j;
+            }
+            result[i] = new int[numProbes + 1];
+            result[i][0] = hash;
+            // perturbation sets in the order of their score, see Lv et al., section 4.3
+            queue.clear();
+            queue.add(new Perturbation(1, 0, projections[order[0]]));
+            for (int p = 1; p <= numProbes; p++) {
+                Perturbation next = queue.poll();
+                int flip = 0;
+                for (int k = 0; k <= next.max; k++) {
+                    if ((next.positions & (1 << k)) != 0) flip |= 1 << order[k];
+                }
+                result[i][p] = hash ^ flip;
+                if (next.max + 1 < bits) {
+                    double score = projections[order[next.max + 1]];
+                    // shift: replace the last position with the next one.
+                    queue.add(new Perturbation((next.positions & ~(1 << next.max)) | (1 << (next.max + 1)), next.max + 1,
+                            next.score - projections[order[next.max]] + score));
+                    // expand: add the next position.
+                    queue.add(new Perturbation(next.positions | (1 << (next.max + 1)), next.max + 1, next.score + score));
+                }
+            }
+        }
+        return result;
+    }
+
+    private double project(double[] histogram, int bundle, int bit) {
+        int offset = (bundle * bits + bit) * dimensions;
+        double val = 0d;
+        for (int k = 0; k < histogram.length; k++) {
+            val += functions[offset + k] * histogram[k];
+        }
+        return val;
+    }
+
+    private void checkLength(double[] histogram) {
+        if (histogram.length > dimensions)
+            throw new IllegalArgumentException("Feature vector too long: " + histogram.length + " > " + dimensions);
+    }
+
+    public int getBits() {
+        return bits;
+    }
+
+    public int getDimensions() {
+        return dimensions;
+    }
+
+    public int getNumFunctionBundles() {
+        return numFunctionBundles;
+    }
+
+    /**
+     * A set of bit positions in the order of confidence to flip.
+     */
+    private static class Perturbation implements Comparable<Perturbation> {
+        final int positions, max;
+        final double score;
+
+        Perturbation(int positions, int max, double score) {
+            this.positions = positions;
+            this.max = max;
+            this.score = score;
+        }
+
+        public int compareTo(Perturbation o) {
+            return Double.compare(score, o.score);
+        }
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ * Updated: 18.10.26 17:01
+ */
+
+package net.semanticmetadata.lire.indexing.hashing;
+
+import net.semanticmetadata.lire.impl.TopKCollector;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.util.Bits;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * The bit sampling hashes of all documents of an index as packed binary codes in a memory mapped file, for brute
+ * force search by Hamming distance. With the default {@link BitSampling} functions a signature has 100 * 12 bits,
+ * i.e. 19 longs, and the distance of two signatures takes 19 XORs and {@link Long#bitCount(long)}s, which is a lot
+ * faster than the float distance functions of the features. The signatures are addressed by the docID of the
+ * reader the index has been created from, so it has to be created again if the Lucene index changes.
+ * <br/>
+ * File format, little endian: the magic bytes "LHAM", the version (int), maxDoc (int), the number of longs per
+ * signature (int), the bits per hash value (int), the number of hash values (int) and 8 reserved bytes, then one
+ * bit per document telling if it has a signature, padded to longs, followed by the signatures.
+ */
+public class HammingIndex {
+    private static final int MAGIC = 0x4D41484C; // "LHAM" in little endian
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 32;
+    /**
+     * Each mapped buffer holds at most 1 GB of signatures.
+     */
+    private static final long MAX_CHUNK_BYTES = 1L << 30;
+
+    private final int maxDoc, numWords, bits, numBundles;
+    private final long[] present;
+    private final LongBuffer[] chunks;
+    private final int docsPerChunk;
+
+    private HammingIndex(int maxDoc, int numWords, int bits, int numBundles, long[] present, LongBuffer[] chunks, int docsPerChunk) {
+        this.maxDoc = maxDoc;
+        this.numWords = numWords;
+        this.bits = bits;
+        this.numBundles = numBundles;
+        this.present = present;
+        this.chunks = chunks;
+        this.docsPerChunk = docsPerChunk;
+    }
+
+    /**
+     * Packs hash values into a binary code, hash value i takes the bits i * bits to (i + 1) * bits - 1.
+     *
+     * @param hashes the hash values, for instance from {@link BitSamplingHasher#hash(double[])}.
+     * @param bits   the number of bits per hash value.
+     * @return the code, (hashes.length * bits + 63) / 64 longs.
+     */
+    public static long[] pack(int[] hashes, int bits) {
+        long[] result = new long[numWords(hashes.length, bits)];
+        long mask = (1L << bits) - 1;
+        for (int i = 0; i < hashes.length; i++) {
+            long value = hashes[i] & mask;
+            int position = i * bits;
+            int word = position >>> 6, offset = position & 63;
+            result[word] |= value << offset;
+            if (offset + bits > 64) result[word + 1] |= value >>> (64 - offset);
+        }
+        return result;
+    }
+
+    private static int numWords(int numBundles, int bits) {
+        return (numBundles * bits + 63) >>> 6;
+    }
+
+    /**
+     * Reads the stored hashes of all live documents, as written by
+     * {@link net.semanticmetadata.lire.impl.GenericDocumentBuilder}, packs them, writes them to the given file and
+     * maps it.
+     *
+     * @param reader          the index.
+     * @param hashesFieldName the name of the field with the hash values.
+     * @param bits            the number of bits per hash value, see {@link BitSamplingHasher#getBits()}.
+     * @param numBundles      the number of hash values per document, see {@link BitSamplingHasher#getNumFunctionBundles()}.
+     * @param file            the file to write to. It is written to a temporary file first, which then replaces it,
+     *                        so indexes already opened from the file can still be used.
+     * @return the mapped index.
+     * @throws IOException
+     */
+    public static HammingIndex create(IndexReader reader, String hashesFieldName, int bits, int numBundles, File file) throws IOException {
+        int maxDoc = reader.maxDoc();
+        int numWords = numWords(numBundles, bits);
+        long[] present = new long[(maxDoc + 63) >>> 6];
+        Set<String> fields = Collections.singleton(hashesFieldName);
+        File tmp = new File(file.getPath() + ".tmp");
+        boolean written = false;
+        RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+        try {
+            raf.setLength(0);
+            FileChannel channel = raf.getChannel();
+            // the header and the bit set of present documents are known after the signatures, so they are written last.
+            channel.position(HEADER_LENGTH + present.length * 8L);
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16);
+            ByteBuffer buffer = ByteBuffer.allocate(numWords * 8).order(ByteOrder.LITTLE_ENDIAN);
+            for (AtomicReaderContext leaf : reader.leaves()) {
+                Bits liveDocs = leaf.reader().getLiveDocs();
+                for (int i = 0; i < leaf.reader().maxDoc(); i++) {
+                    // deleted documents and ones without hashes get an empty slot.
+                    Arrays.fill(buffer.array(), (byte) 0);
+                    buffer.clear();
+                    if (liveDocs == null || liveDocs.get(i)) {
+                        Document d = leaf.reader().document(i, fields);
+                        String value = d.get(hashesFieldName);
+                        if (value != null) {
+                            int[] hashes = HashBucketIndex.parseHashes(value);
+                            if (hashes.length != numBundles)
+                                throw new IllegalArgumentException("Document " + (leaf.docBase + i) + " has " + hashes.length + " hash values instead of " + numBundles);
+                            for (long word : pack(hashes, bits)) buffer.putLong(word);
+                            int doc = leaf.docBase + i;
+                            present[doc >>> 6] |= 1L << (doc & 63);
+                        }
+                    }
+                    out.write(buffer.array(), 0, numWords * 8);
+                }
+            }
+            out.flush();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH + present.length * 8).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(maxDoc).putInt(numWords).putInt(bits).putInt(numBundles).putLong(0);
+            for (long word : present) header.putLong(word);
+            header.flip();
+            while (header.hasRemaining()) channel.write(header, header.position());
+            written = true;
+        } finally {
+            raf.close();
+            if (!written) tmp.delete();
+        }
+        // the complete file replaces the old one, which stays valid for searchers that have it mapped.
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        return open(file);
+    }
+
+    /**
+     * Maps an index written by {@link #create(IndexReader, String, int, int, File)}.
+     *
+     * @param file the file.
+     * @return the mapped index.
+     * @throws IOException if the file cannot be read or is not a Hamming index.
+     */
+    public static HammingIndex open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt() != MAGIC) throw new IOException("Not a Hamming index: " + file.getPath());
+            int version = header.getInt();
+            if (version != VERSION) throw new IOException("Unsupported version " + version + " of Hamming index " + file.getPath());
+            int maxDoc = header.getInt(), numWords = header.getInt(), bits = header.getInt(), numBundles = header.getInt();
+            long[] present = new long[(maxDoc + 63) >>> 6];
+            channel.map(FileChannel.MapMode.READ_ONLY, HEADER_LENGTH, present.length * 8L).order(ByteOrder.LITTLE_ENDIAN).asLongBuffer().get(present);
+            long start = HEADER_LENGTH + present.length * 8L;
+            if (channel.size() != start + (long) maxDoc * numWords * 8)
+                throw new IOException("Hamming index " + file.getPath() + " is truncated.");
+            int docsPerChunk = (int) Math.max(1, MAX_CHUNK_BYTES / (numWords * 8L));
+            LongBuffer[] chunks = new LongBuffer[Math.max(1, (maxDoc + docsPerChunk - 1) / docsPerChunk)];
+            for (int i = 0; i < chunks.length; i++) {
+                int docs = Math.min(docsPerChunk, maxDoc - i * docsPerChunk);
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start + (long) i * docsPerChunk * numWords * 8, (long) docs * numWords * 8)
+                        .order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+            }
+            // the mappings stay valid after the channel has been closed.
+            return new HammingIndex(maxDoc, numWords, bits, numBundles, present, chunks, docsPerChunk);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * @param docId the docID.
+     * @return true if there is a signature for the document.
+     */
+    public boolean exists(int docId) {
+        return (present[docId >>> 6] & (1L << (docId & 63))) != 0;
+    }
+
+    /**
+     * @param query the packed query code.
+     * @param docId the docID, which has to have a signature.
+     * @return the number of different bits.
+     */
+    public int distance(long[] query, int docId) {
+        LongBuffer chunk = chunks[docId / docsPerChunk];
+        int offset = (docId % docsPerChunk) * numWords;
+        int distance = 0;
+        for (int i = 0; i < numWords; i++) {
+            distance += Long.bitCount(query[i] ^ chunk.get(offset + i));
+        }
+        return distance;
+    }
+
+    /**
+     * Finds the documents with the smallest Hamming distance to the query in one thread.
+     *
+     * @param query    the packed query code, see {@link #pack(int[], int)}.
+     * @param k        the number of results.
+     * @param liveDocs documents to consider, for instance from {@link org.apache.lucene.index.MultiFields#getLiveDocs(IndexReader)}, null for all.
+     * @return the results with the Hamming distance as distance.
+     */
+    public TopKCollector search(long[] query, int k, Bits liveDocs) {
+        TopKCollector results = new TopKCollector(k);
+        search(query, liveDocs, 0, maxDoc, results);
+        return results;
+    }
+
+    /**
+     * Finds the documents with the smallest Hamming distance to the query, the documents are split into ranges
+     * searched in parallel.
+     *
+     * @param query    the packed query code, see {@link #pack(int[], int)}.
+     * @param k        the number of results.
+     * @param liveDocs documents to consider, null for all.
+     * @param pool     the pool to run the search in.
+     * @param parts    the number of ranges, typically the number of threads of the pool.
+     * @return the results with the Hamming distance as distance.
+     */
+    public TopKCollector search(final long[] query, final int k, final Bits liveDocs, ExecutorService pool, int parts) {
+        parts = Math.max(1, Math.min(parts, maxDoc));
+        if (parts == 1) return search(query, k, liveDocs);
+        ArrayList<Future<TopKCollector>> futures = new ArrayList<Future<TopKCollector>>(parts);
+        for (int p = 0; p < parts; p++) {
+            final int from = (int) ((long) maxDoc * p / parts), to = (int) ((long) maxDoc * (p + 1) / parts);
+            futures.add(pool.submit(new Callable<TopKCollector>() {
+                public TopKCollector call() {
+                    TopKCollector results = new TopKCollector(k);
+                    search(query, liveDocs, from, to, results);
+                    return results;
+                }
+            }));
+        }
+        TopKCollector results = new TopKCollector(k);
+        for (Future<TopKCollector> future : futures) {
+            try {
+                results.merge(future.get());
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+        return results;
+    }
+
+    private void search(long[] query, Bits liveDocs, int from, int to, TopKCollector results) {
+        if (query.length != numWords)
+            throw new IllegalArgumentException("Query has " + query.length + " longs instead of " + numWords);
+        // docs are visited in ascending order, so one with the same distance as the farthest result cannot get in.
+        int max = Integer.MAX_VALUE;
+        for (int doc = from; doc < to; doc++) {
+            if (!exists(doc) || (liveDocs != null && !liveDocs.get(doc))) continue;
+            LongBuffer chunk = chunks[doc / docsPerChunk];
+            int offset = (doc % docsPerChunk) * numWords;
+            int distance = 0;
+            for (int i = 0; i < numWords && distance < max; i++) {
+                distance += Long.bitCount(query[i] ^ chunk.get(offset + i));
+            }
+            if (distance < max && results.collect(doc, distance)) {
+                float limit = results.getMaxDistance();
+                if (limit < Float.MAX_VALUE) max = (int) limit;
+            }
+        }
+    }
+
+    public int maxDoc() {
+        return maxDoc;
+    }
+
+    /**
+     * @return the number of longs per signature.
+     */
+    public int getNumWords() {
+        return numWords;
+    }
+
+    public int getBits() {
+        return bits;
+    }
+
+    public int getNumBundles() {
+        return numBundles;
+    }
+}
@@ -0,0 +1,378 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ * Updated: 18.10.26 16:58
+ */
+
+package net.semanticmetadata.lire.indexing.hashing;
+
+import net.semanticmetadata.lire.indexing.cache.SegmentCache;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.util.Bits;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-memory inverted index from hash buckets to documents for the candidate generation of hashing based search.
+ * A bucket is the pair of the position of a hash value, i.e. the function bundle, and the value itself, so equal
+ * values of different bundles are different buckets, unlike the terms of the hash field in the Lucene index. The
+ * postings are docIDs in one int array, with the start of each bucket in another one.
+ * <br/>
+ * Candidates are the documents sharing the most buckets with the query. The collisions are counted in a primitive
+ * array per thread, which is reset by the list of touched documents only, and the top candidates are taken by a
+ * counting sort over the number of collisions, as this number is at most the number of bundles. So there is no
+ * scoring and no priority queue involved.
+ * <br/>
+ * The postings take four bytes per document and bundle, so for 100 bundles an index of one million images needs
+ * about 400 MB.
+ */
+public class HashBucketIndex {
+    private static final Map<String, SegmentCache<HashBucketIndex>> caches = new HashMap<String, SegmentCache<HashBucketIndex>>();
+    private static final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
+    private final int maxDoc;
+    /**
+     * Open addressing table from bucket key to bucket number, -1 marks an empty slot.
+     */
+    private long[] keys = new long[1024];
+    private int[] buckets = new int[1024];
+    private int mask = 1023;
+    private int numBuckets = 0;
+    /**
+     * The postings of bucket i are postings[start[i]] to postings[start[i + 1] - 1], in ascending order.
+     */
+    private int[] start;
+    private int[] postings;
+
+    /**
+     * Creates the posting table for the given hash values.
+     *
+     * @param hashes the hash values per docID, one per bundle, null for documents without hashes.
+     */
+    public HashBucketIndex(int[][] hashes) {
+        maxDoc = hashes.length;
+        long numPostings = 0;
+        for (int[] h : hashes) {
+            if (h != null) numPostings += h.length;
+        }
+        if (numPostings > Integer.MAX_VALUE - 8)
+            throw new IllegalArgumentException("Too many hash values for one segment: " + numPostings);
+        Arrays.fill(buckets, -1);
+        // count the postings per bucket:
+        int[] sizes = new int[256];
+        for (int[] h : hashes) {
+            if (h == null) continue;
+            for (int bundle = 0; bundle < h.length; bundle++) {
+                long key = key(bundle, h[bundle]);
+                int slot = slot(key);
+                if (buckets[slot] < 0) {
+                    if (numBuckets == sizes.length) sizes = Arrays.copyOf(sizes, sizes.length * 2);
+                    keys[slot] = key;
+                    buckets[slot] = numBuckets++;
+                    if (numBuckets * 2 > buckets.length) {
+                        grow();
+                        slot = slot(key);
+                    }
+                }
+                sizes[buckets[slot]]++;
+            }
+        }
+        start = new int[numBuckets + 1];
+        for (int i = 0; i < numBuckets; i++) {
+            start[i + 1] = start[i] + sizes[i];
+        }
+        // fill them in docID order, sizes is re-used as the write position:
+        System.arraycopy(start, 0, sizes, 0, numBuckets);
+        postings = new int[(int) numPostings];
+        for (int doc = 0; doc < maxDoc; doc++) {
+            int[] h = hashes[doc];
+            if (h == null) continue;
+            for (int bundle = 0; bundle < h.length; bundle++) {
+                postings[sizes[buckets[slot(key(bundle, h[bundle]))]]++] = doc;
+            }
+        }
+    }
+
+    /**
+     * Reads the hash values of a segment from the stored hash field, as written by
+     * {@link net.semanticmetadata.lire.impl.GenericDocumentBuilder}, and creates the posting table for it.
+     *
+     * @param reader          the segment.
+     * @param hashesFieldName the name of the field with the hash values.
+     * @return the new index, its docIDs are the ones of the segment.
+     * @throws IOException
+     */
+    public static HashBucketIndex load(AtomicReader reader, String hashesFieldName) throws IOException {
+        Set<String> fields = Collections.singleton(hashesFieldName);
+        int[][] hashes = new int[reader.maxDoc()][];
+        for (int i = 0; i < hashes.length; i++) {
+            Document d = reader.document(i, fields);
+            String value = d.get(hashesFieldName);
+            if (value != null) hashes[i] = parseHashes(value);
+        }
+        return new HashBucketIndex(hashes);
+    }
+
+    /**
+     * Gets the posting table of the given segment from a cache shared by all searchers, loading it with
+     * {@link #load(AtomicReader, String)} if necessary.
+     *
+     * @param leaf            the segment.
+     * @param hashesFieldName the name of the field with the hash values.
+     * @return the index of the segment.
+     * @throws IOException
+     */
+    public static HashBucketIndex get(AtomicReaderContext leaf, final String hashesFieldName) throws IOException {
+        SegmentCache<HashBucketIndex> cache;
+        synchronized (caches) {
+            cache = caches.get(hashesFieldName);
+            if (cache == null) {
+                cache = new SegmentCache<HashBucketIndex>() {
+                    @Override
+                    protected HashBucketIndex load(AtomicReader reader) throws IOException {
+                        return HashBucketIndex.load(reader, hashesFieldName);
+                    }
+                };
+                caches.put(hashesFieldName, cache);
+            }
+        }
+        return cache.get(leaf);
+    }
+
+    /**
+     * Finds the documents of the whole index sharing the most buckets with the query, using the posting tables of
+     * {@link #get(AtomicReaderContext, String)}. Deleted documents are skipped.
+     *
+     * @param reader          the index.
+     * @param hashesFieldName the name of the field with the hash values.
+     * @param query           the hash values per bundle, the first one and optionally probes, see {@link Hasher}.
+     * @param maxCandidates   the maximum number of candidates.
+     * @return the docIDs of the candidates, the ones with the most collisions first and by docID within the same
+     * number of collisions.
+     * @throws IOException
+     */
+    public static int[] getCandidates(IndexReader reader, String hashesFieldName, int[][] query, int maxCandidates) throws IOException {
+        Selection selection = new Selection(query.length);
+        for (AtomicReaderContext leaf : reader.leaves()) {
+            get(leaf, hashesFieldName).count(query, leaf.reader().getLiveDocs(), leaf.docBase, selection);
+        }
+        return selection.top(maxCandidates);
+    }
+
+    /**
+     * Finds the documents sharing the most buckets with the query.
+     *
+     * @param query         the hash values per bundle, the first one and optionally probes, see {@link Hasher}.
+     * @param liveDocs      the documents to consider, null for all.
+     * @param maxCandidates the maximum number of candidates.
+     * @return the docIDs of the candidates, the ones with the most collisions first and by docID within the same
+     * number of collisions.
+     */
+    public int[] getCandidates(int[][] query, Bits liveDocs, int maxCandidates) {
+        Selection selection = new Selection(query.length);
+        count(query, liveDocs, 0, selection);
+        return selection.top(maxCandidates);
+    }
+
+    private void count(int[][] query, Bits liveDocs, int docBase, Selection selection) {
+        Scratch s = scratch.get();
+        s.ensureCapacity(maxDoc);
+        int[] counts = s.counts, touched = s.touched;
+        int numTouched = 0;
+        for (int bundle = 0; bundle < query.length; bundle++) {
+            for (int value : query[bundle]) {
+                int bucket = buckets[slot(key(bundle, value))];
+                if (bucket < 0) continue;
+                for (int i = start[bucket]; i < start[bucket + 1]; i++) {
+                    int doc = postings[i];
+                    if (counts[doc]++ == 0) touched[numTouched++] = doc;
+                }
+            }
+        }
+        // touched documents in docID order, so ties are broken the same way in each run.
+        Arrays.sort(touched, 0, numTouched);
+        for (int i = 0; i < numTouched; i++) {
+            int doc = touched[i];
+            if (liveDocs == null || liveDocs.get(doc)) selection.add(docBase + doc, counts[doc]);
+            counts[doc] = 0;
+        }
+    }
+
+    /**
+     * Parses the hash values as written by {@link net.semanticmetadata.lire.utils.SerializationUtils#arrayToString(int[])},
+     * i.e. integers separated by spaces.
+     *
+     * @param value the string.
+     * @return the hash values per bundle.
+     */
+    public static int[] parseHashes(String value) {
+        int[] result = new int[16];
+        int count = 0;
+        int i = 0, length = value.length();
+        while (i < length) {
+            char c = value.charAt(i);
+            if (c == ' ') {
+                i++;
+                continue;
+            }
+            boolean negative = c == '-';
+            if (negative) i++;
+            int number = 0;
+            while (i < length && (c = value.charAt(i)) != ' ') {
+                number = number * 10 + (c - '0');
+                i++;
+            }
+            if (count == result.length) result = Arrays.copyOf(result, count * 2);
+            result[count++] = negative ? -number : number;
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Doubles the size of the bucket table, which is kept at most half full.
+     */
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldBuckets = buckets;
+        keys = new long[oldKeys.length * 2];
+        buckets = new int[oldBuckets.length * 2];
+        Arrays.fill(buckets, -1);
+        mask = buckets.length - 1;
+        for (int i = 0; i < oldBuckets.length; i++) {
+            if (oldBuckets[i] < 0) continue;
+            int slot = slot(oldKeys[i]);
+            keys[slot] = oldKeys[i];
+            buckets[slot] = oldBuckets[i];
+        }
+    }
+
+    private static long key(int bundle, int value) {
+        return ((long) bundle << 32) | (value & 0xffffffffL);
+    }
+
+    /**
+     * @return the slot of the key, or the empty slot where it has to go.
+     */
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        int slot = (int) (h ^ (h >>> 32)) & mask;
+        while (buckets[slot] >= 0 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    public int maxDoc() {
+        return maxDoc;
+    }
+
+    /**
+     * @return the number of non empty buckets.
+     */
+    public int getNumBuckets() {
+        return numBuckets;
+    }
+
+    /**
+     * Collision counts per thread, only the touched entries are reset after a query.
+     */
+    private static class Scratch {
+        int[] counts = new int[0], touched = new int[0];
+
+        void ensureCapacity(int maxDoc) {
+            if (counts.length < maxDoc) {
+                counts = new int[maxDoc];
+                touched = new int[maxDoc];
+            }
+        }
+    }
+
+    /**
+     * Documents and their collision counts over all segments, with a histogram of the counts for the selection of
+     * the top candidates.
+     */
+    private static class Selection {
+        int[] docs = new int[1024], counts = new int[1024];
+        int size = 0;
+        final int[] histogram;
+
+        Selection(int maxCount) {
+            histogram = new int[maxCount + 1];
+        }
+
+        void add(int doc, int count) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                counts = Arrays.copyOf(counts, size * 2);
+            }
+            docs[size] = doc;
+            counts[size++] = count;
+            histogram[Math.min(count, histogram.length - 1)]++;
+        }
+
+        int[] top(int n) {
+            n = Math.min(n, size);
+            // start position in the result per count, highest count first:
+            int[] position = new int[histogram.length];
+            int taken = 0;
+            for (int c = histogram.length - 1; c >= 0; c--) {
+                position[c] = taken;
+                taken += histogram[c];
+            }
+            int[] result = new int[n];
+            for (int i = 0; i < size; i++) {
+                int c = Math.min(counts[i], histogram.length - 1);
+                if (position[c] < n) result[position[c]++] = docs[i];
+            }
+            return result;
+        }
+    }
+}
@@ -162,6 +162,18 @@ public class LocalitySensitiveHashing {
     }
 
 
+    /**
+     * Returns an instance with the hash functions read last and the current bin length, which keeps working if
+     * other functions are read later on.
+     *
+     * @return the hasher.
+     * @see #readHashFunctions()
+     */
+    public static LshHasher getHasher() {
+        if (hashA == null) throw new IllegalStateException("No hash functions have been read yet.");
+        return new LshHasher(hashA, hashB, binLength);
+    }
+
     /**
      * Returns a random number distributed with standard normal distribution based on the Box-Muller method.
      *
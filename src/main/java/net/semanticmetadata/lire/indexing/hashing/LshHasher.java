@@ -0,0 +1,226 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ * Updated: 18.10.26 16:56
+ */
+
+package net.semanticmetadata.lire.indexing.hashing;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * LSH hash functions h(v) = floor((a*v + b) / w) as an instance, see {@link LocalitySensitiveHashing}. The hash
+ * values are the same as the ones of {@link LocalitySensitiveHashing#generateHashes(double[])} with the same
+ * functions.
+ * <br/>
+ * For multi-probe queries the functions where the feature vector is closest to the border of its bucket are
+ * probed in the neighbouring bucket across that border.
+ */
+public class LshHasher implements Hasher {
+    private final int dimensions, numFunctionBundles;
+    private final double binLength;
+    /**
+     * The vectors a, function i starts at i * dimensions.
+     */
+    private final double[] hashA;
+    private final double[] hashB;
+
+    /**
+     * Creates new random hash functions for approximating the L2 distance.
+     *
+     * @param numFunctionBundles the number of hash values per feature vector.
+     * @param dimensions         the maximum length of the feature vectors.
+     * @param binLength          the bucket width w.
+     * @param seed               the seed for the random functions.
+     */
+    public LshHasher(int numFunctionBundles, int dimensions, double binLength, long seed) {
+        this(numFunctionBundles, dimensions, binLength);
+        Random random = new Random(seed);
+        for (int i = 0; i < numFunctionBundles; i++) {
+            hashB[i] = (float) (random.nextDouble() * binLength);
+        }
+        for (int i = 0; i < hashA.length; i++) {
+            hashA[i] = (float) random.nextGaussian();
+        }
+    }
+
+    /**
+     * Uses the given hash functions.
+     *
+     * @param hashA     the vectors a, one per function.
+     * @param hashB     the offsets b, one per function.
+     * @param binLength the bucket width w.
+     */
+    public LshHasher(double[][] hashA, double[] hashB, double binLength) {
+        this(hashA.length, hashA[0].length, binLength);
+        for (int i = 0; i < numFunctionBundles; i++) {
+            System.arraycopy(hashA[i], 0, this.hashA, i * dimensions, dimensions);
+        }
+        System.arraycopy(hashB, 0, this.hashB, 0, numFunctionBundles);
+    }
+
+    private LshHasher(int numFunctionBundles, int dimensions, double binLength) {
+        this.numFunctionBundles = numFunctionBundles;
+        this.dimensions = dimensions;
+        this.binLength = binLength;
+        hashA = new double[numFunctionBundles * dimensions];
+        hashB = new double[numFunctionBundles];
+    }
+
+    /**
+     * Reads hash functions in the format of {@link LocalitySensitiveHashing#generateHashFunctions()}. The bin length
+     * is not part of the file and has to be the one used for indexing.
+     *
+     * @param in        the stream to read from, it is not closed.
+     * @param binLength the bucket width w.
+     * @return the new hasher.
+     * @throws IOException
+     */
+    public static LshHasher read(InputStream in, double binLength) throws IOException {
+        ObjectInputStream ois = new ObjectInputStream(new GZIPInputStream(in));
+        int dimensions = ois.readInt();
+        int numFunctionBundles = ois.readInt();
+        LshHasher result = new LshHasher(numFunctionBundles, dimensions, binLength);
+        for (int k = 0; k < numFunctionBundles; k++) {
+            result.hashB[k] = ois.readFloat();
+        }
+        for (int i = 0; i < result.hashA.length; i++) {
+            result.hashA[i] = ois.readFloat();
+        }
+        return result;
+    }
+
+    /**
+     * Writes the hash functions in the format of {@link LocalitySensitiveHashing#generateHashFunctions()}.
+     *
+     * @param out the stream to write to, it is not closed.
+     * @throws IOException
+     */
+    public void write(OutputStream out) throws IOException {
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        ObjectOutputStream oos = new ObjectOutputStream(gzip);
+        oos.writeInt(dimensions);
+        oos.writeInt(numFunctionBundles);
+        for (double b : hashB) oos.writeFloat((float) b);
+        for (double a : hashA) oos.writeFloat((float) a);
+        oos.flush();
+        gzip.finish();
+    }
+
+    public int[] hash(double[] histogram) {
+        checkLength(histogram);
+        int[] result = new int[numFunctionBundles];
+        for (int k = 0; k < numFunctionBundles; k++) {
+            result[k] = (int) Math.floor((project(histogram, k) + hashB[k]) / binLength);
+        }
+        return result;
+    }
+
+    /**
+     * Multi-probe hashing, probes the neighbouring bucket for the numProbes functions where the feature vector is
+     * closest to the border of its bucket.
+     *
+     * @param histogram the feature vector.
+     * @param numProbes the overall number of additional buckets.
+     * @return the hash value per function, followed by the neighbouring bucket for the probed functions.
+     */
+    public int[][] probe(double[] histogram, int numProbes) {
+        checkLength(histogram);
+        numProbes = Math.min(numProbes, numFunctionBundles);
+        int[] hashes = new int[numFunctionBundles];
+        int[] neighbours = new int[numFunctionBundles];
+        double[] border = new double[numFunctionBundles];
+        for (int k = 0; k < numFunctionBundles; k++) {
+            double value = (project(histogram, k) + hashB[k]) / binLength;
+            hashes[k] = (int) Math.floor(value);
+            double offset = value - hashes[k];
+            border[k] = Math.min(offset, 1 - offset);
+            neighbours[k] = offset < 0.5 ? hashes[k] - 1 : hashes[k] + 1;
+        }
+        // the numProbes functions closest to a border:
+        int[] closest = new int[numProbes];
+        for (int k = 0; k < numFunctionBundles; k++) {
+            int pos = k < numProbes ? k : numProbes;
+            while (pos > 0 && border[closest[pos - 1]] > border[k]) {
+                if (pos < numProbes) closest[pos] = closest[pos - 1];
+                pos--;
+            }
+            if (pos < numProbes) closest[pos] = k;
+        }
+        boolean[] probed = new boolean[numFunctionBundles];
+        for (int i = 0; i < numProbes; i++) probed[closest[i]] = true;
+        int[][] result = new int[numFunctionBundles][];
+        for (int k = 0; k < numFunctionBundles; k++) {
+            result[k] = probed[k] ? new int[]{hashes[k], neighbours[k]} : new int[]{hashes[k]};
+        }
+        return result;
+    }
+
+    private double project(double[] histogram, int function) {
+        int offset = function * dimensions;
+        double product = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            product += histogram[i] * hashA[offset + i];
+        }
+        return product;
+    }
+
+    private void checkLength(double[] histogram) {
+        if (histogram.length > dimensions)
+            throw new IllegalArgumentException("Feature vector too long: " + histogram.length + " > " + dimensions);
+    }
+
+    public int getDimensions() {
+        return dimensions;
+    }
+
+    public int getNumFunctionBundles() {
+        return numFunctionBundles;
+    }
+
+    public double getBinLength() {
+        return binLength;
+    }
+}
@@ -0,0 +1,650 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ * Updated: 18.10.26 17:07
+ */
+
+package net.semanticmetadata.lire.indexing.hnsw;
+
+import net.semanticmetadata.lire.imageanalysis.LireFeature;
+import net.semanticmetadata.lire.impl.TopKCollector;
+import net.semanticmetadata.lire.indexing.cache.FeatureValues;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Hierarchical navigable small world graph (HNSW, see Malkov &amp; Yashunin, "Efficient and robust approximate
+ * nearest neighbor search using Hierarchical Navigable Small World graphs", PAMI 2018) over the features of an
+ * index. The metric is {@link LireFeature#getDistance(LireFeature)}, so it works for every global feature without
+ * tuning hash functions. Each document is a node on level 0 and, with exponentially decreasing probability, on the
+ * levels above. A search walks greedily down from the top level and does a best first search with a list of ef
+ * nodes on level 0, a larger ef gives a better recall at the cost of more distance computations.
+ * <br/>
+ * Documents can be added at any time with {@link #add(int, LireFeature)} or {@link #addAll(IndexReader, String, LireFeature)}.
+ * Searches run concurrently, an insertion blocks the searches while it changes the graph. Deleted documents stay in
+ * the graph for navigation and are filtered from the results with the live docs of the reader.
+ * <br/>
+ * The docIDs are the ones of the reader the index has been created from, so documents may only be appended to the
+ * Lucene index as long as the graph is used; if segments are merged with deletions the graph has to be created
+ * again. Use {@link #getFile(File, String)} to store it next to the Lucene index.
+ */
+public class HnswIndex {
+    private static final int MAGIC = 0x4C484E53; // "LHNS"
+    private static final int VERSION = 1;
+    public static final int DEFAULT_M = 16;
+    public static final int DEFAULT_EF_CONSTRUCTION = 200;
+
+    private final Class<? extends LireFeature> featureClass;
+    /**
+     * Maximum number of neighbours of a node on the levels above 0, level 0 takes twice as many.
+     */
+    private final int m;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private final Random random;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
+    private LireFeature[] features = new LireFeature[16];
+    private int[] docIds = new int[16];
+    /**
+     * links[node][level][0] is the number of neighbours of the node on the level, followed by the neighbours.
+     */
+    private int[][][] links = new int[16][][];
+    private int size = 0, maxDoc = 0;
+    private int entryPoint = -1, maxLevel = -1;
+
+    /**
+     * Creates an empty graph.
+     *
+     * @param featureClass   the class of the features, used for reading and copying them.
+     * @param m              the number of neighbours per node, {@link #DEFAULT_M} by default.
+     * @param efConstruction the size of the candidate list when inserting, {@link #DEFAULT_EF_CONSTRUCTION} by default.
+     */
+    public HnswIndex(Class<? extends LireFeature> featureClass, int m, int efConstruction) {
+        this.featureClass = featureClass;
+        this.m = Math.max(2, m);
+        this.efConstruction = Math.max(this.m, efConstruction);
+        this.levelMultiplier = 1d / Math.log(this.m);
+        this.random = new Random(42);
+    }
+
+    /**
+     * Creates a graph of all live documents of an index.
+     *
+     * @param reader         the index.
+     * @param fieldName      the field the feature is stored in.
+     * @param feature        an instance of the feature.
+     * @param m              the number of neighbours per node.
+     * @param efConstruction the size of the candidate list when inserting.
+     * @return the new graph.
+     * @throws IOException
+     */
+    public static HnswIndex create(IndexReader reader, String fieldName, LireFeature feature, int m, int efConstruction) throws IOException {
+        HnswIndex index = new HnswIndex(feature.getClass(), m, efConstruction);
+        index.addAll(reader, fieldName, feature);
+        return index;
+    }
+
+    /**
+     * Adds the live documents of the index which are not in the graph yet, i.e. the ones from {@link #maxDoc()} on.
+     * Call it with a reopened reader after appending documents to the Lucene index.
+     *
+     * @param reader    the index.
+     * @param fieldName the field the feature is stored in.
+     * @param feature   an instance of the feature, used for reading.
+     * @throws IOException
+     */
+    public void addAll(IndexReader reader, String fieldName, LireFeature feature) throws IOException {
+        int from = maxDoc();
+        for (AtomicReaderContext leaf : reader.leaves()) {
+            if (leaf.docBase + leaf.reader().maxDoc() <= from) continue;
+            FeatureValues values = new FeatureValues(leaf.reader(), fieldName);
+            Bits liveDocs = leaf.reader().getLiveDocs();
+            for (int i = Math.max(0, from - leaf.docBase); i < leaf.reader().maxDoc(); i++) {
+                if (liveDocs != null && !liveDocs.get(i)) continue;
+                BytesRef bytes = values.get(i);
+                if (bytes == null) continue;
+                feature.setByteArrayRepresentation(bytes.bytes, bytes.offset, bytes.length);
+                add(leaf.docBase + i, feature);
+            }
+        }
+        lock.writeLock().lock();
+        try {
+            maxDoc = Math.max(maxDoc, reader.maxDoc());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Inserts one document. The feature is copied, so the instance can be reused by the caller.
+     *
+     * @param docId   the docID of the document.
+     * @param feature the feature of the document.
+     */
+    public void add(int docId, LireFeature feature) {
+        LireFeature copy = copy(feature);
+        lock.writeLock().lock();
+        try {
+            insert(docId, copy);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void insert(int docId, LireFeature feature) {
+        if (size == features.length) {
+            features = Arrays.copyOf(features, size * 2);
+            docIds = Arrays.copyOf(docIds, size * 2);
+            links = Arrays.copyOf(links, size * 2);
+        }
+        int node = size;
+        int level = (int) (-Math.log(1d - random.nextDouble()) * levelMultiplier);
+        features[node] = feature;
+        docIds[node] = docId;
+        links[node] = new int[level + 1][];
+        for (int l = 0; l <= level; l++) links[node][l] = new int[1 + maxNeighbours(l)];
+        size++;
+        maxDoc = Math.max(maxDoc, docId + 1);
+        if (entryPoint < 0) {
+            entryPoint = node;
+            maxLevel = level;
+            return;
+        }
+        Scratch s = scratch.get();
+        int current = entryPoint;
+        float currentDistance = feature.getDistance(features[current]);
+        for (int l = maxLevel; l > level; l--) {
+            current = greedy(feature, current, currentDistance, l);
+            currentDistance = feature.getDistance(features[current]);
+        }
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            searchLayer(feature, current, currentDistance, efConstruction, l, s);
+            int count = s.drainSorted();
+            int[] neighbours = links[node][l];
+            neighbours[0] = select(s.sortedNodes, s.sortedDistances, count, maxNeighbours(l), neighbours);
+            for (int i = 1; i <= neighbours[0]; i++) {
+                link(neighbours[i], node, l, s);
+            }
+            current = s.sortedNodes[0];
+            currentDistance = s.sortedDistances[0];
+        }
+        if (level > maxLevel) {
+            maxLevel = level;
+            entryPoint = node;
+        }
+    }
+
+    private int maxNeighbours(int level) {
+        return level == 0 ? 2 * m : m;
+    }
+
+    /**
+     * Adds node as neighbour of target, if the list of target is full the neighbours are selected again.
+     */
+    private void link(int target, int node, int level, Scratch s) {
+        int[] neighbours = links[target][level];
+        int count = neighbours[0];
+        if (count < neighbours.length - 1) {
+            neighbours[++count] = node;
+            neighbours[0] = count;
+            return;
+        }
+        LireFeature base = features[target];
+        int[] nodes = new int[count + 1];
+        float[] distances = new float[count + 1];
+        for (int i = 0; i < count; i++) {
+            nodes[i] = neighbours[i + 1];
+            distances[i] = base.getDistance(features[nodes[i]]);
+        }
+        nodes[count] = node;
+        distances[count] = base.getDistance(features[node]);
+        sort(nodes, distances, count + 1);
+        neighbours[0] = select(nodes, distances, count + 1, count, neighbours);
+    }
+
+    /**
+     * Neighbour selection heuristic: a candidate is taken if it is closer to the base than to all neighbours
+     * selected so far, so the links point in different directions. Remaining slots are filled with the closest
+     * discarded candidates.
+     *
+     * @param nodes     the candidates sorted by their distance to the base.
+     * @param distances the distances of the candidates to the base.
+     * @param count     the number of candidates.
+     * @param max       the maximum number of neighbours.
+     * @param result    the list of neighbours, written from position 1 on.
+     * @return the number of neighbours.
+     */
+    private int select(int[] nodes, float[] distances, int count, int max, int[] result) {
+        int selected = 0;
+        boolean[] taken = new boolean[count];
+        for (int i = 0; i < count && selected < max; i++) {
+            LireFeature candidate = features[nodes[i]];
+            boolean good = true;
+            for (int j = 1; j <= selected && good; j++) {
+                if (candidate.getDistance(features[result[j]]) < distances[i]) good = false;
+            }
+            if (good) {
+                result[++selected] = nodes[i];
+                taken[i] = true;
+            }
+        }
+        for (int i = 0; i < count && selected < max; i++) {
+            if (!taken[i]) result[++selected] = nodes[i];
+        }
+        return selected;
+    }
+
+    private int greedy(LireFeature query, int current, float currentDistance, int level) {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            int[] neighbours = links[current][level];
+            for (int i = 1; i <= neighbours[0]; i++) {
+                float distance = query.getDistance(features[neighbours[i]]);
+                if (distance < currentDistance) {
+                    currentDistance = distance;
+                    current = neighbours[i];
+                    changed = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Best first search on one level, the ef closest nodes found are left in s.results.
+     */
+    private void searchLayer(LireFeature query, int entry, float entryDistance, int ef, int level, Scratch s) {
+        s.reset(size);
+        s.visit(entry);
+        s.candidates.push(entry, entryDistance);
+        s.results.push(entry, entryDistance);
+        while (s.candidates.size > 0) {
+            if (s.candidates.topDistance() > s.results.topDistance() && s.results.size >= ef) break;
+            int current = s.candidates.pop();
+            int[] neighbours = links[current][level];
+            for (int i = 1; i <= neighbours[0]; i++) {
+                int neighbour = neighbours[i];
+                if (!s.visit(neighbour)) continue;
+                float distance = query.getDistance(features[neighbour]);
+                if (s.results.size < ef || distance < s.results.topDistance()) {
+                    s.candidates.push(neighbour, distance);
+                    s.results.push(neighbour, distance);
+                    if (s.results.size > ef) s.results.pop();
+                }
+            }
+        }
+    }
+
+    /**
+     * Searches the nearest neighbours of a query.
+     *
+     * @param query    the feature of the query.
+     * @param k        the number of results.
+     * @param ef       the size of the candidate list on level 0, the larger the better the recall. Values below k
+     *                 are raised to k.
+     * @param liveDocs the live documents or null if all documents are live.
+     * @return the closest documents and their distances, unsorted.
+     */
+    public TopKCollector search(LireFeature query, int k, int ef, Bits liveDocs) {
+        TopKCollector result = new TopKCollector(k);
+        lock.readLock().lock();
+        try {
+            if (size == 0) return result;
+            Scratch s = scratch.get();
+            int current = entryPoint;
+            float currentDistance = query.getDistance(features[current]);
+            for (int l = maxLevel; l > 0; l--) {
+                current = greedy(query, current, currentDistance, l);
+                currentDistance = query.getDistance(features[current]);
+            }
+            searchLayer(query, current, currentDistance, Math.max(ef, k), 0, s);
+            while (s.results.size > 0) {
+                float distance = s.results.topDistance();
+                int docId = docIds[s.results.pop()];
+                if (liveDocs == null || liveDocs.get(docId)) result.collect(docId, distance);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    private LireFeature copy(LireFeature feature) {
+        try {
+            LireFeature copy = featureClass.newInstance();
+            copy.setByteArrayRepresentation(feature.getByteArrayRepresentation());
+            return copy;
+        } catch (InstantiationException e) {
+            throw new IllegalArgumentException("Cannot create an instance of " + featureClass.getName(), e);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Cannot create an instance of " + featureClass.getName(), e);
+        }
+    }
+
+    /**
+     * Writes the graph and the features to a file. The file is written to a temporary file first and moved in place.
+     *
+     * @param file the file.
+     * @throws IOException
+     */
+    public void write(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        lock.readLock().lock();
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(featureClass.getName());
+                out.writeInt(m);
+                out.writeInt(efConstruction);
+                out.writeInt(size);
+                out.writeInt(maxDoc);
+                out.writeInt(entryPoint);
+                out.writeInt(maxLevel);
+                for (int node = 0; node < size; node++) {
+                    out.writeInt(docIds[node]);
+                    byte[] bytes = features[node].getByteArrayRepresentation();
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                    out.writeInt(links[node].length);
+                    for (int[] neighbours : links[node]) {
+                        for (int i = 0; i <= neighbours[0]; i++) out.writeInt(neighbours[i]);
+                    }
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Reads a graph written by {@link #write(File)}.
+     *
+     * @param file the file.
+     * @return the graph.
+     * @throws IOException if the file cannot be read or is not an HNSW index.
+     */
+    public static HnswIndex open(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+        try {
+            if (in.readInt() != MAGIC) throw new IOException("Not an HNSW index: " + file.getPath());
+            int version = in.readInt();
+            if (version != VERSION) throw new IOException("Unsupported version " + version + " of HNSW index " + file.getPath());
+            String className = in.readUTF();
+            Class<? extends LireFeature> featureClass;
+            try {
+                featureClass = Class.forName(className).asSubclass(LireFeature.class);
+            } catch (ClassNotFoundException e) {
+                throw new IOException("Unknown feature class " + className + " in HNSW index " + file.getPath(), e);
+            }
+            HnswIndex index = new HnswIndex(featureClass, in.readInt(), in.readInt());
+            int size = in.readInt();
+            index.maxDoc = in.readInt();
+            index.entryPoint = in.readInt();
+            index.maxLevel = in.readInt();
+            int capacity = Math.max(16, size);
+            index.features = new LireFeature[capacity];
+            index.docIds = new int[capacity];
+            index.links = new int[capacity][][];
+            for (int node = 0; node < size; node++) {
+                index.docIds[node] = in.readInt();
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                try {
+                    index.features[node] = featureClass.newInstance();
+                } catch (Exception e) {
+                    throw new IOException("Cannot create an instance of " + className, e);
+                }
+                index.features[node].setByteArrayRepresentation(bytes);
+                int levels = in.readInt();
+                index.links[node] = new int[levels][];
+                for (int l = 0; l < levels; l++) {
+                    int[] neighbours = new int[1 + index.maxNeighbours(l)];
+                    neighbours[0] = in.readInt();
+                    for (int i = 1; i <= neighbours[0]; i++) neighbours[i] = in.readInt();
+                    index.links[node][l] = neighbours;
+                }
+            }
+            index.size = size;
+            // continue with a different sequence of levels than the one of the original index.
+            index.random.setSeed(42 + size);
+            return index;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * The default location of the graph of a feature field next to a Lucene index in the file system.
+     *
+     * @param indexDirectory the directory of the Lucene index.
+     * @param fieldName      the field the feature is stored in.
+     * @return the file.
+     */
+    public static File getFile(File indexDirectory, String fieldName) {
+        return new File(indexDirectory, fieldName + ".hnsw");
+    }
+
+    /**
+     * @return the number of documents in the graph.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return one more than the largest docID added, or the maxDoc of the last reader given to {@link #addAll(IndexReader, String, LireFeature)}.
+     */
+    public int maxDoc() {
+        lock.readLock().lock();
+        try {
+            return maxDoc;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Class<? extends LireFeature> getFeatureClass() {
+        return featureClass;
+    }
+
+    public int getM() {
+        return m;
+    }
+
+    public int getEfConstruction() {
+        return efConstruction;
+    }
+
+    /**
+     * Per thread buffers of a search: the visited marks and both heaps.
+     */
+    private static class Scratch {
+        int[] visited = new int[0];
+        int mark = 0;
+        final NodeHeap candidates = new NodeHeap(false);
+        final NodeHeap results = new NodeHeap(true);
+        int[] sortedNodes = new int[16];
+        float[] sortedDistances = new float[16];
+
+        void reset(int size) {
+            if (visited.length < size) {
+                visited = new int[Math.max(size, visited.length * 2)];
+                mark = 0;
+            }
+            if (++mark == Integer.MAX_VALUE) {
+                Arrays.fill(visited, 0);
+                mark = 1;
+            }
+            candidates.size = 0;
+            results.size = 0;
+        }
+
+        /**
+         * @return true if the node has not been visited before.
+         */
+        boolean visit(int node) {
+            if (visited[node] == mark) return false;
+            visited[node] = mark;
+            return true;
+        }
+
+        /**
+         * Empties the results into sortedNodes and sortedDistances, closest first.
+         */
+        int drainSorted() {
+            int count = results.size;
+            if (sortedNodes.length < count) {
+                sortedNodes = new int[count];
+                sortedDistances = new float[count];
+            }
+            for (int i = count - 1; i >= 0; i--) {
+                sortedDistances[i] = results.topDistance();
+                sortedNodes[i] = results.pop();
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Binary heap of nodes and their distances, either with the largest or the smallest distance on top.
+     */
+    private static class NodeHeap {
+        final boolean max;
+        int[] nodes = new int[64];
+        float[] distances = new float[64];
+        int size = 0;
+
+        NodeHeap(boolean max) {
+            this.max = max;
+        }
+
+        private boolean above(float a, float b) {
+            return max ? a > b : a < b;
+        }
+
+        void push(int node, float distance) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                distances = Arrays.copyOf(distances, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >> 1;
+                if (!above(distance, distances[parent])) break;
+                nodes[i] = nodes[parent];
+                distances[i] = distances[parent];
+                i = parent;
+            }
+            nodes[i] = node;
+            distances[i] = distance;
+        }
+
+        float topDistance() {
+            return distances[0];
+        }
+
+        int pop() {
+            int top = nodes[0];
+            size--;
+            int node = nodes[size];
+            float distance = distances[size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) break;
+                if (child + 1 < size && above(distances[child + 1], distances[child])) child++;
+                if (!above(distances[child], distance)) break;
+                nodes[i] = nodes[child];
+                distances[i] = distances[child];
+                i = child;
+            }
+            nodes[i] = node;
+            distances[i] = distance;
+            return top;
+        }
+    }
+
+    private static void sort(int[] nodes, float[] distances, int count) {
+        for (int i = 1; i < count; i++) {
+            int node = nodes[i];
+            float distance = distances[i];
+            int j = i - 1;
+            while (j >= 0 && distances[j] > distance) {
+                nodes[j + 1] = nodes[j];
+                distances[j + 1] = distances[j];
+                j--;
+            }
+            nodes[j + 1] = node;
+            distances[j + 1] = distance;
+        }
+    }
+}
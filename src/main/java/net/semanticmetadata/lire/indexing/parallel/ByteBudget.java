@@ -0,0 +1,97 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ * Updated: 18.10.26 16:37
+ */
+
+package net.semanticmetadata.lire.indexing.parallel;
+
+/**
+ * Limits the number of bytes held between two stages of a pipeline. A producer acquires the size of an item before
+ * handing it to the next stage and the consumer releases it once the item is not needed anymore. So the memory
+ * bound holds for large and small items alike, unlike a queue limited to a number of items.
+ * <br/>
+ * An item larger than the limit is let through if nothing else is held, otherwise a single large file would block
+ * the pipeline forever.
+ */
+public class ByteBudget {
+    private final long limit;
+    private long used = 0;
+
+    /**
+     * @param limit the maximum number of bytes held at a time.
+     */
+    public ByteBudget(long limit) {
+        if (limit <= 0) throw new IllegalArgumentException("Limit has to be positive: " + limit);
+        this.limit = limit;
+    }
+
+    /**
+     * Blocks until the given number of bytes is available.
+     *
+     * @param bytes the size of the item.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public synchronized void acquire(long bytes) throws InterruptedException {
+        while (used > 0 && used + bytes > limit) {
+            wait();
+        }
+        used += bytes;
+    }
+
+    /**
+     * Gives back bytes acquired with {@link #acquire(long)}.
+     *
+     * @param bytes the size of the item.
+     */
+    public synchronized void release(long bytes) {
+        used -= bytes;
+        notifyAll();
+    }
+
+    /**
+     * @return the number of bytes currently held.
+     */
+    public synchronized long getUsed() {
+        return used;
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+}
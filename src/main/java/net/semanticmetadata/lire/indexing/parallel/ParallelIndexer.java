@@ -45,34 +45,57 @@ import net.semanticmetadata.lire.DocumentBuilder;
 import net.semanticmetadata.lire.DocumentBuilderFactory;
 import net.semanticmetadata.lire.imageanalysis.*;
 import net.semanticmetadata.lire.imageanalysis.joint.JointHistogram;
+import net.semanticmetadata.lire.imageanalysis.utils.ImageContext;
 import net.semanticmetadata.lire.impl.ChainedDocumentBuilder;
 import net.semanticmetadata.lire.impl.GenericDocumentBuilder;
+import net.semanticmetadata.lire.indexing.IndexingJournal;
 import net.semanticmetadata.lire.indexing.LireCustomCodec;
 import net.semanticmetadata.lire.utils.FileUtils;
+import net.semanticmetadata.lire.utils.DecodedImage;
+import net.semanticmetadata.lire.utils.ImageDecoder;
 import net.semanticmetadata.lire.utils.LuceneUtils;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
-import org.apache.lucene.index.IndexWriter;
-import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.*;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
 
-import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * This class allows for creating indexes in a parallel manner. The class
- * at hand reads files from the disk and acts as producer, while several consumer
- * threads extract the features from the given files.
+ * This class allows for creating indexes in a parallel manner. Indexing runs as a pipeline of four stages, each
+ * with its own threads:
+ * <ol>
+ * <li>reader threads load the files from disk,</li>
+ * <li>decoder threads decode and scale the images,</li>
+ * <li>extractor threads run the builders, each feature of an image is a task of its own, so the features of one
+ * image are extracted in parallel,</li>
+ * <li>writer threads add the documents to the index in batches.</li>
+ * </ol>
+ * Between the stages the data is limited by its size in bytes (see {@link ByteBudget}), so a few large files cannot
+ * pile up and exhaust the heap, while many small ones keep all cores busy.
  *
- * To use this override the method {@link ParallelIndexer#addBuilders} to add your own features.
+ * With {@link #setCheckpointInterval(int)} indexing can be resumed after a crash: the index is committed
+ * periodically along with the progress (see {@link IndexingJournal}), documents are updated instead of added, files
+ * already in the index are skipped and files which cannot be indexed are written to a failure log. Note that the
+ * index must not be overwritten to resume, so use a constructor without overWrite or set it to false.
+ *
+ * To use this override the method {@link ParallelIndexer#addBuilders} to add your own features. It is called once
+ * per extractor thread, so builders need not be thread safe.
  * Check the source of this class -- the main method -- to get an idea.
  *
  * @author Mathias Lux, mathias@juggle.at, 15.04.13
@@ -81,25 +104,66 @@ import java.util.logging.Logger;
 public class ParallelIndexer implements Runnable {
     private Logger log = Logger.getLogger(this.getClass().getName());
     private int numberOfThreads = 10;
+    private int numberOfReaderThreads = 2;
+    private int numberOfDecoderThreads = -1;
+    private int numberOfWriterThreads = 1;
     private String indexPath;
     private String imageDirectory;
-//    Stack<WorkItem> images = new Stack<WorkItem>();
     IndexWriter writer;
     File imageList = null;
-    boolean ended = false;
-    boolean threadFinished = false;
+    volatile boolean ended = false;
+    volatile boolean threadFinished = false;
     private List<String> files;
-    int overallCount = 0, numImages = -1;
+    int numImages = -1;
+    // counters of the stages, updated concurrently by the threads of the pipeline.
+    private final AtomicInteger overallCount = new AtomicInteger(0);
+    private final AtomicInteger filesRead = new AtomicInteger(0);
+    private final AtomicInteger imagesDecoded = new AtomicInteger(0);
+    private final AtomicInteger failedCount = new AtomicInteger(0);
+    private final AtomicInteger skippedCount = new AtomicInteger(0);
+    private final AtomicInteger nextFile = new AtomicInteger(0);
+    // sum of the scales of the decoded images in millionths, see getMeanScale()
+    private final AtomicLong scaleSum = new AtomicLong(0);
     private IndexWriterConfig.OpenMode openMode = IndexWriterConfig.OpenMode.CREATE_OR_APPEND;
     // all xx seconds a status message will be displayed
     private int monitoringInterval = 30;
-    private LinkedBlockingQueue<WorkItem> queue = new LinkedBlockingQueue<WorkItem>(100);
+    private boolean forceMerge = true;
+    private int batchSize = 64;
+    private long maxFileSize = -1;
+    private long fileBufferSize = 256L * 1024 * 1024;
+    private long imageBufferSize = 512L * 1024 * 1024;
+    private long documentBufferSize = 64L * 1024 * 1024;
+    // checkpoints for resuming, see setCheckpointInterval(int)
+    private int checkpointInterval = 0;
+    private File failureLog = null;
+    private IndexingJournal journal = null;
+    private String source;
+    private int startPosition = 0;
+    private Terms indexedIdentifiers = null;
+    private Bits indexedLiveDocs = null;
+    private final AtomicLong lastCheckpoint = new AtomicLong(0);
+
+    private ByteBudget fileBudget, imageBudget, documentBudget;
+    private final ImageDecoder decoder = new ImageDecoder(GenericDocumentBuilder.MAX_IMAGE_DIMENSION);
+    private LinkedBlockingQueue<WorkItem> fileQueue;
+    private LinkedBlockingQueue<Job> documentQueue;
+    private ExecutorService extractors;
+    private int numberOfBuilders;
+    private ThreadLocal<List<DocumentBuilder>> builders = new ThreadLocal<List<DocumentBuilder>>() {
+        @Override
+        protected List<DocumentBuilder> initialValue() {
+            ChainedDocumentBuilder builder = new ChainedDocumentBuilder();
+            addBuilders(builder);
+            return builder.getBuilders();
+        }
+    };
 
     public static void main(String[] args) {
         String indexPath = null;
         String imageDirectory = null;
         File imageList = null;
         int numThreads = 10;
+        int checkpointInterval = 0;
         for (int i = 0; i < args.length; i++) {
             String arg = args[i];
             if (arg.startsWith("-i")) {  // index
@@ -128,6 +192,14 @@ public class ParallelIndexer implements Runnable {
                 if ((i + 1) < args.length) {
                     imageDirectory = args[i + 1];
                 }
+            } else if (arg.startsWith("-c")) { // checkpoint interval
+                if ((i + 1) < args.length) {
+                    try {
+                        checkpointInterval = Integer.parseInt(args[i + 1]);
+                    } catch (NumberFormatException e) {
+                        System.err.println("Could not read checkpoint interval: " + args[i + 1]);
+                    }
+                }
             }
         }
 
@@ -171,6 +243,7 @@ public class ParallelIndexer implements Runnable {
                 }
             };
         }
+        p.setCheckpointInterval(checkpointInterval);
         p.run();
     }
 
@@ -180,12 +253,13 @@ public class ParallelIndexer implements Runnable {
     private static void printHelp() {
         System.out.println("Usage:\n" +
                 "\n" +
-                "$> ParallelIndexer -i <index> <-d <image-directory> | -l <image-list>> [-n <number of threads>]\n" +
+                "$> ParallelIndexer -i <index> <-d <image-directory> | -l <image-list>> [-n <number of threads>] [-c <seconds>]\n" +
                 "\n" +
                 "index             ... The directory of the index. Will be appended or created if not existing.\n" +
                 "images-directory  ... The directory the images are found in. It's traversed recursively.\n" +
                 "image-list        ... A list of images in a file, one per line. Use instead of images-directory.\n" +
-                "number of threads ... The number of threads used for extracting features, e.g. # of CPU cores.");
+                "number of threads ... The number of threads used for extracting features, e.g. # of CPU cores.\n" +
+                "seconds           ... Commit every x seconds and resume from the last commit if started again.");
     }
 
     /**
@@ -252,47 +326,192 @@ public class ParallelIndexer implements Runnable {
 //        builder.addBuilder(DocumentBuilderFactory.getColorHistogramDocumentBuilder());
     }
 
+    /**
+     * @param forceMerge set to false to skip merging the index into a single segment at the end. Merging a large
+     *                   index rewrites all of it, which can take as long as the indexing. Default is true.
+     */
+    public void setForceMerge(boolean forceMerge) {
+        this.forceMerge = forceMerge;
+    }
+
+    /**
+     * @param batchSize the number of documents added to the index with a single call.
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Images are scaled down in the decoder stage once, so the builders do not have to do it each on their own.
+     * Large images are subsampled while decoding already, see {@link ImageDecoder}.
+     *
+     * @param maxImageDimension the maximum side length of the images handed to the builders, set to 0 or less to
+     *                          keep the original size. Default is {@link GenericDocumentBuilder#MAX_IMAGE_DIMENSION}.
+     */
+    public void setMaxImageDimension(int maxImageDimension) {
+        decoder.setMaxSideLength(maxImageDimension);
+    }
+
+    /**
+     * @return the decoder of the decoder stage, to configure its pixel limit and fallbacks before indexing and to
+     * get its statistics per image format.
+     */
+    public ImageDecoder getImageDecoder() {
+        return decoder;
+    }
+
+    /**
+     * @param maxFileSize files larger than this number of bytes are skipped, set to 0 or less to read all files.
+     */
+    public void setMaxFileSize(long maxFileSize) {
+        this.maxFileSize = maxFileSize;
+    }
+
+    /**
+     * Sets the number of threads of the stages other than feature extraction, see
+     * {@link #ParallelIndexer(int, String, String)} for the number of extractor threads.
+     *
+     * @param readerThreads  threads reading files, default is 2.
+     * @param decoderThreads threads decoding images, default is half the number of extractor threads.
+     * @param writerThreads  threads adding documents to the index, default is 1.
+     */
+    public void setStageThreads(int readerThreads, int decoderThreads, int writerThreads) {
+        this.numberOfReaderThreads = Math.max(1, readerThreads);
+        this.numberOfDecoderThreads = Math.max(1, decoderThreads);
+        this.numberOfWriterThreads = Math.max(1, writerThreads);
+    }
+
+    /**
+     * Sets the maximum number of bytes held between the stages.
+     *
+     * @param fileBufferSize     bytes of files read but not decoded yet.
+     * @param imageBufferSize    bytes of decoded images (4 bytes per pixel) not completely extracted yet.
+     * @param documentBufferSize bytes of documents not added to the index yet.
+     */
+    public void setBufferSizes(long fileBufferSize, long imageBufferSize, long documentBufferSize) {
+        this.fileBufferSize = fileBufferSize;
+        this.imageBufferSize = imageBufferSize;
+        this.documentBufferSize = documentBufferSize;
+    }
+
+    /**
+     * Enables resumable indexing: the index is committed every checkpointInterval seconds with the position in
+     * the list of files up to which all files have been handled. If the indexer is started again on the same
+     * directory or list of files and the index is appended, it continues from the last commit. Files already in the
+     * index are skipped and documents are updated based on {@link DocumentBuilder#FIELD_NAME_IDENTIFIER}, so there
+     * are no duplicates.
+     *
+     * @param checkpointInterval seconds between two commits, 0 disables checkpoints (the default).
+     */
+    public void setCheckpointInterval(int checkpointInterval) {
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    /**
+     * @param failureLog the file files which cannot be indexed are appended to, in case checkpoints are enabled.
+     *                   Default is failures.log in the index directory.
+     */
+    public void setFailureLog(File failureLog) {
+        this.failureLog = failureLog;
+    }
+
     public void run() {
         IndexWriterConfig config = new IndexWriterConfig(LuceneUtils.LUCENE_VERSION, new StandardAnalyzer());
         config.setOpenMode(openMode);
         config.setCodec(new LireCustomCodec());
         try {
             if (imageDirectory != null) System.out.println("Getting all images in " + imageDirectory + ".");
-            writer = new IndexWriter(FSDirectory.open(new File(indexPath)), config);
+            Directory directory = FSDirectory.open(new File(indexPath));
+            writer = new IndexWriter(directory, config);
             if (imageList == null) {
                 files = FileUtils.getAllImages(new File(imageDirectory), true);
             } else {
-                files = new LinkedList<String>();
+                files = new ArrayList<String>();
                 BufferedReader br = new BufferedReader(new FileReader(imageList));
                 String line = null;
                 while ((line = br.readLine()) != null) {
                     if (line.trim().length() > 3) files.add(line.trim());
                 }
+                br.close();
             }
+            if (!(files instanceof ArrayList)) files = new ArrayList<String>(files); // random access for the readers.
             numImages = files.size();
+            IndexReader indexed = null;
+            if (checkpointInterval > 0) {
+                // the positions refer to the list, so it needs the same order every time.
+                Collections.sort(files);
+                source = (imageList == null) ? new File(imageDirectory).getCanonicalPath() : imageList.getCanonicalPath();
+                if (openMode != IndexWriterConfig.OpenMode.CREATE && DirectoryReader.indexExists(directory)) {
+                    startPosition = Math.min(IndexingJournal.getPosition(IndexingJournal.getCommitData(directory), source), numImages);
+                    indexed = DirectoryReader.open(directory);
+                    indexedIdentifiers = MultiFields.getTerms(indexed, DocumentBuilder.FIELD_NAME_IDENTIFIER);
+                    indexedLiveDocs = MultiFields.getLiveDocs(indexed);
+                    if (startPosition > 0) System.out.printf("Resuming at image %d\n", startPosition);
+                }
+                journal = new IndexingJournal(startPosition, (failureLog != null) ? failureLog : new File(indexPath, "failures.log"), indexed != null);
+                nextFile.set(startPosition);
+                lastCheckpoint.set(System.currentTimeMillis());
+            }
             System.out.printf("Indexing %d images\n", files.size());
-            Thread p = new Thread(new Producer());
-            p.start();
-            LinkedList<Thread> threads = new LinkedList<Thread>();
+            fileBudget = new ByteBudget(fileBufferSize);
+            imageBudget = new ByteBudget(imageBufferSize);
+            documentBudget = new ByteBudget(documentBufferSize);
+            fileQueue = new LinkedBlockingQueue<WorkItem>();
+            documentQueue = new LinkedBlockingQueue<Job>();
+            numberOfBuilders = builders.get().size();
+            int decoderThreads = numberOfDecoderThreads > 0 ? numberOfDecoderThreads : Math.max(1, numberOfThreads / 2);
+
             long l = System.currentTimeMillis();
-            for (int i = 0; i < numberOfThreads; i++) {
-                Thread c = new Thread(new Consumer());
-                c.start();
-                threads.add(c);
-            }
             Thread m = new Thread(new Monitoring());
+            m.setDaemon(true);
             m.start();
-            for (Iterator<Thread> iterator = threads.iterator(); iterator.hasNext(); ) {
-                iterator.next().join();
+            ExecutorService readers = null, decoders = null, writers = null;
+            try {
+                readers = Executors.newFixedThreadPool(numberOfReaderThreads);
+                decoders = Executors.newFixedThreadPool(decoderThreads);
+                extractors = Executors.newFixedThreadPool(numberOfThreads);
+                writers = Executors.newFixedThreadPool(numberOfWriterThreads);
+                for (int i = 0; i < numberOfReaderThreads; i++) readers.execute(new Reader());
+                for (int i = 0; i < decoderThreads; i++) decoders.execute(new Decoder());
+                for (int i = 0; i < numberOfWriterThreads; i++) writers.execute(new Writer());
+
+                // shut the stages down one after the other, each stage ends when the one before has ended.
+                readers.shutdown();
+                readers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                for (int i = 0; i < decoderThreads; i++) fileQueue.put(new WorkItem((String) null, (byte[]) null));
+                decoders.shutdown();
+                decoders.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                extractors.shutdown();
+                extractors.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                for (int i = 0; i < numberOfWriterThreads; i++) documentQueue.put(new Job(null, -1, null, 0, 0));
+                writers.shutdown();
+                writers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } finally {
+                // if the pipeline has been left with an exception, stop the stages still running, so their threads
+                // neither keep the JVM alive nor keep on adding documents to the writer.
+                for (ExecutorService pool : new ExecutorService[]{readers, decoders, extractors, writers}) {
+                    if (pool != null && !pool.isTerminated()) pool.shutdownNow();
+                }
+                ended = true;
             }
+
+            int count = overallCount.get();
             long l1 = System.currentTimeMillis() - l;
             int seconds = (int) (l1 / 1000);
             int minutes = seconds / 60;
             seconds = seconds % 60;
-            // System.out.println("Analyzed " + overallCount + " images in " + seconds + " seconds, ~" + ((overallCount>0)?(l1 / overallCount):"n.a.") + " ms each.");
-            System.out.printf("Analyzed %d images in %03d:%02d ~ %3.2f ms each.\n", overallCount, minutes, seconds, ((overallCount > 0) ? ((float) l1 / (float) overallCount) : -1f));
-            writer.commit();
-            writer.forceMerge(1);
+            System.out.printf("Analyzed %d images in %03d:%02d ~ %3.2f ms each, %d failed, mean scale %.3f.\n", count, minutes, seconds, ((count > 0) ? ((float) l1 / (float) count) : -1f), failedCount.get(), getMeanScale());
+            for (ImageDecoder.FormatStatistics stats : decoder.getStatistics().values()) {
+                System.out.println("  " + stats);
+            }
+            if (journal != null) {
+                journal.commit(writer, source);
+                journal.close();
+            } else {
+                writer.commit();
+            }
+            if (indexed != null) indexed.close();
+            if (forceMerge) writer.forceMerge(1);
             writer.close();
             threadFinished = true;
             // add local feature hist here
@@ -318,7 +537,61 @@ public class ParallelIndexer implements Runnable {
      * @return
      */
     public double getPercentageDone() {
-        return (double) overallCount / (double) numImages;
+        return (double) (startPosition + overallCount.get() + failedCount.get() + skippedCount.get()) / (double) numImages;
+    }
+
+    /**
+     * @return the number of files skipped because they have been in the index or the failure log already.
+     */
+    public int getSkippedCount() {
+        return skippedCount.get();
+    }
+
+    private void done(int position) {
+        if (journal != null) journal.done(position);
+    }
+
+    private void failed(int position, String fileName, String reason) {
+        failedCount.incrementAndGet();
+        if (journal != null) journal.failed(position, fileName, reason);
+    }
+
+    /**
+     * Commits the index along with the progress if the checkpoint interval has passed. Only one thread commits.
+     */
+    private void checkpoint() {
+        long last = lastCheckpoint.get();
+        long now = System.currentTimeMillis();
+        if (now - last < checkpointInterval * 1000L || !lastCheckpoint.compareAndSet(last, now)) return;
+        try {
+            journal.commit(writer, source);
+            log.info("Checkpoint at image " + journal.getPosition() + ".");
+        } catch (IOException e) {
+            log.log(Level.SEVERE, "Could not commit the index: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return the number of documents added to the index so far.
+     */
+    public int getIndexedCount() {
+        return overallCount.get();
+    }
+
+    /**
+     * @return the mean effective scale of the images decoded so far, i.e. the side length of the images features
+     * are extracted from relative to the one of the original images.
+     */
+    public double getMeanScale() {
+        int decoded = imagesDecoded.get();
+        return decoded > 0 ? scaleSum.get() / 1e6 / decoded : 1d;
+    }
+
+    /**
+     * @return the number of files which could not be read, decoded or indexed so far.
+     */
+    public int getFailedCount() {
+        return failedCount.get();
     }
 
     class Monitoring implements Runnable {
@@ -336,10 +609,11 @@ public class ParallelIndexer implements Runnable {
                     int seconds = (int) (time / 1000);
                     int minutes = seconds / 60;
                     seconds = seconds % 60;
-                    // System.out.println("Analyzed " + overallCount + " images in " + seconds + " seconds, ~" + ((overallCount>0)?(l1 / overallCount):"n.a.") + " ms each.");
-                    System.out.printf("Analyzed %d images in %03d:%02d ~ %3.2f ms each. (queue size is %d)\n", 
-                            overallCount, minutes, seconds, ((overallCount > 0) ? ((float) time / (float) overallCount) : -1f), queue.size());
-//                    System.out.println("Analyzed " + overallCount + " images in " + time / 1000 + " seconds, " + ((overallCount>0)?(time / overallCount):"n.a.") + " ms each ("+queue.size()+" images currently in queue).");
+                    int count = overallCount.get();
+                    System.out.printf("Analyzed %d images in %03d:%02d ~ %3.2f ms each. (read %d, decoded %d at mean scale %.3f, failed %d, buffered %d MB files, %d MB images, %d MB documents)\n",
+                            count, minutes, seconds, ((count > 0) ? ((float) time / (float) count) : -1f),
+                            filesRead.get(), imagesDecoded.get(), getMeanScale(), failedCount.get(),
+                            fileBudget.getUsed() >> 20, imageBudget.getUsed() >> 20, documentBudget.getUsed() >> 20);
                     Thread.sleep(1000 * monitoringInterval); // wait xx seconds
                 } catch (InterruptedException e) {
                     e.printStackTrace();
@@ -348,104 +622,270 @@ public class ParallelIndexer implements Runnable {
         }
     }
 
-    class Producer implements Runnable {
+    /**
+     * Readers take the next file from the list and load its content.
+     */
+    class Reader implements Runnable {
+        private TermsEnum identifiers = null;
+        private DocsEnum docs = null;
+
         public void run() {
-            boolean leaveOneOut = false;
-//            BufferedImage tmpImage;
-            int tmpSize = 0;
-            for (Iterator<String> iterator = files.iterator(); iterator.hasNext(); ) {
-                String path = iterator.next();
-                File next = new File(path);
+            int i;
+            while ((i = nextFile.getAndIncrement()) < files.size()) {
+                String path = files.get(i);
                 try {
-                    byte[] buffer = Files.readAllBytes(Paths.get(path)); // JDK 7 only!
-                    path = next.getCanonicalPath();
-                    queue.put(new WorkItem(path, buffer));
+                    File next = new File(path);
+                    String identifier = next.getCanonicalPath();
+                    // files in the index or in the failure log of the run resumed are not processed again.
+                    if (isIndexed(identifier) || (journal != null && (journal.hasFailed(identifier) || journal.hasFailed(path)))) {
+                        skippedCount.incrementAndGet();
+                        done(i);
+                        continue;
+                    }
+                    long length = next.length();
+                    if (maxFileSize > 0 && length > maxFileSize) {
+                        log.warning("Skipping " + path + ", file size is " + length + " bytes.");
+                        failed(i, identifier, "file size is " + length + " bytes");
+                        continue;
+                    }
+                    // reserve the bytes before reading, so the files waiting for the decoders stay within the budget.
+                    fileBudget.acquire(length);
+                    byte[] buffer;
+                    try {
+                        buffer = Files.readAllBytes(Paths.get(path));
+                    } catch (IOException e) {
+                        fileBudget.release(length);
+                        throw e;
+                    }
+                    fileBudget.release(length - buffer.length);
+                    filesRead.incrementAndGet();
+                    fileQueue.put(new WorkItem(identifier, buffer, i));
+                } catch (InterruptedException e) {
+                    log.severe(e.getMessage());
+                    return;
                 } catch (Exception e) {
                     System.err.println("Could not open " + path + ". " + e.getMessage());
+                    failed(i, path, "could not read file: " + e.getMessage());
                 }
             }
-            for (int i = 0; i<numberOfThreads*3; i++)  {
-                String s = null; byte[] b = null;
+        }
+
+        /**
+         * Checks if the identifier is in the index from a previous run.
+         */
+        private boolean isIndexed(String identifier) throws IOException {
+            if (indexedIdentifiers == null) return false;
+            if (identifiers == null) identifiers = indexedIdentifiers.iterator(null);
+            if (!identifiers.seekExact(new BytesRef(identifier))) return false;
+            // the term is still there if the document has been deleted.
+            docs = identifiers.docs(indexedLiveDocs, docs, DocsEnum.FLAG_NONE);
+            return docs.nextDoc() != DocIdSetIterator.NO_MORE_DOCS;
+        }
+    }
+
+    /**
+     * Decoders create the images from the file contents and hand every builder of an image as a task to the
+     * extractors.
+     */
+    class Decoder implements Runnable {
+        public void run() {
+            while (true) {
+                WorkItem item;
                 try {
-                    queue.put(new WorkItem(s, b));
+                    item = fileQueue.take();
                 } catch (InterruptedException e) {
-                    e.printStackTrace();
+                    log.severe(e.getMessage());
+                    return;
+                }
+                if (item.getFileName() == null) return;
+                BufferedImage img = null;
+                String reason = null;
+                try {
+                    DecodedImage decoded = decoder.decode(item.getBuffer());
+                    if (decoded == null) {
+                        reason = "no suitable reader found";
+                    } else {
+                        img = decoded.getImage();
+                        scaleSum.addAndGet(Math.round(decoded.getScale() * 1e6));
+                        if (log.isLoggable(Level.FINE)) log.fine("Decoded " + item.getFileName() + ": " + decoded);
+                    }
+                } catch (Exception e) {
+                    reason = e.getMessage();
+                    img = null;
+                } finally {
+                    fileBudget.release(item.getBuffer().length);
+                }
+                if (img == null) {
+                    log.severe("Could not decode " + item.getFileName() + ": " + reason);
+                    failed(item.getPosition(), item.getFileName(), "could not decode image: " + reason);
+                    continue;
+                }
+                imagesDecoded.incrementAndGet();
+                try {
+                    long bytes = 4L * img.getWidth() * img.getHeight();
+                    imageBudget.acquire(bytes);
+                    Job job = new Job(item.getFileName(), item.getPosition(), img, bytes, numberOfBuilders);
+                    for (int i = 0; i < job.fields.length; i++) {
+                        extractors.execute(new Extraction(job, i));
+                    }
+                } catch (InterruptedException e) {
+                    log.severe(e.getMessage());
+                    return;
                 }
             }
-            ended = true;
         }
     }
 
     /**
-     * Consumers take the images prepared from the Producer and extract all the image features.
+     * The features of one image, extracted in parallel. The last extraction to finish passes the job on to the
+     * writers.
      */
-    class Consumer implements Runnable {
-        WorkItem tmp = null;
-        ChainedDocumentBuilder builder = new ChainedDocumentBuilder();
-        int count = 0;
-        boolean locallyEnded = false;
+    class Job {
+        final String fileName;
+        final int position;
+        BufferedImage image;
+        /**
+         * The pixel data shared by the extractions of the job.
+         */
+        ImageContext context;
+        final long imageBytes;
+        final Field[][] fields;
+        final AtomicInteger pending;
+        volatile boolean failed = false;
+        long documentBytes = 0;
 
-        Consumer() {
-            addBuilders(builder);
+        Job(String fileName, int position, BufferedImage image, long imageBytes, int numBuilders) {
+            this.fileName = fileName;
+            this.position = position;
+            this.image = image;
+            this.context = image == null ? null : ChainedDocumentBuilder.createImageContext(image);
+            this.imageBytes = imageBytes;
+            this.fields = new Field[numBuilders][];
+            this.pending = new AtomicInteger(numBuilders);
+        }
+
+        /**
+         * Creates the document with the fields in the order of the builders, like
+         * {@link ChainedDocumentBuilder#createDocument(java.awt.image.BufferedImage, String)} does.
+         */
+        Document createDocument() {
+            Document doc = new Document();
+            doc.add(new StringField(DocumentBuilder.FIELD_NAME_IDENTIFIER, fileName, Field.Store.YES));
+            for (Field[] builderFields : fields) {
+                for (Field field : builderFields) {
+                    if (field != null) doc.add(field);
+                }
+            }
+            return doc;
+        }
+    }
+
+    /**
+     * Runs one builder on the image of a job with the builder instance of the current thread.
+     */
+    class Extraction implements Runnable {
+        private final Job job;
+        private final int builder;
+
+        Extraction(Job job, int builder) {
+            this.job = job;
+            this.builder = builder;
+        }
+
+        public void run() {
+            try {
+                job.fields[builder] = ChainedDocumentBuilder.createDescriptorFields(builders.get().get(builder), job.context);
+            } catch (Exception e) {
+                log.log(Level.SEVERE, "Could not extract features from " + job.fileName + ": " + e.getMessage(), e);
+            } finally {
+                if (job.fields[builder] == null) job.failed = true;
+                finish();
+            }
         }
 
+        private void finish() {
+            // the atomic counter makes the fields of all extractions visible to the thread finishing the job.
+            if (job.pending.decrementAndGet() == 0) {
+                job.image = null;
+                job.context = null;
+                imageBudget.release(job.imageBytes);
+                if (job.failed) {
+                    failed(job.position, job.fileName, "could not extract features");
+                    return;
+                }
+                job.documentBytes = estimateSize(job.fields);
+                try {
+                    documentBudget.acquire(job.documentBytes);
+                    documentQueue.put(job);
+                } catch (InterruptedException e) {
+                    log.severe(e.getMessage());
+                }
+            }
+        }
+    }
+
+    private static long estimateSize(Field[][] fields) {
+        long size = 0;
+        for (Field[] builderFields : fields) {
+            for (IndexableField field : builderFields) {
+                if (field == null) continue;
+                BytesRef bytes = field.binaryValue();
+                if (bytes != null) size += bytes.length;
+                else if (field.stringValue() != null) size += 2 * field.stringValue().length();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Writers add the documents to the index in batches.
+     */
+    class Writer implements Runnable {
         public void run() {
+            List<Job> batch = new ArrayList<Job>(batchSize);
+            List<Document> documents = new ArrayList<Document>(batchSize);
+            boolean locallyEnded = false;
             while (!locallyEnded) {
-                tmp = null;
                 try {
-                    tmp = queue.take();
-                    if (tmp.getFileName() == null) {
-                        locallyEnded = true;
-                    } else {
-                        count++;
-                        overallCount++;
+                    Job job = documentQueue.take();
+                    if (job.fileName == null) locallyEnded = true;
+                    else batch.add(job);
+                    // take what is there without waiting to fill the batch.
+                    while (!locallyEnded && batch.size() < batchSize && (job = documentQueue.poll()) != null) {
+                        if (job.fileName == null) locallyEnded = true;
+                        else batch.add(job);
                     }
                 } catch (InterruptedException e) {
-                    // e.printStackTrace();
                     log.severe(e.getMessage());
+                    locallyEnded = true;
+                }
+                if (batch.isEmpty()) continue;
+                long bytes = 0;
+                for (Job job : batch) {
+                    documents.add(job.createDocument());
+                    bytes += job.documentBytes;
                 }
                 try {
-                    if (!locallyEnded && tmp!=null) {
-                        ByteArrayInputStream b = new ByteArrayInputStream(tmp.getBuffer());
-                        BufferedImage img = ImageIO.read(b);
-                        Document d = builder.createDocument(img, tmp.getFileName());
-                        writer.addDocument(d);
+                    if (journal == null) {
+                        writer.addDocuments(documents);
+                    } else {
+                        // update, so documents indexed after the last checkpoint are not added twice.
+                        for (int i = 0; i < documents.size(); i++) {
+                            writer.updateDocument(new Term(DocumentBuilder.FIELD_NAME_IDENTIFIER, batch.get(i).fileName), documents.get(i));
+                        }
                     }
+                    overallCount.addAndGet(documents.size());
+                    for (Job job : batch) done(job.position);
                 } catch (IOException e) {
-                    // e.printStackTrace();
-                    log.severe(e.getMessage());
+                    log.log(Level.SEVERE, "Could not add " + documents.size() + " documents to the index: " + e.getMessage(), e);
+                    for (Job job : batch) failed(job.position, job.fileName, "could not add to index: " + e.getMessage());
+                } finally {
+                    documentBudget.release(bytes);
                 }
-//                synchronized (images) {
-//                    // we wait for the stack to be either filled or empty & not being filled any more.
-//                    while (images.empty() && !ended) {
-//                        try {
-//                            images.wait(10);
-//                        } catch (InterruptedException e) {
-//                            e.printStackTrace();
-//                        }
-//                    }
-//                    // make sure the thread locally knows that the end has come (outer loop)
-//                    if (images.empty() && ended)
-//                        locallyEnded = true;
-//                    // well the last thing we want is an exception in the very last round.
-//                    if (!images.empty() && !locallyEnded) {
-//                        count++;
-//                        overallCount++;
-//                    }
-//                }
-//                try {
-//                    if (!locallyEnded) {
-//                        ByteArrayInputStream b = new ByteArrayInputStream(tmp.getBuffer());
-//                        BufferedImage img = ImageIO.read(b);
-//                        Document d = builder.createDocument(img, tmp.getFileName());
-//                        writer.addDocument(d);
-//                    }
-//                } catch (Exception e) {
-//                    System.err.println("[ParallelIndexer] Could not handle file " + tmp.getFileName() + ": "  + e.getMessage());
-//                    e.printStackTrace();
-//                }
+                if (journal != null) checkpoint();
+                batch.clear();
+                documents.clear();
             }
-//            System.out.println("Images analyzed: " + count);
         }
     }
 }
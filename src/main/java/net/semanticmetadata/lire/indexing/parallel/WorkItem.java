@@ -61,6 +61,7 @@ public class WorkItem {
     private byte[] buffer;
     private String fileName;
     private BufferedImage image;
+    private int position = -1;
 
     public WorkItem(String fileName, BufferedImage image) {
         this.fileName = fileName;
@@ -72,6 +73,19 @@ public class WorkItem {
         this.buffer = buffer;
     }
 
+    public WorkItem(String path, byte[] buffer, int position) {
+        this.fileName = path;
+        this.buffer = buffer;
+        this.position = position;
+    }
+
+    /**
+     * @return the position of the file in the list of files to index, -1 if not known.
+     */
+    public int getPosition() {
+        return position;
+    }
+
     public String getFileName() {
         return fileName;
     }
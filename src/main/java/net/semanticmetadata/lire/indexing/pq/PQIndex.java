@@ -0,0 +1,530 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ * Updated: 18.10.26 17:04
+ */
+
+package net.semanticmetadata.lire.indexing.pq;
+
+import net.semanticmetadata.lire.clustering.FastKMeans;
+import net.semanticmetadata.lire.imageanalysis.LireFeature;
+import net.semanticmetadata.lire.impl.TopKCollector;
+import net.semanticmetadata.lire.indexing.cache.FeatureValues;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Inverted file with product quantization (IVF-PQ, see Jégou et al., "Product quantization for nearest neighbor
+ * search", PAMI 2011) for the global features of an index, i.e. the vectors of
+ * {@link LireFeature#getDoubleHistogram()}. A coarse k-means quantizer splits the vectors into lists, the residual
+ * of a vector to the center of its list is cut into subspaces and each part is stored as the number of the
+ * nearest of 256 centers of its subspace, so a vector takes one byte per subspace. Both quantizers are trained with
+ * {@link FastKMeans} on a sample of the index.
+ * <br/>
+ * A search visits the lists with the closest centers and computes the squared L2 distance of the query to the
+ * codes with one lookup table per list (asymmetric distance computation), which holds the distances of the query
+ * residual to all subspace centers. As the features have their own distance functions, the candidates are usually
+ * re-ranked with {@link LireFeature#getDistance(LireFeature)}, see {@link net.semanticmetadata.lire.impl.PQImageSearcher}.
+ * <br/>
+ * The docIDs are the ones of the reader the index has been created from, so it has to be created again if the
+ * Lucene index changes. Use {@link #getFile(File, String)} to store it next to the Lucene index.
+ */
+public class PQIndex {
+    private static final int MAGIC = 0x4C505149; // "LPQI"
+    private static final int VERSION = 1;
+    /**
+     * Number of centers per subspace, so a code fits in one byte.
+     */
+    public static final int NUM_CENTROIDS = 256;
+    private static final int MAX_ITERATIONS = 20;
+
+    private final int dimensions, numLists, numSubspaces;
+    private int maxDoc;
+    /**
+     * Subspace m covers the dimensions subspaceStart[m] to subspaceStart[m + 1] - 1.
+     */
+    private final int[] subspaceStart;
+    /**
+     * The coarse centers, numLists times dimensions values.
+     */
+    private final float[] coarse;
+    /**
+     * The centers of subspace m start at NUM_CENTROIDS * subspaceStart[m], each one has the length of the subspace.
+     */
+    private final float[] centroids;
+    private final int[][] docIds;
+    private final byte[][] codes;
+    private final int[] sizes;
+
+    private PQIndex(int dimensions, int numLists, int numSubspaces, float[] coarse, float[] centroids) {
+        this.dimensions = dimensions;
+        this.numLists = numLists;
+        this.numSubspaces = numSubspaces;
+        this.coarse = coarse;
+        this.centroids = centroids;
+        subspaceStart = new int[numSubspaces + 1];
+        for (int m = 0; m <= numSubspaces; m++) {
+            subspaceStart[m] = (int) ((long) dimensions * m / numSubspaces);
+        }
+        docIds = new int[numLists][];
+        codes = new byte[numLists][];
+        sizes = new int[numLists];
+        for (int l = 0; l < numLists; l++) {
+            docIds[l] = new int[16];
+            codes[l] = new byte[16 * numSubspaces];
+        }
+    }
+
+    /**
+     * Trains the quantizers on a sample of the index and adds all documents of the index.
+     *
+     * @param reader       the index.
+     * @param fieldName    the field the feature is stored in.
+     * @param feature      an instance of the feature.
+     * @param numLists     the number of lists of the coarse quantizer, 1 for plain product quantization. The square
+     *                     root of the number of documents is a good start.
+     * @param numSubspaces the number of subspaces, i.e. bytes per vector.
+     * @param sampleSize   the number of documents used for training.
+     * @return the new index.
+     * @throws IOException
+     */
+    public static PQIndex create(IndexReader reader, String fieldName, LireFeature feature, int numLists, int numSubspaces, int sampleSize) throws IOException {
+        PQIndex index = train(sample(reader, fieldName, feature, sampleSize), numLists, numSubspaces, Runtime.getRuntime().availableProcessors());
+        index.addAll(reader, fieldName, feature);
+        return index;
+    }
+
+    /**
+     * Reads the vectors of up to sampleSize live documents, evenly spread over the index.
+     *
+     * @param reader     the index.
+     * @param fieldName  the field the feature is stored in.
+     * @param feature    an instance of the feature, used for reading.
+     * @param sampleSize the maximum number of vectors.
+     * @return the vectors.
+     * @throws IOException
+     */
+    public static List<double[]> sample(IndexReader reader, String fieldName, LireFeature feature, int sampleSize) throws IOException {
+        ArrayList<double[]> result = new ArrayList<double[]>(Math.min(sampleSize, reader.numDocs()));
+        double step = Math.max(1d, (double) reader.numDocs() / sampleSize);
+        double next = 0;
+        int live = 0;
+        for (AtomicReaderContext leaf : reader.leaves()) {
+            FeatureValues values = new FeatureValues(leaf.reader(), fieldName);
+            Bits liveDocs = leaf.reader().getLiveDocs();
+            for (int i = 0; i < leaf.reader().maxDoc() && result.size() < sampleSize; i++) {
+                if (liveDocs != null && !liveDocs.get(i)) continue;
+                if (live++ < next) continue;
+                next += step;
+                BytesRef bytes = values.get(i);
+                if (bytes == null) continue;
+                feature.setByteArrayRepresentation(bytes.bytes, bytes.offset, bytes.length);
+                result.add(feature.getDoubleHistogram().clone());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Trains the coarse quantizer and the subspace quantizers. The new index has no documents yet.
+     *
+     * @param samples      the training vectors, all of the same length.
+     * @param numLists     the number of lists of the coarse quantizer.
+     * @param numSubspaces the number of subspaces.
+     * @param numThreads   the number of threads for k-means.
+     * @return the new, empty index.
+     */
+    public static PQIndex train(List<double[]> samples, int numLists, int numSubspaces, int numThreads) {
+        if (samples.isEmpty()) throw new IllegalArgumentException("No training vectors.");
+        int dimensions = samples.get(0).length;
+        // k-means skips vectors of other lengths and ones with NaNs, so they are removed here already.
+        ArrayList<double[]> valid = new ArrayList<double[]>(samples.size());
+        for (double[] sample : samples) {
+            if (sample.length == dimensions && !hasNaNs(sample)) valid.add(sample);
+        }
+        samples = valid;
+        if (samples.isEmpty()) throw new IllegalArgumentException("No valid training vectors.");
+        if (numSubspaces < 1 || numSubspaces > dimensions)
+            throw new IllegalArgumentException("Number of subspaces has to be in [1, " + dimensions + "].");
+        // k-means needs more vectors than clusters.
+        numLists = Math.max(1, Math.min(numLists, samples.size() - 1));
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, numThreads));
+        try {
+            float[] coarse = new float[numLists * dimensions];
+            if (numLists > 1) {
+                System.arraycopy(cluster(samples, numLists, pool, numThreads).getCenters(), 0, coarse, 0, coarse.length);
+            } else {
+                for (double[] sample : samples) {
+                    for (int d = 0; d < dimensions; d++) coarse[d] += sample[d] / samples.size();
+                }
+            }
+            PQIndex index = new PQIndex(dimensions, numLists, numSubspaces, coarse, new float[NUM_CENTROIDS * dimensions]);
+            // the assignments of k-means are made before the last update of the centers, so the vectors are assigned
+            // to the final centers again, like on add(), before the residuals are computed.
+            int[] assignments = new int[samples.size()];
+            for (int i = 0; i < assignments.length; i++) {
+                assignments[i] = index.nearestList(samples.get(i));
+            }
+            // subspace quantizers on the residuals:
+            for (int m = 0; m < numSubspaces; m++) {
+                int from = index.subspaceStart[m], length = index.subspaceStart[m + 1] - from;
+                ArrayList<double[]> residuals = new ArrayList<double[]>(samples.size());
+                for (int i = 0; i < samples.size(); i++) {
+                    double[] residual = new double[length];
+                    for (int d = 0; d < length; d++) {
+                        residual[d] = samples.get(i)[from + d] - coarse[assignments[i] * dimensions + from + d];
+                    }
+                    residuals.add(residual);
+                }
+                float[] centers;
+                if (residuals.size() > 1) {
+                    centers = cluster(residuals, Math.min(NUM_CENTROIDS, residuals.size() - 1), pool, numThreads).getCenters();
+                } else {
+                    centers = new float[length];
+                    for (int d = 0; d < length; d++) centers[d] = (float) residuals.get(0)[d];
+                }
+                System.arraycopy(centers, 0, index.centroids, NUM_CENTROIDS * from, centers.length);
+                // unused centers are copies of the first one, so codes never point to nothing.
+                for (int c = centers.length / length; c < NUM_CENTROIDS; c++) {
+                    System.arraycopy(centers, 0, index.centroids, NUM_CENTROIDS * from + c * length, length);
+                }
+            }
+            return index;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static boolean hasNaNs(double[] vector) {
+        for (double value : vector) {
+            if (Double.isNaN(value)) return true;
+        }
+        return false;
+    }
+
+    private static FastKMeans cluster(List<double[]> vectors, int k, ExecutorService pool, int numThreads) {
+        FastKMeans kMeans = new FastKMeans(k, pool, numThreads);
+        kMeans.setKMeansPlusPlus(true);
+        kMeans.setSeed(42);
+        for (int i = 0; i < vectors.size(); i++) {
+            kMeans.addImage(Integer.toString(i), Collections.singletonList(vectors.get(i)));
+        }
+        kMeans.init();
+        for (int i = 0; i < MAX_ITERATIONS; i++) {
+            kMeans.clusteringStep();
+            if (kMeans.getReassignedCount() == 0) break;
+        }
+        return kMeans;
+    }
+
+    /**
+     * Encodes and adds the features of all live documents of the index.
+     *
+     * @param reader    the index, docIDs of the results refer to it.
+     * @param fieldName the field the feature is stored in.
+     * @param feature   an instance of the feature, used for reading.
+     * @throws IOException
+     */
+    public void addAll(IndexReader reader, String fieldName, LireFeature feature) throws IOException {
+        for (AtomicReaderContext leaf : reader.leaves()) {
+            FeatureValues values = new FeatureValues(leaf.reader(), fieldName);
+            Bits liveDocs = leaf.reader().getLiveDocs();
+            for (int i = 0; i < leaf.reader().maxDoc(); i++) {
+                if (liveDocs != null && !liveDocs.get(i)) continue;
+                BytesRef bytes = values.get(i);
+                if (bytes == null) continue;
+                feature.setByteArrayRepresentation(bytes.bytes, bytes.offset, bytes.length);
+                add(leaf.docBase + i, feature.getDoubleHistogram());
+            }
+        }
+        maxDoc = Math.max(maxDoc, reader.maxDoc());
+    }
+
+    /**
+     * Encodes and adds one vector.
+     *
+     * @param docId  the docID of the vector.
+     * @param vector the vector.
+     */
+    public void add(int docId, double[] vector) {
+        if (vector.length != dimensions) {
+            System.err.println("Skipping document " + docId + " with " + vector.length + " instead of " + dimensions + " dimensions.");
+            return;
+        }
+        int list = nearestList(vector);
+        if (sizes[list] == docIds[list].length) {
+            docIds[list] = Arrays.copyOf(docIds[list], sizes[list] * 2);
+            codes[list] = Arrays.copyOf(codes[list], sizes[list] * 2 * numSubspaces);
+        }
+        int offset = sizes[list] * numSubspaces;
+        for (int m = 0; m < numSubspaces; m++) {
+            int from = subspaceStart[m], length = subspaceStart[m + 1] - from;
+            int best = 0;
+            double bestDistance = Double.MAX_VALUE;
+            for (int c = 0; c < NUM_CENTROIDS; c++) {
+                int centroid = NUM_CENTROIDS * from + c * length;
+                double distance = 0;
+                for (int d = 0; d < length && distance < bestDistance; d++) {
+                    double diff = vector[from + d] - coarse[list * dimensions + from + d] - centroids[centroid + d];
+                    distance += diff * diff;
+                }
+                if (distance < bestDistance) {
+                    bestDistance = distance;
+                    best = c;
+                }
+            }
+            codes[list][offset + m] = (byte) best;
+        }
+        docIds[list][sizes[list]++] = docId;
+        maxDoc = Math.max(maxDoc, docId + 1);
+    }
+
+    private int nearestList(double[] vector) {
+        int best = 0;
+        double bestDistance = Double.MAX_VALUE;
+        for (int l = 0; l < numLists; l++) {
+            double distance = coarseDistance(vector, l);
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = l;
+            }
+        }
+        return best;
+    }
+
+    private double coarseDistance(double[] vector, int list) {
+        double distance = 0;
+        for (int d = 0; d < dimensions; d++) {
+            double diff = vector[d] - coarse[list * dimensions + d];
+            distance += diff * diff;
+        }
+        return distance;
+    }
+
+    /**
+     * Finds the vectors with the smallest approximate squared L2 distance to the query.
+     *
+     * @param query     the query vector.
+     * @param k         the number of results.
+     * @param numProbes the number of lists visited, the ones with the closest centers.
+     * @param liveDocs  documents to consider, null for all.
+     * @return the results, the distances are the approximate squared L2 distances.
+     */
+    public TopKCollector search(double[] query, int k, int numProbes, Bits liveDocs) {
+        if (query.length != dimensions)
+            throw new IllegalArgumentException("Query has " + query.length + " instead of " + dimensions + " dimensions.");
+        numProbes = Math.max(1, Math.min(numProbes, numLists));
+        // the closest lists, by insertion into a small sorted array:
+        int[] lists = new int[numProbes];
+        double[] listDistances = new double[numProbes];
+        Arrays.fill(listDistances, Double.MAX_VALUE);
+        for (int l = 0; l < numLists; l++) {
+            double distance = coarseDistance(query, l);
+            int pos = numProbes;
+            while (pos > 0 && listDistances[pos - 1] > distance) {
+                if (pos < numProbes) {
+                    listDistances[pos] = listDistances[pos - 1];
+                    lists[pos] = lists[pos - 1];
+                }
+                pos--;
+            }
+            if (pos < numProbes) {
+                listDistances[pos] = distance;
+                lists[pos] = l;
+            }
+        }
+        TopKCollector results = new TopKCollector(k);
+        float[] table = new float[numSubspaces * NUM_CENTROIDS];
+        for (int list : lists) {
+            if (sizes[list] == 0) continue;
+            fillTable(query, list, table);
+            int[] ids = docIds[list];
+            byte[] listCodes = codes[list];
+            for (int i = 0; i < sizes[list]; i++) {
+                if (liveDocs != null && !liveDocs.get(ids[i])) continue;
+                float max = results.getMaxDistance();
+                float distance = 0;
+                int offset = i * numSubspaces;
+                for (int m = 0; m < numSubspaces && distance <= max; m++) {
+                    distance += table[m * NUM_CENTROIDS + (listCodes[offset + m] & 0xff)];
+                }
+                if (distance <= max) results.collect(ids[i], distance);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * The lookup table of a list: the squared distance of each part of the query residual to each subspace center.
+     */
+    private void fillTable(double[] query, int list, float[] table) {
+        for (int m = 0; m < numSubspaces; m++) {
+            int from = subspaceStart[m], length = subspaceStart[m + 1] - from;
+            for (int c = 0; c < NUM_CENTROIDS; c++) {
+                int centroid = NUM_CENTROIDS * from + c * length;
+                double distance = 0;
+                for (int d = 0; d < length; d++) {
+                    double diff = query[from + d] - coarse[list * dimensions + from + d] - centroids[centroid + d];
+                    distance += diff * diff;
+                }
+                table[m * NUM_CENTROIDS + c] = (float) distance;
+            }
+        }
+    }
+
+    /**
+     * The default location of the index of a feature field next to a Lucene index in the file system.
+     *
+     * @param indexDirectory the directory of the Lucene index.
+     * @param fieldName      the field the feature is stored in.
+     * @return the file.
+     */
+    public static File getFile(File indexDirectory, String fieldName) {
+        return new File(indexDirectory, fieldName + ".pq");
+    }
+
+    /**
+     * Writes the index to a temporary file first, which then replaces the given one.
+     *
+     * @param file the file to write to.
+     * @throws IOException
+     */
+    public void write(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(dimensions);
+            out.writeInt(numLists);
+            out.writeInt(numSubspaces);
+            out.writeInt(maxDoc);
+            for (float value : coarse) out.writeFloat(value);
+            for (float value : centroids) out.writeFloat(value);
+            for (int l = 0; l < numLists; l++) {
+                out.writeInt(sizes[l]);
+                for (int i = 0; i < sizes[l]; i++) out.writeInt(docIds[l][i]);
+                out.write(codes[l], 0, sizes[l] * numSubspaces);
+            }
+        } finally {
+            out.close();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Reads an index written by {@link #write(File)}.
+     *
+     * @param file the file.
+     * @return the index.
+     * @throws IOException if the file cannot be read or is not a PQ index.
+     */
+    public static PQIndex open(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+        try {
+            if (in.readInt() != MAGIC) throw new IOException("Not a PQ index: " + file.getPath());
+            int version = in.readInt();
+            if (version != VERSION) throw new IOException("Unsupported version " + version + " of PQ index " + file.getPath());
+            int dimensions = in.readInt(), numLists = in.readInt(), numSubspaces = in.readInt(), maxDoc = in.readInt();
+            float[] coarse = new float[numLists * dimensions];
+            for (int i = 0; i < coarse.length; i++) coarse[i] = in.readFloat();
+            float[] centroids = new float[NUM_CENTROIDS * dimensions];
+            for (int i = 0; i < centroids.length; i++) centroids[i] = in.readFloat();
+            PQIndex index = new PQIndex(dimensions, numLists, numSubspaces, coarse, centroids);
+            index.maxDoc = maxDoc;
+            for (int l = 0; l < numLists; l++) {
+                int size = in.readInt();
+                index.sizes[l] = size;
+                index.docIds[l] = new int[Math.max(16, size)];
+                for (int i = 0; i < size; i++) index.docIds[l][i] = in.readInt();
+                index.codes[l] = new byte[Math.max(16, size) * numSubspaces];
+                in.readFully(index.codes[l], 0, size * numSubspaces);
+            }
+            return index;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return the number of vectors in the index.
+     */
+    public int size() {
+        int size = 0;
+        for (int s : sizes) size += s;
+        return size;
+    }
+
+    /**
+     * @return one more than the largest docID added.
+     */
+    public int maxDoc() {
+        return maxDoc;
+    }
+
+    public int getDimensions() {
+        return dimensions;
+    }
+
+    public int getNumLists() {
+        return numLists;
+    }
+
+    public int getNumSubspaces() {
+        return numSubspaces;
+    }
+}
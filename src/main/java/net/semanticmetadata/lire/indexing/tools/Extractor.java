@@ -43,9 +43,10 @@ package net.semanticmetadata.lire.indexing.tools;
 
 import net.semanticmetadata.lire.DocumentBuilder;
 import net.semanticmetadata.lire.imageanalysis.LireFeature;
+import net.semanticmetadata.lire.utils.DecodedImage;
+import net.semanticmetadata.lire.utils.ImageDecoder;
 import net.semanticmetadata.lire.utils.SerializationUtils;
 
-import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.*;
 import java.util.Enumeration;
@@ -123,6 +124,7 @@ public class Extractor implements Runnable {
     LinkedList<LireFeature> listOfFeatures;
     File fileList = null;
     File outFile = null;
+    private final ImageDecoder decoder = new ImageDecoder(0);
 
     public Extractor() {
         // default constructor.
@@ -156,6 +158,27 @@ public class Extractor implements Runnable {
         this.outFile = outFile;
     }
 
+    public int getMaxSideLength() {
+        return decoder.getMaxSideLength();
+    }
+
+    /**
+     * Sets the size images are scaled down to before extraction. Large images are subsampled while decoding already,
+     * see {@link ImageDecoder}.
+     *
+     * @param maxSideLength the maximum side length, 0 or less to extract from the images in their original size (default).
+     */
+    public void setMaxSideLength(int maxSideLength) {
+        decoder.setMaxSideLength(maxSideLength);
+    }
+
+    /**
+     * @return the decoder of the images, to configure its pixel limit and fallbacks and to get its statistics.
+     */
+    public ImageDecoder getImageDecoder() {
+        return decoder;
+    }
+
     public static void main(String[] args) throws IOException {
         Extractor e = new Extractor();
 
@@ -172,6 +195,16 @@ public class Extractor implements Runnable {
                 if ((i+1) < args.length)
                     e.setOutFile(new File(args[i + 1]));
                 else printHelp();
+            } else if (arg.startsWith("-m")) {
+                // max side length
+                if ((i + 1) < args.length) {
+                    try {
+                        e.setMaxSideLength(Integer.parseInt(args[i + 1]));
+                    } catch (NumberFormatException e1) {
+                        e1.printStackTrace();
+                        printHelp();
+                    }
+                } else printHelp();
             } else if (arg.startsWith("-h")) {
                 // help
                 printHelp();
@@ -227,9 +260,10 @@ public class Extractor implements Runnable {
                 "\n" +
                 "1. Usage\n" +
                 "========\n" +
-                "$> Extractor -i <infile> [-o <outfile>] -c <configfile>\n" +
+                "$> Extractor -i <infile> [-o <outfile>] -c <configfile> [-m <max_side_length>]\n" +
                 "\n" +
                 "Note: if you don't specify an outfile just \".data\" is appended to the infile for output.\n" +
+                "With -m images are scaled down to the given maximum side length before extraction.\n" +
                 "\n" +
                 "2. Config File\n" +
                 "==============\n" +
@@ -258,6 +292,7 @@ public class Extractor implements Runnable {
         // do it ...
         byte[] myBuffer = new byte[1024*1024*10];
         int bufferCount = 0;
+        double scaleSum = 0;
         try {
             BufferedReader br = new BufferedReader(new FileReader(fileList));
             OutputStream dos = new FileOutputStream(outFile);
@@ -270,7 +305,9 @@ public class Extractor implements Runnable {
                 File input = new File(file);
                 String relFile = input.getCanonicalPath();//.substring(outFilePath.length());
                 try {
-                    BufferedImage img = ImageIO.read(input);
+                    DecodedImage decoded = decoder.decode(input);
+                    if (decoded == null) throw new IOException("no suitable reader found");
+                    BufferedImage img = decoded.getImage();
                     byte[] tmpBytes = relFile.getBytes();
                     // everything is written to a buffer and only if no exception is thrown, the image goes to index.
                     System.arraycopy(SerializationUtils.toBytes(tmpBytes.length), 0, myBuffer, 0, 4);
@@ -300,15 +337,19 @@ public class Extractor implements Runnable {
                     dos.write(-1);
                     bufferCount = 0;
                     count++;
+                    scaleSum += decoded.getScale();
                 } catch (Exception e) {
                     System.err.println("Error processing image " + relFile + ": " + e.getMessage());
                     // e.printStackTrace();
                 }
                 if (count%100==0 && count > 0)
-                    System.out.println(count + " files processed, " + (System.currentTimeMillis()-ms)/count + " ms per file.");
+                    System.out.printf("%d files processed, %d ms per file, mean scale %.3f.\n", count, (System.currentTimeMillis() - ms) / count, scaleSum / count);
             }
             dos.flush();
             dos.close();
+            for (ImageDecoder.FormatStatistics stats : decoder.getStatistics().values()) {
+                System.out.println("  " + stats);
+            }
         } catch (FileNotFoundException e) {
             e.printStackTrace();
         } catch (IOException e) {
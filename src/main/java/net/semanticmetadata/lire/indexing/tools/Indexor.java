@@ -43,6 +43,7 @@ package net.semanticmetadata.lire.indexing.tools;
 
 import net.semanticmetadata.lire.DocumentBuilder;
 import net.semanticmetadata.lire.imageanalysis.LireFeature;
+import net.semanticmetadata.lire.indexing.IndexingJournal;
 import net.semanticmetadata.lire.indexing.LireCustomCodec;
 import net.semanticmetadata.lire.utils.LuceneUtils;
 import net.semanticmetadata.lire.utils.SerializationUtils;
@@ -53,16 +54,23 @@ import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 
 import java.io.*;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.Map;
 
 /**
  * The Indexor (yes, I know the hashFunctionsFileName sounds weird, but it should match the Extractor class, and not
  * the Lucene Indexing classes) reads data files created by the {@link Extractor}. They are added to
  * a given index. Note that the index is not overwritten, but the documents are appended.
+ * <br/>
+ * With a checkpoint interval (option -r) the index is committed periodically along with the input file and the
+ * number of documents read from it, see {@link IndexingJournal}. Started again with the same input files, the
+ * Indexor continues after the last commit and updates documents instead of adding them, so there are no duplicates.
  *
  * @author Mathias Lux, mathias@juggle.at
  *         Date: 08.03.13
@@ -74,6 +82,8 @@ public class Indexor {
     //    private boolean overwriteIndex = true;
     protected static boolean verbose = true;
     protected int count;
+    protected int checkpointInterval = 0;
+    protected File failureLog = null;
 
     public static void main(String[] args) throws IOException, IllegalAccessException, InstantiationException {
         Indexor indexor = new Indexor();
@@ -95,6 +105,11 @@ public class Indexor {
             } else if (arg.startsWith("-s")) {
                 // silent ...
                 verbose = false;
+            } else if (arg.startsWith("-r") || arg.startsWith("--resume")) {
+                // checkpoint interval in seconds
+                if ((i + 1) < args.length)
+                    indexor.setCheckpointInterval(Integer.parseInt(args[i + 1]));
+                else printHelp();
             } else if (arg.startsWith("-c")) {
                 // list of input files within a file.
                 if ((i + 1) < args.length) {
@@ -149,6 +164,8 @@ public class Indexor {
                 "\n" +
                 "$> Indexor -c <file-list> -l <index-directory>\n" +
                 "\n" +
+                "both optionally with -r <seconds> to commit every x seconds and resume from the last commit.\n" +
+                "\n" +
                 "with \n" +
                 "\n" +
                 "<input-file> ... \t\ta single output file of Extractor.\n" +
@@ -164,11 +181,27 @@ public class Indexor {
             IndexWriterConfig config = new IndexWriterConfig(LuceneUtils.LUCENE_VERSION, new WhitespaceAnalyzer(LuceneUtils.LUCENE_VERSION));
             config.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
             config.setCodec(new LireCustomCodec());
-            IndexWriter indexWriter = new IndexWriter(FSDirectory.open(new File(indexPath)), config);
-            for (Iterator<File> iterator = inputFiles.iterator(); iterator.hasNext(); ) {
+            Directory directory = FSDirectory.open(new File(indexPath));
+            // find out where the last run stopped, files before the one of the last commit are done.
+            Map<String, String> commitData = IndexingJournal.getCommitData(directory);
+            int resumeFrom = -1, current = 0;
+            if (checkpointInterval > 0) {
+                for (File inputFile : inputFiles) {
+                    if (inputFile.getCanonicalPath().equals(commitData.get(IndexingJournal.SOURCE))) resumeFrom = current;
+                    current++;
+                }
+            }
+            IndexWriter indexWriter = new IndexWriter(directory, config);
+            current = 0;
+            for (Iterator<File> iterator = inputFiles.iterator(); iterator.hasNext(); current++) {
                 File inputFile = iterator.next();
+                if (current < resumeFrom) {
+                    if (verbose) System.out.println("Skipping " + inputFile.getPath() + ", indexed before.");
+                    continue;
+                }
+                int start = (current == resumeFrom) ? IndexingJournal.getPosition(commitData, inputFile.getCanonicalPath()) : 0;
                 if (verbose) System.out.println("Processing " + inputFile.getPath() + ".");
-                readFile(indexWriter, inputFile);
+                readFile(indexWriter, inputFile, start);
                 if (verbose) System.out.println("Indexing finished.");
             }
             indexWriter.commit();
@@ -188,8 +221,15 @@ public class Indexor {
      * @throws IllegalAccessException
      * @throws ClassNotFoundException
      */
-    private void readFile(IndexWriter indexWriter, File inputFile) throws IOException, InstantiationException, IllegalAccessException, ClassNotFoundException {
+    private void readFile(IndexWriter indexWriter, File inputFile, int start) throws IOException, InstantiationException, IllegalAccessException, ClassNotFoundException {
         InputStream in = new FileInputStream(inputFile);
+        IndexingJournal journal = null;
+        String source = inputFile.getCanonicalPath();
+        long lastCheckpoint = System.currentTimeMillis();
+        if (checkpointInterval > 0)
+            journal = new IndexingJournal(start, (failureLog != null) ? failureLog : new File(indexPath, "failures.log"), start > 0);
+        int record = 0;
+        boolean failed;
         byte[] tempInt = new byte[4];
         int tmp, tmpFeature;
         count = 0;
@@ -205,23 +245,48 @@ public class Indexor {
 //            filename = inputFile.getCanonicalPath().substring(0, inputFile.getCanonicalPath().lastIndexOf(inputFile.getName())) + filename;
             d.add(new StringField(DocumentBuilder.FIELD_NAME_IDENTIFIER, filename, Field.Store.YES));
 //            System.out.print(filename);
+            failed = false;
             while (in.read(tempInt, 0, 1) > 0) {
                 if (tempInt[0] == -1) break;
                 tmpFeature = tempInt[0];
 //                System.out.println("tmpFeature=" + tmpFeature);
-                LireFeature f = (LireFeature) Class.forName(Extractor.features[tmpFeature]).newInstance();
                 // byte[] length ...
                 in.read(tempInt, 0, 4);
                 tmp = SerializationUtils.toInt(tempInt);
                 // read feature byte[]
 //                System.out.println(tmp);
                 in.read(temp, 0, tmp);
-                f.setByteArrayRepresentation(temp, 0, tmp);
-                addToDocument(f, d, Extractor.featureFieldNames[tmpFeature]);
+                if (record < start) continue; // indexed before the last checkpoint
+                if (journal == null) {
+                    LireFeature f = (LireFeature) Class.forName(Extractor.features[tmpFeature]).newInstance();
+                    f.setByteArrayRepresentation(temp, 0, tmp);
+                    addToDocument(f, d, Extractor.featureFieldNames[tmpFeature]);
+                } else {
+                    // the bytes of the feature have been read, so the next record can be read even if this one fails.
+                    try {
+                        LireFeature f = (LireFeature) Class.forName(Extractor.features[tmpFeature]).newInstance();
+                        f.setByteArrayRepresentation(temp, 0, tmp);
+                        addToDocument(f, d, Extractor.featureFieldNames[tmpFeature]);
+                    } catch (Exception e) {
+                        if (!failed) journal.failed(record, filename, "could not read feature " + tmpFeature + ": " + e.getMessage());
+                        failed = true;
+                    }
+                }
 //                d.add(new StoredField(Extractor.featureFieldNames[tmpFeature], f.getByteArrayRepresentation()));
             }
 //            System.out.println(tmpFeature);
-            indexWriter.addDocument(d);
+            if (record++ < start) continue;
+            if (journal == null) {
+                indexWriter.addDocument(d);
+            } else if (!failed) {
+                // update, so documents indexed after the last checkpoint are not added twice.
+                indexWriter.updateDocument(new Term(DocumentBuilder.FIELD_NAME_IDENTIFIER, filename), d);
+                journal.done(record - 1);
+            }
+            if (journal != null && System.currentTimeMillis() - lastCheckpoint > checkpointInterval * 1000L) {
+                journal.commit(indexWriter, source);
+                lastCheckpoint = System.currentTimeMillis();
+            }
             count++;
 //            if (count >= 20000) break;
             if (verbose) {
@@ -231,6 +296,10 @@ public class Indexor {
         }
         if (verbose) System.out.println(" " + count);
         in.close();
+        if (journal != null) {
+            journal.commit(indexWriter, source);
+            journal.close();
+        }
     }
 
     /**
@@ -251,4 +320,19 @@ public class Indexor {
     public void setIndexPath(String indexPath) {
         this.indexPath = indexPath;
     }
+
+    /**
+     * @param checkpointInterval seconds between two commits, 0 disables checkpoints and resuming (the default).
+     */
+    public void setCheckpointInterval(int checkpointInterval) {
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    /**
+     * @param failureLog the file records which cannot be read are appended to, in case checkpoints are enabled.
+     *                   Default is failures.log in the index directory.
+     */
+    public void setFailureLog(File failureLog) {
+        this.failureLog = failureLog;
+    }
 }
@@ -44,13 +44,14 @@ package net.semanticmetadata.lire.indexing.tools;
 import net.semanticmetadata.lire.DocumentBuilder;
 import net.semanticmetadata.lire.imageanalysis.LireFeature;
 import net.semanticmetadata.lire.indexing.parallel.WorkItem;
-import net.semanticmetadata.lire.utils.ImageUtils;
+import net.semanticmetadata.lire.utils.DecodedImage;
+import net.semanticmetadata.lire.utils.ImageDecoder;
 import net.semanticmetadata.lire.utils.SerializationUtils;
 
-import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The Extractor is a configurable class that extracts multiple features from multiple images
@@ -129,6 +130,9 @@ public class ParallelExtractor implements Runnable {
     File outFile = null;
     private int monitoringInterval = 10;
     private int maxSideLength = -1;
+    private final ImageDecoder decoder = new ImageDecoder(0);
+    // sum of the scales of the decoded images in millionths, see getMeanScale()
+    private final AtomicLong scaleSum = new AtomicLong(0);
 
     public ParallelExtractor() {
         // default constructor.
@@ -301,6 +305,7 @@ public class ParallelExtractor implements Runnable {
         }
         try {
             dos = new BufferedOutputStream(new FileOutputStream(outFile));
+            decoder.setMaxSideLength(maxSideLength > 50 ? maxSideLength : 0);
             Thread p = new Thread(new Producer());
             p.start();
             LinkedList<Thread> threads = new LinkedList<Thread>();
@@ -316,7 +321,10 @@ public class ParallelExtractor implements Runnable {
                 iterator.next().join();
             }
             long l1 = System.currentTimeMillis() - l;
-            System.out.println("Analyzed " + overallCount + " images in " + l1 / 1000 + " seconds, ~" + (overallCount > 0 ? (l1 / overallCount) : "inf.") + " ms each.");
+            System.out.println("Analyzed " + overallCount + " images in " + l1 / 1000 + " seconds, ~" + (overallCount > 0 ? (l1 / overallCount) : "inf.") + " ms each, mean scale " + String.format("%.3f", getMeanScale()) + ".");
+            for (ImageDecoder.FormatStatistics stats : decoder.getStatistics().values()) {
+                System.out.println("  " + stats);
+            }
             dos.close();
 //            writer.commit();
 //            writer.close();
@@ -328,6 +336,21 @@ public class ParallelExtractor implements Runnable {
 
     }
 
+    /**
+     * @return the decoder used by the consumers, to configure its pixel limit and fallbacks before running the
+     * extractor and to get its statistics per image format.
+     */
+    public ImageDecoder getImageDecoder() {
+        return decoder;
+    }
+
+    /**
+     * @return the mean effective scale of the images decoded so far, see {@link DecodedImage#getScale()}.
+     */
+    public double getMeanScale() {
+        return overallCount > 0 ? scaleSum.get() / 1e6 / overallCount : 1d;
+    }
+
     private void addFeatures(List features) {
         for (Iterator<LireFeature> iterator = listOfFeatures.iterator(); iterator.hasNext(); ) {
             LireFeature next = iterator.next();
@@ -351,7 +374,7 @@ public class ParallelExtractor implements Runnable {
                 try {
                     // print the current status:
                     long time = System.currentTimeMillis() - ms;
-                    System.out.println("Analyzed " + overallCount + " images in " + time / 1000 + " seconds, " + ((overallCount > 0) ? (time / overallCount) : "n.a.") + " ms each (" + images.size() + " images currently in queue).");
+                    System.out.println("Analyzed " + overallCount + " images in " + time / 1000 + " seconds, " + ((overallCount > 0) ? (time / overallCount) : "n.a.") + " ms each (" + images.size() + " images currently in queue, mean scale " + String.format("%.3f", getMeanScale()) + ").");
                     Thread.sleep(1000 * monitoringInterval); // wait xx seconds
                 } catch (InterruptedException e) {
                     e.printStackTrace();
@@ -442,9 +465,10 @@ public class ParallelExtractor implements Runnable {
                 try {
                     bufferCount = 0;
                     if (!locallyEnded) {
-                        ByteArrayInputStream b = new ByteArrayInputStream(tmp.getBuffer());
-                        BufferedImage img = ImageIO.read(b);
-                        if (maxSideLength > 50) img = ImageUtils.scaleImage(img, maxSideLength);
+                        DecodedImage decoded = decoder.decode(tmp.getBuffer());
+                        if (decoded == null) throw new IOException("no suitable reader found");
+                        BufferedImage img = decoded.getImage();
+                        scaleSum.addAndGet(Math.round(decoded.getScale() * 1e6));
                         byte[] tmpBytes = tmp.getFileName().getBytes();
                         // everything is written to a buffer and only if no exception is thrown, the image goes to index.
                         System.arraycopy(SerializationUtils.toBytes(tmpBytes.length), 0, myBuffer, 0, 4);
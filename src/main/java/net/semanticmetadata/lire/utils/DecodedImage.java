@@ -0,0 +1,102 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ * Updated: 18.10.26 17:24
+ */
+
+package net.semanticmetadata.lire.utils;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * An image returned by {@link ImageDecoder} along with the size of the original image, so the scale features have
+ * been extracted at can be reported.
+ */
+public class DecodedImage {
+    private final BufferedImage image;
+    private final int originalWidth, originalHeight;
+    private final int subsampling;
+
+    public DecodedImage(BufferedImage image, int originalWidth, int originalHeight, int subsampling) {
+        this.image = image;
+        this.originalWidth = originalWidth;
+        this.originalHeight = originalHeight;
+        this.subsampling = subsampling;
+    }
+
+    /**
+     * @return the decoded and, if necessary, scaled down image.
+     */
+    public BufferedImage getImage() {
+        return image;
+    }
+
+    /**
+     * @return the width of the image as stored in the file.
+     */
+    public int getOriginalWidth() {
+        return originalWidth;
+    }
+
+    /**
+     * @return the height of the image as stored in the file.
+     */
+    public int getOriginalHeight() {
+        return originalHeight;
+    }
+
+    /**
+     * @return the factor the reader subsampled rows and columns with while decoding, 1 if all pixels were decoded.
+     */
+    public int getSubsampling() {
+        return subsampling;
+    }
+
+    /**
+     * @return the effective scale, i.e. the side length of the image returned relative to the original one.
+     */
+    public double getScale() {
+        return (double) Math.max(image.getWidth(), image.getHeight()) / (double) Math.max(originalWidth, originalHeight);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%dx%d -> %dx%d (subsampling %d, scale %.3f)", originalWidth, originalHeight,
+                image.getWidth(), image.getHeight(), subsampling, getScale());
+    }
+}
@@ -0,0 +1,490 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ * Updated: 18.10.26 17:24
+ */
+
+package net.semanticmetadata.lire.utils;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decodes images for feature extraction at about the size they are used with instead of decoding all pixels and
+ * scaling down afterwards. The size of the image is read from the header first, then the reader skips rows and
+ * columns with {@link ImageReadParam#setSourceSubsampling(int, int, int, int)}, so a multi megapixel photo never
+ * needs a full size raster. The subsampling is chosen so that the decoded image is still at least maxSideLength
+ * pixels on its longer side, the rest is done by {@link ImageUtils#scaleImage(java.awt.image.BufferedImage, int)}
+ * as before, so the images handed to the features have the same size as without subsampling.
+ * <br/>
+ * Unlike {@link ImageIO#read(java.io.InputStream)} the decoder
+ * <ul>
+ * <li>recognizes the common formats by their first bytes and keeps one {@link ImageReader} per format and thread,
+ * so the readers are neither looked up in the registry nor created for every image,</li>
+ * <li>checks the number of pixels given in the header against {@link #setPixelLimit(long, boolean)} before any
+ * raster is allocated, so a single huge image cannot exhaust the heap,</li>
+ * <li>tries a chain of {@link Fallback}s if the reader fails, e.g. on CMYK JPEGs,</li>
+ * <li>counts decoded and failed images and the decoding time per format, see {@link #getStatistics()}.</li>
+ * </ul>
+ * Configure an instance before decoding, afterwards it can be shared by threads.
+ */
+public class ImageDecoder {
+    /**
+     * Default for {@link #setPixelLimit(long, boolean)}, 64 megapixels.
+     */
+    public static final long DEFAULT_PIXEL_LIMIT = 64L * 1024 * 1024;
+
+    /**
+     * Tries the other readers registered for the format, e.g. plugins installed in addition to the ones of the JDK.
+     */
+    public static final Fallback OTHER_READERS = new OtherReadersFallback();
+
+    /**
+     * Reads JPEGs with four channels as raster and converts them from CMYK to RGB, for JDKs which cannot read them.
+     */
+    public static final Fallback CMYK_JPEG = new CmykJpegFallback();
+
+    private int maxSideLength;
+    private long pixelLimit = DEFAULT_PIXEL_LIMIT;
+    private boolean rejectLargeImages = false;
+    private final List<Fallback> fallbacks = new CopyOnWriteArrayList<Fallback>(Arrays.asList(OTHER_READERS, CMYK_JPEG));
+    private final ConcurrentHashMap<String, FormatStatistics> statistics = new ConcurrentHashMap<String, FormatStatistics>();
+    private final ThreadLocal<HashMap<String, ImageReader>> readers = new ThreadLocal<HashMap<String, ImageReader>>() {
+        @Override
+        protected HashMap<String, ImageReader> initialValue() {
+            return new HashMap<String, ImageReader>();
+        }
+    };
+
+    /**
+     * Decodes images if the regular reader of their format fails.
+     */
+    public interface Fallback {
+        /**
+         * @param data        the file contents.
+         * @param format      the format of the image, as given by {@link ImageReader#getFormatName()}.
+         * @param subsampling the subsampling to decode the image with, see {@link ImageDecoder#getSubsampling(int, int, int)}.
+         * @return the image or null if this fallback cannot decode it.
+         * @throws IOException if the image cannot be decoded.
+         */
+        BufferedImage decode(byte[] data, String format, int subsampling) throws IOException;
+    }
+
+    /**
+     * Counters of one image format, updated concurrently by all threads using the decoder.
+     */
+    public static class FormatStatistics {
+        private final String format;
+        private final AtomicLong decoded = new AtomicLong(0), failed = new AtomicLong(0), rejected = new AtomicLong(0);
+        private final AtomicLong byFallback = new AtomicLong(0), nanos = new AtomicLong(0);
+
+        FormatStatistics(String format) {
+            this.format = format;
+        }
+
+        public String getFormat() {
+            return format;
+        }
+
+        /**
+         * @return the number of images decoded, including the ones decoded by a fallback.
+         */
+        public long getDecoded() {
+            return decoded.get();
+        }
+
+        /**
+         * @return the number of images which could not be decoded.
+         */
+        public long getFailed() {
+            return failed.get();
+        }
+
+        /**
+         * @return the number of images rejected because of their number of pixels, counted in {@link #getFailed()} too.
+         */
+        public long getRejected() {
+            return rejected.get();
+        }
+
+        /**
+         * @return the number of images the reader failed on but a fallback could decode.
+         */
+        public long getDecodedByFallback() {
+            return byFallback.get();
+        }
+
+        /**
+         * @return the time spent on decoding images of this format, failed ones included, in nanoseconds.
+         */
+        public long getDecodingTime() {
+            return nanos.get();
+        }
+
+        @Override
+        public String toString() {
+            long total = decoded.get() + failed.get();
+            return String.format("%s: %d decoded (%d by fallback), %d failed (%d rejected), %.2f ms each", format,
+                    decoded.get(), byFallback.get(), failed.get(), rejected.get(), total > 0 ? nanos.get() / 1e6 / total : 0d);
+        }
+    }
+
+    /**
+     * @param maxSideLength the maximum side length of the decoded images, 0 or less to decode them in full size.
+     */
+    public ImageDecoder(int maxSideLength) {
+        this.maxSideLength = maxSideLength;
+    }
+
+    public int getMaxSideLength() {
+        return maxSideLength;
+    }
+
+    /**
+     * @param maxSideLength the maximum side length of the decoded images, 0 or less to decode them in full size.
+     */
+    public void setMaxSideLength(int maxSideLength) {
+        this.maxSideLength = maxSideLength;
+    }
+
+    /**
+     * Limits the number of pixels decoded per image. The size is taken from the header of the image, so images
+     * above the limit are handled before any pixel is decoded.
+     *
+     * @param pixelLimit the maximum number of pixels, default is {@link #DEFAULT_PIXEL_LIMIT}.
+     * @param reject     true to fail on larger images, false to decode them with a subsampling which keeps them
+     *                   within the limit (default).
+     */
+    public void setPixelLimit(long pixelLimit, boolean reject) {
+        this.pixelLimit = pixelLimit;
+        this.rejectLargeImages = reject;
+    }
+
+    public long getPixelLimit() {
+        return pixelLimit;
+    }
+
+    /**
+     * @return the fallbacks tried in this order if the reader of a format fails, {@link #OTHER_READERS} and
+     * {@link #CMYK_JPEG} by default. The list can be changed to configure the chain.
+     */
+    public List<Fallback> getFallbacks() {
+        return fallbacks;
+    }
+
+    /**
+     * @return the counters per format, formats not recognized are counted as "unknown".
+     */
+    public Map<String, FormatStatistics> getStatistics() {
+        return Collections.unmodifiableMap(statistics);
+    }
+
+    /**
+     * Decodes an image from the contents of a file.
+     *
+     * @param data the file contents.
+     * @return the image or null if no reader is registered for its format, like {@link ImageIO#read(java.io.InputStream)}.
+     * @throws IOException if the image cannot be decoded or is rejected because of its size.
+     */
+    public DecodedImage decode(byte[] data) throws IOException {
+        long start = System.nanoTime();
+        String format = getFormat(data);
+        ImageReader reader = format != null ? getReader(format) : null;
+        ImageInputStream input = createInput(data);
+        boolean pooled = reader != null;
+        FormatStatistics stats = null;
+        try {
+            if (reader == null) {
+                // not one of the common formats, ask the registry.
+                Iterator<ImageReader> candidates = ImageIO.getImageReaders(input);
+                if (!candidates.hasNext()) {
+                    stats = getStatistics("unknown");
+                    stats.failed.incrementAndGet();
+                    return null;
+                }
+                reader = candidates.next();
+                format = reader.getFormatName().toLowerCase();
+            }
+            stats = getStatistics(format);
+            try {
+                return read(reader, input, data, format, stats);
+            } catch (IOException e) {
+                stats.failed.incrementAndGet();
+                throw e;
+            } catch (RuntimeException e) {
+                // corrupt files make some readers fail with all kinds of exceptions.
+                stats.failed.incrementAndGet();
+                throw new IIOException("Could not decode image: " + e, e);
+            }
+        } finally {
+            if (stats != null) stats.nanos.addAndGet(System.nanoTime() - start);
+            input.close();
+            if (pooled) reader.reset();
+            else if (reader != null) reader.dispose();
+        }
+    }
+
+    /**
+     * Decodes an image file.
+     *
+     * @param file the file.
+     * @return the image or null if no reader is registered for its format, like {@link ImageIO#read(java.io.File)}.
+     * @throws IOException if the file cannot be read or the image cannot be decoded.
+     */
+    public DecodedImage decode(File file) throws IOException {
+        if (!file.canRead()) throw new IIOException("Can't read input file!");
+        return decode(Files.readAllBytes(file.toPath()));
+    }
+
+    private DecodedImage read(ImageReader reader, ImageInputStream input, byte[] data, String format, FormatStatistics stats) throws IOException {
+        reader.setInput(input, true, true);
+        int width = reader.getWidth(0);
+        int height = reader.getHeight(0);
+        int subsampling = getSubsampling(width, height, maxSideLength);
+        long pixels = (long) width * (long) height;
+        if (pixels > pixelLimit) {
+            if (rejectLargeImages) {
+                stats.rejected.incrementAndGet();
+                throw new IIOException("Image of " + width + "x" + height + " pixels exceeds the limit of " + pixelLimit + " pixels.");
+            }
+            while (((long) ceil(width, subsampling)) * ceil(height, subsampling) > pixelLimit) subsampling++;
+        }
+        BufferedImage image = null;
+        Exception error = null;
+        try {
+            image = reader.read(0, createParam(reader, subsampling));
+        } catch (IOException e) {
+            error = e;
+        } catch (RuntimeException e) {
+            error = e;
+        }
+        if (image == null) {
+            for (Fallback fallback : fallbacks) {
+                try {
+                    image = fallback.decode(data, format, subsampling);
+                } catch (IOException e) {
+                    // try the next one.
+                } catch (RuntimeException e) {
+                    // try the next one.
+                }
+                if (image != null) {
+                    stats.byFallback.incrementAndGet();
+                    break;
+                }
+            }
+            if (image == null) {
+                if (error instanceof IOException) throw (IOException) error;
+                throw new IIOException("Could not decode image: " + error, error);
+            }
+        }
+        if (maxSideLength > 0 && Math.max(image.getWidth(), image.getHeight()) > maxSideLength)
+            image = ImageUtils.scaleImage(image, maxSideLength);
+        stats.decoded.incrementAndGet();
+        return new DecodedImage(image, width, height, subsampling);
+    }
+
+    private static int ceil(int size, int subsampling) {
+        return (size + subsampling - 1) / subsampling;
+    }
+
+    private FormatStatistics getStatistics(String format) {
+        FormatStatistics stats = statistics.get(format);
+        if (stats == null) {
+            statistics.putIfAbsent(format, new FormatStatistics(format));
+            stats = statistics.get(format);
+        }
+        return stats;
+    }
+
+    /**
+     * @return the reader of the format kept for the current thread, null if there is no reader for it.
+     */
+    private ImageReader getReader(String format) {
+        HashMap<String, ImageReader> pool = readers.get();
+        ImageReader reader = pool.get(format);
+        if (reader == null) {
+            Iterator<ImageReader> candidates = ImageIO.getImageReadersByFormatName(format);
+            if (!candidates.hasNext()) return null;
+            reader = candidates.next();
+            pool.put(format, reader);
+        }
+        return reader;
+    }
+
+    /**
+     * Recognizes the common image formats by their signature.
+     *
+     * @param data the file contents.
+     * @return the format name or null if the format is not one of them.
+     */
+    static String getFormat(byte[] data) {
+        if (data.length < 8) return null;
+        int b0 = data[0] & 0xff, b1 = data[1] & 0xff, b2 = data[2] & 0xff, b3 = data[3] & 0xff;
+        if (b0 == 0xff && b1 == 0xd8 && b2 == 0xff) return "jpeg";
+        if (b0 == 0x89 && b1 == 'P' && b2 == 'N' && b3 == 'G') return "png";
+        if (b0 == 'G' && b1 == 'I' && b2 == 'F' && b3 == '8') return "gif";
+        if (b0 == 'B' && b1 == 'M') return "bmp";
+        if ((b0 == 'I' && b1 == 'I' && b2 == 42 && b3 == 0) || (b0 == 'M' && b1 == 'M' && b2 == 0 && b3 == 42))
+            return "tiff";
+        return null;
+    }
+
+    /**
+     * Computes the largest subsampling which keeps the longer side of the image at maxSideLength or above.
+     *
+     * @param width         the width of the image.
+     * @param height        the height of the image.
+     * @param maxSideLength the side length the image is scaled to, 0 or less for the original size.
+     * @return the subsampling factor, 1 to decode all pixels.
+     */
+    public static int getSubsampling(int width, int height, int maxSideLength) {
+        if (maxSideLength <= 0) return 1;
+        return Math.max(1, Math.max(width, height) / maxSideLength);
+    }
+
+    private static ImageInputStream createInput(byte[] data) {
+        return new MemoryCacheImageInputStream(new ByteArrayInputStream(data));
+    }
+
+    private static ImageReadParam createParam(ImageReader reader, int subsampling) {
+        ImageReadParam param = reader.getDefaultReadParam();
+        if (subsampling > 1) param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        return param;
+    }
+
+    /**
+     * See {@link ImageDecoder#OTHER_READERS}.
+     */
+    static class OtherReadersFallback implements Fallback {
+        public BufferedImage decode(byte[] data, String format, int subsampling) throws IOException {
+            Iterator<ImageReader> candidates = ImageIO.getImageReadersByFormatName(format);
+            // the first one is the reader which failed already.
+            if (candidates.hasNext()) candidates.next();
+            while (candidates.hasNext()) {
+                ImageReader reader = candidates.next();
+                ImageInputStream input = createInput(data);
+                try {
+                    reader.setInput(input, true, true);
+                    return reader.read(0, createParam(reader, subsampling));
+                } catch (IOException e) {
+                    // try the next one.
+                } finally {
+                    reader.dispose();
+                    input.close();
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * See {@link ImageDecoder#CMYK_JPEG}. Without color profile the conversion is a plain
+     * R = (255 - C) * (255 - K) / 255, which is close enough for feature extraction. Adobe applications store CMYK
+     * inverted, which is recognized by the Adobe marker.
+     */
+    static class CmykJpegFallback implements Fallback {
+        public BufferedImage decode(byte[] data, String format, int subsampling) throws IOException {
+            if (!"jpeg".equals(format)) return null;
+            Iterator<ImageReader> candidates = ImageIO.getImageReadersByFormatName(format);
+            if (!candidates.hasNext()) return null;
+            ImageReader reader = candidates.next();
+            ImageInputStream input = createInput(data);
+            Raster raster;
+            try {
+                reader.setInput(input, true, true);
+                raster = reader.readRaster(0, createParam(reader, subsampling));
+            } finally {
+                reader.dispose();
+                input.close();
+            }
+            if (raster.getNumBands() != 4) return null;
+            boolean inverted = hasAdobeMarker(data);
+            int width = raster.getWidth(), height = raster.getHeight();
+            BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            int[] cmyk = new int[4 * width];
+            int[] rgb = new int[width];
+            for (int y = 0; y < height; y++) {
+                raster.getPixels(raster.getMinX(), raster.getMinY() + y, width, 1, cmyk);
+                for (int x = 0; x < width; x++) {
+                    int c = cmyk[4 * x], m = cmyk[4 * x + 1], yellow = cmyk[4 * x + 2], k = cmyk[4 * x + 3];
+                    if (inverted) {
+                        c = 255 - c;
+                        m = 255 - m;
+                        yellow = 255 - yellow;
+                        k = 255 - k;
+                    }
+                    int r = (255 - c) * (255 - k) / 255, g = (255 - m) * (255 - k) / 255, b = (255 - yellow) * (255 - k) / 255;
+                    rgb[x] = (r << 16) | (g << 8) | b;
+                }
+                image.setRGB(0, y, width, 1, rgb, 0, width);
+            }
+            return image;
+        }
+
+        /**
+         * Looks for the APP14 marker written by Adobe applications in the header of the JPEG.
+         */
+        static boolean hasAdobeMarker(byte[] data) {
+            int pos = 2;
+            while (pos + 4 < data.length && (data[pos] & 0xff) == 0xff) {
+                int marker = data[pos + 1] & 0xff;
+                if (marker == 0xda) break; // start of scan, no more header segments.
+                int length = ((data[pos + 2] & 0xff) << 8) | (data[pos + 3] & 0xff);
+                if (marker == 0xee && length >= 7 && pos + 9 < data.length
+                        && data[pos + 4] == 'A' && data[pos + 5] == 'd' && data[pos + 6] == 'o' && data[pos + 7] == 'b' && data[pos + 8] == 'e')
+                    return true;
+                pos += 2 + length;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ * Updated: 18.10.26 16:51
+ */
+
+package net.semanticmetadata.lire.clustering;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+public class CodebookTest extends TestCase {
+    private Random random = new Random(3);
+
+    private Cluster[] randomClusters(int size, int dimensions) {
+        Cluster[] clusters = new Cluster[size];
+        for (int i = 0; i < size; i++) {
+            double[] mean = new double[dimensions];
+            for (int d = 0; d < dimensions; d++) mean[d] = random.nextDouble() * 255;
+            clusters[i] = new Cluster(mean);
+        }
+        return clusters;
+    }
+
+    private void assertSameMeans(Cluster[] expected, Codebook codebook) {
+        assertEquals(expected.length, codebook.size());
+        assertEquals(expected[0].getMean().length, codebook.getDimensions());
+        double[] mean = new double[codebook.getDimensions()];
+        for (int i = 0; i < expected.length; i++) {
+            codebook.getMean(i, mean);
+            for (int d = 0; d < mean.length; d++) {
+                assertEquals((float) expected[i].getMean()[d], (float) mean[d]);
+            }
+        }
+    }
+
+    public void testBinaryFormat() throws IOException {
+        File file = File.createTempFile("codebook", ".dat");
+        try {
+            Cluster[] clusters = randomClusters(100, 64);
+            Codebook.write(clusters, file.getPath());
+            assertEquals(32 + 100 * 64 * 4, file.length());
+            Codebook codebook = Codebook.open(file.getPath());
+            assertSameMeans(clusters, codebook);
+            assertEquals(Codebook.fromClusters(clusters).getChecksum(), codebook.getChecksum());
+            assertEquals(codebook.getChecksum(), Codebook.readChecksum(file.getPath()));
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testOldFormat() throws IOException {
+        File file = File.createTempFile("clusters", ".dat");
+        try {
+            Cluster[] clusters = randomClusters(20, 128);
+            Cluster.writeClusters(clusters, file.getPath());
+            assertSameMeans(clusters, Codebook.open(file.getPath()));
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testRegistry() throws IOException {
+        File file = File.createTempFile("codebook", ".dat");
+        try {
+            Codebook.write(randomClusters(50, 16), file.getPath());
+            Codebook first = CodebookRegistry.acquire(file.getPath());
+            Codebook second = CodebookRegistry.acquire(file.getPath());
+            assertSame(first, second);
+            assertEquals(2, CodebookRegistry.getReferences(first));
+            assertSame(first.getQuantizer(Quantizer.Type.Linear), second.getQuantizer(Quantizer.Type.Linear));
+            // a new vocabulary in the same file has to be loaded again:
+            Codebook.write(randomClusters(50, 16), file.getPath());
+            Codebook third = CodebookRegistry.acquire(file.getPath());
+            assertNotSame(first, third);
+            CodebookRegistry.release(first);
+            CodebookRegistry.release(second);
+            assertEquals(0, CodebookRegistry.getReferences(first));
+            assertEquals(1, CodebookRegistry.getReferences(third));
+            CodebookRegistry.release(third);
+            assertEquals(0, CodebookRegistry.size());
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testLoader() throws IOException {
+        File file = File.createTempFile("codebook", ".dat");
+        CodebookLoader loader = new CodebookLoader(), other = new CodebookLoader();
+        try {
+            Cluster[] clusters = randomClusters(50, 16);
+            loader.write(clusters, file.getPath());
+            Codebook written = loader.getCodebook();
+            assertEquals(Codebook.fromClusters(clusters).getChecksum(), written.getChecksum());
+            assertFalse(loader.load(file.getPath()));
+            assertTrue(other.load(file.getPath()));
+            assertSame(written, other.getCodebook());
+            assertEquals(2, CodebookRegistry.getReferences(written));
+            // a rewrite of the same size within the same modification time is noticed as well:
+            long modified = file.lastModified();
+            Cluster[] rewritten = randomClusters(50, 16);
+            Codebook.write(rewritten, file.getPath());
+            file.setLastModified(modified);
+            assertTrue(other.load(file.getPath()));
+            assertEquals(Codebook.fromClusters(rewritten).getChecksum(), other.getCodebook().getChecksum());
+            assertEquals(1, CodebookRegistry.getReferences(written));
+            other.setQuantizerType(Quantizer.Type.KDForest);
+            assertSame(other.getCodebook().getQuantizer(Quantizer.Type.KDForest), other.getQuantizer());
+        } finally {
+            loader.release();
+            other.release();
+            file.delete();
+        }
+        assertEquals(0, CodebookRegistry.size());
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ * Updated: 18.10.26 16:46
+ */
+
+package net.semanticmetadata.lire.clustering;
+
+import junit.framework.TestCase;
+import net.semanticmetadata.lire.imageanalysis.distance.DistanceKernels;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class FastKMeansTest extends TestCase {
+    private int dimensions = 16, numClusters = 40;
+
+    /**
+     * Features around random centers, added in images of 100 features.
+     */
+    private void addFeatures(KMeans kMeans, int numFeatures, long seed) {
+        Random random = new Random(seed);
+        double[][] blobs = new double[numClusters][dimensions];
+        for (double[] blob : blobs) {
+            for (int d = 0; d < dimensions; d++) blob[d] = random.nextDouble() * 100;
+        }
+        List<double[]> image = new ArrayList<double[]>();
+        for (int i = 0; i < numFeatures; i++) {
+            double[] blob = blobs[random.nextInt(numClusters)];
+            double[] feature = new double[dimensions];
+            for (int d = 0; d < dimensions; d++) feature[d] = blob[d] + random.nextGaussian() * 8;
+            image.add(feature);
+            if (image.size() == 100) {
+                kMeans.addImage("image" + i, image);
+                image.clear();
+            }
+        }
+    }
+
+    /**
+     * The bounds must not change the result, so compare with plain k-means started from the same centers.
+     */
+    public void testSameAsLloyd() {
+        FastKMeans kMeans = new FastKMeans(numClusters, 1);
+        addFeatures(kMeans, 20000, 42);
+        kMeans.init();
+        float[] data = kMeans.data;
+        int n = data.length / dimensions;
+        float[] centers = kMeans.getCenters().clone();
+        int[] assignments = new int[n];
+        int skipped = 0;
+        for (int step = 0; step < 10; step++) {
+            for (int i = 0; i < n; i++) {
+                float best = Float.MAX_VALUE;
+                for (int j = 0; j < numClusters; j++) {
+                    float d = DistanceKernels.squaredL2(data, i * dimensions, centers, j * dimensions, dimensions);
+                    if (d < best) {
+                        best = d;
+                        assignments[i] = j;
+                    }
+                }
+            }
+            double[] sums = new double[numClusters * dimensions];
+            int[] counts = new int[numClusters];
+            for (int i = 0; i < n; i++) {
+                counts[assignments[i]]++;
+                for (int d = 0; d < dimensions; d++) sums[assignments[i] * dimensions + d] += data[i * dimensions + d];
+            }
+            for (int j = 0; j < numClusters; j++) {
+                assertTrue(counts[j] > 0);
+                for (int d = 0; d < dimensions; d++) centers[j * dimensions + d] = (float) (sums[j * dimensions + d] / counts[j]);
+            }
+
+            kMeans.clusteringStep();
+            assertTrue("assignments differ in step " + step, Arrays.equals(assignments, kMeans.getAssignments()));
+            assertTrue("centers differ in step " + step, Arrays.equals(centers, kMeans.getCenters()));
+            if (step > 0) skipped += n - kMeans.getReassignedCount();
+        }
+        assertTrue(skipped > 0);
+        assertEquals(numClusters, kMeans.getClusters().length);
+        assertEquals((double) centers[0], kMeans.getClusters()[0].getMean()[0]);
+    }
+
+    public void testMiniBatch() {
+        FastKMeans kMeans = new FastKMeans(numClusters);
+        kMeans.setMiniBatch(1000, 5);
+        kMeans.setKMeansPlusPlus(true);
+        kMeans.setSeed(1);
+        addFeatures(kMeans, 20000, 7);
+        kMeans.init();
+        double first = kMeans.clusteringStep();
+        double last = first;
+        for (int i = 0; i < 5; i++) last = kMeans.clusteringStep();
+        assertTrue(last < first);
+
+        // compare to exact k-means on the same data, the stress should be close.
+        FastKMeans exact = new FastKMeans(numClusters);
+        exact.setKMeansPlusPlus(true);
+        exact.setSeed(1);
+        addFeatures(exact, 20000, 7);
+        exact.init();
+        double stress = 0;
+        for (int i = 0; i < 10; i++) stress = exact.clusteringStep();
+        assertTrue(last + " vs. " + stress, last < stress * 1.2);
+        assertEquals(20000, kMeans.getAssignments().length);
+    }
+
+    public void testTooManyFeatures() {
+        FastKMeans kMeans = new FastKMeans(numClusters, 1);
+        // pretend the features have been added, the size check fails before anything is allocated.
+        kMeans.numFeatures = 20000000;
+        kMeans.dimensions = 128;
+        try {
+            kMeans.init();
+            fail("expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("20000000 features"));
+        }
+    }
+}
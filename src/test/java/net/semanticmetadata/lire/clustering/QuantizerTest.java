@@ -0,0 +1,121 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ * Updated: 18.10.26 16:49
+ */
+
+package net.semanticmetadata.lire.clustering;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+public class QuantizerTest extends TestCase {
+    private int dimensions = 32, numClusters = 500;
+    private Random random = new Random(17);
+
+    private Cluster[] randomCodebook() {
+        Cluster[] clusters = new Cluster[numClusters];
+        for (int i = 0; i < clusters.length; i++) {
+            clusters[i] = new Cluster(randomVector(100));
+        }
+        return clusters;
+    }
+
+    private double[] randomVector(double scale) {
+        double[] result = new double[dimensions];
+        for (int d = 0; d < dimensions; d++) result[d] = random.nextDouble() * scale;
+        return result;
+    }
+
+    private int linearScan(Cluster[] clusters, double[] feature) {
+        double distance = clusters[0].getDistance(feature);
+        int result = 0;
+        for (int i = 1; i < clusters.length; i++) {
+            double tmp = clusters[i].getDistance(feature);
+            if (tmp < distance) {
+                distance = tmp;
+                result = i;
+            }
+        }
+        return result;
+    }
+
+    public void testLinear() {
+        Cluster[] clusters = randomCodebook();
+        Quantizer quantizer = Quantizer.create(Quantizer.Type.Linear, clusters);
+        assertEquals(numClusters, quantizer.size());
+        assertEquals(dimensions, quantizer.getDimensions());
+        for (int i = 0; i < 1000; i++) {
+            double[] feature = randomVector(100);
+            assertEquals(linearScan(clusters, feature), quantizer.quantize(feature));
+        }
+    }
+
+    /**
+     * Checking as many clusters as there are in the codebook has to give the exact result.
+     */
+    public void testKDForestExact() {
+        Cluster[] clusters = randomCodebook();
+        Quantizer quantizer = new KDForestQuantizer(clusters, 4, numClusters, 1);
+        for (int i = 0; i < 1000; i++) {
+            double[] feature = randomVector(100);
+            assertEquals(linearScan(clusters, feature), quantizer.quantize(feature));
+        }
+    }
+
+    /**
+     * Features close to one of the means have to be found with a limited number of checks, and the same codebook
+     * has to give the same visual words every time.
+     */
+    public void testKDForestApproximate() {
+        Cluster[] clusters = randomCodebook();
+        Quantizer quantizer = Quantizer.create(Quantizer.Type.KDForest, clusters);
+        Quantizer other = Quantizer.create(Quantizer.Type.KDForest, clusters);
+        int correct = 0, queries = 1000;
+        for (int i = 0; i < queries; i++) {
+            double[] feature = clusters[random.nextInt(numClusters)].getMean().clone();
+            for (int d = 0; d < dimensions; d++) feature[d] += random.nextGaussian() * 5;
+            int word = quantizer.quantize(feature);
+            assertEquals(word, other.quantize(feature));
+            if (word == linearScan(clusters, feature)) correct++;
+        }
+        System.out.println("Correct assignments: " + correct + " of " + queries);
+        assertTrue(correct > queries * 0.9);
+    }
+}
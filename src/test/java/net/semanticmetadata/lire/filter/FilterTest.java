@@ -50,7 +50,11 @@ import org.apache.lucene.document.Document;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.RAMDirectory;
 
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
@@ -115,6 +119,48 @@ public class FilterTest extends TestCase {
         FileUtils.saveImageResultsToHtml("filtertest", hits, document.getField(DocumentBuilder.FIELD_NAME_IDENTIFIER).stringValue());
     }
 
+    /**
+     * Re-ranks the hits of a search in an in-memory index of the test images and checks the new order against the
+     * distances of the re-ranking feature.
+     */
+    public void testRerankFilterOrder() throws IOException {
+        RAMDirectory directory = new RAMDirectory();
+        IndexWriter iw = LuceneUtils.createIndexWriter(directory, true, LuceneUtils.AnalyzerType.WhitespaceAnalyzer);
+        DocumentBuilder builder = getDocumentBuilder();
+        for (File file : new File("src/test/resources/images/").listFiles()) {
+            BufferedImage image = ImageIO.read(file);
+            if (image != null) iw.addDocument(builder.createDocument(image, file.getName()));
+        }
+        iw.close();
+        IndexReader reader = DirectoryReader.open(directory);
+        Document query = reader.document(0);
+        ImageSearchHits hits = ImageSearcherFactory.createCEDDImageSearcher(100).search(query, reader);
+        RerankFilter filter = new RerankFilter(ColorLayout.class, DocumentBuilder.FIELD_NAME_COLORLAYOUT);
+        ImageSearchHits reranked = filter.filter(hits, query);
+        assertEquals(hits.length(), reranked.length());
+        ColorLayout queryFeature = new ColorLayout(), feature = new ColorLayout();
+        queryFeature.setByteArrayRepresentation(query.getBinaryValue(DocumentBuilder.FIELD_NAME_COLORLAYOUT).bytes);
+        for (int i = 0; i < reranked.length(); i++) {
+            if (i > 0) assertTrue(reranked.score(i - 1) <= reranked.score(i));
+            feature.setByteArrayRepresentation(reranked.doc(i).getBinaryValue(DocumentBuilder.FIELD_NAME_COLORLAYOUT).bytes);
+            assertEquals(queryFeature.getDistance(feature), reranked.score(i));
+        }
+        // the same for the results of a plain Lucene query.
+        TopDocs topDocs = new IndexSearcher(reader).search(new MatchAllDocsQuery(), 100);
+        ImageSearchHits fromTopDocs = filter.filter(topDocs, reader, query);
+        assertEquals(reader.numDocs(), fromTopDocs.length());
+        for (int i = 0; i < fromTopDocs.length(); i++) {
+            if (i > 0) assertTrue(fromTopDocs.score(i - 1) <= fromTopDocs.score(i));
+            feature.setByteArrayRepresentation(fromTopDocs.doc(i).getBinaryValue(DocumentBuilder.FIELD_NAME_COLORLAYOUT).bytes);
+            assertEquals(queryFeature.getDistance(feature), fromTopDocs.score(i));
+        }
+        LsaFilter lsa = new LsaFilter(CEDD.class, DocumentBuilder.FIELD_NAME_CEDD);
+        ImageSearchHits lsaHits = lsa.filter(hits, query);
+        assertEquals(hits.length(), lsaHits.length());
+        for (int i = 1; i < lsaHits.length(); i++) assertTrue(lsaHits.score(i - 1) <= lsaHits.score(i));
+        reader.close();
+    }
+
     @SuppressWarnings("unused")
 	private Document indexFiles() throws IOException {
         System.out.println("---< indexing >-------------------------");
@@ -66,6 +66,22 @@ public class BinaryPatternsPyramidTest extends TestCase {
         System.out.println("sch = " + sch.getStringRepresentation());
     }
 
+    public void testBothNeighbours() throws IOException {
+        int different = 0;
+        for (String file : testFiles) {
+            BufferedImage image = ImageIO.read(new FileInputStream(testFilesPath + file));
+            BinaryPatternsPyramid standard = new BinaryPatternsPyramid(), oneNeighbour = new BinaryPatternsPyramid(false);
+            BinaryPatternsPyramid bothNeighbours = new BinaryPatternsPyramid(true);
+            standard.extract(image);
+            oneNeighbour.extract(image);
+            bothNeighbours.extract(image);
+            assertTrue(Arrays.equals(standard.getByteArrayRepresentation(), oneNeighbour.getByteArrayRepresentation()));
+            if (!Arrays.equals(standard.getByteArrayRepresentation(), bothNeighbours.getByteArrayRepresentation()))
+                different++;
+        }
+        assertTrue(different > 0);
+    }
+
     public void testRetrieval() throws Exception {
         BinaryPatternsPyramid[] acc = new BinaryPatternsPyramid[testFiles.length];
         LinkedList<String> vds = new LinkedList<String>();
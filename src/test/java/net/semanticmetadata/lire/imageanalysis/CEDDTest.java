@@ -43,6 +43,9 @@ package net.semanticmetadata.lire.imageanalysis;
 
 import junit.framework.TestCase;
 import net.semanticmetadata.lire.DocumentBuilder;
+import net.semanticmetadata.lire.imageanalysis.cedd.Fuzzy10Bin;
+import net.semanticmetadata.lire.imageanalysis.cedd.Fuzzy24Bin;
+import net.semanticmetadata.lire.imageanalysis.cedd.FuzzyColorTables;
 import net.semanticmetadata.lire.impl.ChainedDocumentBuilder;
 import net.semanticmetadata.lire.impl.GenericDocumentBuilder;
 import net.semanticmetadata.lire.indexing.parallel.ParallelIndexer;
@@ -62,6 +65,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class CEDDTest extends TestCase {
     private String[] testFiles = new String[]{"img01.jpg", "img02.jpg", "img03.jpg", "img04.jpg", "img05.jpg", "img06.jpg", "img07.jpg", "img08.jpg", "img09.jpg", "img10.jpg"};
@@ -249,4 +253,66 @@ public class CEDDTest extends TestCase {
         System.out.println("sum of dimensions = " + sum);
         System.out.println("actual dimensions = " + saved);
     }
-}
\ No newline at end of file
+
+    public void testFuzzyColorTables() {
+        Fuzzy10Bin fuzzy10 = new Fuzzy10Bin(false);
+        Fuzzy24Bin fuzzy24 = new Fuzzy24Bin(false);
+        double[] result10 = new double[10], result24 = new double[24];
+        for (int h = 0; h < 360; h++) {
+            for (int s = 0; s < 256; s += 3) {
+                for (int v = 0; v < 256; v += 3) {
+                    double[] expected10 = fuzzy10.ApplyFilter(h, s, v, 2);
+                    double[] expected24 = fuzzy24.ApplyFilter(h, s, v, expected10, 2);
+                    FuzzyColorTables.fuzzy10(h, s, v, result10);
+                    FuzzyColorTables.fuzzy24(s, v, result10, result24);
+                    assertTrue(Arrays.equals(expected10, result10));
+                    assertTrue(Arrays.equals(expected24, result24));
+                }
+            }
+        }
+    }
+
+    /**
+     * The extraction reuses buffers per thread, so features extracted in parallel have to be the same as the ones
+     * extracted one after another.
+     */
+    public void testParallelExtraction() throws Exception {
+        final ArrayList<BufferedImage> images = new ArrayList<BufferedImage>();
+        for (File file : new File("./src/test/resources/images/").listFiles()) {
+            BufferedImage image = ImageIO.read(file);
+            if (image != null) images.add(image);
+        }
+        final byte[][] expected = new byte[images.size() * 2][];
+        for (int i = 0; i < images.size(); i++) {
+            CEDD cedd = new CEDD();
+            cedd.extract(images.get(i));
+            expected[2 * i] = cedd.getByteArrayRepresentation();
+            FCTH fcth = new FCTH();
+            fcth.extract(images.get(i));
+            expected[2 * i + 1] = fcth.getByteArrayRepresentation();
+        }
+        final AtomicInteger errors = new AtomicInteger(0);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int k = 0; k < 3 * images.size(); k++) {
+                        int i = (k + offset) % images.size();
+                        CEDD cedd = new CEDD();
+                        cedd.extract(images.get(i));
+                        FCTH fcth = new FCTH();
+                        fcth.extract(images.get(i));
+                        if (!Arrays.equals(expected[2 * i], cedd.getByteArrayRepresentation())) errors.incrementAndGet();
+                        if (!Arrays.equals(expected[2 * i + 1], fcth.getByteArrayRepresentation())) errors.incrementAndGet();
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, errors.get());
+    }
+}
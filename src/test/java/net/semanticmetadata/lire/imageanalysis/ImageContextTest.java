@@ -0,0 +1,126 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ * Updated: 18.10.26 17:12
+ */
+
+package net.semanticmetadata.lire.imageanalysis;
+
+import junit.framework.TestCase;
+import net.semanticmetadata.lire.imageanalysis.utils.ImageContext;
+import net.semanticmetadata.lire.impl.ChainedDocumentBuilder;
+import net.semanticmetadata.lire.impl.GenericDocumentBuilder;
+import net.semanticmetadata.lire.utils.ImageUtils;
+import org.apache.lucene.document.Field;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+public class ImageContextTest extends TestCase {
+    private File[] files = new File("./src/test/resources/images/").listFiles();
+    private int[] types = {BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_3BYTE_BGR};
+
+    private BufferedImage convert(BufferedImage image, int type) {
+        BufferedImage result = new BufferedImage(image.getWidth(), image.getHeight(), type);
+        result.getGraphics().drawImage(image, 0, 0, null);
+        return result;
+    }
+
+    public void testPlanes() throws IOException {
+        BufferedImage image = ImageIO.read(files[0]);
+        ImageContext context = new ImageContext(image);
+        assertSame(context.getRGB(), context.getRGB());
+        assertSame(context.getYCbCr(), context.getYCbCr());
+        int width = context.getWidth();
+        for (int y = 0; y < context.getHeight(); y += 7) {
+            for (int x = 0; x < width; x += 7) {
+                int i = y * width + x;
+                assertEquals(image.getRGB(x, y) & 0xffffff, context.getRGB()[i] & 0xffffff);
+                assertEquals(context.getGrayscaleImage().getRaster().getSample(x, y, 0), context.getGray()[i] & 0xff);
+                assertTrue(context.getHSV()[0][i] >= 0 && context.getHSV()[0][i] < 360);
+                assertTrue(context.getYCbCr()[0][i] >= 16 && context.getYCbCr()[0][i] <= 235);
+            }
+        }
+        ImageContext scaled = new ImageContext(image, 100);
+        assertEquals(100, Math.max(scaled.getWidth(), scaled.getHeight()));
+        assertEquals(scaled.getWidth() * scaled.getHeight(), scaled.getRGB().length);
+        assertSame(image, scaled.getOriginalImage());
+    }
+
+    public void testExtraction() throws Exception {
+        Class[] features = {CEDD.class, FCTH.class, JCD.class, ColorLayout.class, EdgeHistogram.class,
+                LocalBinaryPatterns.class, AutoColorCorrelogram.class};
+        for (File file : files) {
+            BufferedImage original = ImageIO.read(file);
+            if (original == null) continue;
+            for (int type : types) {
+                BufferedImage image = convert(original, type);
+                ImageContext context = new ImageContext(image);
+                for (Class featureClass : features) {
+                    LireFeature expected = (LireFeature) featureClass.newInstance();
+                    expected.extract(image);
+                    ImageContextFeature feature = (ImageContextFeature) featureClass.newInstance();
+                    feature.extract(context);
+                    assertTrue(featureClass.getSimpleName() + " " + file.getName() + " " + type,
+                            Arrays.equals(expected.getByteArrayRepresentation(), feature.getByteArrayRepresentation()));
+                }
+            }
+        }
+    }
+
+    public void testChainedDocumentBuilder() throws IOException {
+        Class[] features = {CEDD.class, JCD.class, ColorLayout.class, EdgeHistogram.class, PHOG.class, OpponentHistogram.class};
+        ChainedDocumentBuilder chained = new ChainedDocumentBuilder();
+        for (Class featureClass : features) chained.addBuilder(new GenericDocumentBuilder(featureClass));
+        for (int i = 0; i < 3; i++) {
+            BufferedImage image = ImageIO.read(files[i]);
+            // larger than GenericDocumentBuilder.MAX_IMAGE_DIMENSION, so it is scaled down.
+            image = ImageUtils.scaleImage(image, 1500, 1100);
+            Field[] fields = chained.createDescriptorFields(image);
+            assertEquals(features.length, fields.length);
+            for (int f = 0; f < features.length; f++) {
+                Field expected = new GenericDocumentBuilder(features[f]).createDescriptorFields(image)[0];
+                assertEquals(expected.name(), fields[f].name());
+                assertEquals(expected.binaryValue(), fields[f].binaryValue());
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ * Updated: 18.10.26 16:53
+ */
+
+package net.semanticmetadata.lire.imageanalysis.bovw;
+
+import junit.framework.TestCase;
+import net.semanticmetadata.lire.DocumentBuilder;
+import net.semanticmetadata.lire.clustering.Codebook;
+import net.semanticmetadata.lire.clustering.CodebookRegistry;
+import net.semanticmetadata.lire.imageanalysis.SurfFeature;
+import net.semanticmetadata.lire.impl.SurfDocumentBuilder;
+import net.semanticmetadata.lire.utils.LuceneUtils;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.*;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.BytesRef;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+public class BOVWBuilderTest extends TestCase {
+    private String imageDirectory = "./src/test/resources/images/";
+
+    private RAMDirectory createIndex() throws IOException {
+        RAMDirectory directory = new RAMDirectory();
+        IndexWriter iw = LuceneUtils.createIndexWriter(directory, true, LuceneUtils.AnalyzerType.WhitespaceAnalyzer);
+        SurfDocumentBuilder builder = new SurfDocumentBuilder();
+        for (File file : new File(imageDirectory).listFiles()) {
+            BufferedImage image = ImageIO.read(file);
+            if (image == null) continue;
+            iw.addDocument(builder.createDocument(image, file.getPath()));
+        }
+        // a deleted document has to be skipped, but keep its docID.
+        iw.deleteDocuments(new Term(DocumentBuilder.FIELD_NAME_IDENTIFIER, imageDirectory + "91561.jpg"));
+        iw.close();
+        return directory;
+    }
+
+    /**
+     * The visual words in the side index have to be at the same docIDs as the documents and the same as the ones
+     * created for a single document.
+     */
+    public void testSideIndex() throws IOException {
+        IndexReader reader = DirectoryReader.open(createIndex());
+        assertTrue(reader.hasDeletions());
+        BOVWBuilder builder = new BOVWBuilder(reader, new SurfFeature(), 20, 16);
+        builder.setNumThreads(3);
+        RAMDirectory side = new RAMDirectory();
+        try {
+            builder.index(side);
+            IndexReader words = DirectoryReader.open(side);
+            AtomicReader parallel = new ParallelAtomicReader(SlowCompositeReaderWrapper.wrap(reader), SlowCompositeReaderWrapper.wrap(words));
+            assertEquals(reader.maxDoc(), words.maxDoc());
+            String histField = DocumentBuilder.FIELD_NAME_SURF + DocumentBuilder.FIELD_NAME_BOVW_VECTOR;
+            String wordsField = DocumentBuilder.FIELD_NAME_SURF + DocumentBuilder.FIELD_NAME_BOVW;
+            for (int i = 0; i < parallel.maxDoc(); i++) {
+                if (!parallel.getLiveDocs().get(i)) continue;
+                Document d = parallel.document(i);
+                assertEquals(reader.document(i).get(DocumentBuilder.FIELD_NAME_IDENTIFIER), words.document(i).get(DocumentBuilder.FIELD_NAME_IDENTIFIER));
+                assertEquals(0, words.document(i).getFields(DocumentBuilder.FIELD_NAME_SURF).length);
+                Document expected = builder.getVisualWords(reader.document(i));
+                assertEquals(expected.get(wordsField), d.get(wordsField));
+                BytesRef hist = d.getBinaryValue(histField);
+                assertEquals(expected.getBinaryValue(histField), hist);
+            }
+            words.close();
+        } finally {
+            reader.close();
+            new File("./clusters-bovw" + new SurfFeature().getFeatureName() + ".dat").delete();
+        }
+    }
+
+    public void testIndex() throws IOException {
+        RAMDirectory directory = createIndex();
+        IndexReader reader = DirectoryReader.open(directory);
+        int numDocs = reader.numDocs();
+        BOVWBuilder builder = new BOVWBuilder(reader, new SurfFeature(), 20, 16);
+        String clusterFile = "./clusters-bovw" + new SurfFeature().getFeatureName() + ".dat";
+        try {
+            builder.index();
+            // the builder holds the codebook until it is released.
+            Codebook codebook = CodebookRegistry.acquire(clusterFile);
+            assertEquals(2, CodebookRegistry.getReferences(codebook));
+            builder.releaseCodebook();
+            assertEquals(1, CodebookRegistry.getReferences(codebook));
+            CodebookRegistry.release(codebook);
+            assertEquals(0, CodebookRegistry.getReferences(codebook));
+        } finally {
+            reader.close();
+            new File("./clusters-bovw" + new SurfFeature().getFeatureName() + ".dat").delete();
+        }
+        reader = DirectoryReader.open(directory);
+        assertEquals(numDocs, reader.numDocs());
+        for (int i = 0; i < reader.maxDoc(); i++) {
+            Document d = reader.document(i);
+            assertNotNull(d.get(DocumentBuilder.FIELD_NAME_SURF + DocumentBuilder.FIELD_NAME_BOVW));
+            assertEquals(0, d.getFields(DocumentBuilder.FIELD_NAME_SURF).length);
+        }
+        reader.close();
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ * Updated: 18.10.26 16:34
+ */
+
+package net.semanticmetadata.lire.imageanalysis.distance;
+
+import junit.framework.TestCase;
+import net.semanticmetadata.lire.imageanalysis.CEDD;
+import net.semanticmetadata.lire.imageanalysis.FCTH;
+import net.semanticmetadata.lire.imageanalysis.JCD;
+import net.semanticmetadata.lire.imageanalysis.LireFeature;
+import net.semanticmetadata.lire.utils.MetricsUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Checks the distance kernels against getDistance(..) of the features and against {@link MetricsUtils}.
+ */
+public class DistanceKernelsTest extends TestCase {
+    private String[] testFiles = new String[]{"img01.JPG", "img02.JPG", "img03.JPG", "img04.JPG", "img05.JPG",
+            "img06.JPG", "img07.JPG", "img08.JPG", "img08a.JPG"};
+    private String testFilesPath = "src/test/resources/images/";
+
+    public void testCEDD() throws Exception {
+        testKernel(CEDD.class);
+    }
+
+    public void testFCTH() throws Exception {
+        testKernel(FCTH.class);
+    }
+
+    public void testJCD() throws Exception {
+        testKernel(JCD.class);
+    }
+
+    private void testKernel(Class<? extends LireFeature> featureClass) throws IOException, InstantiationException, IllegalAccessException {
+        byte[][] features = new byte[testFiles.length + 1][];
+        for (int i = 0; i < testFiles.length; i++) {
+            BufferedImage image = ImageIO.read(new File(testFilesPath + testFiles[i]));
+            LireFeature feature = featureClass.newInstance();
+            feature.extract(image);
+            features[i] = feature.getByteArrayRepresentation();
+        }
+        // an empty feature.
+        features[testFiles.length] = featureClass.newInstance().getByteArrayRepresentation();
+        DistanceKernel kernel = DistanceKernels.forFeature(featureClass);
+        LireFeature query = featureClass.newInstance(), candidate = featureClass.newInstance();
+        for (byte[] q : features) {
+            query.setByteArrayRepresentation(q);
+            // put the query at an offset to check slices.
+            byte[] shifted = new byte[q.length + 3];
+            System.arraycopy(q, 0, shifted, 3, q.length);
+            kernel.setQuery(shifted, 3, q.length);
+            for (byte[] c : features) {
+                candidate.setByteArrayRepresentation(c);
+                assertEquals(query.getDistance(candidate), kernel.getDistance(c, 0, c.length), 0.0001f);
+            }
+        }
+    }
+
+    public void testFloatKernels() {
+        Random random = new Random(17);
+        for (int length = 1; length < 40; length++) {
+            float[] a = new float[length + 2], b = new float[length];
+            for (int i = 0; i < length; i++) {
+                a[i + 2] = random.nextFloat();
+                b[i] = random.nextFloat();
+            }
+            float[] a0 = new float[length];
+            System.arraycopy(a, 2, a0, 0, length);
+            assertEquals(MetricsUtils.distL1(a0, b), DistanceKernels.distL1(a, 2, b, 0, length), 0.0001f);
+            assertEquals(MetricsUtils.distL2(a0, b), DistanceKernels.distL2(a, 2, b, 0, length), 0.0001f);
+            assertEquals((float) MetricsUtils.tanimoto(a0, b), DistanceKernels.tanimoto(a, 2, b, 0, length), 0.001f);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ * Updated: 18.10.26 17:34
+ */
+
+package net.semanticmetadata.lire.imageanalysis.filters;
+
+import junit.framework.TestCase;
+import net.semanticmetadata.lire.utils.ImageUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.ConvolveOp;
+import java.awt.image.Kernel;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+public class EdgeFiltersTest extends TestCase {
+    private byte[] getGray(BufferedImage image) {
+        BufferedImage gray = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
+        gray.getGraphics().drawImage(image, 0, 0, null);
+        return EdgeFilters.getGrayPixels(gray);
+    }
+
+    public void testGaussianBlur() throws IOException {
+        BufferedImage image = ImageIO.read(new File("./src/test/resources/images/img02.JPG"));
+        byte[] photo = getGray(image);
+        int[][] sizes = {{image.getWidth(), image.getHeight()}, {301, 203}, {64, 7}, {5, 5}, {4, 9}};
+        Random random = new Random(17);
+        int[] kernelSizes = {3, 5, 5, 5, 7};
+        float[] sigmas = {1f, 1f, 1.4f, 2f, 2f};
+        for (int k = 0; k < sigmas.length; k++) {
+            ConvolveOp op = new ConvolveOp(new Kernel(kernelSizes[k], kernelSizes[k],
+                    ImageUtils.makeGaussianKernel(kernelSizes[k], sigmas[k])));
+            EdgeFilters.GaussianKernel kernel = new EdgeFilters.GaussianKernel(kernelSizes[k], sigmas[k]);
+            for (int s = 0; s < sizes.length; s++) {
+                int width = sizes[s][0], height = sizes[s][1];
+                // the photo, noise, flat areas of white and a gradient.
+                for (int content = 0; content < 4; content++) {
+                    BufferedImage gray = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+                    byte[] pixels = EdgeFilters.getGrayPixels(gray);
+                    if (content == 0 && s == 0) System.arraycopy(photo, 0, pixels, 0, pixels.length);
+                    else if (content == 1) random.nextBytes(pixels);
+                    for (int i = 0; i < pixels.length; i++) {
+                        if (content == 2) pixels[i] = (byte) ((i / width) % 20 < 10 ? 255 : random.nextInt(256));
+                        else if (content == 3) pixels[i] = (byte) (i % width + i / width);
+                    }
+                    byte[] expected = EdgeFilters.getGrayPixels(op.filter(gray, null));
+                    byte[] blurred = new byte[pixels.length];
+                    EdgeFilters.gaussianBlur(pixels, width, height, kernel,
+                            new int[(kernel.getRadius() + 1) * width], blurred);
+                    for (int i = 0; i < blurred.length; i++) {
+                        assertEquals("kernel " + k + ", size " + s + ", content " + content + ", pixel " + i,
+                                expected[i], blurred[i]);
+                    }
+                }
+            }
+        }
+    }
+
+    public void testSobel() {
+        int width = 37, height = 23;
+        byte[] gray = new byte[width * height];
+        new Random(17).nextBytes(gray);
+        short[] gx = new short[gray.length], gy = new short[gray.length];
+        int[] magnitude = new int[gray.length];
+        EdgeFilters.sobel(gray, width, height, gx, gy, magnitude);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int i = y * width + x;
+                if (x == 0 || y == 0 || x == width - 1 || y == height - 1) {
+                    assertEquals(0, gx[i]);
+                    assertEquals(0, gy[i]);
+                    continue;
+                }
+                int dx = 0, dy = 0;
+                for (int k = -1; k <= 1; k++) {
+                    int weight = k == 0 ? 2 : 1;
+                    dx += weight * ((gray[(y + k) * width + x - 1] & 0xff) - (gray[(y + k) * width + x + 1] & 0xff));
+                    dy += weight * ((gray[(y - 1) * width + x + k] & 0xff) - (gray[(y + 1) * width + x + k] & 0xff));
+                }
+                assertEquals(dx, gx[i]);
+                assertEquals(dy, gy[i]);
+                assertEquals(dx * dx + dy * dy, magnitude[i]);
+            }
+        }
+    }
+
+    public void testNonMaxSuppression() throws IOException {
+        BufferedImage image = ImageIO.read(new File("./src/test/resources/images/img02.JPG"));
+        byte[] gray = getGray(image);
+        int width = image.getWidth(), height = image.getHeight();
+        short[] gx = new short[gray.length], gy = new short[gray.length];
+        int[] magnitude = new int[gray.length];
+        byte[] edges = new byte[gray.length];
+        EdgeFilters.sobel(gray, width, height, gx, gy, magnitude);
+        for (boolean bothNeighbours : new boolean[]{true, false}) {
+            EdgeFilters.nonMaxSuppression(gx, gy, magnitude, width, height, 60, 100, bothNeighbours, edges);
+            int count = 0;
+            for (int y = 1; y < height - 1; y++) {
+                for (int x = 1; x < width - 1; x++) {
+                    int i = y * width + x;
+                    // the direction from the angle and the magnitude as double.
+                    double gd = gx[i] != 0 ? Math.atan((double) gy[i] / gx[i]) : Math.PI / 2d;
+                    int n1, n2;
+                    if (gd < Math.PI / 8d && gd >= -Math.PI / 8d) {
+                        n1 = i - 1;
+                        n2 = i + 1;
+                    } else if (gd < 3d * Math.PI / 8d && gd >= Math.PI / 8d) {
+                        n1 = i - width - 1;
+                        // BinaryPatternsPyramid only compares with the upper left neighbour.
+                        n2 = bothNeighbours ? i + width + 1 : i - width - 1;
+                    } else if (gd < -3d * Math.PI / 8d || gd >= 3d * Math.PI / 8d) {
+                        // ... and the lower one.
+                        n1 = bothNeighbours ? i - width : i + width;
+                        n2 = i + width;
+                    } else {
+                        n1 = i - width + 1;
+                        n2 = i + width - 1;
+                    }
+                    double m = Math.sqrt(magnitude[i]);
+                    byte expected = EdgeFilters.NO_EDGE;
+                    if (m > Math.sqrt(magnitude[n1]) && m > Math.sqrt(magnitude[n2])) {
+                        if (m > 100) expected = EdgeFilters.EDGE;
+                        else if (m > 60) expected = EdgeFilters.WEAK_EDGE;
+                    }
+                    assertEquals(expected, edges[i]);
+                    if (expected != EdgeFilters.NO_EDGE) count++;
+                }
+            }
+            assertTrue(count > 0);
+        }
+    }
+
+    public void testHysteresis() {
+        int width = 10, height = 6;
+        byte[] edges = new byte[width * height];
+        // a line of weak pixels touching a strong one diagonally, and a single weak pixel.
+        edges[width + 1] = EdgeFilters.EDGE;
+        for (int x = 2; x < 8; x++) edges[2 * width + x] = EdgeFilters.WEAK_EDGE;
+        edges[4 * width + 8] = EdgeFilters.WEAK_EDGE;
+        EdgeFilters.hysteresis(edges, width, height, new int[edges.length]);
+        assertEquals(EdgeFilters.EDGE, edges[width + 1]);
+        for (int x = 2; x < 8; x++) assertEquals(EdgeFilters.EDGE, edges[2 * width + x]);
+        assertEquals(EdgeFilters.NO_EDGE, edges[4 * width + 8]);
+    }
+}
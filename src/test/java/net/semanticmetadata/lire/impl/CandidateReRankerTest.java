@@ -0,0 +1,120 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ * Updated: 18.10.26 17:00
+ */
+
+package net.semanticmetadata.lire.impl;
+
+import junit.framework.TestCase;
+import net.semanticmetadata.lire.DocumentBuilder;
+import net.semanticmetadata.lire.imageanalysis.CEDD;
+import net.semanticmetadata.lire.utils.LuceneUtils;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.BytesRef;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+public class CandidateReRankerTest extends TestCase {
+    private ArrayList<BufferedImage> images = new ArrayList<BufferedImage>();
+
+    @Override
+    protected void setUp() throws Exception {
+        for (File file : new File("./src/test/resources/images/").listFiles()) {
+            BufferedImage image = ImageIO.read(file);
+            if (image != null) images.add(image);
+        }
+    }
+
+    private IndexReader createIndex(GenericDocumentBuilder.Mode mode) throws IOException {
+        RAMDirectory directory = new RAMDirectory();
+        IndexWriter iw = LuceneUtils.createIndexWriter(directory, true, LuceneUtils.AnalyzerType.WhitespaceAnalyzer);
+        GenericDocumentBuilder builder = new GenericDocumentBuilder(CEDD.class, DocumentBuilder.FIELD_NAME_CEDD, mode);
+        for (int i = 0; i < images.size(); i++) {
+            iw.addDocument(builder.createDocument(images.get(i), "image" + i));
+            // more than one segment:
+            if (i == images.size() / 2) iw.commit();
+        }
+        iw.close();
+        return DirectoryReader.open(directory);
+    }
+
+    /**
+     * The same results as computing the distances from the stored documents, with and without doc values and
+     * feature columns.
+     */
+    public void testReRank() throws IOException {
+        CEDD query = new CEDD();
+        query.extract(images.get(0));
+        int[] candidates = new int[]{7, 1, 3, 9, 4, 0, 11};
+        IndexReader stored = createIndex(GenericDocumentBuilder.Mode.Fast);
+        assertTrue(stored.leaves().size() > 1);
+        TopKCollector expected = new TopKCollector(5);
+        CEDD feature = new CEDD();
+        for (int doc : candidates) {
+            BytesRef bytes = stored.document(doc).getBinaryValue(DocumentBuilder.FIELD_NAME_CEDD);
+            feature.setByteArrayRepresentation(bytes.bytes, bytes.offset, bytes.length);
+            expected.collect(doc, query.getDistance(feature));
+        }
+        expected.sort();
+        IndexReader docValues = createIndex(GenericDocumentBuilder.Mode.DocValues);
+        for (IndexReader reader : new IndexReader[]{stored, docValues}) {
+            for (boolean useFeatureColumn : new boolean[]{false, true}) {
+                CandidateReRanker reRanker = new CandidateReRanker(DocumentBuilder.FIELD_NAME_CEDD);
+                reRanker.setUseFeatureColumn(useFeatureColumn);
+                TopKCollector results = reRanker.reRank(candidates, query, new CEDD(), reader, 5);
+                results.sort();
+                assertEquals(expected.size(), results.size());
+                for (int i = 0; i < expected.size(); i++) {
+                    assertEquals(expected.docId(i), results.docId(i));
+                    assertEquals(expected.distance(i), results.distance(i));
+                }
+            }
+        }
+        assertEquals(0f, expected.distance(0));
+        stored.close();
+        docValues.close();
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ * Updated: 18.10.26 16:22
+ */
+
+package net.semanticmetadata.lire.impl;
+
+import junit.framework.TestCase;
+import net.semanticmetadata.lire.DocumentBuilder;
+import net.semanticmetadata.lire.ImageDuplicates;
+import net.semanticmetadata.lire.ImageSearchHits;
+import net.semanticmetadata.lire.imageanalysis.CEDD;
+import net.semanticmetadata.lire.impl.custom.SingleNddCeddImageSearcher;
+import net.semanticmetadata.lire.utils.LuceneUtils;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.BytesRef;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Compares serial, parallel and cached linear search of the GenericFastImageSearcher.
+ */
+public class GenericFastImageSearcherTest extends TestCase {
+    private String[] testFiles = new String[]{"img01.JPG", "img02.JPG", "img03.JPG", "img04.JPG", "img05.JPG",
+            "img06.JPG", "img07.JPG", "img08.JPG", "img08a.JPG"};
+    private String testFilesPath = "src/test/resources/images/";
+    private int numCopies = 500;
+
+    /**
+     * Creates an index with several copies of each test image, so the index gets large enough to be partitioned.
+     */
+    private IndexReader createIndex() throws IOException {
+        RAMDirectory directory = new RAMDirectory();
+        IndexWriter iw = LuceneUtils.createIndexWriter(directory, true, LuceneUtils.AnalyzerType.WhitespaceAnalyzer);
+        GenericDocumentBuilder builder = new GenericDocumentBuilder(CEDD.class);
+        Document[] documents = new Document[testFiles.length];
+        for (int i = 0; i < testFiles.length; i++) {
+            documents[i] = builder.createDocument(ImageIO.read(new File(testFilesPath + testFiles[i])), null);
+        }
+        for (int copy = 0; copy < numCopies; copy++) {
+            for (int i = 0; i < documents.length; i++) {
+                Document d = new Document();
+                d.add(new StringField(DocumentBuilder.FIELD_NAME_IDENTIFIER, copy + "-" + testFiles[i], Field.Store.YES));
+                d.add(documents[i].getField(DocumentBuilder.FIELD_NAME_CEDD));
+                iw.addDocument(d);
+            }
+        }
+        iw.close();
+        return DirectoryReader.open(directory);
+    }
+
+    public void testParallelSearch() throws IOException {
+        IndexReader reader = createIndex();
+        Document query = reader.document(1);
+        GenericFastImageSearcher serial = new GenericFastImageSearcher(50, CEDD.class, DocumentBuilder.FIELD_NAME_CEDD);
+        GenericFastImageSearcher parallel = new GenericFastImageSearcher(50, CEDD.class, DocumentBuilder.FIELD_NAME_CEDD, true, reader, true);
+        parallel.setForkJoinPool(new ForkJoinPool(4));
+        assertSameHits(serial.search(query, reader), parallel.search(query, reader));
+        reader.close();
+    }
+
+    public void testConcurrentSearch() throws Exception {
+        final IndexReader reader = createIndex();
+        final GenericFastImageSearcher searcher = new GenericFastImageSearcher(20, CEDD.class, DocumentBuilder.FIELD_NAME_CEDD, true, reader, true);
+        searcher.setForkJoinPool(new ForkJoinPool(2));
+        final ImageSearchHits[] expected = new ImageSearchHits[testFiles.length];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = searcher.search(reader.document(i), reader);
+        }
+        final ImageSearchHits[] actual = new ImageSearchHits[testFiles.length];
+        Thread[] threads = new Thread[testFiles.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int queryId = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        actual[queryId] = searcher.search(reader.document(queryId), reader);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) thread.join();
+        for (int i = 0; i < expected.length; i++) {
+            assertSameHits(expected[i], actual[i]);
+        }
+        reader.close();
+    }
+
+    /**
+     * Checks that a batch of queries, larger than one query block, gives the same results as single searches, both
+     * serial and parallel.
+     */
+    public void testBatchSearch() throws IOException {
+        IndexReader reader = createIndex();
+        Document[] queries = new Document[GenericFastImageSearcher.QUERY_BLOCK_SIZE + 7];
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = reader.document(i * 13);
+        }
+        GenericFastImageSearcher serial = new GenericFastImageSearcher(10, CEDD.class, DocumentBuilder.FIELD_NAME_CEDD, true, reader, true);
+        GenericFastImageSearcher parallel = new GenericFastImageSearcher(10, CEDD.class, DocumentBuilder.FIELD_NAME_CEDD, true, reader, true);
+        parallel.setForkJoinPool(new ForkJoinPool(4));
+        ImageSearchHits[] serialHits = serial.search(queries, reader);
+        ImageSearchHits[] parallelHits = parallel.search(queries, reader);
+        assertEquals(queries.length, serialHits.length);
+        assertEquals(queries.length, parallelHits.length);
+        for (int i = 0; i < queries.length; i++) {
+            ImageSearchHits expected = serial.search(queries[i], reader);
+            assertSameHits(expected, serialHits[i]);
+            assertSameHits(expected, parallelHits[i]);
+        }
+        reader.close();
+    }
+
+    /**
+     * Indexes the test images once with stored fields and once with doc values, committing in between to get
+     * several segments, and checks that linear search over both indexes gives the same results.
+     */
+    public void testDocValuesSearch() throws IOException {
+        RAMDirectory stored = new RAMDirectory(), docValues = new RAMDirectory();
+        IndexWriter iwStored = LuceneUtils.createIndexWriter(stored, true, LuceneUtils.AnalyzerType.WhitespaceAnalyzer);
+        IndexWriter iwDocValues = LuceneUtils.createIndexWriter(docValues, true, LuceneUtils.AnalyzerType.WhitespaceAnalyzer);
+        GenericDocumentBuilder storedBuilder = new GenericDocumentBuilder(CEDD.class, DocumentBuilder.FIELD_NAME_CEDD);
+        GenericDocumentBuilder docValuesBuilder = new GenericDocumentBuilder(CEDD.class, DocumentBuilder.FIELD_NAME_CEDD, GenericDocumentBuilder.Mode.DocValues);
+        Document query = null;
+        for (int i = 0; i < testFiles.length; i++) {
+            BufferedImage image = ImageIO.read(new File(testFilesPath + testFiles[i]));
+            iwStored.addDocument(storedBuilder.createDocument(image, testFiles[i]));
+            Document d = docValuesBuilder.createDocument(image, testFiles[i]);
+            if (query == null) query = d;
+            iwDocValues.addDocument(d);
+            if (i % 3 == 2) {
+                iwStored.commit();
+                iwDocValues.commit();
+            }
+        }
+        // a copy of the first image for findDuplicates.
+        BufferedImage copy = ImageIO.read(new File(testFilesPath + testFiles[0]));
+        iwStored.addDocument(storedBuilder.createDocument(copy, "copy-" + testFiles[0]));
+        iwDocValues.addDocument(docValuesBuilder.createDocument(copy, "copy-" + testFiles[0]));
+        iwStored.close();
+        iwDocValues.close();
+        IndexReader storedReader = DirectoryReader.open(stored);
+        IndexReader docValuesReader = DirectoryReader.open(docValues);
+        assertTrue(docValuesReader.leaves().size() > 1);
+        // the stored copy of the feature makes the loaded documents usable as queries.
+        assertNotNull(docValuesReader.document(0).getField(DocumentBuilder.FIELD_NAME_CEDD));
+
+        GenericFastImageSearcher searcher = new GenericFastImageSearcher(5, CEDD.class, DocumentBuilder.FIELD_NAME_CEDD);
+        assertSameHits(searcher.search(query, storedReader), searcher.search(query, docValuesReader));
+        GenericFastImageSearcher columnar = new GenericFastImageSearcher(5, CEDD.class, DocumentBuilder.FIELD_NAME_CEDD, true, docValuesReader, true);
+        assertSameHits(searcher.search(query, storedReader), columnar.search(query, docValuesReader));
+        for (int i = 0; i < docValuesReader.maxDoc(); i++) {
+            Document loaded = docValuesReader.document(i);
+            assertSameHits(searcher.search(storedReader.document(i), storedReader), searcher.search(loaded, docValuesReader));
+            assertSameHits(searcher.search(storedReader.document(i), storedReader), columnar.search(loaded, docValuesReader));
+        }
+        ImageDuplicates expected = searcher.findDuplicates(storedReader);
+        ImageDuplicates actual = searcher.findDuplicates(docValuesReader);
+        assertNotNull(actual);
+        assertEquals(expected.length(), actual.length());
+        for (int i = 0; i < expected.length(); i++)
+            assertEquals(expected.getDuplicate(i), actual.getDuplicate(i));
+        assertTrue(actual.getDuplicate(0).contains("copy-" + testFiles[0]));
+        storedReader.close();
+        docValuesReader.close();
+    }
+
+    /**
+     * Searches a multi-segment index with deletions, adds documents, re-opens the reader and checks that the cached
+     * searchers give the same results as reading the index, with the cache of unchanged segments being re-used.
+     */
+    public void testReopenedReader() throws IOException {
+        RAMDirectory directory = new RAMDirectory();
+        IndexWriter iw = LuceneUtils.createIndexWriter(directory, true, LuceneUtils.AnalyzerType.WhitespaceAnalyzer);
+        GenericDocumentBuilder builder = new GenericDocumentBuilder(CEDD.class);
+        Document[] documents = new Document[testFiles.length];
+        for (int i = 0; i < testFiles.length; i++) {
+            documents[i] = builder.createDocument(ImageIO.read(new File(testFilesPath + testFiles[i])), testFiles[i]);
+            iw.addDocument(documents[i]);
+            if (i % 3 == 2) iw.commit();
+        }
+        iw.deleteDocuments(new Term(DocumentBuilder.FIELD_NAME_IDENTIFIER, testFiles[0]));
+        iw.commit();
+        DirectoryReader reader = DirectoryReader.open(directory);
+        assertTrue(reader.hasDeletions());
+        assertTrue(reader.leaves().size() > 1);
+
+        GenericFastImageSearcher plain = new GenericFastImageSearcher(20, CEDD.class, DocumentBuilder.FIELD_NAME_CEDD);
+        GenericFastImageSearcher cached = new GenericFastImageSearcher(20, CEDD.class, DocumentBuilder.FIELD_NAME_CEDD, true, reader);
+        GenericFastImageSearcher columnar = new GenericFastImageSearcher(20, CEDD.class, DocumentBuilder.FIELD_NAME_CEDD, true, reader, true);
+        SingleNddCeddImageSearcher single = new SingleNddCeddImageSearcher(reader);
+        assertEquals(reader.leaves().size(), cached.featureCache.size());
+        ImageSearchHits expected = plain.search(documents[0], reader);
+        assertEquals(testFiles.length - 1, expected.length());
+        assertSameHits(expected, cached.search(documents[0], reader));
+        assertSameHits(expected, columnar.search(documents[0], reader));
+        assertFalse(testFiles[0].equals(single.findMostSimilar(toFeature(documents[0])).getDocument().getValues(DocumentBuilder.FIELD_NAME_IDENTIFIER)[0]));
+
+        // add a new segment and delete from an old one.
+        int oldSegments = reader.leaves().size();
+        iw.addDocument(documents[0]);
+        iw.deleteDocuments(new Term(DocumentBuilder.FIELD_NAME_IDENTIFIER, testFiles[4]));
+        iw.close();
+        DirectoryReader newReader = DirectoryReader.openIfChanged(reader);
+        assertNotNull(newReader);
+        reader.close();
+        expected = plain.search(documents[0], newReader);
+        assertEquals(testFiles.length - 1, expected.length());
+        assertSameHits(expected, cached.search(documents[0], newReader));
+        assertSameHits(expected, columnar.search(documents[0], newReader));
+        // the closed reader does not share the new segment, so the cache holds one more entry.
+        assertEquals(oldSegments + 1, cached.featureCache.size());
+        single.setReader(newReader);
+        assertEquals(testFiles[0], single.findMostSimilar(toFeature(documents[0])).getDocument().getValues(DocumentBuilder.FIELD_NAME_IDENTIFIER)[0]);
+        newReader.close();
+    }
+
+    private CEDD toFeature(Document document) {
+        CEDD cedd = new CEDD();
+        BytesRef bytes = document.getBinaryValue(DocumentBuilder.FIELD_NAME_CEDD);
+        cedd.setByteArrayRepresentation(bytes.bytes, bytes.offset, bytes.length);
+        return cedd;
+    }
+
+    private void assertSameHits(ImageSearchHits expected, ImageSearchHits actual) {
+        assertEquals(expected.length(), actual.length());
+        for (int i = 0; i < expected.length(); i++) {
+            assertEquals(expected.score(i), actual.score(i));
+            assertEquals(expected.doc(i).getValues(DocumentBuilder.FIELD_NAME_IDENTIFIER)[0],
+                    actual.doc(i).getValues(DocumentBuilder.FIELD_NAME_IDENTIFIER)[0]);
+        }
+    }
+}
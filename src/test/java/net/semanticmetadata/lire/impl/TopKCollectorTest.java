@@ -0,0 +1,107 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ * Updated: 18.10.26 16:25
+ */
+
+package net.semanticmetadata.lire.impl;
+
+import junit.framework.TestCase;
+
+import java.util.Iterator;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * Checks the TopKCollector against the TreeSet based result lists it replaces.
+ */
+public class TopKCollectorTest extends TestCase {
+
+    public void testAgainstTreeSet() {
+        Random random = new Random(42);
+        for (int run = 0; run < 100; run++) {
+            int k = 1 + random.nextInt(50);
+            TopKCollector collector = new TopKCollector(k);
+            TreeSet<SimpleResult> expected = new TreeSet<SimpleResult>();
+            for (int docId = 0; docId < 1000; docId++) {
+                // few distinct values to check ties, too.
+                float distance = random.nextInt(100) / 10f;
+                collector.collect(docId, distance);
+                expected.add(new SimpleResult(distance, null, docId));
+                if (expected.size() > k) expected.pollLast();
+            }
+            collector.sort();
+            assertEquals(expected.size(), collector.size());
+            int i = 0;
+            for (Iterator<SimpleResult> iterator = expected.iterator(); iterator.hasNext(); i++) {
+                SimpleResult result = iterator.next();
+                assertEquals(result.getIndexNumber(), collector.docId(i));
+                assertEquals(result.getDistance(), collector.distance(i));
+            }
+        }
+    }
+
+    public void testMerge() {
+        Random random = new Random(7);
+        TopKCollector all = new TopKCollector(20);
+        TopKCollector first = new TopKCollector(20), second = new TopKCollector(20);
+        for (int docId = 0; docId < 500; docId++) {
+            float distance = random.nextFloat();
+            all.collect(docId, distance);
+            if (docId % 2 == 0) first.collect(docId, distance);
+            else second.collect(docId, distance);
+        }
+        first.merge(second);
+        first.sort();
+        all.sort();
+        for (int i = 0; i < all.size(); i++) {
+            assertEquals(all.docId(i), first.docId(i));
+        }
+    }
+
+    public void testNotFull() {
+        TopKCollector collector = new TopKCollector(10);
+        assertEquals(Float.MAX_VALUE, collector.getMaxDistance());
+        collector.collect(3, 2f);
+        collector.collect(1, 1f);
+        collector.sort();
+        assertEquals(2, collector.size());
+        assertEquals(1, collector.docId(0));
+        assertEquals(3, collector.docId(1));
+    }
+}
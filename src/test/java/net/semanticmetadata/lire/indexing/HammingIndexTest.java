@@ -0,0 +1,251 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ * Updated: 18.10.26 17:01
+ */
+
+package net.semanticmetadata.lire.indexing;
+
+import junit.framework.TestCase;
+import net.semanticmetadata.lire.DocumentBuilder;
+import net.semanticmetadata.lire.ImageDuplicates;
+import net.semanticmetadata.lire.ImageSearchHits;
+import net.semanticmetadata.lire.imageanalysis.CEDD;
+import net.semanticmetadata.lire.impl.GenericDocumentBuilder;
+import net.semanticmetadata.lire.impl.HammingImageSearcher;
+import net.semanticmetadata.lire.impl.TopKCollector;
+import net.semanticmetadata.lire.indexing.hashing.BitSampling;
+import net.semanticmetadata.lire.indexing.hashing.BitSamplingHasher;
+import net.semanticmetadata.lire.indexing.hashing.HammingIndex;
+import net.semanticmetadata.lire.indexing.hashing.HashBucketIndex;
+import net.semanticmetadata.lire.utils.LuceneUtils;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.RAMDirectory;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class HammingIndexTest extends TestCase {
+    private String imageDirectory = "./src/test/resources/images/";
+
+    public void testPack() {
+        Random random = new Random(5);
+        for (int bits : new int[]{5, 12, 30}) {
+            int[] a = new int[100], b = new int[100];
+            int expected = 0;
+            for (int i = 0; i < a.length; i++) {
+                a[i] = random.nextInt(1 << bits);
+                b[i] = random.nextInt(1 << bits);
+                expected += Integer.bitCount(a[i] ^ b[i]);
+            }
+            long[] packedA = HammingIndex.pack(a, bits), packedB = HammingIndex.pack(b, bits);
+            assertEquals((100 * bits + 63) / 64, packedA.length);
+            int distance = 0;
+            for (int i = 0; i < packedA.length; i++) distance += Long.bitCount(packedA[i] ^ packedB[i]);
+            assertEquals(expected, distance);
+        }
+    }
+
+    public void testSearch() throws IOException {
+        RAMDirectory directory = new RAMDirectory();
+        IndexWriter iw = LuceneUtils.createIndexWriter(directory, true, LuceneUtils.AnalyzerType.WhitespaceAnalyzer);
+        GenericDocumentBuilder builder = new GenericDocumentBuilder(CEDD.class, true);
+        for (File file : new File(imageDirectory).listFiles()) {
+            BufferedImage image = ImageIO.read(file);
+            if (image == null) continue;
+            iw.addDocument(builder.createDocument(image, file.getPath()));
+            if (file.getName().equals("91561.jpg")) iw.commit();
+        }
+        iw.deleteDocuments(new Term(DocumentBuilder.FIELD_NAME_IDENTIFIER, imageDirectory + "91561.jpg"));
+        iw.close();
+        IndexReader reader = DirectoryReader.open(directory);
+        File file = File.createTempFile("hamming", ".idx");
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        try {
+            String hashField = DocumentBuilder.FIELD_NAME_CEDD + GenericDocumentBuilder.HASH_FIELD_SUFFIX;
+            BitSamplingHasher hasher = new BitSamplingHasher(BitSampling.readHashFunctions());
+            HammingIndex index = HammingIndex.create(reader, hashField, hasher.getBits(), hasher.getNumFunctionBundles(), file);
+            index = HammingIndex.open(file);
+            assertEquals(reader.maxDoc(), index.maxDoc());
+            for (int i = 0; i < reader.maxDoc(); i++) {
+                boolean live = MultiFields.getLiveDocs(reader).get(i);
+                assertEquals(live, index.exists(i));
+                if (!live) continue;
+                long[] query = HammingIndex.pack(HashBucketIndex.parseHashes(reader.document(i).get(hashField)), hasher.getBits());
+                assertEquals(0, index.distance(query, i));
+                TopKCollector single = index.search(query, 5, null);
+                TopKCollector parallel = index.search(query, 5, null, pool, 3);
+                single.sort();
+                parallel.sort();
+                assertEquals(reader.numDocs() < 5 ? reader.numDocs() : 5, single.size());
+                for (int k = 0; k < single.size(); k++) {
+                    assertEquals(single.docId(k), parallel.docId(k));
+                    assertEquals((float) index.distance(query, single.docId(k)), single.distance(k));
+                }
+                assertEquals(0f, single.distance(0));
+            }
+            HammingImageSearcher searcher = new HammingImageSearcher(3, new CEDD(), index);
+            searcher.setNumThreads(2);
+            searcher.setNumReRanked(10);
+            for (int i = 0; i < reader.maxDoc(); i++) {
+                if (!MultiFields.getLiveDocs(reader).get(i)) continue;
+                ImageSearchHits hits = searcher.search(reader.document(i), reader);
+                assertEquals(3, hits.length());
+                assertEquals(0f, hits.score(0));
+            }
+        } finally {
+            pool.shutdown();
+            reader.close();
+            file.delete();
+        }
+    }
+
+    public void testFindDuplicates() throws IOException {
+        RAMDirectory directory = new RAMDirectory();
+        IndexWriter iw = LuceneUtils.createIndexWriter(directory, true, LuceneUtils.AnalyzerType.WhitespaceAnalyzer);
+        GenericDocumentBuilder builder = new GenericDocumentBuilder(CEDD.class, true);
+        File[] files = new File(imageDirectory).listFiles();
+        Arrays.sort(files);
+        String duplicate = null;
+        for (File file : files) {
+            BufferedImage image = ImageIO.read(file);
+            if (image == null) continue;
+            iw.addDocument(builder.createDocument(image, file.getPath()));
+            if (duplicate == null) {
+                duplicate = file.getPath();
+                iw.addDocument(builder.createDocument(image, "copy of " + duplicate));
+            }
+        }
+        iw.close();
+        IndexReader reader = DirectoryReader.open(directory);
+        File file = File.createTempFile("hamming", ".idx");
+        try {
+            String hashField = DocumentBuilder.FIELD_NAME_CEDD + GenericDocumentBuilder.HASH_FIELD_SUFFIX;
+            BitSamplingHasher hasher = new BitSamplingHasher(BitSampling.readHashFunctions());
+            HammingIndex index = HammingIndex.create(reader, hashField, hasher.getBits(), hasher.getNumFunctionBundles(), file);
+            HammingImageSearcher searcher = new HammingImageSearcher(10, new CEDD(), index);
+            for (int numReRanked : new int[]{0, 20}) {
+                searcher.setNumReRanked(numReRanked);
+                // the copy and img08a.JPG, which is the same file as img08.JPG.
+                ImageDuplicates duplicates = searcher.findDuplicates(reader);
+                assertEquals(2, duplicates.length());
+                assertEquals(Arrays.asList(duplicate, "copy of " + duplicate), duplicates.getDuplicate(0));
+                assertEquals(Arrays.asList(imageDirectory + "img08.JPG", imageDirectory + "img08a.JPG"), duplicates.getDuplicate(1));
+            }
+        } finally {
+            reader.close();
+            file.delete();
+        }
+    }
+
+    public void testRecreateWhileSearching() throws Exception {
+        final String hashField = DocumentBuilder.FIELD_NAME_CEDD + GenericDocumentBuilder.HASH_FIELD_SUFFIX;
+        final BitSamplingHasher hasher = new BitSamplingHasher(BitSampling.readHashFunctions());
+        GenericDocumentBuilder builder = new GenericDocumentBuilder(CEDD.class, true);
+        RAMDirectory all = new RAMDirectory(), half = new RAMDirectory();
+        IndexWriter allWriter = LuceneUtils.createIndexWriter(all, true, LuceneUtils.AnalyzerType.WhitespaceAnalyzer);
+        IndexWriter halfWriter = LuceneUtils.createIndexWriter(half, true, LuceneUtils.AnalyzerType.WhitespaceAnalyzer);
+        int count = 0;
+        for (File file : new File(imageDirectory).listFiles()) {
+            BufferedImage image = ImageIO.read(file);
+            if (image == null) continue;
+            allWriter.addDocument(builder.createDocument(image, file.getPath()));
+            if (count++ % 2 == 0) halfWriter.addDocument(builder.createDocument(image, file.getPath()));
+        }
+        allWriter.close();
+        halfWriter.close();
+        IndexReader allReader = DirectoryReader.open(all), halfReader = DirectoryReader.open(half);
+        final File file = File.createTempFile("hamming", ".idx");
+        try {
+            final HammingIndex index = HammingIndex.create(allReader, hashField, hasher.getBits(), hasher.getNumFunctionBundles(), file);
+            final long[][] queries = new long[allReader.maxDoc()][];
+            final int[] expected = new int[queries.length];
+            for (int i = 0; i < queries.length; i++) {
+                queries[i] = HammingIndex.pack(HashBucketIndex.parseHashes(allReader.document(i).get(hashField)), hasher.getBits());
+                TopKCollector results = index.search(queries[i], 3, null);
+                results.sort();
+                expected[i] = results.docId(0);
+            }
+            // the index opened before keeps searching the old signatures while the file is created again.
+            final AtomicBoolean running = new AtomicBoolean(true);
+            final AtomicInteger errors = new AtomicInteger(0);
+            Thread searching = new Thread() {
+                public void run() {
+                    try {
+                        while (running.get()) {
+                            for (int i = 0; i < queries.length; i++) {
+                                TopKCollector results = index.search(queries[i], 3, null);
+                                results.sort();
+                                if (results.docId(0) != expected[i] || index.distance(queries[i], i) != 0) errors.incrementAndGet();
+                            }
+                        }
+                    } catch (Throwable t) {
+                        // a truncated mapping ends in an InternalError or worse.
+                        errors.incrementAndGet();
+                    }
+                }
+            };
+            searching.start();
+            for (int i = 0; i < 20; i++) {
+                HammingIndex recreated = HammingIndex.create(i % 2 == 0 ? halfReader : allReader, hashField, hasher.getBits(), hasher.getNumFunctionBundles(), file);
+                assertEquals(i % 2 == 0 ? halfReader.maxDoc() : allReader.maxDoc(), recreated.maxDoc());
+                assertEquals(recreated.maxDoc(), HammingIndex.open(file).maxDoc());
+            }
+            running.set(false);
+            searching.join();
+            assertEquals(0, errors.get());
+            assertFalse(new File(file.getPath() + ".tmp").exists());
+        } finally {
+            allReader.close();
+            halfReader.close();
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ * Updated: 18.10.26 16:58
+ */
+
+package net.semanticmetadata.lire.indexing;
+
+import junit.framework.TestCase;
+import net.semanticmetadata.lire.DocumentBuilder;
+import net.semanticmetadata.lire.ImageSearchHits;
+import net.semanticmetadata.lire.imageanalysis.CEDD;
+import net.semanticmetadata.lire.impl.BitSamplingImageSearcher;
+import net.semanticmetadata.lire.impl.GenericDocumentBuilder;
+import net.semanticmetadata.lire.impl.LshImageSearcher;
+import net.semanticmetadata.lire.indexing.hashing.HashBucketIndex;
+import net.semanticmetadata.lire.indexing.hashing.LocalitySensitiveHashing;
+import net.semanticmetadata.lire.indexing.hashing.LshHasher;
+import net.semanticmetadata.lire.utils.LuceneUtils;
+import net.semanticmetadata.lire.utils.SerializationUtils;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.RAMDirectory;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+public class HashBucketIndexTest extends TestCase {
+    private Random random = new Random(7);
+
+    private int[][] randomHashes(int numDocs, int bundles) {
+        int[][] hashes = new int[numDocs][bundles];
+        for (int[] h : hashes) {
+            for (int i = 0; i < bundles; i++) h[i] = random.nextInt(8) - 4;
+        }
+        return hashes;
+    }
+
+    /**
+     * Top candidates by brute force: number of bundles with a matching value, ties by docID.
+     */
+    private int[] expected(int[][] hashes, int[][] query, boolean[] deleted, int n) {
+        final int[] counts = new int[hashes.length];
+        Integer[] docs = new Integer[hashes.length];
+        for (int d = 0; d < hashes.length; d++) {
+            docs[d] = d;
+            for (int b = 0; b < query.length; b++) {
+                for (int value : query[b]) if (hashes[d][b] == value) counts[d]++;
+            }
+        }
+        Arrays.sort(docs, new Comparator<Integer>() {
+            public int compare(Integer o1, Integer o2) {
+                return counts[o1] != counts[o2] ? counts[o2] - counts[o1] : o1 - o2;
+            }
+        });
+        int[] result = new int[n];
+        int size = 0;
+        for (int i = 0; i < docs.length && size < n; i++) {
+            if (counts[docs[i]] > 0 && (deleted == null || !deleted[docs[i]])) result[size++] = docs[i];
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    public void testCandidates() {
+        int[][] hashes = randomHashes(2000, 20);
+        HashBucketIndex index = new HashBucketIndex(hashes);
+        for (int q = 0; q < 10; q++) {
+            int[][] query = new int[20][];
+            for (int b = 0; b < 20; b++) {
+                query[b] = q % 2 == 0 ? new int[]{hashes[q][b]} : new int[]{hashes[q][b], hashes[q][b] + 1};
+            }
+            int[] candidates = index.getCandidates(query, null, 50);
+            assertTrue(Arrays.equals(expected(hashes, query, null, 50), candidates));
+            assertEquals(q, candidates[0]);
+        }
+    }
+
+    public void testParseHashes() {
+        int[] hashes = new int[]{0, -12, 4095, 7, Integer.MAX_VALUE, -3};
+        assertTrue(Arrays.equals(hashes, HashBucketIndex.parseHashes(SerializationUtils.arrayToString(hashes))));
+    }
+
+    /**
+     * Over several segments the docIDs have to be the ones of the top level reader, without deleted documents.
+     */
+    public void testSegments() throws IOException {
+        int[][] hashes = randomHashes(300, 10);
+        boolean[] deleted = new boolean[hashes.length];
+        RAMDirectory directory = new RAMDirectory();
+        IndexWriter iw = LuceneUtils.createIndexWriter(directory, true, LuceneUtils.AnalyzerType.WhitespaceAnalyzer);
+        for (int d = 0; d < hashes.length; d++) {
+            Document doc = new Document();
+            doc.add(new StringField(DocumentBuilder.FIELD_NAME_IDENTIFIER, Integer.toString(d), Field.Store.YES));
+            doc.add(new TextField("hashes", SerializationUtils.arrayToString(hashes[d]), Field.Store.YES));
+            iw.addDocument(doc);
+            if (d % 100 == 99) iw.commit();
+        }
+        for (int d = 3; d < hashes.length; d += 50) {
+            iw.deleteDocuments(new Term(DocumentBuilder.FIELD_NAME_IDENTIFIER, Integer.toString(d)));
+            deleted[d] = true;
+        }
+        iw.close();
+        IndexReader reader = DirectoryReader.open(directory);
+        assertTrue(reader.leaves().size() > 1);
+        for (int q = 0; q < 5; q++) {
+            int[][] query = new int[10][];
+            for (int b = 0; b < 10; b++) query[b] = new int[]{hashes[q][b]};
+            int[] candidates = HashBucketIndex.getCandidates(reader, "hashes", query, 40);
+            assertTrue(Arrays.equals(expected(hashes, query, deleted, 40), candidates));
+        }
+        reader.close();
+    }
+
+    public void testSearcher() throws IOException {
+        RAMDirectory directory = new RAMDirectory();
+        IndexWriter iw = LuceneUtils.createIndexWriter(directory, true, LuceneUtils.AnalyzerType.WhitespaceAnalyzer);
+        GenericDocumentBuilder builder = new GenericDocumentBuilder(CEDD.class, true);
+        for (File file : new File("./src/test/resources/images/").listFiles()) {
+            BufferedImage image = ImageIO.read(file);
+            if (image == null) continue;
+            iw.addDocument(builder.createDocument(image, file.getPath()));
+        }
+        iw.close();
+        IndexReader reader = DirectoryReader.open(directory);
+        BitSamplingImageSearcher searcher = new BitSamplingImageSearcher(5, new CEDD(), 100);
+        searcher.setUseBucketIndex(true);
+        for (int i = 0; i < reader.maxDoc(); i++) {
+            ImageSearchHits hits = searcher.search(reader.document(i), reader);
+            assertEquals(0f, hits.score(0));
+        }
+        reader.close();
+    }
+
+    /**
+     * With enough probes the queries have more hash values than a BooleanQuery takes clauses, the searchers then
+     * have to use the bucket index instead of failing.
+     */
+    public void testMultiProbeSearcher() throws IOException {
+        LshHasher lshHasher = new LshHasher(LocalitySensitiveHashing.numFunctionBundles, 144, LocalitySensitiveHashing.binLength, 42);
+        GenericDocumentBuilder bitSamplingBuilder = new GenericDocumentBuilder(CEDD.class, true);
+        GenericDocumentBuilder lshBuilder = new GenericDocumentBuilder(CEDD.class, "lsh", true);
+        lshBuilder.setHasher(lshHasher);
+        RAMDirectory directory = new RAMDirectory();
+        IndexWriter iw = LuceneUtils.createIndexWriter(directory, true, LuceneUtils.AnalyzerType.WhitespaceAnalyzer);
+        for (File file : new File("./src/test/resources/images/").listFiles()) {
+            BufferedImage image = ImageIO.read(file);
+            if (image == null) continue;
+            Document d = bitSamplingBuilder.createDocument(image, file.getPath());
+            for (Field field : lshBuilder.createDescriptorFields(image)) d.add(field);
+            iw.addDocument(d);
+        }
+        iw.close();
+        IndexReader reader = DirectoryReader.open(directory);
+        BitSamplingImageSearcher bitSampling = new BitSamplingImageSearcher(5, new CEDD(), 100);
+        LshImageSearcher lsh = new LshImageSearcher(5, "lsh", "lsh" + GenericDocumentBuilder.HASH_FIELD_SUFFIX, new CEDD(), lshHasher, 100);
+        // a few probes fit into a BooleanQuery, many do not.
+        for (int numProbes : new int[]{2, 25}) {
+            bitSampling.setNumProbes(numProbes);
+            lsh.setNumProbes(numProbes);
+            for (int i = 0; i < reader.maxDoc(); i++) {
+                ImageSearchHits hits = bitSampling.search(reader.document(i), reader);
+                assertNotNull(hits);
+                assertEquals(0f, hits.score(0));
+                hits = lsh.search(reader.document(i), reader);
+                assertNotNull(hits);
+                assertEquals(0f, hits.score(0));
+            }
+        }
+        reader.close();
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ * Updated: 18.10.26 16:56
+ */
+
+package net.semanticmetadata.lire.indexing;
+
+import junit.framework.TestCase;
+import net.semanticmetadata.lire.indexing.hashing.BitSampling;
+import net.semanticmetadata.lire.indexing.hashing.BitSamplingHasher;
+import net.semanticmetadata.lire.indexing.hashing.Hasher;
+import net.semanticmetadata.lire.indexing.hashing.LocalitySensitiveHashing;
+import net.semanticmetadata.lire.indexing.hashing.LshHasher;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+
+public class HasherTest extends TestCase {
+    private Random random = new Random(11);
+
+    private double[] randomVector(int length) {
+        double[] result = new double[length];
+        for (int i = 0; i < length; i++) result[i] = random.nextDouble() * 10;
+        return result;
+    }
+
+    public void testBitSamplingSameAsStatic() throws IOException {
+        BitSamplingHasher hasher = new BitSamplingHasher(BitSampling.readHashFunctions());
+        for (int i = 0; i < 20; i++) {
+            double[] histogram = randomVector(144);
+            assertTrue(Arrays.equals(BitSampling.generateHashes(histogram), hasher.hash(histogram)));
+        }
+        // read and write have to keep the functions.
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        hasher.write(out);
+        BitSamplingHasher read = BitSamplingHasher.read(new ByteArrayInputStream(out.toByteArray()));
+        double[] histogram = randomVector(144);
+        assertTrue(Arrays.equals(hasher.hash(histogram), read.hash(histogram)));
+    }
+
+    public void testLshSameAsStatic() throws IOException {
+        LshHasher hasher = new LshHasher(50, 250, LocalitySensitiveHashing.binLength, 5);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        hasher.write(out);
+        LocalitySensitiveHashing.readHashFunctions(new ByteArrayInputStream(out.toByteArray()));
+        for (int i = 0; i < 20; i++) {
+            double[] histogram = randomVector(100);
+            assertTrue(Arrays.equals(LocalitySensitiveHashing.generateHashes(histogram), hasher.hash(histogram)));
+        }
+    }
+
+    /**
+     * Two instances with different configurations have to work independently.
+     */
+    public void testInstances() {
+        BitSamplingHasher a = new BitSamplingHasher(12, 100, 640, 4, 1);
+        BitSamplingHasher b = new BitSamplingHasher(8, 20, 640, 4, 2);
+        BitSamplingHasher c = new BitSamplingHasher(12, 100, 640, 4, 1);
+        double[] histogram = randomVector(200);
+        assertEquals(100, a.hash(histogram).length);
+        assertEquals(20, b.hash(histogram).length);
+        assertTrue(Arrays.equals(a.hash(histogram), c.hash(histogram)));
+    }
+
+    public void testBitSamplingProbes() {
+        BitSamplingHasher hasher = new BitSamplingHasher(12, 50, 64, 4, 3);
+        double[] histogram = randomVector(64);
+        int[] hashes = hasher.hash(histogram);
+        int[][] probes = hasher.probe(histogram, 10);
+        for (int i = 0; i < probes.length; i++) {
+            assertEquals(11, probes[i].length);
+            assertEquals(hashes[i], probes[i][0]);
+            // the first probe flips the least confident bit only.
+            assertEquals(1, Integer.bitCount(probes[i][0] ^ probes[i][1]));
+            HashSet<Integer> distinct = new HashSet<Integer>();
+            for (int probe : probes[i]) distinct.add(probe);
+            assertEquals(11, distinct.size());
+        }
+    }
+
+    /**
+     * Probing has to find the bucket of a near neighbour more often than the plain hash.
+     */
+    public void testProbeRecall() {
+        checkRecall(new BitSamplingHasher(12, 50, 64, 4, 4), 5);
+        checkRecall(new LshHasher(50, 64, 10, 4), 20);
+    }
+
+    private void checkRecall(Hasher hasher, int numProbes) {
+        int plain = 0, probed = 0;
+        for (int i = 0; i < 100; i++) {
+            double[] query = randomVector(64);
+            double[] neighbour = query.clone();
+            for (int d = 0; d < neighbour.length; d++) neighbour[d] += random.nextGaussian() * 0.5;
+            int[] hashes = hasher.hash(neighbour);
+            int[] queryHashes = hasher.hash(query);
+            int[][] probes = hasher.probe(query, numProbes);
+            for (int k = 0; k < hashes.length; k++) {
+                if (hashes[k] == queryHashes[k]) plain++;
+                for (int probe : probes[k]) {
+                    if (probe == hashes[k]) probed++;
+                }
+            }
+        }
+        assertTrue(plain + " < " + probed, probed > plain);
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ * Updated: 18.10.26 17:07
+ */
+
+package net.semanticmetadata.lire.indexing;
+
+import junit.framework.TestCase;
+import net.semanticmetadata.lire.DocumentBuilder;
+import net.semanticmetadata.lire.ImageDuplicates;
+import net.semanticmetadata.lire.ImageSearchHits;
+import net.semanticmetadata.lire.ImageSearcher;
+import net.semanticmetadata.lire.ImageSearcherFactory;
+import net.semanticmetadata.lire.imageanalysis.CEDD;
+import net.semanticmetadata.lire.imageanalysis.GenericDoubleLireFeature;
+import net.semanticmetadata.lire.impl.GenericDocumentBuilder;
+import net.semanticmetadata.lire.impl.GenericFastImageSearcher;
+import net.semanticmetadata.lire.impl.TopKCollector;
+import net.semanticmetadata.lire.indexing.hnsw.HnswIndex;
+import net.semanticmetadata.lire.utils.LuceneUtils;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.RAMDirectory;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+
+public class HnswIndexTest extends TestCase {
+    private Random random = new Random(23);
+
+    private ArrayList<GenericDoubleLireFeature> randomFeatures(int size, int dimensions) {
+        ArrayList<GenericDoubleLireFeature> result = new ArrayList<GenericDoubleLireFeature>(size);
+        for (int i = 0; i < size; i++) {
+            double[] vector = new double[dimensions];
+            for (int d = 0; d < dimensions; d++) vector[d] = random.nextDouble();
+            GenericDoubleLireFeature feature = new GenericDoubleLireFeature();
+            feature.setData(vector);
+            result.add(feature);
+        }
+        return result;
+    }
+
+    public void testRecall() throws IOException {
+        ArrayList<GenericDoubleLireFeature> features = randomFeatures(3000, 16);
+        HnswIndex index = new HnswIndex(GenericDoubleLireFeature.class, 12, 100);
+        for (int i = 0; i < features.size(); i++) index.add(i, features.get(i));
+        assertEquals(3000, index.size());
+        assertEquals(3000, index.maxDoc());
+        ArrayList<GenericDoubleLireFeature> queries = randomFeatures(50, 16);
+        int found = 0;
+        for (GenericDoubleLireFeature query : queries) {
+            TopKCollector exact = new TopKCollector(10);
+            for (int i = 0; i < features.size(); i++) exact.collect(i, query.getDistance(features.get(i)));
+            HashSet<Integer> expected = new HashSet<Integer>();
+            for (int i = 0; i < exact.size(); i++) expected.add(exact.docId(i));
+            TopKCollector results = index.search(query, 10, 50, null);
+            assertEquals(10, results.size());
+            for (int i = 0; i < results.size(); i++) {
+                if (expected.contains(results.docId(i))) found++;
+            }
+        }
+        assertTrue("recall " + found / 500d, found >= 450);
+        // written and read again, the results have to be the same.
+        File file = File.createTempFile("index", ".hnsw");
+        try {
+            index.write(file);
+            HnswIndex read = HnswIndex.open(file);
+            assertEquals(index.size(), read.size());
+            assertEquals(index.maxDoc(), read.maxDoc());
+            assertEquals(GenericDoubleLireFeature.class, read.getFeatureClass());
+            for (GenericDoubleLireFeature query : queries) {
+                TopKCollector expected = index.search(query, 10, 50, null);
+                TopKCollector results = read.search(query, 10, 50, null);
+                expected.sort();
+                results.sort();
+                for (int i = 0; i < expected.size(); i++) {
+                    assertEquals(expected.docId(i), results.docId(i));
+                    assertEquals(expected.distance(i), results.distance(i));
+                }
+            }
+            // incremental insertion after reading:
+            GenericDoubleLireFeature added = randomFeatures(1, 16).get(0);
+            read.add(3000, added);
+            TopKCollector results = read.search(added, 1, 50, null);
+            assertEquals(3000, results.docId(0));
+            assertEquals(0f, results.distance(0));
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testConcurrentSearch() throws Exception {
+        final ArrayList<GenericDoubleLireFeature> features = randomFeatures(2000, 8);
+        final HnswIndex index = new HnswIndex(GenericDoubleLireFeature.class, HnswIndex.DEFAULT_M, HnswIndex.DEFAULT_EF_CONSTRUCTION);
+        for (int i = 0; i < 1000; i++) index.add(i, features.get(i));
+        final int[] misses = new int[4];
+        final Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int thread = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = thread; i < 1000; i += threads.length) {
+                        TopKCollector results = index.search(features.get(i), 1, 50, null);
+                        if (results.docId(0) != i) misses[thread]++;
+                    }
+                }
+            };
+        }
+        for (Thread thread : threads) thread.start();
+        // insertions while searching
+        for (int i = 1000; i < features.size(); i++) index.add(i, features.get(i));
+        for (Thread thread : threads) thread.join();
+        for (int miss : misses) assertTrue("misses " + miss, miss <= 5);
+        assertEquals(2000, index.size());
+    }
+
+    public void testSearcher() throws IOException {
+        RAMDirectory directory = new RAMDirectory();
+        IndexWriter iw = LuceneUtils.createIndexWriter(directory, true, LuceneUtils.AnalyzerType.WhitespaceAnalyzer);
+        GenericDocumentBuilder builder = new GenericDocumentBuilder(CEDD.class);
+        File[] files = new File("./src/test/resources/images/").listFiles();
+        int half = files.length / 2;
+        for (int i = 0; i < half; i++) {
+            BufferedImage image = ImageIO.read(files[i]);
+            if (image != null) iw.addDocument(builder.createDocument(image, files[i].getPath()));
+        }
+        iw.commit();
+        IndexReader reader = DirectoryReader.open(directory);
+        HnswIndex index = HnswIndex.create(reader, DocumentBuilder.FIELD_NAME_CEDD, new CEDD(), 8, 50);
+        assertEquals(reader.numDocs(), index.size());
+        reader.close();
+        // documents appended later are added incrementally.
+        for (int i = half; i < files.length; i++) {
+            BufferedImage image = ImageIO.read(files[i]);
+            if (image != null) iw.addDocument(builder.createDocument(image, files[i].getPath()));
+        }
+        iw.close();
+        reader = DirectoryReader.open(directory);
+        index.addAll(reader, DocumentBuilder.FIELD_NAME_CEDD, new CEDD());
+        assertEquals(reader.numDocs(), index.size());
+        ImageSearcher searcher = ImageSearcherFactory.createHnswImageSearcher(3, new CEDD(), index);
+        ImageSearcher linear = new GenericFastImageSearcher(3, CEDD.class, DocumentBuilder.FIELD_NAME_CEDD);
+        for (int i = 0; i < reader.maxDoc(); i++) {
+            ImageSearchHits hits = searcher.search(reader.document(i), reader);
+            ImageSearchHits expected = linear.search(reader.document(i), reader);
+            assertEquals(3, hits.length());
+            assertEquals(0f, hits.score(0));
+            for (int k = 0; k < 3; k++) assertEquals(expected.score(k), hits.score(k), 0.0001f);
+        }
+        // img08a.JPG is the same file as img08.JPG.
+        ImageDuplicates duplicates = searcher.findDuplicates(reader);
+        assertEquals(1, duplicates.length());
+        assertEquals(new HashSet<String>(Arrays.asList("./src/test/resources/images/img08.JPG", "./src/test/resources/images/img08a.JPG")),
+                new HashSet<String>(duplicates.getDuplicate(0)));
+        reader.close();
+    }
+}
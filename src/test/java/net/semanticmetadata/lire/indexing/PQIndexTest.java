@@ -0,0 +1,155 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ * Updated: 18.10.26 17:04
+ */
+
+package net.semanticmetadata.lire.indexing;
+
+import junit.framework.TestCase;
+import net.semanticmetadata.lire.DocumentBuilder;
+import net.semanticmetadata.lire.ImageDuplicates;
+import net.semanticmetadata.lire.ImageSearchHits;
+import net.semanticmetadata.lire.imageanalysis.CEDD;
+import net.semanticmetadata.lire.impl.GenericDocumentBuilder;
+import net.semanticmetadata.lire.impl.PQImageSearcher;
+import net.semanticmetadata.lire.impl.TopKCollector;
+import net.semanticmetadata.lire.indexing.pq.PQIndex;
+import net.semanticmetadata.lire.utils.LuceneUtils;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.RAMDirectory;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+
+public class PQIndexTest extends TestCase {
+    private Random random = new Random(17);
+
+    /**
+     * Vectors around a few random centers.
+     */
+    private ArrayList<double[]> randomVectors(int size, int dimensions) {
+        double[][] centers = new double[20][dimensions];
+        for (double[] center : centers) {
+            for (int d = 0; d < dimensions; d++) center[d] = random.nextDouble() * 10;
+        }
+        ArrayList<double[]> result = new ArrayList<double[]>(size);
+        for (int i = 0; i < size; i++) {
+            double[] center = centers[random.nextInt(centers.length)];
+            double[] vector = new double[dimensions];
+            for (int d = 0; d < dimensions; d++) vector[d] = center[d] + random.nextGaussian();
+            result.add(vector);
+        }
+        return result;
+    }
+
+    public void testSearch() throws IOException {
+        ArrayList<double[]> vectors = randomVectors(3000, 32);
+        PQIndex index = PQIndex.train(vectors.subList(0, 1000), 16, 8, 2);
+        for (int i = 0; i < vectors.size(); i++) index.add(i, vectors.get(i));
+        assertEquals(3000, index.size());
+        assertEquals(3000, index.maxDoc());
+        // the vector itself has to be among the closest ones:
+        int found = 0;
+        for (int q = 0; q < 100; q++) {
+            TopKCollector results = index.search(vectors.get(q), 10, 4, null);
+            results.sort();
+            assertEquals(10, results.size());
+            for (int i = 0; i < results.size(); i++) {
+                if (results.docId(i) == q) found++;
+            }
+        }
+        assertTrue("found " + found, found >= 90);
+        // written and read again, the results have to be the same.
+        File file = File.createTempFile("index", ".pq");
+        try {
+            index.write(file);
+            PQIndex read = PQIndex.open(file);
+            assertEquals(index.size(), read.size());
+            assertEquals(index.maxDoc(), read.maxDoc());
+            for (int q = 0; q < 10; q++) {
+                TopKCollector expected = index.search(vectors.get(q), 10, 4, null);
+                TopKCollector results = read.search(vectors.get(q), 10, 4, null);
+                expected.sort();
+                results.sort();
+                for (int i = 0; i < expected.size(); i++) {
+                    assertEquals(expected.docId(i), results.docId(i));
+                    assertEquals(expected.distance(i), results.distance(i));
+                }
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testSearcher() throws IOException {
+        RAMDirectory directory = new RAMDirectory();
+        IndexWriter iw = LuceneUtils.createIndexWriter(directory, true, LuceneUtils.AnalyzerType.WhitespaceAnalyzer);
+        GenericDocumentBuilder builder = new GenericDocumentBuilder(CEDD.class);
+        for (File file : new File("./src/test/resources/images/").listFiles()) {
+            BufferedImage image = ImageIO.read(file);
+            if (image == null) continue;
+            iw.addDocument(builder.createDocument(image, file.getPath()));
+        }
+        iw.close();
+        IndexReader reader = DirectoryReader.open(directory);
+        PQIndex index = PQIndex.create(reader, DocumentBuilder.FIELD_NAME_CEDD, new CEDD(), 2, 12, 100);
+        assertEquals(reader.numDocs(), index.size());
+        PQImageSearcher searcher = new PQImageSearcher(3, new CEDD(), index);
+        searcher.setNumProbes(2);
+        for (int i = 0; i < reader.maxDoc(); i++) {
+            ImageSearchHits hits = searcher.search(reader.document(i), reader);
+            assertEquals(3, hits.length());
+            assertEquals(0f, hits.score(0));
+        }
+        // img08a.JPG is the same file as img08.JPG.
+        ImageDuplicates duplicates = searcher.findDuplicates(reader);
+        assertEquals(1, duplicates.length());
+        assertEquals(new HashSet<String>(Arrays.asList("./src/test/resources/images/img08.JPG", "./src/test/resources/images/img08a.JPG")),
+                new HashSet<String>(duplicates.getDuplicate(0)));
+        reader.close();
+    }
+}
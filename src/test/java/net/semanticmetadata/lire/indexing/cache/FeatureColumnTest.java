@@ -0,0 +1,115 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ * Updated: 18.10.26 16:21
+ */
+
+package net.semanticmetadata.lire.indexing.cache;
+
+import junit.framework.TestCase;
+import net.semanticmetadata.lire.DocumentBuilder;
+import net.semanticmetadata.lire.ImageSearchHits;
+import net.semanticmetadata.lire.imageanalysis.CEDD;
+import net.semanticmetadata.lire.impl.GenericDocumentBuilder;
+import net.semanticmetadata.lire.impl.GenericFastImageSearcher;
+import net.semanticmetadata.lire.utils.LuceneUtils;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.RAMDirectory;
+
+import javax.imageio.ImageIO;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Checks that searching the off-heap feature column gives the same results as reading the stored documents.
+ */
+public class FeatureColumnTest extends TestCase {
+    private String[] testFiles = new String[]{"img01.JPG", "img02.JPG", "img03.JPG", "img04.JPG", "img05.JPG",
+            "img06.JPG", "img07.JPG", "img08.JPG", "img08a.JPG"};
+    private String testFilesPath = "src/test/resources/images/";
+
+    private RAMDirectory createIndex() throws IOException {
+        RAMDirectory directory = new RAMDirectory();
+        IndexWriter iw = LuceneUtils.createIndexWriter(directory, true, LuceneUtils.AnalyzerType.WhitespaceAnalyzer);
+        GenericDocumentBuilder builder = new GenericDocumentBuilder(CEDD.class);
+        for (String testFile : testFiles) {
+            iw.addDocument(builder.createDocument(ImageIO.read(new File(testFilesPath + testFile)), testFile));
+        }
+        iw.commit();
+        // delete one document to check that deleted documents are skipped.
+        iw.deleteDocuments(new Term(DocumentBuilder.FIELD_NAME_IDENTIFIER, testFiles[3]));
+        iw.close();
+        return directory;
+    }
+
+    public void testColumn() throws IOException {
+        IndexReader reader = DirectoryReader.open(createIndex());
+        FeatureColumn column = FeatureColumn.load(reader, DocumentBuilder.FIELD_NAME_CEDD);
+        assertEquals(reader.maxDoc(), column.maxDoc());
+        assertEquals(0, column.length(3));
+        FeatureColumn.Cursor cursor = column.cursor();
+        CEDD fromColumn = new CEDD(), fromDocument = new CEDD();
+        for (int i = 0; i < reader.maxDoc(); i++) {
+            if (i == 3) continue;
+            assertTrue(cursor.load(i, fromColumn));
+            fromDocument.setByteArrayRepresentation(reader.document(i).getBinaryValue(DocumentBuilder.FIELD_NAME_CEDD).bytes,
+                    reader.document(i).getBinaryValue(DocumentBuilder.FIELD_NAME_CEDD).offset,
+                    reader.document(i).getBinaryValue(DocumentBuilder.FIELD_NAME_CEDD).length);
+            assertEquals(0f, fromColumn.getDistance(fromDocument));
+        }
+        reader.close();
+    }
+
+    public void testSearch() throws IOException {
+        IndexReader reader = DirectoryReader.open(createIndex());
+        GenericFastImageSearcher plain = new GenericFastImageSearcher(5, CEDD.class, DocumentBuilder.FIELD_NAME_CEDD);
+        GenericFastImageSearcher columnar = new GenericFastImageSearcher(5, CEDD.class, DocumentBuilder.FIELD_NAME_CEDD, true, reader, true);
+        ImageSearchHits expected = plain.search(reader.document(0), reader);
+        ImageSearchHits actual = columnar.search(reader.document(0), reader);
+        assertEquals(expected.length(), actual.length());
+        for (int i = 0; i < expected.length(); i++) {
+            assertEquals(expected.score(i), actual.score(i));
+            assertEquals(expected.doc(i).getValues(DocumentBuilder.FIELD_NAME_IDENTIFIER)[0],
+                    actual.doc(i).getValues(DocumentBuilder.FIELD_NAME_IDENTIFIER)[0]);
+        }
+        reader.close();
+    }
+}
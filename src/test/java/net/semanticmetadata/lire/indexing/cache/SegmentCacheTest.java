@@ -0,0 +1,141 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ * Updated: 18.10.26 19:10
+ */
+
+package net.semanticmetadata.lire.indexing.cache;
+
+import junit.framework.TestCase;
+import net.semanticmetadata.lire.utils.LuceneUtils;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.RAMDirectory;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SegmentCacheTest extends TestCase {
+    public void testLoadOutsideOfLock() throws Exception {
+        RAMDirectory directory = new RAMDirectory();
+        IndexWriter iw = LuceneUtils.createIndexWriter(directory, true, LuceneUtils.AnalyzerType.WhitespaceAnalyzer);
+        for (int segment = 0; segment < 2; segment++) {
+            for (int i = 0; i < 3; i++) {
+                Document d = new Document();
+                d.add(new StringField("id", segment + "-" + i, Field.Store.YES));
+                iw.addDocument(d);
+            }
+            iw.commit();
+        }
+        iw.close();
+        IndexReader reader = DirectoryReader.open(directory);
+        final List<AtomicReaderContext> leaves = reader.leaves();
+        assertEquals(2, leaves.size());
+        final CountDownLatch loading = new CountDownLatch(1), release = new CountDownLatch(1);
+        final AtomicInteger loads = new AtomicInteger(0);
+        final Object slowKey = leaves.get(1).reader().getCoreCacheKey();
+        final SegmentCache<Integer> cache = new SegmentCache<Integer>() {
+            @Override
+            protected Integer load(AtomicReader reader) throws IOException {
+                loads.incrementAndGet();
+                if (reader.getCoreCacheKey() == slowKey) {
+                    loading.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                }
+                return reader.maxDoc();
+            }
+        };
+        try {
+            assertEquals(3, (int) cache.get(leaves.get(0)));
+            // two threads ask for the slow segment, only the first one loads it.
+            final AtomicInteger results = new AtomicInteger(0);
+            Thread[] slow = new Thread[2];
+            for (int i = 0; i < slow.length; i++) {
+                slow[i] = new Thread() {
+                    public void run() {
+                        try {
+                            results.addAndGet(cache.get(leaves.get(1)));
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                        }
+                    }
+                };
+                slow[i].start();
+            }
+            assertTrue(loading.await(10, TimeUnit.SECONDS));
+            // the cached segment can be read while the other one is loading.
+            final AtomicInteger cached = new AtomicInteger(0);
+            Thread fast = new Thread() {
+                public void run() {
+                    try {
+                        cached.set(cache.get(leaves.get(0)));
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            };
+            fast.start();
+            fast.join(10000);
+            assertFalse(fast.isAlive());
+            assertEquals(3, cached.get());
+            release.countDown();
+            for (Thread thread : slow) thread.join(10000);
+            assertEquals(6, results.get());
+            assertEquals(2, loads.get());
+            assertEquals(2, cache.size());
+        } finally {
+            release.countDown();
+            reader.close();
+        }
+        // closing the reader removes the entries.
+        assertEquals(0, cache.size());
+    }
+}
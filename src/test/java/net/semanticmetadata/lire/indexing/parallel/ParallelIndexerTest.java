@@ -0,0 +1,210 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ * Updated: 18.10.26 16:39
+ */
+
+package net.semanticmetadata.lire.indexing.parallel;
+
+import junit.framework.TestCase;
+import net.semanticmetadata.lire.DocumentBuilder;
+import net.semanticmetadata.lire.imageanalysis.CEDD;
+import net.semanticmetadata.lire.imageanalysis.ColorLayout;
+import net.semanticmetadata.lire.imageanalysis.PHOG;
+import net.semanticmetadata.lire.impl.ChainedDocumentBuilder;
+import net.semanticmetadata.lire.impl.GenericDocumentBuilder;
+import net.semanticmetadata.lire.indexing.IndexingJournal;
+import net.semanticmetadata.lire.utils.FileUtils;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.FSDirectory;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Map;
+
+public class ParallelIndexerTest extends TestCase {
+    private String imageDirectory = "./src/test/resources/images/";
+    private File indexPath = new File("./test-parallel-idx");
+
+    @Override
+    protected void tearDown() throws Exception {
+        File[] files = indexPath.listFiles();
+        if (files != null) for (File file : files) file.delete();
+        indexPath.delete();
+    }
+
+    public void testPipeline() throws IOException {
+        ParallelIndexer indexer = new ParallelIndexer(4, indexPath.getPath(), imageDirectory, true) {
+            @Override
+            public void addBuilders(ChainedDocumentBuilder builder) {
+                builder.addBuilder(new GenericDocumentBuilder(CEDD.class, true));
+                builder.addBuilder(new GenericDocumentBuilder(ColorLayout.class));
+                builder.addBuilder(new GenericDocumentBuilder(PHOG.class));
+            }
+        };
+        // tiny buffers, so every stage has to wait for the next one.
+        indexer.setBufferSizes(64 * 1024, 4 * 1024 * 1024, 1024);
+        indexer.setStageThreads(2, 2, 2);
+        indexer.setBatchSize(3);
+        indexer.setForceMerge(false);
+        indexer.run();
+        assertTrue(indexer.hasEnded());
+
+        int numFiles = FileUtils.getAllImages(new File(imageDirectory), true).size();
+        assertEquals(numFiles, indexer.getIndexedCount() + indexer.getFailedCount());
+
+        ChainedDocumentBuilder builder = new ChainedDocumentBuilder();
+        builder.addBuilder(new GenericDocumentBuilder(CEDD.class, true));
+        builder.addBuilder(new GenericDocumentBuilder(ColorLayout.class));
+        builder.addBuilder(new GenericDocumentBuilder(PHOG.class));
+        IndexReader reader = DirectoryReader.open(FSDirectory.open(indexPath));
+        assertEquals(indexer.getIndexedCount(), reader.numDocs());
+        for (int i = 0; i < reader.maxDoc(); i++) {
+            Document d = reader.document(i);
+            String fileName = d.getValues(DocumentBuilder.FIELD_NAME_IDENTIFIER)[0];
+            FileInputStream in = new FileInputStream(fileName);
+            BufferedImage img = ImageIO.read(in);
+            in.close();
+            Document expected = builder.createDocument(img, fileName);
+            for (String field : new String[]{DocumentBuilder.FIELD_NAME_CEDD, DocumentBuilder.FIELD_NAME_COLORLAYOUT, DocumentBuilder.FIELD_NAME_PHOG}) {
+                assertEquals(fileName + " " + field, expected.getBinaryValue(field), d.getBinaryValue(field));
+            }
+            assertEquals(expected.get(DocumentBuilder.FIELD_NAME_CEDD + GenericDocumentBuilder.HASH_FIELD_SUFFIX), d.get(DocumentBuilder.FIELD_NAME_CEDD + GenericDocumentBuilder.HASH_FIELD_SUFFIX));
+        }
+        reader.close();
+    }
+
+    public void testResume() throws IOException {
+        int numFiles = FileUtils.getAllImages(new File(imageDirectory), true).size();
+        ParallelIndexer indexer = createCheckpointIndexer();
+        indexer.run();
+        int indexed = indexer.getIndexedCount(), failed = indexer.getFailedCount();
+        assertEquals(numFiles, indexed + failed);
+        Map<String, String> commitData = IndexingJournal.getCommitData(FSDirectory.open(indexPath));
+        assertEquals(Integer.toString(numFiles), commitData.get(IndexingJournal.POSITION));
+        assertEquals(new File(imageDirectory).getCanonicalPath(), commitData.get(IndexingJournal.SOURCE));
+        if (indexer.getFailedCount() > 0) assertTrue(new File(indexPath, "failures.log").length() > 0);
+
+        // pretend the first run crashed right at the start, after some documents had been added already.
+        IndexWriter iw = new IndexWriter(FSDirectory.open(indexPath), new org.apache.lucene.index.IndexWriterConfig(
+                net.semanticmetadata.lire.utils.LuceneUtils.LUCENE_VERSION, new org.apache.lucene.analysis.standard.StandardAnalyzer()));
+        IndexReader reader = DirectoryReader.open(iw, true);
+        for (int i = 0; i < reader.maxDoc() / 2; i++) {
+            iw.deleteDocuments(new Term(DocumentBuilder.FIELD_NAME_IDENTIFIER, reader.document(i).get(DocumentBuilder.FIELD_NAME_IDENTIFIER)));
+        }
+        reader.close();
+        iw.setCommitData(java.util.Collections.<String, String>emptyMap());
+        iw.close();
+
+        indexer = createCheckpointIndexer();
+        indexer.run();
+        // the failed files are in the failure log and are skipped as well.
+        assertEquals(indexed - indexed / 2 + failed, indexer.getSkippedCount());
+        reader = DirectoryReader.open(FSDirectory.open(indexPath));
+        assertEquals(indexed, reader.numDocs());
+        reader.close();
+
+        // resuming a complete run does not do anything.
+        indexer = createCheckpointIndexer();
+        indexer.run();
+        assertEquals(0, indexer.getIndexedCount() + indexer.getSkippedCount());
+    }
+
+    public void testResumeFailureLog() throws IOException {
+        // three images and a file which cannot be decoded.
+        File images = new File("./test-parallel-images");
+        images.mkdirs();
+        try {
+            File[] files = new File(imageDirectory).listFiles();
+            Arrays.sort(files);
+            for (int i = 0; i < 3; i++) {
+                Files.copy(files[i].toPath(), new File(images, files[i].getName()).toPath());
+            }
+            Files.write(new File(images, "broken.jpg").toPath(), new byte[]{(byte) 0xff, (byte) 0xd8, 1, 2, 3});
+            File failureLog = new File(indexPath, "failures.log");
+
+            ParallelIndexer indexer = createCheckpointIndexer(images.getPath());
+            indexer.run();
+            assertEquals(3, indexer.getIndexedCount());
+            assertEquals(1, indexer.getFailedCount());
+            assertEquals(1, Files.readAllLines(failureLog.toPath(), StandardCharsets.UTF_8).size());
+
+            // pretend the run crashed before the first checkpoint, so it starts over.
+            IndexWriter iw = new IndexWriter(FSDirectory.open(indexPath), new org.apache.lucene.index.IndexWriterConfig(
+                    net.semanticmetadata.lire.utils.LuceneUtils.LUCENE_VERSION, new org.apache.lucene.analysis.standard.StandardAnalyzer()));
+            iw.setCommitData(java.util.Collections.<String, String>emptyMap());
+            iw.commit();
+            iw.close();
+
+            indexer = createCheckpointIndexer(images.getPath());
+            indexer.run();
+            assertEquals(0, indexer.getFailedCount());
+            assertEquals(4, indexer.getSkippedCount());
+            assertEquals(1, Files.readAllLines(failureLog.toPath(), StandardCharsets.UTF_8).size());
+        } finally {
+            File[] files = images.listFiles();
+            if (files != null) for (File file : files) file.delete();
+            images.delete();
+        }
+    }
+
+    private ParallelIndexer createCheckpointIndexer() {
+        return createCheckpointIndexer(imageDirectory);
+    }
+
+    private ParallelIndexer createCheckpointIndexer(String imageDirectory) {
+        ParallelIndexer indexer = new ParallelIndexer(2, indexPath.getPath(), imageDirectory) {
+            @Override
+            public void addBuilders(ChainedDocumentBuilder builder) {
+                builder.addBuilder(new GenericDocumentBuilder(CEDD.class));
+            }
+        };
+        indexer.setCheckpointInterval(1);
+        return indexer;
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ * Updated: 18.10.26 17:24
+ */
+
+package net.semanticmetadata.lire.utils;
+
+import junit.framework.TestCase;
+
+import javax.imageio.*;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.zip.CRC32;
+
+public class ImageDecoderTest extends TestCase {
+    private byte[] createJpeg(int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D g = image.createGraphics();
+        g.setPaint(new GradientPaint(0, 0, Color.RED, width, height, Color.BLUE));
+        g.fillRect(0, 0, width, height);
+        g.setColor(Color.YELLOW);
+        g.fillOval(width / 4, height / 4, width / 2, height / 2);
+        g.dispose();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", out);
+        return out.toByteArray();
+    }
+
+    public void testSubsampling() throws IOException {
+        byte[] data = createJpeg(3000, 2000);
+        DecodedImage decoded = new ImageDecoder(1024).decode(data);
+        assertEquals(3000, decoded.getOriginalWidth());
+        assertEquals(2000, decoded.getOriginalHeight());
+        assertEquals(2, decoded.getSubsampling());
+        // same size as when the full image is scaled down.
+        BufferedImage scaled = ImageUtils.scaleImage(ImageIO.read(new ByteArrayInputStream(data)), 1024);
+        assertEquals(scaled.getWidth(), decoded.getImage().getWidth());
+        assertEquals(scaled.getHeight(), decoded.getImage().getHeight());
+        assertEquals(1024 / 3000d, decoded.getScale(), 1e-9);
+
+        decoded = new ImageDecoder(100).decode(data);
+        assertEquals(30, decoded.getSubsampling());
+        assertEquals(100, decoded.getImage().getWidth());
+        assertEquals(67, decoded.getImage().getHeight());
+        assertEquals(1, ImageDecoder.getSubsampling(3000, 2000, 0));
+        assertEquals(1, ImageDecoder.getSubsampling(800, 600, 1024));
+    }
+
+    public void testOriginalSize() throws IOException {
+        for (File file : new File("./src/test/resources/images/").listFiles()) {
+            BufferedImage expected = ImageIO.read(file);
+            if (expected == null) continue;
+            DecodedImage decoded = new ImageDecoder(0).decode(file);
+            assertEquals(1, decoded.getSubsampling());
+            assertEquals(1d, decoded.getScale());
+            assertEquals(expected.getWidth(), decoded.getImage().getWidth());
+            assertEquals(expected.getHeight(), decoded.getImage().getHeight());
+            for (int y = 0; y < expected.getHeight(); y += 5) {
+                for (int x = 0; x < expected.getWidth(); x += 5) {
+                    assertEquals(expected.getRGB(x, y), decoded.getImage().getRGB(x, y));
+                }
+            }
+        }
+        assertNull(new ImageDecoder(100).decode("no image".getBytes()));
+    }
+
+    private byte[] createPng(int width, int height) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "png", out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Sets the size in the IHDR chunk of a PNG, which directly follows the 8 byte signature.
+     */
+    private void setPngSize(byte[] png, int width, int height) {
+        for (int i = 0; i < 4; i++) {
+            png[16 + i] = (byte) (width >>> (24 - 8 * i));
+            png[20 + i] = (byte) (height >>> (24 - 8 * i));
+        }
+        CRC32 crc = new CRC32();
+        crc.update(png, 12, 17);
+        long value = crc.getValue();
+        for (int i = 0; i < 4; i++) png[29 + i] = (byte) (value >>> (24 - 8 * i));
+    }
+
+    public void testPixelLimit() throws IOException {
+        // a header announcing 20000x20000 pixels, which must be rejected before any raster is allocated.
+        byte[] png = createPng(64, 64);
+        setPngSize(png, 20000, 20000);
+        ImageDecoder decoder = new ImageDecoder(0);
+        decoder.setPixelLimit(ImageDecoder.DEFAULT_PIXEL_LIMIT, true);
+        try {
+            decoder.decode(png);
+            fail("image exceeding the pixel limit decoded.");
+        } catch (IIOException e) {
+            // expected
+        }
+        assertEquals(1, decoder.getStatistics().get("png").getRejected());
+        assertEquals(1, decoder.getStatistics().get("png").getFailed());
+
+        // without rejecting the image is subsampled to stay within the limit.
+        byte[] jpeg = createJpeg(3000, 2000);
+        decoder.setPixelLimit(1000000, false);
+        DecodedImage decoded = decoder.decode(jpeg);
+        assertEquals(3, decoded.getSubsampling());
+        assertEquals(1000, decoded.getImage().getWidth());
+        assertEquals(667, decoded.getImage().getHeight());
+        assertTrue(decoded.getImage().getWidth() * decoded.getImage().getHeight() <= 1000000);
+        assertEquals(1, decoder.getStatistics().get("jpeg").getDecoded());
+        assertTrue(decoder.getStatistics().get("jpeg").getDecodingTime() > 0);
+    }
+
+    public void testFallbacks() throws IOException {
+        // destroy the image data of a PNG but keep its header.
+        byte[] png = createPng(64, 64);
+        for (int i = 41; i < png.length - 12; i++) png[i] = (byte) 0x55;
+        ImageDecoder decoder = new ImageDecoder(0);
+        decoder.getFallbacks().clear();
+        try {
+            decoder.decode(png);
+            fail("corrupt image decoded.");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(1, decoder.getStatistics().get("png").getFailed());
+        final int[] calls = new int[1];
+        decoder.getFallbacks().add(new ImageDecoder.Fallback() {
+            public BufferedImage decode(byte[] data, String format, int subsampling) {
+                calls[0]++;
+                assertEquals("png", format);
+                return new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB);
+            }
+        });
+        assertEquals(8, decoder.decode(png).getImage().getWidth());
+        assertEquals(1, calls[0]);
+        assertEquals(1, decoder.getStatistics().get("png").getDecodedByFallback());
+        // the pooled reader still works after the failures.
+        assertEquals(64, decoder.decode(createPng(64, 64)).getImage().getWidth());
+        assertEquals(1, calls[0]);
+    }
+
+    public void testCmykJpeg() throws IOException {
+        WritableRaster raster = Raster.createInterleavedRaster(DataBuffer.TYPE_BYTE, 64, 48, 4, null);
+        for (int y = 0; y < 48; y++) {
+            for (int x = 0; x < 64; x++) raster.setPixel(x, y, new int[]{200, 0, 0, 0});
+        }
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageOutputStream output = ImageIO.createImageOutputStream(out);
+        writer.setOutput(output);
+        writer.write(null, new IIOImage(raster, null, null), null);
+        output.close();
+        writer.dispose();
+        BufferedImage image = ImageDecoder.CMYK_JPEG.decode(out.toByteArray(), "jpeg", 2);
+        assertEquals(32, image.getWidth());
+        assertEquals(24, image.getHeight());
+        // lots of cyan.
+        int rgb = image.getRGB(16, 12);
+        assertTrue((rgb >> 16 & 0xff) < 80);
+        assertTrue((rgb >> 8 & 0xff) > 180);
+        assertTrue((rgb & 0xff) > 180);
+        assertNull(ImageDecoder.CMYK_JPEG.decode(createJpeg(64, 48), "jpeg", 1));
+    }
+}